@@ -709,6 +709,32 @@ public interface WebContainer extends HttpService {
 	 */
 	void end(HttpContext httpContext);
 
+	/**
+	 * Like {@link #begin(HttpContext)}, but the context is started as standby
+	 * next to the context currently serving the same context name: it gets no
+	 * request until {@link #activate(HttpContext, long)} is called.
+	 * 
+	 * @param httpContext
+	 * @return false if the web container can't run two contexts with the same
+	 *         name side by side; nothing was done then and
+	 *         {@link #begin(HttpContext)} has to be used
+	 */
+	boolean beginStandby(HttpContext httpContext);
+
+	/**
+	 * Atomically routes the requests of its context name to a context started
+	 * with {@link #beginStandby(HttpContext)}, then waits for the requests
+	 * still handled by the contexts it replaced.
+	 * 
+	 * @param httpContext
+	 * @param timeout
+	 *            maximum time to wait for the replaced contexts, in
+	 *            milliseconds
+	 * @return false if the replaced contexts were still handling requests
+	 *         after the timeout
+	 */
+	boolean activate(HttpContext httpContext, long timeout);
+
 	
 	/**
 	 * Creates a default implementation of a SharedWebContainerContext
@@ -105,6 +105,22 @@ public interface WebContainerConstants {
 	String PROPERTY_LOG_NCSA_LATENCY = "org.ops4j.pax.web.log.ncsa.latency";
 	String PROPERTY_LOG_NCSA_COOKIES = "org.ops4j.pax.web.log.ncsa.cookies";
 	String PROPERTY_LOG_NCSA_SERVER = "org.ops4j.pax.web.log.ncsa.server";
+
+	/**
+	 * Number of requests buffered by the access log until they are written.
+	 */
+	String PROPERTY_LOG_NCSA_BUFFER = "org.ops4j.pax.web.log.ncsa.buffer";
+
+	/**
+	 * What to do when the access log buffer is full: block or drop.
+	 */
+	String PROPERTY_LOG_NCSA_OVERFLOW = "org.ops4j.pax.web.log.ncsa.overflow";
+
+	/**
+	 * Write the access log as one JSON object per request instead of NCSA
+	 * lines.
+	 */
+	String PROPERTY_LOG_NCSA_JSON = "org.ops4j.pax.web.log.ncsa.json";
 	
 	String PROPERTY_VIRTUAL_HOST_LIST = "org.ops4j.pax.web.default.virtualhosts";
 	String PROPERTY_CONNECTOR_LIST = "org.ops4j.pax.web.default.connectors";
@@ -115,6 +131,18 @@ public interface WebContainerConstants {
 	String PROPERTY_MIN_THREADS = "org.ops4j.pax.web.server.minThreads";
 
 	String PROPERTY_IDLE_TIMEOUT = "org.ops4j.pax.web.server.idleTimeout";
+
+	/**
+	 * Capacity of the per-listener queues used to dispatch servlet and web
+	 * events.
+	 */
+	String PROPERTY_EVENT_QUEUE_CAPACITY = "org.ops4j.pax.web.events.queue.capacity";
+
+	/**
+	 * What to do when a listener event queue is full: block, drop_newest or
+	 * drop_oldest.
+	 */
+	String PROPERTY_EVENT_QUEUE_OVERFLOW = "org.ops4j.pax.web.events.queue.overflow";
 	
 	/**
 	 * Servlet context attribute containing the bundle context of the bundle
@@ -0,0 +1,397 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class level annotations and supertypes of the classes of one revision of a
+ * bundle. The class files on the bundle class path are read once with ASM,
+ * without loading them, and queries are answered with class names, so only
+ * the classes which are actually used get loaded.
+ * <p>
+ * The revision is identified by the last modification time of the bundle.
+ * The index of the current revision is shared through {@link #get(Bundle)},
+ * and it can be written to a file and read back, so an unchanged bundle is
+ * not scanned again after a restart.
+ * <p>
+ * ASM is an optional import of this bundle, only the bundles which scan
+ * classes, like the war extender and Jetty, require it.
+ */
+public class AnnotationIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AnnotationIndex.class);
+
+	private static final int FORMAT = 1;
+
+	private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE
+			| ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+	/**
+	 * Indexes shared by the bundles scanning the same bundle, like the war
+	 * extender and the web container deploying it.
+	 */
+	private static final Map<Bundle, AnnotationIndex> SHARED = Collections
+			.synchronizedMap(new WeakHashMap<Bundle, AnnotationIndex>());
+
+	private final long revision;
+
+	/**
+	 * Super class, null for java.lang.Object, followed by the interfaces of
+	 * each class.
+	 */
+	private final Map<String, String[]> supertypes = new LinkedHashMap<String, String[]>();
+
+	private final Map<String, Set<String>> annotatedClasses = new HashMap<String, Set<String>>();
+
+	/**
+	 * Direct subtypes of each type, built on first use, guarded by this.
+	 */
+	private Map<String, Set<String>> subtypes;
+
+	AnnotationIndex(long revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * Gets the index of the current revision of a bundle, the bundle is only
+	 * scanned if no index of this revision was shared yet.
+	 * 
+	 * @param bundle
+	 *            bundle to scan
+	 * @return the index of the current revision of the bundle
+	 */
+	public static AnnotationIndex get(Bundle bundle) {
+		AnnotationIndex index = SHARED.get(bundle);
+		if (index == null || !index.isCurrent(bundle)) {
+			index = scan(bundle);
+			share(bundle, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Shares an index, e.g. one read from a file, with the later calls of
+	 * {@link #get(Bundle)}.
+	 * 
+	 * @param bundle
+	 *            the indexed bundle
+	 * @param index
+	 *            index of the current revision of the bundle
+	 */
+	public static void share(Bundle bundle, AnnotationIndex index) {
+		SHARED.put(bundle, index);
+	}
+
+	/**
+	 * Reads all class files on the class path of a bundle.
+	 * 
+	 * @param bundle
+	 *            bundle to scan
+	 * @return the index of the current revision of the bundle
+	 */
+	public static AnnotationIndex scan(Bundle bundle) {
+		AnnotationIndex index = new AnnotationIndex(bundle.getLastModified());
+		BundleWiring wiring = bundle.adapt(BundleWiring.class);
+		if (wiring == null) {
+			LOG.warn("Bundle {} is not resolved, its classes are not scanned", bundle);
+			return index;
+		}
+		Collection<String> resources = wiring.listResources("/", "*.class",
+				BundleWiring.LISTRESOURCES_LOCAL | BundleWiring.LISTRESOURCES_RECURSE);
+		for (String resource : resources) {
+			if (resource.endsWith("-info.class")) {
+				// package-info and module-info
+				continue;
+			}
+			URL url = bundle.getResource(resource);
+			if (url == null) {
+				continue;
+			}
+			try (InputStream in = url.openStream()) {
+				index.add(in);
+			} catch (IOException | RuntimeException e) {
+				// ASM fails on class file versions it doesn't know
+				LOG.warn("Can't scan class file " + resource + " of bundle " + bundle, e);
+			}
+		}
+		LOG.debug("Scanned {} classes of bundle {}", index.supertypes.size(), bundle);
+		return index;
+	}
+
+	/**
+	 * Reads an index written by {@link #write(File)}.
+	 * 
+	 * @param file
+	 *            file holding the index
+	 * @return the index, or null if it was written in another format
+	 */
+	public static AnnotationIndex read(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			if (in.readInt() != FORMAT) {
+				return null;
+			}
+			AnnotationIndex index = new AnnotationIndex(in.readLong());
+			int classCount = in.readInt();
+			for (int i = 0; i < classCount; i++) {
+				String className = in.readUTF();
+				String[] types = new String[in.readInt()];
+				for (int j = 0; j < types.length; j++) {
+					types[j] = in.readUTF();
+				}
+				if (types[0].isEmpty()) {
+					types[0] = null;
+				}
+				index.supertypes.put(className, types);
+			}
+			int annotationCount = in.readInt();
+			for (int i = 0; i < annotationCount; i++) {
+				String annotation = in.readUTF();
+				int count = in.readInt();
+				Set<String> classNames = new LinkedHashSet<String>();
+				for (int j = 0; j < count; j++) {
+					classNames.add(in.readUTF());
+				}
+				index.annotatedClasses.put(annotation, classNames);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Writes the index to a file, replacing it once completely written.
+	 * 
+	 * @param file
+	 *            file to write
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(temporary)))) {
+			out.writeInt(FORMAT);
+			out.writeLong(revision);
+			out.writeInt(supertypes.size());
+			for (Map.Entry<String, String[]> entry : supertypes.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				for (String type : entry.getValue()) {
+					out.writeUTF(type == null ? "" : type);
+				}
+			}
+			out.writeInt(annotatedClasses.size());
+			for (Map.Entry<String, Set<String>> entry : annotatedClasses.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (String className : entry.getValue()) {
+					out.writeUTF(className);
+				}
+			}
+		}
+		if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+			temporary.delete();
+			throw new IOException("Can't replace " + file);
+		}
+	}
+
+	/**
+	 * @return true if the bundle did not change since it was scanned
+	 */
+	public boolean isCurrent(Bundle bundle) {
+		return bundle.getLastModified() == revision;
+	}
+
+	public int getClassCount() {
+		return supertypes.size();
+	}
+
+	/**
+	 * @param annotation
+	 *            class name of the annotation
+	 * @return the names of the classes annotated with it
+	 */
+	public Set<String> getAnnotatedClasses(String annotation) {
+		Set<String> classNames = annotatedClasses.get(annotation);
+		if (classNames == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(classNames);
+	}
+
+	/**
+	 * @param type
+	 *            class name of a class or interface
+	 * @return the names of the indexed classes and interfaces extending or
+	 *         implementing it, directly or through other indexed types
+	 */
+	public Set<String> getSubtypes(String type) {
+		Map<String, Set<String>> directSubtypes = getDirectSubtypes();
+		Set<String> classNames = new LinkedHashSet<String>();
+		Deque<String> pending = new ArrayDeque<String>();
+		pending.add(type);
+		while (!pending.isEmpty()) {
+			Set<String> direct = directSubtypes.get(pending.poll());
+			if (direct != null) {
+				for (String className : direct) {
+					if (classNames.add(className)) {
+						pending.add(className);
+					}
+				}
+			}
+		}
+		return classNames;
+	}
+
+	/**
+	 * @return the names of the supertypes of indexed classes which are not
+	 *         indexed themselves, like the classes of the bundles imported by
+	 *         a web application
+	 */
+	public Set<String> getExternalSupertypes() {
+		Set<String> external = new LinkedHashSet<String>(getDirectSubtypes().keySet());
+		external.removeAll(supertypes.keySet());
+		return external;
+	}
+
+	/**
+	 * Loads the classes matching a type of {@code @HandlesTypes}.
+	 * 
+	 * @param bundle
+	 *            the indexed bundle, loading the classes
+	 * @param type
+	 *            annotation, interface or class of a {@code @HandlesTypes}
+	 * @return the classes annotated with, implementing or extending the type
+	 */
+	public Set<Class<?>> getHandledClasses(Bundle bundle, Class<?> type) {
+		Set<String> classNames;
+		if (type.isAnnotation()) {
+			classNames = getAnnotatedClasses(type.getName());
+		} else {
+			classNames = new LinkedHashSet<String>(getSubtypes(type.getName()));
+			// the type may be reached through supertypes outside of the
+			// bundle, only those are loaded to find out
+			for (String external : getExternalSupertypes()) {
+				if (!external.equals(type.getName()) && isAssignable(bundle, type, external)) {
+					classNames.addAll(getSubtypes(external));
+				}
+			}
+		}
+		Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+		for (String className : classNames) {
+			try {
+				classes.add(bundle.loadClass(className));
+			} catch (ClassNotFoundException | LinkageError e) {
+				LOG.debug("Can't load class {} of type {}", className, type.getName());
+			}
+		}
+		return classes;
+	}
+
+	private static boolean isAssignable(Bundle bundle, Class<?> type, String className) {
+		try {
+			return type.isAssignableFrom(bundle.loadClass(className));
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	private synchronized Map<String, Set<String>> getDirectSubtypes() {
+		if (subtypes == null) {
+			subtypes = new HashMap<String, Set<String>>();
+			for (Map.Entry<String, String[]> entry : supertypes.entrySet()) {
+				for (String type : entry.getValue()) {
+					if (type == null) {
+						continue;
+					}
+					Set<String> direct = subtypes.get(type);
+					if (direct == null) {
+						direct = new LinkedHashSet<String>();
+						subtypes.put(type, direct);
+					}
+					direct.add(entry.getKey());
+				}
+			}
+		}
+		return subtypes;
+	}
+
+	void add(InputStream classFile) throws IOException {
+		new ClassReader(classFile).accept(new IndexingVisitor(), PARSING_OPTIONS);
+	}
+
+	private final class IndexingVisitor extends ClassVisitor {
+
+		private String className;
+
+		IndexingVisitor() {
+			super(Opcodes.ASM5);
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature,
+				String superName, String[] interfaces) {
+			className = Type.getObjectType(name).getClassName();
+			String[] types = new String[1 + (interfaces == null ? 0 : interfaces.length)];
+			types[0] = superName == null ? null : Type.getObjectType(superName).getClassName();
+			for (int i = 1; i < types.length; i++) {
+				types[i] = Type.getObjectType(interfaces[i - 1]).getClassName();
+			}
+			supertypes.put(className, types);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			String annotation = Type.getType(desc).getClassName();
+			Set<String> classNames = annotatedClasses.get(annotation);
+			if (classNames == null) {
+				classNames = new LinkedHashSet<String>();
+				annotatedClasses.put(annotation, classNames);
+			}
+			classNames.add(className);
+			return null;
+		}
+	}
+
+}
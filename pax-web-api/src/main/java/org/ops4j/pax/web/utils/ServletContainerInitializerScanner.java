@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the {@code javax.servlet.ServletContainerInitializer}s declared in
+ * {@code META-INF/services} of the bundles in a class space.
+ * <p>
+ * The initializers a bundle declares are read once per bundle revision and
+ * the class space of a bundle is walked once per bundle wiring, so deploying
+ * a context only costs the lookups of the bundles it is wired to. Updating or
+ * refreshing a bundle creates a new revision and wiring, the old entries are
+ * dropped once the framework releases them.
+ */
+public final class ServletContainerInitializerScanner {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(ServletContainerInitializerScanner.class);
+
+	private static final String SERVICES = "/META-INF/services";
+
+	private static final String INITIALIZER = "javax.servlet.ServletContainerInitializer";
+
+	private static final Map<BundleRevision, List<String>> DECLARED = Collections
+			.synchronizedMap(new WeakHashMap<BundleRevision, List<String>>());
+
+	private static final Map<BundleWiring, Set<Bundle>> CLASS_SPACES = Collections
+			.synchronizedMap(new WeakHashMap<BundleWiring, Set<Bundle>>());
+
+	private ServletContainerInitializerScanner() {
+		// utility
+	}
+
+	/**
+	 * Gets the bundles imported or required by a bundle, like
+	 * {@link ClassPathUtil#getBundlesInClassSpace(Bundle, Set)}.
+	 * 
+	 * @param bundle
+	 *            the bundle for which to perform the lookup
+	 * 
+	 * @return unmodifiable set of imported and required bundles
+	 */
+	public static Set<Bundle> getBundlesInClassSpace(Bundle bundle) {
+		BundleWiring wiring = bundle.adapt(BundleWiring.class);
+		if (wiring == null) {
+			return ClassPathUtil.getBundlesInClassSpace(bundle,
+					new LinkedHashSet<Bundle>());
+		}
+		Set<Bundle> bundles = CLASS_SPACES.get(wiring);
+		if (bundles == null) {
+			bundles = Collections.unmodifiableSet(ClassPathUtil
+					.getBundlesInClassSpace(bundle, new LinkedHashSet<Bundle>()));
+			CLASS_SPACES.put(wiring, bundles);
+		}
+		return bundles;
+	}
+
+	/**
+	 * Finds the initializers declared by the given bundles, each class name
+	 * only once.
+	 * 
+	 * @param bundles
+	 *            bundles to look in, in order
+	 * 
+	 * @return the class names of the initializers with the first bundle
+	 *         declaring them, in the order of the bundles
+	 */
+	public static Map<String, Bundle> findServletContainerInitializers(
+			Collection<Bundle> bundles) {
+		Map<String, Bundle> initializers = new LinkedHashMap<String, Bundle>();
+		for (Bundle bundle : bundles) {
+			if (bundle.getState() == Bundle.UNINSTALLED) {
+				continue;
+			}
+			for (String className : getDeclaredInitializers(bundle)) {
+				if (!initializers.containsKey(className)) {
+					initializers.put(className, bundle);
+				}
+			}
+		}
+		return initializers;
+	}
+
+	private static List<String> getDeclaredInitializers(Bundle bundle) {
+		BundleRevision revision = bundle.adapt(BundleRevision.class);
+		BundleWiring wiring = bundle.adapt(BundleWiring.class);
+		if (revision == null || wiring == null) {
+			// not resolved, there is nothing to load the initializers from
+			return Collections.emptyList();
+		}
+		List<String> classNames = DECLARED.get(revision);
+		if (classNames == null) {
+			classNames = Collections.unmodifiableList(readDeclaredInitializers(
+					bundle, wiring));
+			DECLARED.put(revision, classNames);
+		}
+		return classNames;
+	}
+
+	private static List<String> readDeclaredInitializers(Bundle bundle,
+			BundleWiring wiring) {
+		List<String> classNames = new ArrayList<String>();
+		Collection<String> resources = wiring.listResources(SERVICES,
+				INITIALIZER, BundleWiring.LISTRESOURCES_LOCAL);
+		if (resources == null) {
+			return classNames;
+		}
+		for (String resource : resources) {
+			try {
+				// every jar on the Bundle-ClassPath may declare initializers
+				Enumeration<URL> urls = bundle.getResources(resource);
+				while (urls != null && urls.hasMoreElements()) {
+					readClassNames(urls.nextElement(), classNames);
+				}
+			} catch (IOException e) {
+				LOG.warn("Problem reading " + resource + " of bundle "
+						+ bundle.getSymbolicName(), e);
+			}
+		}
+		return classNames;
+	}
+
+	private static void readClassNames(URL url, List<String> classNames)
+			throws IOException {
+		try (InputStream is = url.openStream();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(
+						is, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				if (comment >= 0) {
+					line = line.substring(0, comment);
+				}
+				line = line.trim();
+				if (!line.isEmpty() && !classNames.contains(line)) {
+					classNames.add(line);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.utils;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class AnnotationIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void annotatedClassesAreFoundByName() {
+		AnnotationIndex index = AnnotationIndex.scan(bundle(1000L));
+
+		assertEquals(5, index.getClassCount());
+		assertEquals(Collections.singleton(AnnotatedServlet.class.getName()),
+				index.getAnnotatedClasses(WebServlet.class.getName()));
+		assertTrue(index.getAnnotatedClasses(WebFilter.class.getName()).isEmpty());
+	}
+
+	@Test
+	public void subtypesAreFoundTransitively() {
+		AnnotationIndex index = AnnotationIndex.scan(bundle(1000L));
+
+		assertEquals(new HashSet<String>(Arrays.asList(
+				AnnotatedServlet.class.getName(), SubServlet.class.getName())),
+				index.getSubtypes(HttpServlet.class.getName()));
+		assertEquals(new HashSet<String>(Arrays.asList(
+				Extension.class.getName(), Implementation.class.getName())),
+				index.getSubtypes(Marker.class.getName()));
+		assertTrue(index.getExternalSupertypes().contains(HttpServlet.class.getName()));
+		assertFalse(index.getExternalSupertypes().contains(Marker.class.getName()));
+	}
+
+	@Test
+	public void indexIsWrittenAndReadBack() throws IOException {
+		Bundle bundle = bundle(1000L);
+		AnnotationIndex index = AnnotationIndex.scan(bundle);
+		File file = new File(folder.getRoot(), "index");
+
+		index.write(file);
+		AnnotationIndex read = AnnotationIndex.read(file);
+
+		assertTrue(read.isCurrent(bundle));
+		assertFalse(read.isCurrent(bundle(2000L)));
+		assertEquals(index.getClassCount(), read.getClassCount());
+		assertEquals(index.getAnnotatedClasses(WebServlet.class.getName()),
+				read.getAnnotatedClasses(WebServlet.class.getName()));
+		assertEquals(index.getSubtypes(Marker.class.getName()),
+				read.getSubtypes(Marker.class.getName()));
+	}
+
+	@Test
+	public void sharedIndexIsUsedWhileCurrent() {
+		Bundle bundle = bundle(1000L);
+		AnnotationIndex index = AnnotationIndex.get(bundle);
+
+		assertSame(index, AnnotationIndex.get(bundle));
+
+		AnnotationIndex outdated = new AnnotationIndex(500L);
+		AnnotationIndex.share(bundle, outdated);
+		AnnotationIndex current = AnnotationIndex.get(bundle);
+
+		assertNotSame(outdated, current);
+		assertEquals(5, current.getClassCount());
+	}
+
+	@Test
+	public void otherFormatIsNotRead() throws IOException {
+		File file = folder.newFile();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[] { 0, 0, 0, 0 });
+		}
+
+		assertNull(AnnotationIndex.read(file));
+	}
+
+	private static Bundle bundle(long lastModified) {
+		List<String> resources = new ArrayList<String>();
+		for (Class<?> type : Arrays.asList(AnnotatedServlet.class, SubServlet.class,
+				Marker.class, Extension.class, Implementation.class)) {
+			resources.add(type.getName().replace('.', '/') + ".class");
+		}
+		BundleWiring wiring = createMock(BundleWiring.class);
+		expect(wiring.listResources("/", "*.class",
+				BundleWiring.LISTRESOURCES_LOCAL | BundleWiring.LISTRESOURCES_RECURSE))
+				.andReturn(resources).anyTimes();
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getLastModified()).andReturn(lastModified).anyTimes();
+		expect(bundle.adapt(BundleWiring.class)).andReturn(wiring).anyTimes();
+		for (String resource : resources) {
+			expect(bundle.getResource(resource)).andReturn(
+					AnnotationIndexTest.class.getClassLoader().getResource(resource)).anyTimes();
+		}
+		replay(wiring, bundle);
+		return bundle;
+	}
+
+	@WebServlet("/annotated")
+	public static class AnnotatedServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class SubServlet extends AnnotatedServlet {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public interface Marker {
+	}
+
+	public interface Extension extends Marker {
+	}
+
+	public static class Implementation implements Extension {
+	}
+
+}
@@ -16,6 +16,11 @@
  */
 package org.ops4j.pax.web.deployer.internal;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -86,6 +91,33 @@ public final class DeployerUtils {
 		}
 	}
 
+	/**
+	 * Checks if the given archive is a WAR which is not already an OSGi
+	 * bundle. Only the central directory and the manifest are read, the
+	 * archive is neither verified nor scanned.
+	 * 
+	 * @param archive
+	 *            the archive to inspect
+	 * @return true if the archive contains a WEB-INF/web.xml and has no
+	 *         Bundle-SymbolicName and Bundle-Version manifest headers
+	 * @throws IOException
+	 *             if the archive can't be read
+	 */
+	public static boolean isPlainWar(File archive) throws IOException {
+		JarFile jar = new JarFile(archive, false);
+		try {
+			if (jar.getEntry("WEB-INF/web.xml") == null) {
+				return false;
+			}
+			Manifest m = jar.getManifest();
+			return m == null
+					|| m.getMainAttributes().getValue(new Attributes.Name("Bundle-SymbolicName")) == null
+					|| m.getMainAttributes().getValue(new Attributes.Name("Bundle-Version")) == null;
+		} finally {
+			jar.close();
+		}
+	}
+
 	private static void cleanupModifier(StringBuilder result, String mod) {
 		Matcher m = FUZZY_MODIFIDER.matcher(mod);
 		String modifier = mod;
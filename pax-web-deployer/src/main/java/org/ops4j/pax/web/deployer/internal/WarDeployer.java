@@ -2,15 +2,24 @@ package org.ops4j.pax.web.deployer.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.fileinstall.ArtifactUrlTransformer;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,61 +41,97 @@ public class WarDeployer implements ArtifactUrlTransformer {
 	 */
 	private static final String PATH_SEPERATOR = "/";
 
-	public boolean canHandle(final File artifact) {
-		JarFile jar = null;
-		try {
-			if (artifact.isFile()) {
-				// if it's a file it needs to end with war
-				if (!artifact.getName().endsWith(".war")) {
-					return false;
-				}
+	/**
+	 * Framework property enabling the cache of transformed WABs. When set to
+	 * true, the bundle generated by the webbundle URL handler is stored in the
+	 * data area of this bundle and reused as long as the WAR is unchanged.
+	 */
+	static final String PROPERTY_WAB_CACHE = "org.ops4j.pax.web.deployer.wab.cache";
+
+	/**
+	 * Number of detections kept before removed artifacts are pruned.
+	 */
+	private static final int PRUNE_THRESHOLD = 64;
+
+	/**
+	 * Result of {@link #canHandle(File)} per artifact path, only valid for the
+	 * recorded size and modification time.
+	 */
+	private final Map<String, Detection> detections = new ConcurrentHashMap<>();
+
+	/**
+	 * Number of detections after which removed artifacts are pruned, doubled
+	 * with the artifacts still present to keep pruning amortized.
+	 */
+	private volatile int pruneThreshold = PRUNE_THRESHOLD;
+
+	/**
+	 * Directory holding transformed WABs, null if caching is disabled.
+	 */
+	private volatile File wabCache;
+
+	@Activate
+	protected void activate(BundleContext bundleContext) {
+		if (Boolean.parseBoolean(bundleContext.getProperty(PROPERTY_WAB_CACHE))) {
+			File cacheDir = bundleContext.getDataFile("wab-cache");
+			if (cacheDir != null && (cacheDir.isDirectory() || cacheDir.mkdirs())) {
+				wabCache = cacheDir;
+				LOG.info("Caching transformed WABs in {}", cacheDir);
 			} else {
-				// if it isn't a file it needs to end with .war.jar
-				if (!artifact.getName().endsWith(".war.jar")) {
-					return false;
-				}
+				LOG.warn("Can't create WAB cache directory, transformed WABs won't be cached");
 			}
+		}
+	}
 
-			jar = new JarFile(artifact);
-			JarEntry entry = jar.getJarEntry("WEB-INF/web.xml");
-			// Only handle WAR artifacts
-			if (entry == null) {
-				if (LOG.isDebugEnabled()) {
-					LOG.debug("No war file do not handle artifact:"
-							+ artifact.getName());
-				}
+	@Deactivate
+	protected void deactivate() {
+		wabCache = null;
+		detections.clear();
+		pruneThreshold = PRUNE_THRESHOLD;
+	}
+
+	public boolean canHandle(final File artifact) {
+		if (artifact.isFile()) {
+			// if it's a file it needs to end with war
+			if (!artifact.getName().endsWith(".war")) {
 				return false;
 			}
-			// Only handle non OSGi bundles
-			Manifest m = jar.getManifest();
-			if (m != null
-					&& m.getMainAttributes().getValue(
-							new Attributes.Name("Bundle-SymbolicName")) != null
-					&& m.getMainAttributes().getValue(
-							new Attributes.Name("Bundle-Version")) != null) {
-				if (LOG.isDebugEnabled()) {
-					LOG.debug("This artifact has OSGi Manifest Header skipping: "
-							+ artifact.getName());
-				}
+		} else {
+			// if it isn't a file it needs to end with .war.jar
+			if (!artifact.getName().endsWith(".war.jar")) {
 				return false;
 			}
-		//CHECKSTYLE:OFF	
-		} catch (Exception e) {
-			if (LOG.isTraceEnabled())
-				LOG.trace("Can't handle file " + artifact.getName(), e);
-			return false;
-		} finally {
-			if (jar != null) {
-				try {
-					jar.close();
-				} catch (IOException ignore) {
-					if (LOG.isDebugEnabled()) {
-						LOG.debug("failed to close war file", ignore);
-					}
+		}
+
+		final String path = artifact.getAbsolutePath();
+		final long size = artifact.length();
+		final long lastModified = artifact.lastModified();
+		Detection detection = detections.get(path);
+		if (detection == null || !detection.matches(size, lastModified)) {
+			boolean war;
+			try {
+				war = DeployerUtils.isPlainWar(artifact);
+				if (!war && LOG.isDebugEnabled()) {
+					LOG.debug("No war file or OSGi Manifest Header present, do not handle artifact:"
+							+ artifact.getName());
 				}
+			//CHECKSTYLE:OFF
+			} catch (Exception e) {
+				if (LOG.isTraceEnabled())
+					LOG.trace("Can't handle file " + artifact.getName(), e);
+				war = false;
+			}
+			//CHECKSTYLE:ON
+			detection = new Detection(size, lastModified, war);
+			if (detections.put(path, detection) == null && detections.size() > pruneThreshold) {
+				prune();
 			}
 		}
-		//CHECKSTYLE:ON
+		if (!detection.war) {
+			return false;
+		}
+
+		// not part of the cached result, the handler may show up later
 		try {
 			new URL("webbundle", null, artifact.toURI().toURL()
 					.toExternalForm());
@@ -138,13 +183,134 @@ public class WarDeployer implements ArtifactUrlTransformer {
 				url.append("Bundle-Version=").append(name[1]);
 
 				LOG.debug("Transformed URL of {} to following {}", path, url);
-				return new URL("webbundle", null, url.toString());
+				return cached(artifact, new URL("webbundle", null, url.toString()));
 			}
 		}
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("No path for given artifact, retry with webbundle prepended");
 		}
-		return new URL("webbundle", null, artifact.toExternalForm());
+		return cached(artifact, new URL("webbundle", null, artifact.toExternalForm()));
+	}
+
+	/**
+	 * Returns the cached WAB of the given WAR file, creating it from the
+	 * webbundle URL if needed. Falls back to the webbundle URL if caching is
+	 * disabled, the WAR is no plain file or the WAB can't be stored.
+	 */
+	private URL cached(final URL artifact, final URL webBundle) {
+		final File cacheDir = wabCache;
+		if (cacheDir == null || !"file".equalsIgnoreCase(artifact.getProtocol())) {
+			return webBundle;
+		}
+		try {
+			final File war = new File(artifact.toURI());
+			if (!war.isFile()) {
+				return webBundle;
+			}
+			final String prefix = cachePrefix(war.getAbsolutePath());
+			final String name = prefix + Long.toHexString(war.length()) + "-"
+					+ Long.toHexString(war.lastModified()) + "-"
+					+ digest(webBundle.toExternalForm()) + ".jar";
+			final File wab = new File(cacheDir, name);
+			if (!wab.isFile()) {
+				// the WAR changed, older WABs of it are of no use anymore
+				deleteCached(cacheDir, prefix);
+				final File tmp = File.createTempFile(prefix, ".tmp", cacheDir);
+				try (InputStream in = webBundle.openStream()) {
+					Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					Files.move(tmp.toPath(), wab.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(tmp.toPath());
+				}
+				LOG.debug("Stored WAB of {} in {}", artifact, wab);
+			} else {
+				LOG.debug("Using cached WAB {} for {}", wab, artifact);
+			}
+			return wab.toURI().toURL();
+		} catch (IOException | URISyntaxException | IllegalArgumentException e) {
+			LOG.warn("Can't cache WAB of {}, using webbundle URL", artifact, e);
+			return webBundle;
+		}
+	}
+
+	/**
+	 * Forgets the artifacts which were removed meanwhile, along with their
+	 * cached WABs.
+	 */
+	private void prune() {
+		final File cacheDir = wabCache;
+		for (Iterator<String> paths = detections.keySet().iterator(); paths.hasNext();) {
+			String path = paths.next();
+			if (new File(path).exists()) {
+				continue;
+			}
+			paths.remove();
+			if (cacheDir != null) {
+				try {
+					deleteCached(cacheDir, cachePrefix(path));
+				} catch (IOException e) {
+					LOG.warn("Can't delete cached WAB of {}", path, e);
+				}
+			}
+		}
+		pruneThreshold = Math.max(PRUNE_THRESHOLD, 2 * detections.size());
+	}
+
+	private static void deleteCached(File cacheDir, String prefix) throws IOException {
+		File[] stale = cacheDir.listFiles();
+		if (stale != null) {
+			for (File file : stale) {
+				if (file.getName().startsWith(prefix)) {
+					Files.deleteIfExists(file.toPath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return prefix of the names of the cached WABs of the WAR at the given
+	 *         path
+	 */
+	private static String cachePrefix(String path) {
+		return digest(path) + "-";
+	}
+
+	/**
+	 * @return hex encoded SHA-256 digest of the given text
+	 */
+	private static String digest(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			StringBuilder hex = new StringBuilder();
+			for (byte b : md.digest(text.getBytes(StandardCharsets.UTF_8))) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Outcome of the inspection of an artifact.
+	 */
+	private static final class Detection {
+
+		private final long size;
+		private final long lastModified;
+		private final boolean war;
+
+		private Detection(long size, long lastModified, boolean war) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.war = war;
+		}
+
+		private boolean matches(long size, long lastModified) {
+			return this.size == size && this.lastModified == lastModified;
+		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
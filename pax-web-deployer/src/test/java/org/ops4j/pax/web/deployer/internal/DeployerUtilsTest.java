@@ -4,8 +4,20 @@
 package org.ops4j.pax.web.deployer.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author Achim
@@ -13,6 +25,9 @@ import org.junit.Test;
  */
 public class DeployerUtilsTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	/**
 	 * Test method for
 	 * {@link org.ops4j.pax.web.deployer.internal.DeployerUtils#extractNameVersionType(java.lang.String)}
@@ -35,4 +50,26 @@ public class DeployerUtilsTest {
 
 	}
 
+	@Test
+	public void testIsPlainWar() throws IOException {
+		assertTrue(DeployerUtils.isPlainWar(createArchive("plain.war", "WEB-INF/web.xml", null)));
+		assertFalse(DeployerUtils.isPlainWar(createArchive("noweb.war", "index.html", null)));
+		assertFalse(DeployerUtils.isPlainWar(createArchive("bundle.war", "WEB-INF/web.xml", "wab")));
+	}
+
+	private File createArchive(String name, String entry, String symbolicName) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (symbolicName != null) {
+			manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+			manifest.getMainAttributes().putValue("Bundle-Version", "1.0.0");
+		}
+		File archive = folder.newFile(name);
+		try (JarOutputStream out = new JarOutputStream(new FileOutputStream(archive), manifest)) {
+			out.putNextEntry(new ZipEntry(entry));
+			out.closeEntry();
+		}
+		return archive;
+	}
+
 }
@@ -18,6 +18,10 @@
 package org.ops4j.pax.web.extender.war.internal;
 
 import java.util.Hashtable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ops4j.pax.web.extender.war.internal.extender.AbstractExtender;
 import org.ops4j.pax.web.extender.war.internal.extender.Extension;
@@ -25,18 +29,61 @@ import org.ops4j.pax.web.extender.war.internal.parser.WebAppParser;
 import org.ops4j.pax.web.service.spi.WarManager;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.Filter;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.ServiceRegistration;
-import org.osgi.service.packageadmin.PackageAdmin;
-import org.osgi.util.tracker.ServiceTracker;
 
 @SuppressWarnings("deprecation")
 public class Activator extends AbstractExtender {
 
-    private ServiceTracker<PackageAdmin, PackageAdmin> packageAdminTracker;
+    /**
+     * Framework property defining how many web applications are deployed in
+     * parallel. Defaults to the number of available processors.
+     */
+    private static final String PROPERTY_DEPLOYMENT_THREADS = "org.ops4j.pax.web.extender.war.threads";
+
+    /**
+     * Framework property enabling the compilation of all JSPs of a web
+     * application while it is deployed, instead of on first request.
+     */
+    private static final String PROPERTY_JSP_PRECOMPILE = "org.ops4j.pax.web.extender.war.jsp.precompile";
+
+    /**
+     * Framework property defining how many JSPs are compiled in parallel, over
+     * all web applications. Defaults to the number of available processors.
+     */
+    private static final String PROPERTY_JSP_PRECOMPILE_THREADS = "org.ops4j.pax.web.extender.war.jsp.precompile.threads";
+
+    /**
+     * Framework property enabling side by side upgrades: a web application
+     * bundle with the symbolic name of the one serving its context path is
+     * started next to it and takes the context path over once started, if the
+     * web container supports it.
+     */
+    private static final String PROPERTY_SIDE_BY_SIDE_UPGRADE = "org.ops4j.pax.web.extender.war.upgrade.sidebyside";
+
+    /**
+     * Framework property defining how long, in milliseconds, a side by side
+     * upgrade waits for the requests still handled by the upgraded web
+     * application. The upgrading one is reported as deployed, and the upgraded
+     * one unpublished, once they completed or the time is up. Defaults to
+     * 30000, 0 doesn't wait.
+     */
+    private static final String PROPERTY_UPGRADE_DRAIN_TIMEOUT = "org.ops4j.pax.web.extender.war.upgrade.drain.timeout";
+
+    /**
+     * Framework property defining how many web fragment descriptors are
+     * parsed in parallel, over all web applications. Defaults to the number of
+     * available processors.
+     */
+    private static final String PROPERTY_FRAGMENT_THREADS = "org.ops4j.pax.web.extender.war.fragments.threads";
+
     private WebObserver webObserver;
     private WebEventDispatcher webEventDispatcher;
     private ServiceRegistration<WarManager> registration;
+    private ExecutorService jspPrecompileExecutor;
+    private ExecutorService webFragmentExecutor;
+    private BundleListener indexCleaner;
 
     @Override
     protected void doStart() throws Exception {
@@ -46,15 +93,37 @@ public class Activator extends AbstractExtender {
 
         webEventDispatcher = new WebEventDispatcher(bundleContext);
 
-        Filter filterPackage = bundleContext.createFilter("(objectClass=org.osgi.service.packageadmin.PackageAdmin)");
-        packageAdminTracker = new ServiceTracker<PackageAdmin, PackageAdmin>(bundleContext, filterPackage, null);
-        packageAdminTracker.open();
-
         DefaultWebAppDependencyManager dependencyManager = new DefaultWebAppDependencyManager();
 
-        webObserver = new WebObserver(new WebAppParser(packageAdminTracker),
-                new WebAppPublisher(webEventDispatcher, bundleContext), webEventDispatcher, dependencyManager,
-                bundleContext);
+        if (Boolean.parseBoolean(bundleContext.getProperty(PROPERTY_JSP_PRECOMPILE))) {
+            if (JspPrecompileInitializer.isAvailable()) {
+                jspPrecompileExecutor = createThreadPool(PROPERTY_JSP_PRECOMPILE_THREADS, "JspPrecompiler");
+            } else {
+                logger.warn("JSP precompilation requested, but JSP support is not available");
+            }
+        }
+
+        webFragmentExecutor = createThreadPool(PROPERTY_FRAGMENT_THREADS, "WebFragmentParser");
+
+        final WebAppParser webAppParser = new WebAppParser(bundleContext.getDataFile("annotation-index"),
+                webFragmentExecutor);
+        // annotation indexes of bundles uninstalled from now on, or meanwhile
+        indexCleaner = new BundleListener() {
+            public void bundleChanged(BundleEvent event) {
+                if (event.getType() == BundleEvent.UNINSTALLED) {
+                    webAppParser.deleteAnnotationIndex(event.getBundle());
+                }
+            }
+        };
+        bundleContext.addBundleListener(indexCleaner);
+        webAppParser.pruneAnnotationIndexes(bundleContext.getBundles());
+
+        webObserver = new WebObserver(
+                webAppParser,
+                new WebAppPublisher(webEventDispatcher, bundleContext, jspPrecompileExecutor,
+                        getUpgradeDrainTimeout()), webEventDispatcher,
+                dependencyManager, bundleContext,
+                Boolean.parseBoolean(bundleContext.getProperty(PROPERTY_SIDE_BY_SIDE_UPGRADE)));
 
         startTracking();
         registration = getBundleContext().registerService(
@@ -72,11 +141,77 @@ public class Activator extends AbstractExtender {
             registration = null;
         }
         stopTracking();
+        if (indexCleaner != null) {
+            getBundleContext().removeBundleListener(indexCleaner);
+            indexCleaner = null;
+        }
+        if (jspPrecompileExecutor != null) {
+            jspPrecompileExecutor.shutdownNow();
+            jspPrecompileExecutor = null;
+        }
+        if (webFragmentExecutor != null) {
+            webFragmentExecutor.shutdownNow();
+            webFragmentExecutor = null;
+        }
         webEventDispatcher.destroy();
-        packageAdminTracker.close();
         logger.debug("Pax Web WAR Extender - Stopped");
     }
 
+    @Override
+    protected ExecutorService createExecutor() {
+        return createThreadPool(PROPERTY_DEPLOYMENT_THREADS, "WebAppDeployer");
+    }
+
+    private long getUpgradeDrainTimeout() {
+        String configured = getBundleContext().getProperty(PROPERTY_UPGRADE_DRAIN_TIMEOUT);
+        if (configured != null) {
+            try {
+                return Math.max(0L, Long.parseLong(configured.trim()));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid value {} for {}, using {} ms", configured,
+                        PROPERTY_UPGRADE_DRAIN_TIMEOUT, WebAppPublisher.DEFAULT_UPGRADE_DRAIN_TIMEOUT);
+            }
+        }
+        return WebAppPublisher.DEFAULT_UPGRADE_DRAIN_TIMEOUT;
+    }
+
+    /**
+     * Creates a fixed pool of daemon threads, sized by the given framework
+     * property or the number of available processors.
+     */
+    private ExecutorService createThreadPool(String property, final String name) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String configured = getBundleContext().getProperty(property);
+        if (configured != null) {
+            try {
+                threads = Math.max(1, Integer.parseInt(configured.trim()));
+            } catch (NumberFormatException nfe) {
+                logger.warn("Invalid value {} for {}, using {} threads", configured,
+                        property, threads);
+            }
+        }
+        logger.debug("Creating {} pool with {} threads", name, threads);
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                final Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setName(name + ": " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Web applications sharing a context path (and therefore the http context)
+     * are deployed one after the other.
+     */
+    @Override
+    protected Object getExtensionKey(Bundle bundle) {
+        return WebObserver.extractContextName(bundle);
+    }
+
     @Override
     protected Extension doCreateExtension(Bundle bundle) throws Exception {
         return webObserver.createExtension(bundle);
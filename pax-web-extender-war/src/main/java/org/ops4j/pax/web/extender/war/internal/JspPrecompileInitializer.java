@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletRegistration;
+
+import org.ops4j.pax.web.extender.war.internal.model.WebApp;
+import org.ops4j.pax.web.jsp.JspPrecompiler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles all JSPs of a web application while its context starts, before
+ * the first request can reach it. Compilation happens once all servlet
+ * container initializers ran, so Jasper's TLD cache is in place, and uses the
+ * init parameters of the JSP servlet of the context, so the classes end up in
+ * its scratch dir. The JSP servlet is looked up while the initializer runs,
+ * containers reject that call from listeners they did not get declared.
+ * <p>
+ * Progress is logged, the overall duration is recorded as the "jsp"
+ * deployment timing of the web app.
+ */
+class JspPrecompileInitializer implements ServletContainerInitializer {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JspPrecompileInitializer.class);
+
+	/**
+	 * Name the JSP servlet is registered under by the web container.
+	 */
+	private static final String JSP_SERVLET_NAME = "jsp";
+
+	/**
+	 * Number of progress messages logged besides the final one.
+	 */
+	private static final int PROGRESS_STEPS = 10;
+
+	private final WebApp webApp;
+
+	private final Executor executor;
+
+	JspPrecompileInitializer(WebApp webApp, Executor executor) {
+		this.webApp = webApp;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return true if the JSP support bundle is wired to the extender
+	 */
+	static boolean isAvailable() {
+		try {
+			JspPrecompileInitializer.class.getClassLoader().loadClass(
+					"org.ops4j.pax.web.jsp.JspPrecompiler");
+			return true;
+		} catch (ClassNotFoundException | NoClassDefFoundError e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+		final Map<String, String> initParameters = jspInitParameters(servletContext);
+		if (initParameters == null) {
+			LOG.warn("No JSP servlet registered for web application [{}], skipping JSP precompilation",
+					webApp);
+			return;
+		}
+		servletContext.addListener(new ServletContextListener() {
+
+			@Override
+			public void contextInitialized(ServletContextEvent sce) {
+				precompile(sce.getServletContext(), initParameters);
+			}
+
+			@Override
+			public void contextDestroyed(ServletContextEvent sce) {
+				// nothing to clean up
+			}
+
+		});
+	}
+
+	/**
+	 * @return a copy of the init parameters of the JSP servlet, null if the
+	 *         context has none
+	 */
+	private Map<String, String> jspInitParameters(ServletContext servletContext) {
+		ServletRegistration registration;
+		try {
+			registration = servletContext.getServletRegistration(JSP_SERVLET_NAME);
+		} catch (UnsupportedOperationException e) {
+			LOG.debug("Can't look up the JSP servlet of web application [{}]",
+					webApp, e);
+			return null;
+		}
+		if (registration == null) {
+			return null;
+		}
+		return new LinkedHashMap<String, String>(registration.getInitParameters());
+	}
+
+	private void precompile(final ServletContext servletContext,
+			final Map<String, String> initParameters) {
+		final List<String> jspUris = new ArrayList<String>();
+		collectJsps(servletContext, "/", jspUris);
+		if (jspUris.isEmpty()) {
+			return;
+		}
+		Collections.sort(jspUris);
+
+		final long start = System.currentTimeMillis();
+		final int total = jspUris.size();
+		LOG.info("Precompiling {} JSPs of web application [{}]", total, webApp);
+		JspPrecompiler precompiler = new JspPrecompiler(new ServletConfig() {
+
+			@Override
+			public String getServletName() {
+				return JSP_SERVLET_NAME;
+			}
+
+			@Override
+			public ServletContext getServletContext() {
+				return servletContext;
+			}
+
+			@Override
+			public String getInitParameter(String name) {
+				return initParameters.get(name);
+			}
+
+			@Override
+			public Enumeration<String> getInitParameterNames() {
+				return Collections.enumeration(initParameters.keySet());
+			}
+
+		}, webApp.getBundle());
+		try {
+			final int step = Math.max(1, total / PROGRESS_STEPS);
+			int failed = precompiler.precompile(jspUris, executor,
+					new JspPrecompiler.Listener() {
+
+						private int failures;
+
+						@Override
+						public void compiled(String jspUri, Throwable failure,
+								int done, int count) {
+							if (failure != null) {
+								failures++;
+							}
+							if (done % step == 0 && done < count) {
+								LOG.info("Precompiled {} of {} JSPs of web application [{}] in {} ms, {} failed",
+										done, count, webApp, System.currentTimeMillis() - start, failures);
+							}
+						}
+
+					});
+			long duration = System.currentTimeMillis() - start;
+			webApp.addDeploymentTiming("jsp", duration);
+			LOG.info("Precompiled {} JSPs of web application [{}] in {} ms, {} failed",
+					total, webApp, duration, failed);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("JSP precompilation of web application [{}] interrupted", webApp);
+		}
+	}
+
+	private static void collectJsps(ServletContext servletContext, String path,
+			List<String> jspUris) {
+		Set<String> paths = servletContext.getResourcePaths(path);
+		if (paths == null) {
+			return;
+		}
+		for (String resource : paths) {
+			if (resource.endsWith("/")) {
+				if (!resource.startsWith("/META-INF/")) {
+					collectJsps(servletContext, resource, jspUris);
+				}
+			} else if (resource.endsWith(".jsp") || resource.endsWith(".jspx")) {
+				jspUris.add(resource);
+			}
+		}
+	}
+
+}
@@ -84,6 +84,26 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 	private ClassLoader bundleClassLoader;
 
 	private WebAppDependencyHolder dependencyHolder;
+	/**
+	 * Visited web app, used to record the start timing.
+	 */
+	private WebApp webApp;
+
+	/**
+	 * Compiles the JSPs while the context starts, may be null.
+	 */
+	private final ServletContainerInitializer jspPrecompileInitializer;
+
+	/**
+	 * Set if the web app upgrades the one serving its context path, null
+	 * otherwise.
+	 */
+	private final WebAppPublisher.UpgradeCallback upgrade;
+
+	/**
+	 * True if the context was started next to the one it upgrades.
+	 */
+	private boolean standby;
 
 	/**
 	 * Creates a new registration visitor.
@@ -95,10 +115,59 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 	 *             if web container is null
 	 */
 	RegisterWebAppVisitorWC(final WebAppDependencyHolder dependencyHolder) {
+		this(dependencyHolder, null);
+	}
+
+	/**
+	 * Creates a new registration visitor.
+	 * 
+	 * @param dependencyHolder
+	 *            dependency holder. Cannot be null.
+	 * @param jspPrecompileInitializer
+	 *            initializer compiling the JSPs of the web application, null
+	 *            to compile them on first request
+	 * 
+	 * @throws NullArgumentException
+	 *             if web container is null
+	 */
+	RegisterWebAppVisitorWC(final WebAppDependencyHolder dependencyHolder,
+			final ServletContainerInitializer jspPrecompileInitializer) {
+		this(dependencyHolder, jspPrecompileInitializer, null);
+	}
+
+	/**
+	 * Creates a new registration visitor.
+	 * 
+	 * @param dependencyHolder
+	 *            dependency holder. Cannot be null.
+	 * @param jspPrecompileInitializer
+	 *            initializer compiling the JSPs of the web application, null
+	 *            to compile them on first request
+	 * @param upgrade
+	 *            callback if the web application upgrades the one serving
+	 *            its context path, which is kept running next to it if the
+	 *            web container allows it, null otherwise
+	 * 
+	 * @throws NullArgumentException
+	 *             if web container is null
+	 */
+	RegisterWebAppVisitorWC(final WebAppDependencyHolder dependencyHolder,
+			final ServletContainerInitializer jspPrecompileInitializer,
+			final WebAppPublisher.UpgradeCallback upgrade) {
 		NullArgumentException
 				.validateNotNull(dependencyHolder, "Web container");
 		this.dependencyHolder = dependencyHolder;
 		this.webContainer = (WebContainer) dependencyHolder.getHttpService();
+		this.jspPrecompileInitializer = jspPrecompileInitializer;
+		this.upgrade = upgrade;
+	}
+
+	/**
+	 * @return true if the context was started as standby and still has to be
+	 *         activated
+	 */
+	boolean isStandby() {
+		return standby;
 	}
 
 	/**
@@ -115,6 +184,7 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 			LOG.debug("visiting webapp: {}", webApp);
 		}
 		NullArgumentException.validateNotNull(webApp, "Web app");
+		this.webApp = webApp;
 		bundleClassLoader = new BundleClassLoader(webApp.getBundle());
 		Set<Bundle> wiredBundles = ClassPathUtil.getBundlesInClassSpace(
 				webApp.getBundle(), new LinkedHashSet<Bundle>());
@@ -168,6 +238,10 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 			webContainer.registerServletContainerInitializer(initializer, null,
 					httpContext);
 		}
+		if (jspPrecompileInitializer != null) {
+			webContainer.registerServletContainerInitializer(
+					jspPrecompileInitializer, null, httpContext);
+		}
 
 		webContainer.setConnectorsAndVirtualHosts(webApp.getConnectorList(), webApp.getVirtualHostList(), httpContext);
 
@@ -177,7 +251,17 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 		}
 
 		LOG.debug("webcontainer begin!");
-		webContainer.begin(httpContext);
+		if (upgrade != null) {
+			standby = webContainer.beginStandby(httpContext);
+			if (!standby) {
+				LOG.info("Web container can't deploy [{}] next to the web application it upgrades, replacing it",
+						webApp);
+				upgrade.takeOver(webApp);
+			}
+		}
+		if (!standby) {
+			webContainer.begin(httpContext);
+		}
 
 		//CHECKSTYLE:OFF
 		LOG.debug("registering welcome files");
@@ -402,7 +486,11 @@ class RegisterWebAppVisitorWC implements WebAppVisitor {
 	}
 
 	public void end() {
+		final long start = System.currentTimeMillis();
 		webContainer.end(httpContext);
+		if (webApp != null) {
+			webApp.addDeploymentTiming("start", System.currentTimeMillis() - start);
+		}
 	}
 
 }
@@ -18,27 +18,33 @@
 package org.ops4j.pax.web.extender.war.internal;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.web.extender.war.internal.model.WebAppMimeMapping;
+import org.ops4j.pax.swissbox.core.BundleUtils;
+import org.ops4j.pax.web.extender.war.internal.util.ManifestUtil;
 import org.ops4j.pax.web.extender.war.internal.util.Path;
+import org.ops4j.pax.web.extender.war.internal.util.ResourceLookupCache;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
 import org.ops4j.pax.web.utils.ClassPathUtil;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
@@ -72,21 +78,59 @@ class WebAppHttpContext implements HttpContext {
 	 */
 	private final HttpContext httpContext;
 	/**
-	 * Mime mappings.
+	 * Mime mappings of the web app.
 	 */
-	private final Map<String, String> mimeMappings;
+	private final MimeTypeTable mimeTypes;
 
-	private final ConcurrentMap<String, URL> resourceCache = new ConcurrentHashMap<>();
+	/**
+	 * Maximum number of found resources cached.
+	 */
+	static final int MAX_CACHED_RESOURCES = 4096;
+	/**
+	 * Maximum number of missing resources cached.
+	 */
+	static final int MAX_CACHED_MISSES = 1024;
+	/**
+	 * Time missing resources are cached.
+	 */
+	static final long MISS_TTL = TimeUnit.SECONDS.toMillis(30);
 
-	static final URL NO_URL;
+	private final ResourceLookupCache resourceCache = new ResourceLookupCache(
+			MAX_CACHED_RESOURCES, MAX_CACHED_MISSES, MISS_TTL);
 
-	static {
-		try {
-			NO_URL = new URL("http:");
-		} catch (MalformedURLException e) {
-			throw new RuntimeException(e);
+	/**
+	 * Bundles in the class space of the bundle, computed on first use.
+	 */
+	private volatile Set<Bundle> bundlesInClassSpace;
+
+	private final BundleContext bundleContext;
+
+	/**
+	 * Drops cached lookups when the bundle, a bundle in its class space or a
+	 * fragment attached to one of them changes.
+	 */
+	private final SynchronousBundleListener invalidator = new SynchronousBundleListener() {
+
+		@Override
+		public void bundleChanged(BundleEvent event) {
+			switch (event.getType()) {
+			case BundleEvent.UPDATED:
+			case BundleEvent.UNRESOLVED:
+			case BundleEvent.RESOLVED:
+				Bundle changed = event.getBundle();
+				Set<Bundle> classSpace = bundlesInClassSpace;
+				if (changed.equals(bundle)
+						|| (classSpace != null && classSpace.contains(changed))
+						|| isHost(ManifestUtil.getFragmentHost(changed), classSpace)) {
+					invalidate();
+				}
+				break;
+			default:
+				break;
+			}
 		}
-	}
+
+	};
 
 	/**
 	 * Creates a new http context that delegates to the specified http context
@@ -112,11 +156,70 @@ class WebAppHttpContext implements HttpContext {
 		this.httpContext = httpContext;
 		this.rootPath = rootPath;
 		this.bundle = bundle;
-		mimeMappings = new HashMap<String, String>();
+		final Map<String, String> mimeMappings = new HashMap<String, String>();
 		for (WebAppMimeMapping mimeMapping : webAppMimeMappings) {
 			mimeMappings.put(mimeMapping.getExtension(),
 					mimeMapping.getMimeType());
 		}
+		mimeTypes = new MimeTypeTable(mimeMappings, null);
+		bundleContext = BundleUtils.getBundleContext(bundle);
+		if (bundleContext != null) {
+			bundleContext.addBundleListener(invalidator);
+		}
+	}
+
+	/**
+	 * Stops tracking bundle changes, called once the web app is unregistered.
+	 */
+	void destroy() {
+		if (bundleContext != null) {
+			try {
+				bundleContext.removeBundleListener(invalidator);
+			} catch (IllegalStateException e) {
+				// bundle already stopped, listener is gone anyway
+			}
+		}
+		invalidate();
+	}
+
+	/**
+	 * Forgets all cached lookups.
+	 */
+	void invalidate() {
+		log.debug("Invalidating resource cache of {}", bundle);
+		bundlesInClassSpace = null;
+		resourceCache.clear();
+	}
+
+	/**
+	 * @return true if the bundle or a bundle in its class space has the given
+	 *         symbolic name
+	 */
+	private boolean isHost(String symbolicName, Set<Bundle> classSpace) {
+		if (symbolicName == null) {
+			return false;
+		}
+		if (symbolicName.equals(bundle.getSymbolicName())) {
+			return true;
+		}
+		if (classSpace != null) {
+			for (Bundle bundleInClassSpace : classSpace) {
+				if (symbolicName.equals(bundleInClassSpace.getSymbolicName())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Set<Bundle> getBundlesInClassSpace() {
+		Set<Bundle> classSpace = bundlesInClassSpace;
+		if (classSpace == null) {
+			classSpace = Collections.unmodifiableSet(ClassPathUtil
+					.getBundlesInClassSpace(bundle, new HashSet<Bundle>()));
+			bundlesInClassSpace = classSpace;
+		}
+		return classSpace;
 	}
 
 	/**
@@ -143,15 +246,15 @@ class WebAppHttpContext implements HttpContext {
 				+ " for resource [{}], normalized to [{}]", name,
 				normalizedName);
 
-		URL url = resourceCache.get(normalizedName);
+		URL url = resourceCache.getFound(normalizedName);
 
-		if (url == null && !normalizedName.isEmpty()) {
+		if (url == null && !normalizedName.isEmpty()
+				&& !resourceCache.isMissing(normalizedName)) {
 			url = bundle.getEntry(normalizedName);
 			if (url == null) {
 				log.debug("getEntry failed, trying with /META-INF/resources/ in bundle class space");
 				// Search attached bundles for web-fragments
-				Set<Bundle> bundlesInClassSpace = ClassPathUtil.getBundlesInClassSpace(bundle, new HashSet<Bundle>());
-				for (Bundle bundleInClassSpace : bundlesInClassSpace) {
+				for (Bundle bundleInClassSpace : getBundlesInClassSpace()) {
 					url = bundleInClassSpace.getEntry("/META-INF/resources/" + normalizedName);
 					if (url != null) {
 						break;
@@ -168,16 +271,16 @@ class WebAppHttpContext implements HttpContext {
 				url = bundle.getClass().getClassLoader().getResource(normalizedName);
 			}
 			if (url == null) {
-				url = NO_URL;
+				resourceCache.putMissing(normalizedName);
+			} else {
+				resourceCache.putFound(normalizedName, url);
 			}
-			resourceCache.putIfAbsent(normalizedName, url);
 		}
 
-		if (url != null && url != NO_URL) {
+		if (url != null) {
 			log.debug("Resource found as url [{}]", url);
 		} else {
 			log.debug("Resource not found");
-			url = null;
 		}
 		return url;
 	}
@@ -189,11 +292,7 @@ class WebAppHttpContext implements HttpContext {
 	 * @see org.osgi.service.http.HttpContext#getMimeType(String)
 	 */
 	public String getMimeType(final String name) {
-		String mimeType = null;
-		if (name != null && name.length() > 0 && name.contains(".")) {
-			final String[] segments = name.split("\\.");
-			mimeType = mimeMappings.get(segments[segments.length - 1]);
-		}
+		String mimeType = mimeTypes.getMimeType(name);
 		if (mimeType == null) {
 			mimeType = httpContext.getMimeType(name);
 		}
@@ -20,6 +20,7 @@ package org.ops4j.pax.web.extender.war.internal;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.swissbox.core.BundleUtils;
@@ -53,6 +54,11 @@ class WebAppPublisher {
 	 */
 	private static final Logger LOG = LoggerFactory
 			.getLogger(WebAppPublisher.class);
+	/**
+	 * Default time given to the requests of an upgraded web application to
+	 * complete, once its context path is served by the upgrading one.
+	 */
+	static final long DEFAULT_UPGRADE_DRAIN_TIMEOUT = 30000L;
 	/**
 	 * In use web apps.
 	 */
@@ -62,15 +68,36 @@ class WebAppPublisher {
 
 	private final BundleContext bundleContext;
 
+	/**
+	 * Executor compiling JSPs ahead of time, null if disabled.
+	 */
+	private final Executor jspPrecompileExecutor;
+
+	/**
+	 * Maximum time an upgrade waits for the requests of the upgraded web
+	 * application before it is reported as deployed, in milliseconds.
+	 */
+	private final long upgradeDrainTimeout;
+
 	/**
 	 * Creates a new web app publisher.
+	 * 
+	 * @param jspPrecompileExecutor
+	 *            executor used to compile the JSPs of web applications while
+	 *            they are started, null to compile them on first request
+	 * @param upgradeDrainTimeout
+	 *            maximum time a side by side upgrade waits for the requests
+	 *            of the upgraded web application, in milliseconds
 	 */
 	WebAppPublisher(WebEventDispatcher eventDispatcher,
-			BundleContext bundleContext) {
+			BundleContext bundleContext, Executor jspPrecompileExecutor,
+			long upgradeDrainTimeout) {
 		webApps = Collections
 				.synchronizedMap(new HashMap<WebApp, ServiceTracker<WebAppDependencyHolder, WebAppDependencyHolder>>());
 		this.eventDispatcher = eventDispatcher;
 		this.bundleContext = bundleContext;
+		this.jspPrecompileExecutor = jspPrecompileExecutor;
+		this.upgradeDrainTimeout = upgradeDrainTimeout;
 	}
 
 	/**
@@ -83,6 +110,24 @@ class WebAppPublisher {
 	 *             if web app is null
 	 */
 	public void publish(final WebApp webApp) {
+		publish(webApp, null);
+	}
+
+	/**
+	 * Publish a web application upgrading the one serving its context path.
+	 * If the web container allows it, the web application is started next to
+	 * the upgraded one and only takes over the context path once started.
+	 * 
+	 * @param webApp
+	 *            web application to be published.
+	 * @param upgrade
+	 *            callback unpublishing the upgraded web application, null if
+	 *            the web application does not upgrade another one
+	 * 
+	 * @throws NullArgumentException
+	 *             if web app is null
+	 */
+	public void publish(final WebApp webApp, final UpgradeCallback upgrade) {
 		NullArgumentException.validateNotNull(webApp, "Web app");
 		LOG.debug("Publishing web application [{}]", webApp);
 		final BundleContext webAppBundleContext = BundleUtils
@@ -96,7 +141,8 @@ class WebAppPublisher {
 				ServiceTracker<WebAppDependencyHolder, WebAppDependencyHolder> dependencyTracker = new ServiceTracker<WebAppDependencyHolder, WebAppDependencyHolder>(
 						webAppBundleContext, filter,
 						new WebAppDependencyListener(webApp, eventDispatcher,
-								bundleContext));
+								bundleContext, jspPrecompileExecutor, upgrade,
+								upgradeDrainTimeout));
 				webApps.put(webApp, dependencyTracker);
 				dependencyTracker.open();
 			} catch (InvalidSyntaxException exc) {
@@ -128,6 +174,25 @@ class WebAppPublisher {
 		}
 	}
 
+	/**
+	 * Hands the context path of an upgraded web application over to the web
+	 * application upgrading it.
+	 */
+	interface UpgradeCallback {
+
+		/**
+		 * Called once the upgrading web application serves the context path,
+		 * or before it is registered if the web container can't run it next
+		 * to the upgraded one. The upgraded web application has to be
+		 * unpublished.
+		 * 
+		 * @param webApp
+		 *            upgrading web application
+		 */
+		void takeOver(WebApp webApp);
+
+	}
+
 	/**
 	 * Http Service listener that will register/unregister the web app as soon
 	 * as an http service becomes available/unavailable.
@@ -145,6 +210,16 @@ class WebAppPublisher {
 
 		private BundleContext bundleContext;
 
+		private final Executor jspPrecompileExecutor;
+
+		/**
+		 * Callback if the web app upgrades another one, may be null. Taking
+		 * over is a no-op once done, e.g. when the http service changes.
+		 */
+		private final UpgradeCallback upgrade;
+
+		private final long upgradeDrainTimeout;
+
 		/**
 		 * Http service in use.
 		 */
@@ -157,16 +232,28 @@ class WebAppPublisher {
 		 * 
 		 * @param webApp
 		 *            web app to be registered
+		 * @param jspPrecompileExecutor
+		 *            executor compiling JSPs ahead of time, may be null
+		 * @param upgrade
+		 *            callback if the web app upgrades another one, may be null
+		 * @param upgradeDrainTimeout
+		 *            maximum time to wait for the requests of the upgraded
+		 *            web app, in milliseconds
 		 * 
 		 * @throws NullArgumentException
 		 *             if web app is null
 		 */
 		WebAppDependencyListener(final WebApp webApp,
-				WebEventDispatcher eventDispatcher, BundleContext bundleContext) {
+				WebEventDispatcher eventDispatcher, BundleContext bundleContext,
+				Executor jspPrecompileExecutor, UpgradeCallback upgrade,
+				long upgradeDrainTimeout) {
 			NullArgumentException.validateNotNull(webApp, "Web app");
 			this.webApp = webApp;
 			this.eventDispatcher = eventDispatcher;
 			this.bundleContext = bundleContext;
+			this.jspPrecompileExecutor = jspPrecompileExecutor;
+			this.upgrade = upgrade;
+			this.upgradeDrainTimeout = upgradeDrainTimeout;
 		}
 
         @Override
@@ -233,12 +320,30 @@ class WebAppPublisher {
 						"Registering web application [{}] from http service [{}]",
 						webApp, webAppHttpService);
 				try {
+					final long registerStart = System.currentTimeMillis();
+					WebContainer standbyContainer = null;
 					if (WebContainerUtils.webContainerAvailable(webAppHttpService)) {
-						webApp.accept(new RegisterWebAppVisitorWC(
-								webAppDependencyHolder));
+						RegisterWebAppVisitorWC visitor = new RegisterWebAppVisitorWC(
+								webAppDependencyHolder,
+								jspPrecompileExecutor != null ? new JspPrecompileInitializer(
+										webApp, jspPrecompileExecutor)
+										: null, upgrade);
+						webApp.accept(visitor);
+						if (visitor.isStandby()) {
+							standbyContainer = (WebContainer) webAppHttpService;
+						}
 					} else {
+						if (upgrade != null) {
+							upgrade.takeOver(webApp);
+						}
 						webApp.accept(new RegisterWebAppVisitorHS(webAppHttpService));
 					}
+					Long startDuration = webApp.getDeploymentTimings().get("start");
+					webApp.addDeploymentTiming("register", System.currentTimeMillis() - registerStart
+							- (startDuration != null ? startDuration : 0L));
+					if (standbyContainer != null) {
+						activate(standbyContainer);
+					}
 
 					webApp.setDeploymentState(WebEvent.DEPLOYED);
 					eventDispatcher.webEvent(webApp, WebEvent.DEPLOYED,
@@ -252,6 +357,22 @@ class WebAppPublisher {
 			}
 		}
 
+		/**
+		 * Routes the requests to the started web app, lets the requests of
+		 * the upgraded one complete, and unpublishes it.
+		 */
+		private void activate(WebContainer webContainer) {
+			final long activateStart = System.currentTimeMillis();
+			if (!webContainer.activate(webApp.getHttpContext(),
+					upgradeDrainTimeout)) {
+				LOG.warn("Requests of the web application upgraded by [{}] did not complete within {} ms",
+						webApp, upgradeDrainTimeout);
+			}
+			webApp.addDeploymentTiming("activate", System.currentTimeMillis()
+					- activateStart);
+			upgrade.takeOver(webApp);
+		}
+
 		/**
 		 * Unregisters a web app from current http service, if any.
 		 */
@@ -268,6 +389,9 @@ class WebAppPublisher {
 					} else {
 						webApp.accept(new UnregisterWebAppVisitorHS(webAppHttpService));
 					}
+					if (webApp.getHttpContext() instanceof WebAppHttpContext) {
+						((WebAppHttpContext) webApp.getHttpContext()).destroy();
+					}
 					//CHECKSTYLE:OFF
 				} catch (Exception e) {
 					LOG.warn("Error undeploying web application", e);
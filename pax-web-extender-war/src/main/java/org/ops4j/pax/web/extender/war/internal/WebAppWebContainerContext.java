@@ -17,19 +17,19 @@
  */
 package org.ops4j.pax.web.extender.war.internal;
 
-import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Set;
 
 import org.ops4j.pax.web.extender.war.internal.model.WebAppMimeMapping;
 import org.ops4j.pax.web.extender.war.internal.util.Path;
+import org.ops4j.pax.web.extender.war.internal.util.ResourcePathIndex;
 import org.ops4j.pax.web.service.WebContainerContext;
 import org.osgi.framework.Bundle;
 import org.osgi.service.http.HttpContext;
 
 /**
  * Extends {@link WebAppHttpContext} by implementing {@link WebContainerContext}
- * .
+ * . Directory listings are served from a {@link ResourcePathIndex} of the
+ * current bundle revision, shared by all web containers.
  * 
  * @author Alin Dreghiciu (adreghiciu@gmail.com)
  * @since 0.5.1, March 30, 2009
@@ -46,28 +46,46 @@ class WebAppWebContainerContext extends WebAppHttpContext implements
 		super(httpContext, rootPath, bundle, mimeMappings);
 	}
 
+	/**
+	 * Listings of the current bundle revision, created on first use.
+	 */
+	private volatile ResourcePathIndex resourcePathIndex;
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public Set<String> getResourcePaths(final String name) {
-		final String normalizedName = Path.normalizeResourcePath(rootPath
-				+ (name.startsWith("/") ? "" : "/") + name);
-
-		log.debug("Searching bundle [" + bundle + "] for resource paths of ["
-				+ name + "], normalized to [" + normalizedName + "]");
-		@SuppressWarnings("rawtypes")
-		final Enumeration entryPaths = bundle.getEntryPaths(name);
-		if (entryPaths == null || !entryPaths.hasMoreElements()) {
+		if (log.isDebugEnabled()) {
+			final String normalizedName = Path.normalizeResourcePath(rootPath
+					+ (name.startsWith("/") ? "" : "/") + name);
+			log.debug("Searching bundle [" + bundle
+					+ "] for resource paths of [" + name
+					+ "], normalized to [" + normalizedName + "]");
+		}
+		final Set<String> foundPaths = getResourcePathIndex()
+				.getResourcePaths(name);
+		if (foundPaths == null) {
 			log.debug("No resource paths found");
 			return null;
 		}
-		Set<String> foundPaths = new HashSet<String>();
-		while (entryPaths.hasMoreElements()) {
-			foundPaths.add((String) entryPaths.nextElement());
-		}
-		log.debug("Resource paths found: " + foundPaths);
+		log.debug("Resource paths found: {}", foundPaths);
 		return foundPaths;
 	}
 
+	@Override
+	void invalidate() {
+		super.invalidate();
+		resourcePathIndex = null;
+	}
+
+	private ResourcePathIndex getResourcePathIndex() {
+		ResourcePathIndex index = resourcePathIndex;
+		if (index == null || !index.isCurrent()) {
+			index = new ResourcePathIndex(bundle);
+			resourcePathIndex = index;
+		}
+		return index;
+	}
+
 }
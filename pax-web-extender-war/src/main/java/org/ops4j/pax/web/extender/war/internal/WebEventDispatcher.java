@@ -17,29 +17,21 @@
  */
 package org.ops4j.pax.web.extender.war.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.web.extender.war.internal.model.WebApp;
 import org.ops4j.pax.web.service.spi.WebEvent;
 import org.ops4j.pax.web.service.spi.WebEvent.WebTopic;
 import org.ops4j.pax.web.service.spi.WebListener;
+import org.ops4j.pax.web.service.spi.util.ListenerEventDispatcher;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -62,49 +54,45 @@ import org.slf4j.LoggerFactory;
  */
 public class WebEventDispatcher implements WebListener {
 
-    /**
-     * Logger.
-     */
-    private static final Logger LOG = LoggerFactory
-            .getLogger(WebEventDispatcher.class);
-
-    private final Bundle bundle;
-    private final ScheduledExecutorService executors;
-    private final ServiceTracker<EventAdmin, EventAdmin> eventAdminTracker;
-    private final ServiceTracker<LogService, LogService> logServiceTracker;
-    private final ServiceTracker<WebListener, WebListener> webListenerTracker;
-    private final Set<WebListener> listeners = new CopyOnWriteArraySet<WebListener>();
-    private final Map<Long, WebEvent> states = new ConcurrentHashMap<Long, WebEvent>();
-
-    public WebEventDispatcher(final BundleContext bundleContext) throws InvalidSyntaxException {
-
-        NullArgumentException.validateNotNull(bundleContext, "Bundle Context");
-
-        this.bundle = bundleContext.getBundle();
-
-		this.executors = Executors.newScheduledThreadPool(1,
-				new ThreadFactory() {
-					private final AtomicInteger count = new AtomicInteger();
-
-					public Thread newThread(Runnable r) {
-						final Thread t = Executors.defaultThreadFactory()
-								.newThread(r);
-						t.setName("WebEventExecutor" + ": "
-								+ count.incrementAndGet());
-						t.setDaemon(true);
-						return t;
+	/**
+	 * Logger.
+	 */
+	private static final Logger LOG = LoggerFactory
+			.getLogger(WebEventDispatcher.class);
+
+	private final Bundle bundle;
+	private final ListenerEventDispatcher<WebListener, WebEvent> dispatcher;
+	private final ServiceTracker<EventAdmin, EventAdmin> eventAdminTracker;
+	private final ServiceTracker<LogService, LogService> logServiceTracker;
+	private final ServiceTracker<WebListener, WebListener> webListenerTracker;
+	private final Object lock = new Object();
+	private final Map<Long, WebEvent> states = new ConcurrentHashMap<Long, WebEvent>();
+
+	public WebEventDispatcher(final BundleContext bundleContext) throws InvalidSyntaxException {
+
+		NullArgumentException.validateNotNull(bundleContext, "Bundle Context");
+
+		this.bundle = bundleContext.getBundle();
+
+		this.dispatcher = ListenerEventDispatcher.create(bundleContext,
+				"WebEventExecutor", 1,
+				new ListenerEventDispatcher.Delivery<WebListener, WebEvent>() {
+					public void deliver(WebListener listener, WebEvent event) {
+						listener.webEvent(event);
 					}
 				});
+		// EventAdmin and LogService get their own ordered queue
+		this.dispatcher.addListener(new EventAdminPublisher(), null);
 
-        // Use filter so that the package can be optional
-        Filter filterEvent = bundleContext.createFilter("(objectClass=org.osgi.service.event.EventAdmin)");
-        this.eventAdminTracker = new ServiceTracker<EventAdmin, EventAdmin>(bundleContext, filterEvent, null);
-        this.eventAdminTracker.open();
+		// Use filter so that the package can be optional
+		Filter filterEvent = bundleContext.createFilter("(objectClass=org.osgi.service.event.EventAdmin)");
+		this.eventAdminTracker = new ServiceTracker<EventAdmin, EventAdmin>(bundleContext, filterEvent, null);
+		this.eventAdminTracker.open();
 
-        // Use filter so that the package can be optional
-        Filter filterLog = bundleContext.createFilter("(objectClass=org.osgi.service.log.LogService)");
-        this.logServiceTracker = new ServiceTracker<LogService, LogService>(bundleContext, filterLog, null);
-        this.logServiceTracker.open();
+		// Use filter so that the package can be optional
+		Filter filterLog = bundleContext.createFilter("(objectClass=org.osgi.service.log.LogService)");
+		this.logServiceTracker = new ServiceTracker<LogService, LogService>(bundleContext, filterLog, null);
+		this.logServiceTracker.open();
 
 		this.webListenerTracker = new ServiceTracker<WebListener, WebListener>(
 				bundleContext, WebListener.class.getName(),
@@ -115,9 +103,8 @@ public class WebEventDispatcher implements WebListener {
 						WebListener listener = bundleContext
 								.getService(reference);
 
-						synchronized (listeners) {
-							sendInitialEvents(listener);
-							listeners.add(listener);
+						synchronized (lock) {
+							dispatcher.addListener(listener, getInitialEvents());
 						}
 
 						return listener;
@@ -133,7 +120,7 @@ public class WebEventDispatcher implements WebListener {
 					public void removedService(
 							ServiceReference<WebListener> reference,
 							WebListener service) {
-						listeners.remove(service);
+						dispatcher.removeListener(service);
 						bundleContext.ungetService(reference);
 					}
 				});
@@ -141,28 +128,35 @@ public class WebEventDispatcher implements WebListener {
 	}
 
 	void destroy() {
-		executors.shutdown();
-		// wait for the queued tasks to execute
-		try {
-			executors.awaitTermination(60, TimeUnit.SECONDS);
-		} catch (InterruptedException e) {
-			// ignore
-		}
+		// wait for the queued events to be delivered
+		dispatcher.destroy(60);
 		webListenerTracker.close();
 		// clean up the EventAdmin tracker if we're using that
 		eventAdminTracker.close();
-        logServiceTracker.close();
+		logServiceTracker.close();
 	}
 
-	private void sendInitialEvents(WebListener listener) {
-		for (Map.Entry<Long, WebEvent> entry : states.entrySet()) {
-			try {
-				callListener(listener, new WebEvent(entry.getValue(), true));
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
-				break;
-			}
-		}
+	/**
+	 * Takes an immutable snapshot of the last known event of every web
+	 * application, to be replayed to a new listener by the dispatcher
+	 * threads.
+	 */
+	private List<WebEvent> getInitialEvents() {
+		return Collections.unmodifiableList(new ArrayList<WebEvent>(states.values()));
+	}
+
+	/**
+	 * @return number of web events waiting to be delivered
+	 */
+	public int getQueueDepth() {
+		return dispatcher.getQueueDepth();
+	}
+
+	/**
+	 * @return number of web events dropped because a listener fell behind
+	 */
+	public long getDroppedEvents() {
+		return dispatcher.getDroppedEvents();
 	}
 
 	public void removeWebApp(WebApp webApp) {
@@ -186,7 +180,7 @@ public class WebEventDispatcher implements WebListener {
 	public void webEvent(WebApp webApp, int type, HttpService httpService) {
 		webEvent(new WebEvent(type, "/" + webApp.getContextName(),
 				webApp.getBundle(), bundle, httpService,
-				webApp.getHttpContext()));
+				webApp.getHttpContext(), webApp.getDeploymentTimings()));
 	}
 
 	/*
@@ -203,119 +197,15 @@ public class WebEventDispatcher implements WebListener {
 					+ webEvent.getBundleName());
 		}
 
-		synchronized (listeners) {
-			callListeners(webEvent);
-			states.put(webEvent.getBundleId(), webEvent);
+		final ListenerEventDispatcher<WebListener, WebEvent>.Recipients recipients;
+		synchronized (lock) {
+			// a listener added from now on gets the event replayed instead
+			recipients = dispatcher.recipients();
+			// keep a replay copy, shared by all late listeners
+			states.put(webEvent.getBundleId(), new WebEvent(webEvent, true));
 		}
-
-		final String topic;
-		switch (webEvent.getType()) {
-		case WebEvent.DEPLOYING:
-			topic = WebTopic.DEPLOYING.toString();
-			break;
-		case WebEvent.DEPLOYED:
-			topic = WebTopic.DEPLOYED.toString();
-			break;
-		case WebEvent.UNDEPLOYING:
-			topic = WebTopic.UNDEPLOYING.toString();
-			break;
-		case WebEvent.UNDEPLOYED:
-			topic = WebTopic.UNDEPLOYED.toString();
-			break;
-		case WebEvent.FAILED:
-			topic = WebTopic.FAILED.toString();
-			break;
-		case WebEvent.WAITING:
-			// topic = WebTopic.WAITING.toString();
-			// A Waiting Event is not supported by the specification
-			// therefore it is mapped to FAILED, because of collision.
-			topic = WebTopic.FAILED.toString();
-			break;
-		default:
-			topic = WebTopic.FAILED.toString();
-		}
-
-			try {
-				executors.submit(new Runnable() {
-					public void run() {
-						Dictionary<String, Object> properties = new Hashtable<String, Object>();
-						properties.put("bundle.symbolicName", webEvent
-								.getBundleName());
-						properties.put("bundle.id", webEvent.getBundleId());
-						Object bundleVersionObject = webEvent.getBundleVersion();
-						Version bundleVersion;
-						if (bundleVersionObject instanceof Version) {
-							bundleVersion = (Version) bundleVersionObject;
-						} else if (bundleVersionObject instanceof String) {
-							bundleVersion = new Version(
-									(String) bundleVersionObject);
-						} else {
-							bundleVersion = new Version("0.0.0");
-						}
-						properties.put("bundle.version", bundleVersion);
-						properties.put("context.path",
-								webEvent.getContextPath());
-						properties.put("timestamp", webEvent.getTimestamp());
-						properties.put("extender.bundle.id", webEvent
-								.getExtenderBundleId());
-						properties.put("extender.bundle.symbolicName", webEvent
-								.getExtenderBundleName());
-						Object extenderBundleVersionObject = webEvent
-								.getExtenderBundleVersion();
-						Version extenderVersion;
-						if (extenderBundleVersionObject instanceof Version) {
-							extenderVersion = (Version) extenderBundleVersionObject;
-						} else if (extenderBundleVersionObject instanceof String) {
-							extenderVersion = new Version(
-									(String) extenderBundleVersionObject);
-						} else {
-							extenderVersion = new Version("0.0.0");
-						}
-						properties.put("extender.bundle.version",
-								extenderVersion);
-
-						if (webEvent.getCause() != null) {
-							properties.put("exception", webEvent.getCause());
-						}
-
-						if (webEvent.getCollisionIds() != null) {
-							properties.put("collision",
-									webEvent.getContextPath());
-							properties.put("collision.bundles",
-									webEvent.getCollisionIds());
-						}
-
-						Event event = new Event(topic, properties);
-						EventAdmin adminService = getEventAdmin();
-						if (adminService != null) {
-							adminService.postEvent(event);
-						}
-
-					}
-				});
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
-			}
-
-			try {
-				executors.submit(new Runnable() {
-					public void run() {
-                        LogService logService = getLogService();
-                        if (logService != null) {
-						    logService.log(LogService.LOG_DEBUG, topic);
-                        } else {
-                            if (webEvent.getCause() != null) {
-                                LOG.error(webEvent.toString());
-                            } else {
-                                LOG.debug(topic);
-                            }
-                        }
-					}
-				});
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
-			}
-
+		// queueing may block until a listener catches up
+		recipients.dispatch(webEvent);
 	}
 
 	private EventAdmin getEventAdmin() {
@@ -326,35 +216,102 @@ public class WebEventDispatcher implements WebListener {
 		return logServiceTracker.getService();
 	}
 
-	private void callListeners(WebEvent webEvent) {
-		for (WebListener listener : listeners) {
-			try {
-				callListener(listener, webEvent);
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
+	/**
+	 * Posts web events to the EventAdmin and logs them to the LogService, if
+	 * available. Runs on its own dispatcher queue so that a slow EventAdmin
+	 * does not hold back WebListeners.
+	 */
+	private class EventAdminPublisher implements WebListener {
+
+		public void webEvent(final WebEvent webEvent) {
+			final String topic;
+			switch (webEvent.getType()) {
+			case WebEvent.DEPLOYING:
+				topic = WebTopic.DEPLOYING.toString();
 				break;
+			case WebEvent.DEPLOYED:
+				topic = WebTopic.DEPLOYED.toString();
+				break;
+			case WebEvent.UNDEPLOYING:
+				topic = WebTopic.UNDEPLOYING.toString();
+				break;
+			case WebEvent.UNDEPLOYED:
+				topic = WebTopic.UNDEPLOYED.toString();
+				break;
+			case WebEvent.FAILED:
+				topic = WebTopic.FAILED.toString();
+				break;
+			case WebEvent.WAITING:
+				// topic = WebTopic.WAITING.toString();
+				// A Waiting Event is not supported by the specification
+				// therefore it is mapped to FAILED, because of collision.
+				topic = WebTopic.FAILED.toString();
+				break;
+			default:
+				topic = WebTopic.FAILED.toString();
+			}
+
+			EventAdmin adminService = getEventAdmin();
+			if (adminService != null) {
+				Dictionary<String, Object> properties = new Hashtable<String, Object>();
+				properties.put("bundle.symbolicName", webEvent
+						.getBundleName());
+				properties.put("bundle.id", webEvent.getBundleId());
+				properties.put("bundle.version", toVersion(webEvent.getBundleVersion()));
+				properties.put("context.path",
+						webEvent.getContextPath());
+				properties.put("timestamp", webEvent.getTimestamp());
+				properties.put("extender.bundle.id", webEvent
+						.getExtenderBundleId());
+				properties.put("extender.bundle.symbolicName", webEvent
+						.getExtenderBundleName());
+				properties.put("extender.bundle.version",
+						toVersion(webEvent.getExtenderBundleVersion()));
+
+				if (webEvent.getCause() != null) {
+					properties.put("exception", webEvent.getCause());
+				}
+
+				for (Map.Entry<String, Long> timing : webEvent.getTimings().entrySet()) {
+					properties.put("timing." + timing.getKey(), timing.getValue());
+				}
+
+				if (webEvent.getCollisionIds() != null) {
+					properties.put("collision",
+							webEvent.getContextPath());
+					properties.put("collision.bundles",
+							webEvent.getCollisionIds());
+				}
+
+				//CHECKSTYLE:OFF
+				try {
+					adminService.postEvent(new Event(topic, properties));
+				} catch (Exception e) {
+					LOG.warn("Failed to post web event to EventAdmin", e);
+				}
+				//CHECKSTYLE:ON
+			}
+
+			LogService logService = getLogService();
+			if (logService != null) {
+				logService.log(LogService.LOG_DEBUG, topic);
+			} else {
+				if (webEvent.getCause() != null) {
+					LOG.error(webEvent.toString());
+				} else {
+					LOG.debug(topic);
+				}
 			}
 		}
-	}
 
-	private void callListener(final WebListener listener, final WebEvent event) {
-		try {
-			executors.invokeAny(Collections
-					.<Callable<Void>> singleton(new Callable<Void>() {
-						public Void call() throws Exception {
-							listener.webEvent(event);
-							return null;
-						}
-					}), 60L, TimeUnit.SECONDS);
-		} catch (InterruptedException ie) {
-			LOG.warn("Thread interrupted", ie);
-			Thread.currentThread().interrupt();
-		} catch (TimeoutException te) {
-			LOG.warn("Listener timed out, will be ignored", te);
-			listeners.remove(listener);
-		} catch (ExecutionException ee) {
-			LOG.warn("Listener caused an exception, will be ignored", ee);
-			listeners.remove(listener);
+		private Version toVersion(Object versionObject) {
+			if (versionObject instanceof Version) {
+				return (Version) versionObject;
+			} else if (versionObject instanceof String) {
+				return new Version((String) versionObject);
+			} else {
+				return new Version("0.0.0");
+			}
 		}
 	}
 
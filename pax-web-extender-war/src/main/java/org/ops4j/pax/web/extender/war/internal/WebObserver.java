@@ -17,16 +17,20 @@ package org.ops4j.pax.web.extender.war.internal;
 
 import static org.ops4j.pax.web.extender.war.internal.parser.WebAppParser.canSeeClass;
 import static org.ops4j.pax.web.extender.war.internal.util.ManifestUtil.getHeader;
+import static org.ops4j.pax.web.service.spi.WebEvent.DEPLOYED;
 import static org.ops4j.pax.web.service.spi.WebEvent.DEPLOYING;
 import static org.ops4j.pax.web.service.spi.WebEvent.UNDEPLOYED;
 import static org.ops4j.pax.web.service.spi.WebEvent.UNDEPLOYING;
 import static org.ops4j.pax.web.service.spi.WebEvent.WAITING;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.Servlet;
 
@@ -84,10 +88,47 @@ public class WebObserver implements WarManager {
 	 */
 	private final Map<String, List<WebApp>> contexts = new HashMap<String, List<WebApp>>();
 
+	/**
+	 * Whether a web app with the symbolic name of the one serving its context
+	 * path is started next to it, instead of waiting for the context path.
+	 */
+	private final boolean sideBySideUpgrades;
+
+	/**
+	 * Web apps published next to the web app serving their context path,
+	 * until they take it over.
+	 */
+	private final Set<WebApp> upgrading = Collections
+			.newSetFromMap(new ConcurrentHashMap<WebApp, Boolean>());
+
+	private final WebAppPublisher.UpgradeCallback upgradeCallback = new WebAppPublisher.UpgradeCallback() {
+
+		@Override
+		public void takeOver(WebApp webApp) {
+			WebObserver.this.takeOver(webApp);
+		}
+
+	};
+
 	public WebObserver(WebAppParser parser, WebAppPublisher publisher,
 			WebEventDispatcher eventDispatcher,
 			DefaultWebAppDependencyManager dependencyManager,
 			BundleContext bundleContext) {
+		this(parser, publisher, eventDispatcher, dependencyManager,
+				bundleContext, false);
+	}
+
+	/**
+	 * @param sideBySideUpgrades
+	 *            true to start a new revision of a web app, installed as
+	 *            another bundle with the same symbolic name, next to the one
+	 *            serving its context path; the new revision takes the context
+	 *            path over once started and the previous one waits behind it
+	 */
+	public WebObserver(WebAppParser parser, WebAppPublisher publisher,
+			WebEventDispatcher eventDispatcher,
+			DefaultWebAppDependencyManager dependencyManager,
+			BundleContext bundleContext, boolean sideBySideUpgrades) {
 
 		NullArgumentException.validateNotNull(parser, "Web App Parser");
 		NullArgumentException.validateNotNull(publisher, "Web App Publisher");
@@ -102,6 +143,7 @@ public class WebObserver implements WarManager {
 		this.bundleContext = bundleContext;
 		this.dependencyManager = dependencyManager;
 		this.eventDispatcher = eventDispatcher;
+		this.sideBySideUpgrades = sideBySideUpgrades;
 	}
 
 	/**
@@ -125,89 +167,108 @@ public class WebObserver implements WarManager {
 		}
 
 		// Check that this is a web bundle
-		String contextName = getHeader(bundle, "Web-ContextPath");
+		String contextName = extractContextName(bundle);
 		if (contextName == null) {
 			return null;
 		}
-		contextName = contextName.trim();
-		if (contextName.startsWith("/")) {
-			contextName = contextName.substring(1);
-		}
 
 		// Start web app creation
 		final WebApp webApp = new WebApp();
 		webApp.setDeploymentState(WebEvent.UNDEPLOYED);
 		webApp.setBundle(bundle);
 		webApp.setContextName(contextName);
-		try {
-			eventDispatcher.webEvent(webApp, WebEvent.DEPLOYING);
-
-			parser.parse(bundle, webApp);
-
-			String requireCapabilityHeader = ManifestUtil.getHeader(bundle,
-					"Require-Capability");
-			String paxManagedBeansHeader = ManifestUtil.getHeader(bundle,
-					"Pax-ManagedBeans");
-			// If the header isn't present Pax-Web is able to take care of it.
-			// otherwise needs support by Pax-CDI
-			if (paxManagedBeansHeader == null
-					&& requireCapabilityHeader == null) {
-				webApp.setHasDependencies(true);
-				dependencyManager.addWebApp(webApp);
-			} else if (requireCapabilityHeader != null
-					&& !requireCapabilityHeader
-							.contains("osgi.extender=pax.cdi")) {
-				// needs to be backward compatible
-				webApp.setHasDependencies(true);
-				dependencyManager.addWebApp(webApp);
-			}
+		eventDispatcher.webEvent(webApp, WebEvent.DEPLOYING);
 
-			// Register the web app
-			synchronized (webApps) {
-				webApps.put(bundle.getBundleId(), webApp);
-			}
+		// parsing and scanning is done when the extension is started, so
+		// that it runs on the deployment threads and not on the thread
+		// delivering the bundle event
+		return new SimpleExtension(bundle) {
+			@Override
+			public void doStart() {
+				try {
+					parser.parse(bundle, webApp);
+					//CHECKSTYLE:OFF
+				} catch (Exception e) {
+					LOG.error(
+							"Error scanning web bundle " + bundle + ": "
+									+ e.getMessage(), e);
+					eventDispatcher.webEvent(webApp, WebEvent.FAILED, e);
+					return;
+				}
+				//CHECKSTYLE:ON
 
-			return new SimpleExtension(bundle) {
-				@Override
-				public void doStart() {
-					// Check if the web app has already been destroyed
-					synchronized (webApps) {
-						if (!webApps.containsKey(bundle.getBundleId())) {
-							return;
-						}
-					}
-					deploy(webApp);
+				String requireCapabilityHeader = ManifestUtil.getHeader(bundle,
+						"Require-Capability");
+				String paxManagedBeansHeader = ManifestUtil.getHeader(bundle,
+						"Pax-ManagedBeans");
+				// If the header isn't present Pax-Web is able to take care of it.
+				// otherwise needs support by Pax-CDI
+				if (paxManagedBeansHeader == null
+						&& requireCapabilityHeader == null) {
+					webApp.setHasDependencies(true);
+					dependencyManager.addWebApp(webApp);
+				} else if (requireCapabilityHeader != null
+						&& !requireCapabilityHeader
+								.contains("osgi.extender=pax.cdi")) {
+					// needs to be backward compatible
+					webApp.setHasDependencies(true);
+					dependencyManager.addWebApp(webApp);
 				}
 
-				@Override
-				public void doDestroy() {
-					// Flag this web app has destroyed by removing it
-					// from the list
-					synchronized (webApps) {
-						webApps.remove(bundle.getBundleId());
-					}
-					undeploy(webApp);
-					eventDispatcher.removeWebApp(webApp);
-					dependencyManager.removeWebApp(webApp);
+				// Register the web app
+				synchronized (webApps) {
+					webApps.put(bundle.getBundleId(), webApp);
 				}
-			};
-			//CHECKSTYLE:OFF
-		} catch (Exception e) { 
-			LOG.error(
-					"Error scanning web bundle " + bundle + ": "
-							+ e.getMessage(), e);
-			eventDispatcher.webEvent(webApp, WebEvent.FAILED, e);
+				deploy(webApp);
+			}
+
+			@Override
+			public void doDestroy() {
+				// Flag this web app has destroyed by removing it
+				// from the list
+				synchronized (webApps) {
+					webApps.remove(bundle.getBundleId());
+				}
+				undeploy(webApp);
+				eventDispatcher.removeWebApp(webApp);
+				dependencyManager.removeWebApp(webApp);
+			}
+		};
+	}
+
+	/**
+	 * Extracts the context name from the Web-ContextPath header.
+	 * 
+	 * @param bundle
+	 *            the bundle to inspect
+	 * @return the context name without leading slash, or null if the bundle
+	 *         is not a web bundle
+	 */
+	static String extractContextName(Bundle bundle) {
+		String contextName = getHeader(bundle, "Web-ContextPath");
+		if (contextName == null) {
 			return null;
 		}
-		//CHECKSTYLE:ON
+		contextName = contextName.trim();
+		if (contextName.startsWith("/")) {
+			contextName = contextName.substring(1);
+		}
+		return contextName;
 	}
 
 	public void deploy(WebApp webApp) {
 		List<WebApp> queue = getQueue(webApp);
         Collection<Long> duplicateIds = null;
+		WebApp upgraded = null;
 		synchronized (queue) {
 			if (queue.isEmpty()) {
 				queue.add(webApp);
+			} else if (isUpgrade(queue, webApp)) {
+				// the current web app serves the context path until the
+				// upgrade takes it over
+				upgraded = queue.get(0);
+				queue.add(1, webApp);
+				upgrading.add(webApp);
 			} else {
 				queue.add(webApp);
 				duplicateIds = new LinkedList<Long>();
@@ -216,7 +277,11 @@ public class WebObserver implements WarManager {
 				}
             }
         }
-        if (duplicateIds == null) {
+        if (upgraded != null) {
+			LOG.info("Deploying web application {} next to {} it upgrades",
+					webApp, upgraded);
+			publisher.publish(webApp, upgradeCallback);
+        } else if (duplicateIds == null) {
             publisher.publish(webApp);
         } else {
             webApp.setDeploymentState(WAITING);
@@ -239,6 +304,10 @@ public class WebObserver implements WarManager {
                 if (!queue.isEmpty()) {
                     LOG.debug("Found another bundle waiting for the context");
                     next = queue.get(0);
+                    if (upgrading.remove(next)) {
+                        // already published, nothing left to take over
+                        next = null;
+                    }
                 } else {
                     synchronized (contexts) {
                         contexts.remove(webApp.getContextName());
@@ -246,6 +315,8 @@ public class WebObserver implements WarManager {
                 }
             } else if (queue.remove(webApp)) {
                 undeploy = true;
+                // published next to the web app it upgrades
+                unpublish = upgrading.remove(webApp);
             }
         }
         if (unpublish) {
@@ -265,6 +336,66 @@ public class WebObserver implements WarManager {
         }
 	}
 
+	/**
+	 * @return true if the web app is to be started next to the web app
+	 *         serving its context path
+	 */
+	private boolean isUpgrade(List<WebApp> queue, WebApp webApp) {
+		if (!sideBySideUpgrades) {
+			return false;
+		}
+		WebApp current = queue.get(0);
+		String symbolicName = webApp.getBundle().getSymbolicName();
+		if (current.getDeploymentState() != DEPLOYED
+				|| current.getBundle() == webApp.getBundle()
+				|| symbolicName == null
+				|| !symbolicName.equals(current.getBundle().getSymbolicName())) {
+			return false;
+		}
+		// one upgrade at a time
+		for (WebApp queued : queue) {
+			if (upgrading.contains(queued)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the web app in front of the queue of its context path, and the
+	 * one it upgrades right behind it, waiting as if it was deployed later.
+	 */
+	private void takeOver(WebApp webApp) {
+		WebApp upgraded = null;
+		Collection<Long> waitingIds = null;
+		List<WebApp> queue = getQueue(webApp);
+		synchronized (queue) {
+			if (!upgrading.remove(webApp)) {
+				// undeployed meanwhile, or took over already
+				return;
+			}
+			if (queue.indexOf(webApp) > 0) {
+				upgraded = queue.remove(0);
+				queue.remove(webApp);
+				queue.add(0, webApp);
+				queue.add(1, upgraded);
+				waitingIds = new LinkedList<Long>();
+				for (WebApp queued : queue) {
+					waitingIds.add(queued.getBundle().getBundleId());
+				}
+			}
+		}
+		if (upgraded != null) {
+			LOG.info("Web application {} took over the context path of {}",
+					webApp, upgraded);
+			upgraded.setDeploymentState(WAITING);
+			eventDispatcher.webEvent(upgraded, UNDEPLOYING);
+			publisher.unpublish(upgraded);
+			eventDispatcher.webEvent(upgraded, UNDEPLOYED);
+			eventDispatcher.webEvent(upgraded, WAITING, waitingIds);
+		}
+	}
+
 	private List<WebApp> getQueue(WebApp webApp) {
 		synchronized (contexts) {
 			List<WebApp> queue = contexts.get(webApp.getContextName());
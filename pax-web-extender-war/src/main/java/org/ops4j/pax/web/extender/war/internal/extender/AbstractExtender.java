@@ -65,6 +65,7 @@ public abstract class AbstractExtender implements BundleActivator,
 	private boolean preemptiveShutdown;
 	private BundleContext bundleContext;
 	private ExecutorService executors;
+	private KeyedExecutor keyedExecutor;
 	private BundleTracker<Bundle> tracker;
 
 	/**
@@ -113,6 +114,7 @@ public abstract class AbstractExtender implements BundleActivator,
 				| Bundle.STARTING, this);
 		if (!this.synchronous) {
 			this.executors = createExecutor();
+			this.keyedExecutor = new KeyedExecutor(this.executors);
 		}
 		doStart();
 	}
@@ -138,6 +140,7 @@ public abstract class AbstractExtender implements BundleActivator,
 				// Ignore
 			}
 			executors = null;
+			keyedExecutor = null;
 		}
         stopped = true;
 	}
@@ -167,6 +170,20 @@ public abstract class AbstractExtender implements BundleActivator,
 		return Executors.newScheduledThreadPool(3);
 	}
 
+	/**
+	 * Returns the key used to order the asynchronous start of extensions.
+	 * Extensions with equal keys are started one after the other, extensions
+	 * with different keys or a null key may be started in parallel.
+	 * 
+	 * @param bundle
+	 *            the bundle being extended
+	 * @return the ordering key, or null if the extension may start in
+	 *         parallel with any other
+	 */
+	protected Object getExtensionKey(Bundle bundle) {
+		return null;
+	}
+
 	/**
 	 * 
 	 * @param bundles
@@ -275,7 +292,7 @@ public abstract class AbstractExtender implements BundleActivator,
 				logger.debug(
 						"Scheduling start of extension for bundle {} asynchronously",
 						bundle.getSymbolicName());
-				getExecutors().submit(new Runnable() {
+				keyedExecutor.execute(getExtensionKey(bundle), new Runnable() {
 					public void run() {
 						extension.start();
 					}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.extender;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on an underlying executor, serializing tasks submitted with the
+ * same key. Tasks with different keys, or without a key, run in parallel up to
+ * the size of the underlying executor.
+ */
+public class KeyedExecutor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(KeyedExecutor.class);
+
+	private final Executor executor;
+
+	/**
+	 * Tasks waiting for the running task of the same key to finish. A key is
+	 * present as long as one of its tasks is running.
+	 */
+	private final Map<Object, Deque<Runnable>> pending = new HashMap<Object, Deque<Runnable>>();
+
+	public KeyedExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Executes the task once all previously submitted tasks with an equal key
+	 * have completed.
+	 * 
+	 * @param key
+	 *            serialization key, may be null for tasks without ordering
+	 *            constraints
+	 * @param task
+	 *            task to run
+	 * @throws RejectedExecutionException
+	 *             if the underlying executor rejects the task
+	 */
+	public void execute(final Object key, final Runnable task) {
+		if (key == null) {
+			executor.execute(task);
+			return;
+		}
+		synchronized (pending) {
+			Deque<Runnable> queue = pending.get(key);
+			if (queue != null) {
+				LOG.debug("Task for key {} queued behind a running task", key);
+				queue.add(task);
+				return;
+			}
+			pending.put(key, new ArrayDeque<Runnable>());
+		}
+		try {
+			executor.execute(new SerialTask(key, task));
+		} catch (RejectedExecutionException ree) {
+			synchronized (pending) {
+				pending.remove(key);
+			}
+			throw ree;
+		}
+	}
+
+	private void scheduleNext(Object key) {
+		Runnable next;
+		synchronized (pending) {
+			Deque<Runnable> queue = pending.get(key);
+			next = queue == null ? null : queue.poll();
+			if (next == null) {
+				pending.remove(key);
+				return;
+			}
+		}
+		try {
+			executor.execute(new SerialTask(key, next));
+		} catch (RejectedExecutionException ree) {
+			LOG.warn("Executor shut down, dropping pending tasks for key " + key, ree);
+			synchronized (pending) {
+				pending.remove(key);
+			}
+		}
+	}
+
+	private final class SerialTask implements Runnable {
+
+		private final Object key;
+		private final Runnable task;
+
+		private SerialTask(Object key, Runnable task) {
+			this.key = key;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} finally {
+				scheduleNext(key);
+			}
+		}
+	}
+
+}
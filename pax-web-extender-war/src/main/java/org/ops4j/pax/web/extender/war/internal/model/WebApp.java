@@ -163,6 +163,11 @@ public class WebApp {
 	private WebAppCookieConfig sessionCookieConfig;
 	
 	private WebAppJspConfig jspConfigDescriptor;
+
+	/**
+	 * Duration in milliseconds of each deployment phase, in phase order.
+	 */
+	private final Map<String, Long> deploymentTimings;
 	
 	
 	/**
@@ -186,6 +191,7 @@ public class WebApp {
 		this.connectorList = new ArrayList<String>();
 		servletContainerInitializers = new ArrayList<WebAppServletContainerInitializer>();
 		sessionTrackingModes = new ArrayList<String>();
+		deploymentTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
 		metaDataComplete = false;
 	}
 	
@@ -767,6 +773,28 @@ public class WebApp {
 		this.deploymentState = deploymentState;
 	}
 
+	/**
+	 * Records the duration of a deployment phase (parse, scan, register,
+	 * start).
+	 * 
+	 * @param phase
+	 *            name of the phase
+	 * @param millis
+	 *            duration in milliseconds
+	 */
+	public void addDeploymentTiming(String phase, long millis) {
+		deploymentTimings.put(phase, millis);
+	}
+
+	/**
+	 * @return snapshot of the recorded deployment phase durations
+	 */
+	public Map<String, Long> getDeploymentTimings() {
+		synchronized (deploymentTimings) {
+			return new LinkedHashMap<String, Long>(deploymentTimings);
+		}
+	}
+
 	public void setMetaDataComplete(boolean metaDataComplete) {
 		this.metaDataComplete = metaDataComplete;
 	}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Collects the name and ordering elements of a web-fragment.xml and the
+ * absolute ordering of a web.xml while the descriptor is unmarshalled, as the
+ * generated model only covers web.xml.
+ */
+class OrderingFilter extends XMLFilterImpl {
+
+	private final LinkedList<String> path = new LinkedList<String>();
+
+	private final StringBuilder text = new StringBuilder();
+
+	private String name;
+
+	private final List<String> before = new ArrayList<String>();
+
+	private final List<String> after = new ArrayList<String>();
+
+	private List<String> absoluteOrdering;
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts)
+			throws SAXException {
+		path.addLast(localName);
+		text.setLength(0);
+		if (path.size() == 2 && "absolute-ordering".equals(localName)) {
+			absoluteOrdering = new ArrayList<String>();
+		}
+		super.startElement(uri, localName, qName, atts);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		text.append(ch, start, length);
+		super.characters(ch, start, length);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String value = "others".equals(localName) ? WebFragmentOrdering.OTHERS : text.toString().trim();
+		if (path.size() == 2 && "name".equals(localName)) {
+			name = value;
+		} else if (path.size() == 3 && "absolute-ordering".equals(path.get(1))) {
+			absoluteOrdering.add(value);
+		} else if (path.size() == 4 && "ordering".equals(path.get(1))) {
+			if ("before".equals(path.get(2))) {
+				before.add(value);
+			} else if ("after".equals(path.get(2))) {
+				after.add(value);
+			}
+		}
+		path.removeLast();
+		text.setLength(0);
+		super.endElement(uri, localName, qName);
+	}
+
+	/**
+	 * @return name of the web fragment, or null
+	 */
+	String getName() {
+		return name == null || name.isEmpty() ? null : name;
+	}
+
+	List<String> getBefore() {
+		return before;
+	}
+
+	List<String> getAfter() {
+		return after;
+	}
+
+	/**
+	 * @return absolute ordering of the web fragments, or null if the web.xml
+	 *         has none
+	 */
+	List<String> getAbsoluteOrdering() {
+		return absoluteOrdering;
+	}
+
+}
@@ -22,17 +22,30 @@ import static org.ops4j.util.xml.ElementHelper.getChild;
 import static org.ops4j.util.xml.ElementHelper.getChildren;
 import static org.ops4j.util.xml.ElementHelper.getRootElement;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.MultipartConfigElement;
@@ -48,7 +61,6 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.transform.sax.SAXSource;
 
-import org.apache.xbean.finder.BundleAnnotationFinder;
 import org.ops4j.pax.web.descriptor.gen.AuthConstraintType;
 import org.ops4j.pax.web.descriptor.gen.CookieConfigType;
 import org.ops4j.pax.web.descriptor.gen.DescriptionType;
@@ -101,11 +113,12 @@ import org.ops4j.pax.web.extender.war.internal.model.WebAppServletMapping;
 import org.ops4j.pax.web.extender.war.internal.model.WebAppTagLib;
 import org.ops4j.pax.web.extender.war.internal.util.ManifestUtil;
 import org.ops4j.pax.web.service.spi.model.ErrorPageModel;
+import org.ops4j.pax.web.utils.AnnotationIndex;
 import org.ops4j.pax.web.utils.ClassPathUtil;
-import org.ops4j.spi.SafeServiceLoader;
+import org.ops4j.pax.web.utils.ServletContainerInitializerScanner;
 import org.osgi.framework.Bundle;
-import org.osgi.service.packageadmin.PackageAdmin;
-import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
@@ -129,13 +142,37 @@ public class WebAppParser {
 	 */
 	private static final Logger LOG = LoggerFactory.getLogger(WebAppParser.class);
 
-	private ServiceTracker<PackageAdmin, PackageAdmin> packageAdmin;
+	/**
+	 * Directory keeping the annotation indexes of the web applications across
+	 * restarts, or null.
+	 */
+	private final File indexDirectory;
+
+	/**
+	 * Executor parsing the web fragments of a web application in parallel, or
+	 * null to parse them on the deploying thread.
+	 */
+	private final ExecutorService fragmentExecutor;
+
+	/**
+	 * Web fragments found in each revision of the bundles seen in the class
+	 * space of a web application.
+	 */
+	private final Map<BundleRevision, List<WebFragment>> webFragmentCache = Collections
+			.synchronizedMap(new WeakHashMap<BundleRevision, List<WebFragment>>());
+
+	private JAXBContext webAppContext;
 
-	public WebAppParser(ServiceTracker<PackageAdmin, PackageAdmin> packageAdmin) {
-		this.packageAdmin = packageAdmin;
+	public WebAppParser(File indexDirectory, ExecutorService fragmentExecutor) {
+		this.indexDirectory = indexDirectory;
+		this.fragmentExecutor = fragmentExecutor;
+		if (indexDirectory != null && !indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+			LOG.warn("Can't create directory {}, annotation indexes are not kept", indexDirectory);
+		}
 	}
 
 	public void parse(final Bundle bundle, WebApp webApp) throws Exception {
+		final long parseStart = System.currentTimeMillis();
 		// Find root path
 		String rootPath = extractRootPath(bundle);
 		if (!rootPath.isEmpty()) {
@@ -146,8 +183,11 @@ public class WebAppParser {
 		// Find web xml
 		Enumeration<URL> entries = bundle.findEntries(rootPath + "WEB-INF", "web.xml", false);
 		URL webXmlURL = (entries != null && entries.hasMoreElements()) ? entries.nextElement() : null;
+		List<String> absoluteOrdering = null;
 		if (webXmlURL != null) {
-			WebAppType webAppType = parseWebXml(webXmlURL);
+			OrderingFilter ordering = new OrderingFilter();
+			WebAppType webAppType = parseWebXml(webXmlURL, ordering);
+			absoluteOrdering = ordering.getAbsoluteOrdering();
 			// web-app attributes
 			majorVersion = scanMajorVersion(webAppType);
 			if (webAppType.isMetadataComplete() != null)
@@ -157,15 +197,21 @@ public class WebAppParser {
 			parseApp(webAppType, webApp);
 		}
 		// Scan servlet context initializers
-		servletContainerInitializerScan(bundle, webApp, majorVersion);
-		// Scan annotations
+		final long scanStart = System.currentTimeMillis();
+		AnnotationIndex annotationIndex = null;
 		if (!webApp.getMetaDataComplete() && majorVersion != null && majorVersion >= 3) {
+			annotationIndex = getAnnotationIndex(bundle);
+		}
+		servletContainerInitializerScan(bundle, webApp, annotationIndex);
+		// Scan annotations
+		if (annotationIndex != null) {
 			if (TRUE.equals(canSeeClass(bundle, WebServlet.class))) {
-				servletAnnotationScan(bundle, webApp);
+				servletAnnotationScan(bundle, webApp, annotationIndex);
 			}
 		}
 		// Scan tlds
 		tldScan(bundle, webApp);
+		final long scanDuration = System.currentTimeMillis() - scanStart;
 		// Look for jetty web xml
 		URL jettyWebXmlURL = null;
 		Enumeration<URL> enums = bundle.findEntries(rootPath + "WEB-INF", "*web*.xml", false);
@@ -182,7 +228,7 @@ public class WebAppParser {
 
 		// Look for attached web-fragements
 		List<URL> webFragments = null;
-		webFragments = scanWebFragments(bundle, webApp);
+		webFragments = scanWebFragments(bundle, webApp, absoluteOrdering);
 
 		webApp.setWebXmlURL(webXmlURL);
 		webApp.setJettyWebXmlURL(jettyWebXmlURL);
@@ -190,6 +236,9 @@ public class WebAppParser {
 		webApp.setConnectorList(extractConnectorList(bundle));
 		webApp.setWebFragments(webFragments);
 		webApp.setRootPath(rootPath);
+
+		webApp.addDeploymentTiming("parse", System.currentTimeMillis() - parseStart - scanDuration);
+		webApp.addDeploymentTiming("scan", scanDuration);
 	}
 
 	private void parseApp(WebAppType webAppType, WebApp webApp) {
@@ -352,82 +401,259 @@ public class WebAppParser {
 		}
 	}
 
-	private List<URL> scanWebFragments(final Bundle bundle, final WebApp webApp) throws Exception {
-		Set<Bundle> bundlesInClassSpace = ClassPathUtil.getBundlesInClassSpace(bundle, new HashSet<Bundle>());
+	/**
+	 * Merges the web fragments of the class space of a web application in
+	 * their ordering. The fragments of each bundle are parsed in parallel and
+	 * only once per bundle revision.
+	 */
+	private List<URL> scanWebFragments(final Bundle bundle, final WebApp webApp, final List<String> absoluteOrdering)
+			throws Exception {
+		final long scanStart = System.currentTimeMillis();
+		// created here, as the executor threads have another context class loader
+		getWebAppContext();
+		List<WebFragment> found = new ArrayList<WebFragment>();
+		Map<BundleRevision, Future<List<WebFragment>>> parsing = new LinkedHashMap<BundleRevision, Future<List<WebFragment>>>();
+		for (final Bundle fragmentBundle : ServletContainerInitializerScanner.getBundlesInClassSpace(bundle)) {
+			BundleRevision revision = fragmentBundle.adapt(BundleRevision.class);
+			if (revision == null) {
+				continue;
+			}
+			List<WebFragment> cached = webFragmentCache.get(revision);
+			if (cached != null) {
+				found.addAll(cached);
+				continue;
+			}
+			Callable<List<WebFragment>> task = new Callable<List<WebFragment>>() {
+				@Override
+				public List<WebFragment> call() {
+					return parseWebFragments(fragmentBundle);
+				}
+			};
+			if (fragmentExecutor == null) {
+				FutureTask<List<WebFragment>> future = new FutureTask<List<WebFragment>>(task);
+				future.run();
+				parsing.put(revision, future);
+			} else {
+				parsing.put(revision, fragmentExecutor.submit(task));
+			}
+		}
+		for (Map.Entry<BundleRevision, Future<List<WebFragment>>> entry : parsing.entrySet()) {
+			List<WebFragment> parsed;
+			try {
+				parsed = entry.getValue().get();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+			webFragmentCache.put(entry.getKey(), parsed);
+			found.addAll(parsed);
+		}
+		// the class space is not ordered, and getResources follows
+		// Require-Bundle wires, so a fragment may be found in several bundles
+		Map<String, WebFragment> unique = new TreeMap<String, WebFragment>();
+		for (WebFragment fragment : found) {
+			String url = fragment.getUrl().toExternalForm();
+			if (!unique.containsKey(url)) {
+				unique.put(url, fragment);
+			}
+		}
 
 		List<URL> webFragments = new ArrayList<URL>();
-		for (URL webFragmentURL : ClassPathUtil.findResources(bundlesInClassSpace, "/META-INF", "web-fragment.xml", true)) {
-			webFragments.add(webFragmentURL);
-			WebAppType webAppType = parseWebXml(webFragmentURL);
-			parseApp(webAppType, webApp);
+		for (WebFragment fragment : WebFragmentOrdering.order(new ArrayList<WebFragment>(unique.values()),
+				absoluteOrdering)) {
+			webFragments.add(fragment.getUrl());
+			parseApp(fragment.getDescriptor(), webApp);
 		}
+		LOG.debug("found {} web fragments, {} parsed, in {} ms", unique.size(), parsing.size(),
+				System.currentTimeMillis() - scanStart);
 		return webFragments;
 	}
 
-	private void servletAnnotationScan(final Bundle bundle, final WebApp webApp) throws Exception {
+	/**
+	 * Parses the web fragments found in the jars and directories of a bundle.
+	 */
+	private List<WebFragment> parseWebFragments(final Bundle bundle) {
+		BundleWiring wiring = bundle.adapt(BundleWiring.class);
+		if (wiring == null) {
+			return Collections.emptyList();
+		}
+		Collection<String> names = wiring.listResources("/META-INF", "web-fragment.xml",
+				BundleWiring.LISTRESOURCES_LOCAL | BundleWiring.LISTRESOURCES_RECURSE);
+		if (names == null || names.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<WebFragment> webFragments = new ArrayList<WebFragment>();
+		for (String name : names) {
+			Enumeration<URL> urls;
+			try {
+				urls = bundle.getResources(name);
+			} catch (IOException e) {
+				LOG.warn("Can't find web fragments in bundle " + bundle.getSymbolicName(), e);
+				continue;
+			}
+			while (urls != null && urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				OrderingFilter ordering = new OrderingFilter();
+				WebAppType webAppType = parseWebXml(url, ordering);
+				if (webAppType != null) {
+					webFragments.add(new WebFragment(url, ordering.getName(), ordering.getBefore(),
+							ordering.getAfter(), webAppType));
+				}
+			}
+		}
+		return webFragments;
+	}
+
+	/**
+	 * Deletes the annotation indexes of the bundles which are not installed
+	 * any more, e.g. uninstalled while the extender was stopped.
+	 * 
+	 * @param installed
+	 *            the bundles currently installed
+	 */
+	public void pruneAnnotationIndexes(final Bundle[] installed) {
+		File[] files = indexDirectory == null ? null : indexDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Set<String> current = new HashSet<String>();
+		for (Bundle bundle : installed) {
+			current.add(getIndexFileName(bundle));
+		}
+		for (File file : files) {
+			if (!current.contains(file.getName()) && !file.delete()) {
+				LOG.debug("Can't delete annotation index {}", file);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the annotation index of an uninstalled bundle.
+	 */
+	public void deleteAnnotationIndex(final Bundle bundle) {
+		if (indexDirectory == null) {
+			return;
+		}
+		File indexFile = new File(indexDirectory, getIndexFileName(bundle));
+		if (indexFile.exists() && !indexFile.delete()) {
+			LOG.debug("Can't delete annotation index {}", indexFile);
+		}
+	}
+
+	private static String getIndexFileName(final Bundle bundle) {
+		return bundle.getBundleId() + ".idx";
+	}
+
+	/**
+	 * Gets the annotation index of the current revision of a bundle, from the
+	 * index directory if it was scanned before. The index is shared with the
+	 * web container, which looks up the {@code @HandlesTypes} of its own
+	 * initializers.
+	 */
+	private AnnotationIndex getAnnotationIndex(final Bundle bundle) {
+		final long scanStart = System.currentTimeMillis();
+		File indexFile = indexDirectory == null ? null : new File(indexDirectory, getIndexFileName(bundle));
+		if (indexFile != null && indexFile.isFile()) {
+			try {
+				AnnotationIndex index = AnnotationIndex.read(indexFile);
+				if (index != null && index.isCurrent(bundle)) {
+					LOG.debug("read annotation index of {} classes", index.getClassCount());
+					AnnotationIndex.share(bundle, index);
+					return index;
+				}
+			} catch (IOException e) {
+				LOG.warn("Can't read annotation index " + indexFile, e);
+			}
+		}
+		AnnotationIndex index = AnnotationIndex.get(bundle);
+		LOG.debug("indexed {} classes in {} ms", index.getClassCount(), System.currentTimeMillis() - scanStart);
+		if (indexFile != null) {
+			try {
+				index.write(indexFile);
+			} catch (IOException e) {
+				LOG.warn("Can't write annotation index " + indexFile, e);
+			}
+		}
+		return index;
+	}
+
+	private void servletAnnotationScan(final Bundle bundle, final WebApp webApp, final AnnotationIndex index) {
 
 		LOG.debug("metadata-complete is either false or not set");
 
 		LOG.debug("scanning for annotated classes");
-		BundleAnnotationFinder baf = new BundleAnnotationFinder(packageAdmin.getService(), bundle);
-		Set<Class<?>> webServletClasses = new LinkedHashSet<Class<?>>(baf.findAnnotatedClasses(WebServlet.class));
-		Set<Class<?>> webFilterClasses = new LinkedHashSet<Class<?>>(baf.findAnnotatedClasses(WebFilter.class));
-		Set<Class<?>> webListenerClasses = new LinkedHashSet<Class<?>>(baf.findAnnotatedClasses(WebListener.class));
-
-		for (Class<?> webServletClass : webServletClasses) {
+		for (String webServletClass : index.getAnnotatedClasses(WebServlet.class.getName())) {
 			LOG.debug("found WebServlet annotation on class: {}", webServletClass);
 			WebServletAnnotationConfigurer annonScanner = new WebServletAnnotationConfigurer(bundle,
-					webServletClass.getCanonicalName());
+					webServletClass);
 			annonScanner.scan(webApp);
 		}
-		for (Class<?> webFilterClass : webFilterClasses) {
+		for (String webFilterClass : index.getAnnotatedClasses(WebFilter.class.getName())) {
 			LOG.debug("found WebFilter annotation on class: {}", webFilterClass);
 			WebFilterAnnotationConfigurer filterScanner = new WebFilterAnnotationConfigurer(bundle,
-					webFilterClass.getCanonicalName());
+					webFilterClass);
 			filterScanner.scan(webApp);
 		}
-		for (Class<?> webListenerClass : webListenerClasses) {
+		for (String webListenerClass : index.getAnnotatedClasses(WebListener.class.getName())) {
 			LOG.debug("found WebListener annotation on class: {}", webListenerClass);
-			addWebListener(webApp, webListenerClass.getCanonicalName());
+			addWebListener(webApp, webListenerClass);
 		}
 
 		LOG.debug("class scanning done");
 	}
 
-	private void servletContainerInitializerScan(Bundle bundle, WebApp webApp, Integer majorVersion) throws Exception {
+	private void servletContainerInitializerScan(Bundle bundle, WebApp webApp, AnnotationIndex annotationIndex) {
 		LOG.debug("scanning for ServletContainerInitializers");
 
-		SafeServiceLoader safeServiceLoader = new SafeServiceLoader(bundle.getClass().getClassLoader());
-		List<ServletContainerInitializer> containerInitializers = safeServiceLoader
-				.load("javax.servlet.ServletContainerInitializer");
-
-		for (ServletContainerInitializer servletContainerInitializer : containerInitializers) {
+		// the class space and the initializers each bundle declares are cached
+		// by the scanner, only @HandlesTypes is resolved per deployment
+		Set<Bundle> bundlesInClassSpace = new LinkedHashSet<Bundle>();
+		bundlesInClassSpace.add(bundle);
+		bundlesInClassSpace.addAll(ServletContainerInitializerScanner.getBundlesInClassSpace(bundle));
+		Map<Class<?>, Set<Class<?>>> handledClasses = new HashMap<Class<?>, Set<Class<?>>>();
+
+		for (Map.Entry<String, Bundle> entry : ServletContainerInitializerScanner
+				.findServletContainerInitializers(bundlesInClassSpace).entrySet()) {
+			String className = entry.getKey();
+			if (className.endsWith("JasperInitializer")) {
+				// the web containers add it themselves
+				continue;
+			}
+			ServletContainerInitializer servletContainerInitializer;
+			try {
+				Class<?> initializerClass;
+				try {
+					initializerClass = bundle.loadClass(className);
+				} catch (ClassNotFoundException ignore) {
+					initializerClass = entry.getValue().loadClass(className);
+				}
+				servletContainerInitializer = (ServletContainerInitializer) initializerClass.newInstance();
+			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+				LOG.warn("Failed to instantiate ServletContainerInitializer " + className, e);
+				continue;
+			}
+			LOG.debug("found ServletContainerInitializer {}", className);
 			WebAppServletContainerInitializer webAppServletContainerInitializer = new WebAppServletContainerInitializer();
 			webAppServletContainerInitializer.setServletContainerInitializer(servletContainerInitializer);
 
-			if (!webApp.getMetaDataComplete() && majorVersion != null && majorVersion >= 3) {
-				@SuppressWarnings("unchecked")
-				Class<HandlesTypes> loadClass = (Class<HandlesTypes>) bundle
-						.loadClass("javax.servlet.annotation.HandlesTypes");
-				HandlesTypes handlesTypes = loadClass.cast(servletContainerInitializer.getClass().getAnnotation(
-						loadClass));
+			if (annotationIndex != null) {
+				HandlesTypes handlesTypes = servletContainerInitializer.getClass().getAnnotation(HandlesTypes.class);
 				LOG.debug("Found HandlesTypes {}", handlesTypes);
-				Class<?>[] classes;
 				if (handlesTypes != null) {
-					// add annotated classes to service
-					classes = handlesTypes.value();
-					webAppServletContainerInitializer.setClasses(classes);
+					// add the matching classes of the web application
+					Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+					for (Class<?> type : handlesTypes.value()) {
+						Set<Class<?>> matching = handledClasses.get(type);
+						if (matching == null) {
+							matching = annotationIndex.getHandledClasses(bundle, type);
+							handledClasses.put(type, matching);
+						}
+						classes.addAll(matching);
+					}
+					webAppServletContainerInitializer.setClasses(classes.toArray(new Class<?>[classes.size()]));
 				}
 			}
 			webApp.addServletContainerInitializer(webAppServletContainerInitializer);
 		}
-
-		if (containerInitializers != null) {
-			LOG.debug("found container initializers by SafeServiceLoader ... skip the old impl. ");
-			return; // everything done, in case this didn't work we'll keep on
-					// going with the backup.
-		}
-
 	}
 
 	private static void parseSecurityRole(SecurityRoleType securityRoleType, WebApp webApp) {
@@ -920,7 +1146,11 @@ public class WebAppParser {
 	}
 
 	public WebAppType parseWebXml(URL url) {
-		try {
+		return parseWebXml(url, null);
+	}
+
+	private WebAppType parseWebXml(URL url, OrderingFilter ordering) {
+		try (InputStream stream = url.openStream()) {
 			XMLReader reader = XMLReaderFactory.createXMLReader();
 
 			// Use filter to override the namespace in the document.
@@ -932,16 +1162,31 @@ public class WebAppParser {
 			// not require this filter.
 			NamespaceFilter inFilter = new NamespaceFilter("http://xmlns.jcp.org/xml/ns/javaee");
 			inFilter.setParent(reader);
+			XMLReader filter = inFilter;
+			if (ordering != null) {
+				ordering.setParent(inFilter);
+				filter = ordering;
+			}
 
-			JAXBContext context = JAXBContext.newInstance(WebAppType.class);
-			Unmarshaller unmarshaller = context.createUnmarshaller();
-			SAXSource source = new SAXSource(inFilter, new InputSource(url.openStream()));
+			Unmarshaller unmarshaller = getWebAppContext().createUnmarshaller();
+			SAXSource source = new SAXSource(filter, new InputSource(stream));
 
 			return unmarshaller.unmarshal(source, WebAppType.class).getValue();
 		} catch (JAXBException | IOException | SAXException exc) {
-			LOG.error("error parsing web.xml", exc);
+			LOG.error("error parsing " + url, exc);
 		}
 		return null;
 	}
 
+	/**
+	 * The JAXB context is expensive to create and thread safe, so all
+	 * descriptors share one.
+	 */
+	private synchronized JAXBContext getWebAppContext() throws JAXBException {
+		if (webAppContext == null) {
+			webAppContext = JAXBContext.newInstance(WebAppType.class);
+		}
+		return webAppContext;
+	}
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.parser;
+
+import java.net.URL;
+import java.util.List;
+
+import org.ops4j.pax.web.descriptor.gen.WebAppType;
+
+/**
+ * A parsed web-fragment.xml with its ordering.
+ */
+class WebFragment {
+
+	private final URL url;
+
+	private final String name;
+
+	private final List<String> before;
+
+	private final List<String> after;
+
+	private final WebAppType descriptor;
+
+	WebFragment(URL url, String name, List<String> before, List<String> after, WebAppType descriptor) {
+		this.url = url;
+		this.name = name;
+		this.before = before;
+		this.after = after;
+		this.descriptor = descriptor;
+	}
+
+	URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return name of the fragment, or null
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return names of the fragments this one comes before, may contain
+	 *         {@link WebFragmentOrdering#OTHERS}
+	 */
+	List<String> getBefore() {
+		return before;
+	}
+
+	/**
+	 * @return names of the fragments this one comes after, may contain
+	 *         {@link WebFragmentOrdering#OTHERS}
+	 */
+	List<String> getAfter() {
+		return after;
+	}
+
+	WebAppType getDescriptor() {
+		return descriptor;
+	}
+
+	@Override
+	public String toString() {
+		return name == null ? url.toExternalForm() : name + " (" + url.toExternalForm() + ")";
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders web fragments by the absolute ordering of the web.xml, or else by
+ * the relative ordering of the fragments (Servlet 3.0, 8.2.2). Fragments
+ * without ordering constraints keep the order they were given in.
+ */
+final class WebFragmentOrdering {
+
+	/**
+	 * Stands for the <code>&lt;others/&gt;</code> element of an ordering.
+	 */
+	static final String OTHERS = "<others/>";
+
+	private WebFragmentOrdering() {
+		// hidden
+	}
+
+	/**
+	 * @param fragments
+	 *            web fragments in discovery order
+	 * @param absoluteOrdering
+	 *            absolute ordering of the web.xml, or null to use the relative
+	 *            ordering of the fragments
+	 * @return fragments to process, in order
+	 * @throws IllegalArgumentException
+	 *             if two fragments have the same name or the relative ordering
+	 *             is circular
+	 */
+	static List<WebFragment> order(List<WebFragment> fragments, List<String> absoluteOrdering) {
+		Map<String, WebFragment> named = new HashMap<String, WebFragment>();
+		for (WebFragment fragment : fragments) {
+			if (fragment.getName() != null && named.put(fragment.getName(), fragment) != null) {
+				throw new IllegalArgumentException("Found multiple web fragments named " + fragment.getName());
+			}
+		}
+		if (absoluteOrdering != null) {
+			return orderAbsolute(fragments, named, absoluteOrdering);
+		}
+		return orderRelative(fragments, named);
+	}
+
+	private static List<WebFragment> orderAbsolute(List<WebFragment> fragments, Map<String, WebFragment> named,
+			List<String> absoluteOrdering) {
+		Set<WebFragment> listed = new LinkedHashSet<WebFragment>();
+		for (String name : absoluteOrdering) {
+			WebFragment fragment = named.get(name);
+			if (fragment != null) {
+				listed.add(fragment);
+			}
+		}
+		List<WebFragment> ordered = new ArrayList<WebFragment>();
+		for (String name : absoluteOrdering) {
+			if (OTHERS.equals(name)) {
+				for (WebFragment fragment : fragments) {
+					if (!listed.contains(fragment) && !ordered.contains(fragment)) {
+						ordered.add(fragment);
+					}
+				}
+			} else {
+				WebFragment fragment = named.get(name);
+				if (fragment != null && !ordered.contains(fragment)) {
+					ordered.add(fragment);
+				}
+			}
+		}
+		return ordered;
+	}
+
+	private static List<WebFragment> orderRelative(List<WebFragment> fragments, Map<String, WebFragment> named) {
+		int size = fragments.size();
+		Map<WebFragment, Integer> indexes = new HashMap<WebFragment, Integer>();
+		for (int i = 0; i < size; i++) {
+			indexes.put(fragments.get(i), i);
+		}
+		// successors[i] holds the fragments which have to follow fragment i
+		List<Set<Integer>> successors = new ArrayList<Set<Integer>>();
+		for (int i = 0; i < size; i++) {
+			successors.add(new LinkedHashSet<Integer>());
+		}
+		// 0 for fragments before others, 2 for fragments after others
+		int[] groups = new int[size];
+		for (int i = 0; i < size; i++) {
+			WebFragment fragment = fragments.get(i);
+			groups[i] = 1;
+			for (String name : fragment.getBefore()) {
+				if (OTHERS.equals(name)) {
+					groups[i] = 0;
+				} else if (named.containsKey(name)) {
+					successors.get(i).add(indexes.get(named.get(name)));
+				}
+			}
+			for (String name : fragment.getAfter()) {
+				if (OTHERS.equals(name)) {
+					groups[i] = groups[i] == 0 ? 0 : 2;
+				} else if (named.containsKey(name)) {
+					successors.get(indexes.get(named.get(name))).add(i);
+				}
+			}
+		}
+		// fragments which have to precede a fragment before others are before
+		// others as well, fragments following one after others after others
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < size; i++) {
+				for (int successor : successors.get(i)) {
+					if (groups[successor] == 0 && groups[i] != 0) {
+						groups[i] = 0;
+						changed = true;
+					} else if (groups[i] == 2 && groups[successor] == 1) {
+						groups[successor] = 2;
+						changed = true;
+					}
+				}
+			}
+		}
+		int[] predecessors = new int[size];
+		for (int i = 0; i < size; i++) {
+			for (int successor : successors.get(i)) {
+				predecessors[successor]++;
+			}
+		}
+		List<WebFragment> ordered = new ArrayList<WebFragment>(size);
+		boolean[] done = new boolean[size];
+		while (ordered.size() < size) {
+			int next = -1;
+			for (int i = 0; i < size; i++) {
+				if (!done[i] && predecessors[i] == 0 && (next < 0 || groups[i] < groups[next])) {
+					next = i;
+				}
+			}
+			if (next < 0) {
+				List<WebFragment> circular = new ArrayList<WebFragment>();
+				for (int i = 0; i < size; i++) {
+					if (!done[i]) {
+						circular.add(fragments.get(i));
+					}
+				}
+				throw new IllegalArgumentException("Circular ordering of web fragments " + circular);
+			}
+			done[next] = true;
+			ordered.add(fragments.get(next));
+			for (int successor : successors.get(next)) {
+				predecessors[successor]--;
+			}
+		}
+		return ordered;
+	}
+
+}
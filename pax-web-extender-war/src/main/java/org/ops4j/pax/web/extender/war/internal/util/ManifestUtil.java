@@ -71,6 +71,23 @@ public class ManifestUtil {
 		return null;
 	}
 
+	/**
+	 * @param bundle
+	 *            a bundle, possibly a fragment
+	 * @return symbolic name of the host of the fragment, or null if the bundle
+	 *         isn't a fragment
+	 */
+	public static String getFragmentHost(final Bundle bundle) {
+		String fragmentHost = (String) bundle.getHeaders().get(
+				Constants.FRAGMENT_HOST);
+		if (fragmentHost == null) {
+			return null;
+		}
+		int directives = fragmentHost.indexOf(';');
+		return (directives < 0 ? fragmentHost : fragmentHost.substring(0,
+				directives)).trim();
+	}
+
 	/**
 	 * @param bundle
 	 * @return
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.util;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded cache of resource lookups. Found resources and misses are kept in
+ * separate segments: found resources are evicted least recently used first
+ * once their segment is full, while misses can be requested for arbitrary
+ * names and are evicted in insertion order once their segment is full, or
+ * after their time to live.
+ */
+public class ResourceLookupCache {
+
+	private final int maxFound;
+	private final int maxMissing;
+	private final long missingTtl;
+
+	/**
+	 * Found resources in access order, guarded by itself.
+	 */
+	private final Map<String, URL> found;
+	/**
+	 * Expiry time of misses, by name.
+	 */
+	private final ConcurrentMap<String, Long> missing = new ConcurrentHashMap<String, Long>();
+	/**
+	 * Names of misses in insertion order, may still hold names already
+	 * removed from the map.
+	 */
+	private final Queue<String> missingOrder = new ConcurrentLinkedQueue<String>();
+	private final AtomicInteger missingOrderSize = new AtomicInteger();
+
+	/**
+	 * @param maxFound
+	 *            maximum number of found resources cached
+	 * @param maxMissing
+	 *            maximum number of misses cached
+	 * @param missingTtl
+	 *            time to live of misses in milliseconds
+	 */
+	public ResourceLookupCache(int maxFound, int maxMissing, long missingTtl) {
+		this.maxFound = maxFound;
+		this.maxMissing = maxMissing;
+		this.missingTtl = missingTtl;
+		this.found = new LinkedHashMap<String, URL>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, URL> eldest) {
+				return size() > ResourceLookupCache.this.maxFound;
+			}
+		};
+	}
+
+	/**
+	 * @param name
+	 *            resource name
+	 * @return the cached resource, or null if unknown
+	 */
+	public URL getFound(String name) {
+		synchronized (found) {
+			return found.get(name);
+		}
+	}
+
+	/**
+	 * @param name
+	 *            resource name
+	 * @return true if the resource is known not to exist
+	 */
+	public boolean isMissing(String name) {
+		Long expiry = missing.get(name);
+		if (expiry == null) {
+			return false;
+		}
+		if (expiry < System.currentTimeMillis()) {
+			missing.remove(name, expiry);
+			return false;
+		}
+		return true;
+	}
+
+	public void putFound(String name, URL url) {
+		if (maxFound <= 0) {
+			return;
+		}
+		synchronized (found) {
+			found.put(name, url);
+		}
+	}
+
+	public void putMissing(String name) {
+		if (maxMissing <= 0) {
+			return;
+		}
+		if (missing.put(name, System.currentTimeMillis() + missingTtl) == null) {
+			missingOrder.offer(name);
+			missingOrderSize.incrementAndGet();
+			// expired names stay queued, so the queue is bounded as well
+			while (missing.size() > maxMissing
+					|| missingOrderSize.get() > 2 * maxMissing) {
+				String eldest = missingOrder.poll();
+				if (eldest == null) {
+					break;
+				}
+				missingOrderSize.decrementAndGet();
+				missing.remove(eldest);
+			}
+		}
+	}
+
+	/**
+	 * Forgets all lookups.
+	 */
+	public void clear() {
+		synchronized (found) {
+			found.clear();
+		}
+		missing.clear();
+		missingOrder.clear();
+		missingOrderSize.set(0);
+	}
+
+	public int getFoundCount() {
+		synchronized (found) {
+			return found.size();
+		}
+	}
+
+	public int getMissingCount() {
+		return missing.size();
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.util;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Directory listings of one revision of a bundle. Each directory is listed
+ * once, on first use, and the listing is kept as an immutable set of paths
+ * starting with a slash, as mandated for
+ * {@link javax.servlet.ServletContext#getResourcePaths(String)}, so the web
+ * containers can hand it out without copying.
+ * <p>
+ * The revision is identified by the last modification time of the bundle;
+ * an index is not updated when the bundle changes but replaced by a new one.
+ */
+public class ResourcePathIndex {
+
+	/**
+	 * Marks directories without entries, concurrent maps don't take null.
+	 */
+	private static final Set<String> NO_PATHS = Collections.emptySet();
+
+	private final Bundle bundle;
+
+	private final long revision;
+
+	private final ConcurrentMap<String, Set<String>> listings = new ConcurrentHashMap<String, Set<String>>();
+
+	public ResourcePathIndex(Bundle bundle) {
+		this.bundle = bundle;
+		this.revision = bundle.getLastModified();
+	}
+
+	/**
+	 * @return true if the bundle did not change since the index was created
+	 */
+	public boolean isCurrent() {
+		return bundle.getLastModified() == revision;
+	}
+
+	/**
+	 * @param path
+	 *            directory within the bundle
+	 * @return immutable set of the entries of the directory, or null if it has
+	 *         none
+	 */
+	public Set<String> getResourcePaths(String path) {
+		Set<String> paths = listings.get(path);
+		if (paths == null) {
+			paths = list(path);
+			Set<String> existing = listings.putIfAbsent(path, paths);
+			if (existing != null) {
+				paths = existing;
+			}
+		}
+		return paths == NO_PATHS ? null : paths;
+	}
+
+	public int getListingCount() {
+		return listings.size();
+	}
+
+	private Set<String> list(String path) {
+		final Enumeration<String> entryPaths = bundle.getEntryPaths(path);
+		if (entryPaths == null || !entryPaths.hasMoreElements()) {
+			return NO_PATHS;
+		}
+		Set<String> paths = new HashSet<String>();
+		while (entryPaths.hasMoreElements()) {
+			String entryPath = entryPaths.nextElement();
+			paths.add(entryPath.startsWith("/") ? entryPath : "/" + entryPath);
+		}
+		return Collections.unmodifiableSet(paths);
+	}
+
+}
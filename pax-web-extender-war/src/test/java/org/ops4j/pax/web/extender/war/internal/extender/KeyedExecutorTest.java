@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.extender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedExecutorTest {
+
+	private ExecutorService executorService;
+
+	private KeyedExecutor keyedExecutor;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newFixedThreadPool(4);
+		keyedExecutor = new KeyedExecutor(executorService);
+	}
+
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * Tasks with the same key never overlap and run in submission order.
+	 */
+	@Test
+	public void sameKeyIsSerialized() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+		final CountDownLatch done = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			final int index = i;
+			keyedExecutor.execute("ctx", new Runnable() {
+				@Override
+				public void run() {
+					int current = running.incrementAndGet();
+					maxRunning.set(Math.max(maxRunning.get(), current));
+					order.add(index);
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, maxRunning.get());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), order.get(i));
+		}
+	}
+
+	/**
+	 * Tasks with different keys run in parallel.
+	 */
+	@Test
+	public void differentKeysRunInParallel() throws Exception {
+		final CountDownLatch bothRunning = new CountDownLatch(2);
+		final List<Boolean> results = new CopyOnWriteArrayList<Boolean>();
+		for (String key : new String[] {"a", "b"}) {
+			keyedExecutor.execute(key, new Runnable() {
+				@Override
+				public void run() {
+					bothRunning.countDown();
+					try {
+						results.add(bothRunning.await(10, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						results.add(false);
+					}
+				}
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(2, results.size());
+		assertTrue(results.get(0));
+		assertTrue(results.get(1));
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+@SuppressWarnings("deprecation")
+public class WebFragmentOrderingTest {
+
+	private static final String OTHERS = WebFragmentOrdering.OTHERS;
+
+	@Test
+	public void keepsDiscoveryOrderWithoutOrdering() throws Exception {
+		List<WebFragment> fragments = Arrays.asList(fragment("a"), fragment(null), fragment("c"));
+
+		assertEquals(fragments, WebFragmentOrdering.order(fragments, null));
+	}
+
+	@Test
+	public void ordersAbsolute() throws Exception {
+		WebFragment a = fragment("a");
+		WebFragment b = fragment("b");
+		WebFragment c = fragment("c");
+		WebFragment unnamed = fragment(null);
+
+		assertEquals(Arrays.asList(c, a, unnamed, b),
+				WebFragmentOrdering.order(Arrays.asList(a, b, c, unnamed), Arrays.asList("c", "a", OTHERS, "b")));
+		// fragments not listed are left out without others
+		assertEquals(Arrays.asList(b, a),
+				WebFragmentOrdering.order(Arrays.asList(a, b, c, unnamed), Arrays.asList("b", "missing", "a")));
+	}
+
+	@Test
+	public void ordersRelative() throws Exception {
+		WebFragment a = fragment("a", Collections.<String> emptyList(), Arrays.asList("b"));
+		WebFragment b = fragment("b");
+		WebFragment c = fragment("c", Arrays.asList(OTHERS), Collections.<String> emptyList());
+		WebFragment d = fragment("d", Collections.<String> emptyList(), Arrays.asList(OTHERS));
+		WebFragment e = fragment("e");
+
+		assertEquals(Arrays.asList(c, b, a, e, d),
+				WebFragmentOrdering.order(Arrays.asList(a, b, c, d, e), null));
+	}
+
+	@Test
+	public void ordersFragmentsPrecedingBeforeOthersFirst() throws Exception {
+		WebFragment a = fragment("a");
+		WebFragment b = fragment("b", Arrays.asList(OTHERS), Collections.<String> emptyList());
+		WebFragment c = fragment("c", Arrays.asList("b"), Collections.<String> emptyList());
+
+		assertEquals(Arrays.asList(c, b, a), WebFragmentOrdering.order(Arrays.asList(a, b, c), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCircularOrdering() throws Exception {
+		WebFragment a = fragment("a", Arrays.asList("b"), Collections.<String> emptyList());
+		WebFragment b = fragment("b", Arrays.asList("a"), Collections.<String> emptyList());
+
+		WebFragmentOrdering.order(Arrays.asList(a, b), null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsDuplicateNames() throws Exception {
+		WebFragmentOrdering.order(Arrays.asList(fragment("a"), fragment("a")), null);
+	}
+
+	@Test
+	public void readsOrderingOfDescriptors() throws Exception {
+		OrderingFilter fragment = filter("<web-fragment><name>a</name><ordering>"
+				+ "<after><name>b</name><others/></after><before><name>c</name></before>"
+				+ "</ordering><filter><filter-name>f</filter-name></filter></web-fragment>");
+		assertEquals("a", fragment.getName());
+		assertEquals(Arrays.asList("b", OTHERS), fragment.getAfter());
+		assertEquals(Arrays.asList("c"), fragment.getBefore());
+		assertNull(fragment.getAbsoluteOrdering());
+
+		OrderingFilter webXml = filter("<web-app><absolute-ordering><name>b</name><others/>"
+				+ "</absolute-ordering><servlet><servlet-name>s</servlet-name></servlet></web-app>");
+		assertNull(webXml.getName());
+		assertEquals(Arrays.asList("b", OTHERS), webXml.getAbsoluteOrdering());
+	}
+
+	private static OrderingFilter filter(String xml) throws Exception {
+		OrderingFilter filter = new OrderingFilter();
+		filter.setParent(XMLReaderFactory.createXMLReader());
+		filter.parse(new InputSource(new StringReader(xml)));
+		return filter;
+	}
+
+	private static WebFragment fragment(String name) throws MalformedURLException {
+		return fragment(name, Collections.<String> emptyList(), Collections.<String> emptyList());
+	}
+
+	private static WebFragment fragment(String name, List<String> before, List<String> after)
+			throws MalformedURLException {
+		return new WebFragment(new URL("file:/" + name + "/META-INF/web-fragment.xml"), name,
+				new ArrayList<String>(before), new ArrayList<String>(after), null);
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class ResourceLookupCacheTest {
+
+	@Test
+	public void leastRecentlyUsedResourcesAreEvicted() throws Exception {
+		ResourceLookupCache cache = new ResourceLookupCache(2, 2, 60000L);
+		URL url = new URL("file:/index.html");
+		cache.putFound("/a", url);
+		cache.putFound("/b", url);
+		cache.getFound("/a");
+		cache.putFound("/c", url);
+
+		assertEquals(url, cache.getFound("/a"));
+		assertNull(cache.getFound("/b"));
+		assertEquals(url, cache.getFound("/c"));
+		assertEquals(2, cache.getFoundCount());
+	}
+
+	@Test
+	public void oldestMissesAreEvicted() {
+		ResourceLookupCache cache = new ResourceLookupCache(2, 2, 60000L);
+		for (int i = 0; i < 100; i++) {
+			cache.putMissing("/missing" + i);
+		}
+
+		assertEquals(2, cache.getMissingCount());
+		assertFalse(cache.isMissing("/missing0"));
+		assertTrue(cache.isMissing("/missing99"));
+	}
+
+	@Test
+	public void missesExpire() throws Exception {
+		ResourceLookupCache cache = new ResourceLookupCache(2, 2, 1L);
+		cache.putMissing("/missing");
+		Thread.sleep(10L);
+
+		assertFalse(cache.isMissing("/missing"));
+		assertEquals(0, cache.getMissingCount());
+	}
+
+	@Test
+	public void clearForgetsEverything() throws Exception {
+		ResourceLookupCache cache = new ResourceLookupCache(2, 2, 60000L);
+		cache.putFound("/a", new URL("file:/a"));
+		cache.putMissing("/b");
+		cache.clear();
+
+		assertNull(cache.getFound("/a"));
+		assertFalse(cache.isMissing("/b"));
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.extender.war.internal.util;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class ResourcePathIndexTest {
+
+	@Test
+	public void directoriesAreListedOnce() {
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getLastModified()).andReturn(1000L).anyTimes();
+		expect(bundle.getEntryPaths("/WEB-INF/")).andReturn(
+				Collections.enumeration(Arrays.asList("WEB-INF/web.xml",
+						"WEB-INF/lib/"))).once();
+		expect(bundle.getEntryPaths("/empty/")).andReturn(null).once();
+		replay(bundle);
+
+		ResourcePathIndex index = new ResourcePathIndex(bundle);
+		Set<String> paths = index.getResourcePaths("/WEB-INF/");
+
+		assertEquals(new HashSet<String>(Arrays.asList("/WEB-INF/web.xml",
+				"/WEB-INF/lib/")), paths);
+		assertSame(paths, index.getResourcePaths("/WEB-INF/"));
+		assertNull(index.getResourcePaths("/empty/"));
+		assertNull(index.getResourcePaths("/empty/"));
+		assertEquals(2, index.getListingCount());
+		verify(bundle);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void listingsAreImmutable() {
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getLastModified()).andReturn(1000L).anyTimes();
+		expect(bundle.getEntryPaths("/")).andReturn(
+				Collections.enumeration(Arrays.asList("index.jsp")));
+		replay(bundle);
+
+		new ResourcePathIndex(bundle).getResourcePaths("/").add("/other.jsp");
+	}
+
+	@Test
+	public void updatedBundleIsNotCurrent() {
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getLastModified()).andReturn(1000L).times(2);
+		expect(bundle.getLastModified()).andReturn(2000L);
+		replay(bundle);
+
+		ResourcePathIndex index = new ResourcePathIndex(bundle);
+
+		assertTrue(index.isCurrent());
+		assertFalse(index.isCurrent());
+	}
+
+}
@@ -21,6 +21,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EventListener;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Filter;
 import javax.servlet.Servlet;
@@ -73,10 +77,20 @@ public class Activator implements BundleActivator {
 	 */
 	private static final Logger LOG = LoggerFactory.getLogger(Activator.class);
 
+	/**
+	 * Framework property enabling asynchronous, batched registration of
+	 * whiteboard services.
+	 */
+	private static final String PROPERTY_ASYNC_REGISTRATION = "org.ops4j.pax.web.extender.whiteboard.async";
+
 	/**
 	 * Extender context.
 	 */
 	private ExtenderContext extenderContext;
+	/**
+	 * Executor for asynchronous registration, null if disabled.
+	 */
+	private ExecutorService registrationExecutor;
 	/**
 	 * List of service trackers.
 	 */
@@ -86,7 +100,19 @@ public class Activator implements BundleActivator {
 	 * @see BundleActivator#start(BundleContext)
 	 */
 	public void start(final BundleContext bundleContext) throws Exception {
-		extenderContext = new ExtenderContext();
+		if (Boolean.parseBoolean(bundleContext.getProperty(PROPERTY_ASYNC_REGISTRATION))) {
+			registrationExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = Executors.defaultThreadFactory().newThread(r);
+					t.setName("WhiteboardRegistration");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			LOG.debug("Asynchronous whiteboard registration enabled");
+		}
+		extenderContext = new ExtenderContext(registrationExecutor);
 		trackers = new ArrayList<ServiceTracker<?, ?>>();
 
 		trackHttpContexts(bundleContext);
@@ -116,6 +142,16 @@ public class Activator implements BundleActivator {
 			tracker.close();
 		}
 		this.trackers = null;
+		if (registrationExecutor != null) {
+			registrationExecutor.shutdown();
+			// let already queued registrations finish
+			try {
+				registrationExecutor.awaitTermination(60, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			registrationExecutor = null;
+		}
 		LOG.debug("Pax Web Extender stopped");
 	}
 
@@ -18,6 +18,7 @@
 package org.ops4j.pax.web.extender.whiteboard.internal;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.osgi.framework.Bundle;
 
@@ -33,7 +34,18 @@ public class ExtenderContext {
 	
 	private final ConcurrentHashMap<WebApplication, Integer> sharedWebApplicationCounter;
 
+	/**
+	 * Executor for asynchronous registration of web elements, null if
+	 * registration is synchronous.
+	 */
+	private final Executor registrationExecutor;
+
 	public ExtenderContext() {
+		this(null);
+	}
+
+	public ExtenderContext(final Executor registrationExecutor) {
+		this.registrationExecutor = registrationExecutor;
 		webApplications = new ConcurrentHashMap<ContextKey, WebApplication>();
 		sharedWebApplicationCounter = new ConcurrentHashMap<WebApplication, Integer>();
 	}
@@ -49,7 +61,7 @@ public class ExtenderContext {
 				sharedHttpContext);
 		WebApplication webApplication = webApplications.get(contextKey);
 		if (webApplication == null) {
-            webApplication = new WebApplication(bundle, httpContextId, sharedHttpContext);
+            webApplication = new WebApplication(bundle, httpContextId, sharedHttpContext, registrationExecutor);
             // PAXWEB-681 - webApplication and existing webApplication might not be the same.
             WebApplication existingWebApplication = webApplications.putIfAbsent(contextKey, webApplication);
 			if (existingWebApplication == null) {
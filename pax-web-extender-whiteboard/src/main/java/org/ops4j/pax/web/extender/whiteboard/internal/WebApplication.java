@@ -23,8 +23,15 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.ops4j.lang.NullArgumentException;
@@ -70,6 +77,25 @@ public class WebApplication implements ReplaceableServiceListener<HttpService> {
 	 */
 	private final ReadWriteLock httpServiceLock;
 
+	/**
+	 * Executor used for asynchronous registration, null if registration is
+	 * done on the calling thread.
+	 */
+	private final Executor registrationExecutor;
+	/**
+	 * Web elements waiting to be registered by the registration executor.
+	 */
+	private final Queue<WebElement> pendingWebElements;
+	/**
+	 * Flag signaling that a batch registration is already scheduled.
+	 */
+	private final AtomicBoolean batchScheduled;
+	/**
+	 * Lock held while a batch is registered, so removals can't overtake a
+	 * registration in progress.
+	 */
+	private final Lock batchLock;
+
 	/**
 	 * Current http context mapping.
 	 */
@@ -91,11 +117,27 @@ public class WebApplication implements ReplaceableServiceListener<HttpService> {
 	 * Constructor.
 	 */
 	public WebApplication(Bundle bundle, String httpContextId, Boolean sharedHttpContext) {
+		this(bundle, httpContextId, sharedHttpContext, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param registrationExecutor
+	 *            executor used to register web elements in batches; if null
+	 *            web elements are registered on the calling thread
+	 */
+	public WebApplication(Bundle bundle, String httpContextId, Boolean sharedHttpContext,
+			Executor registrationExecutor) {
         this.bundle = bundle;
         this.httpContextId = httpContextId;
         this.sharedHttpContext = sharedHttpContext;
+        this.registrationExecutor = registrationExecutor;
 		webElements = new CopyOnWriteArrayList<WebElement>();
 		httpServiceLock = new ReentrantReadWriteLock();
+		pendingWebElements = new ConcurrentLinkedQueue<WebElement>();
+		batchScheduled = new AtomicBoolean(false);
+		batchLock = new ReentrantLock();
         httpServiceTracker = new ReplaceableService<HttpService>(bundle.getBundleContext(), HttpService.class, this);
 	}
 
@@ -121,6 +163,11 @@ public class WebApplication implements ReplaceableServiceListener<HttpService> {
 
     public void addWebElement(final WebElement webElement) {
 		NullArgumentException.validateNotNull(webElement, "Registerer");
+		if (registrationExecutor != null) {
+			pendingWebElements.add(webElement);
+			scheduleBatch();
+			return;
+		}
 		// FIX for PAXWEB-485 changing order of registration.
 		httpServiceLock.readLock().lock();
 		try {
@@ -134,17 +181,74 @@ public class WebApplication implements ReplaceableServiceListener<HttpService> {
 	public boolean removeWebElement(final WebElement webElement) {
         boolean empty;
 		NullArgumentException.validateNotNull(webElement, "Registerer");
-		httpServiceLock.readLock().lock();
+		batchLock.lock();
 		try {
-			webElements.remove(webElement);
-            empty = webElements.isEmpty();
-			unregisterWebElement(webElement);
+			if (pendingWebElements.remove(webElement)) {
+				// never reached the http service, nothing to unregister
+				return webElements.isEmpty() && pendingWebElements.isEmpty();
+			}
+			httpServiceLock.readLock().lock();
+			try {
+				webElements.remove(webElement);
+				empty = webElements.isEmpty() && pendingWebElements.isEmpty();
+				unregisterWebElement(webElement);
+			} finally {
+				httpServiceLock.readLock().unlock();
+			}
 		} finally {
-			httpServiceLock.readLock().unlock();
+			batchLock.unlock();
 		}
         return empty;
 	}
 
+	/**
+	 * Schedules the registration of pending web elements, unless a batch is
+	 * already scheduled. Elements added while a batch is waiting for the
+	 * executor are picked up by that same batch.
+	 */
+	private void scheduleBatch() {
+		if (!batchScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			registrationExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					registerPendingWebElements();
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			LOG.warn("Registration executor rejected batch, registering synchronously", ree);
+			registerPendingWebElements();
+		}
+	}
+
+	/**
+	 * Registers all pending web elements as one batch, holding the http
+	 * service lock only once for the whole batch.
+	 */
+	private void registerPendingWebElements() {
+		batchScheduled.set(false);
+		int count = 0;
+		batchLock.lock();
+		try {
+			httpServiceLock.readLock().lock();
+			try {
+				WebElement webElement;
+				while ((webElement = pendingWebElements.poll()) != null) {
+					registerWebElement(webElement);
+					webElements.add(webElement);
+					count++;
+				}
+			} finally {
+				httpServiceLock.readLock().unlock();
+			}
+		} finally {
+			batchLock.unlock();
+		}
+		LOG.debug("Registered batch of {} web elements for {}", count, this);
+	}
+
     @Override
     public void serviceChanged(HttpService oldService, HttpService newService) {
         httpServiceLock.writeLock().lock();
@@ -1,11 +1,18 @@
 package org.ops4j.pax.web.extender.whiteboard.internal;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -134,6 +141,51 @@ public class WebApplicationTest {
 		}
 	}
 
+	@Test
+	public void asyncRegistrationIsBatched() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		WebApplication asyncApplication = new WebApplication(bundle, "myID", false, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		asyncApplication.serviceChanged(null, newService);
+		asyncApplication.setHttpContextMapping(httpContextMapping);
+
+		WebElement otherWebElement = Mockito.mock(WebElement.class);
+		asyncApplication.addWebElement(webElement);
+		asyncApplication.addWebElement(otherWebElement);
+
+		assertEquals("burst should be coalesced into one batch", 1, tasks.size());
+		verify(webElement, never()).register(any(HttpService.class), any(HttpContext.class));
+
+		tasks.get(0).run();
+
+		verify(webElement, times(1)).register(newService, httpContext);
+		verify(otherWebElement, times(1)).register(newService, httpContext);
+	}
+
+	@Test
+	public void removingPendingElementSkipsUnregistration() throws Exception {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		WebApplication asyncApplication = new WebApplication(bundle, "myID", false, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		asyncApplication.serviceChanged(null, newService);
+		asyncApplication.setHttpContextMapping(httpContextMapping);
+
+		asyncApplication.addWebElement(webElement);
+		assertTrue(asyncApplication.removeWebElement(webElement));
+		tasks.get(0).run();
+
+		verify(webElement, never()).register(any(HttpService.class), any(HttpContext.class));
+		verify(webElement, never()).unregister(any(HttpService.class), any(HttpContext.class));
+	}
+
 	@Test
 	// @Ignore
 	public void executeMultiThreadedTestMultipleTimes() throws Throwable {
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.jetty.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.ops4j.pax.web.utils.AnnotationIndex;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classes of a bundle matching the {@code @HandlesTypes} of
+ * ServletContainerInitializers, used while one context is deployed. The
+ * {@link AnnotationIndex} of the bundle is shared with the war extender, so
+ * a web application bundle it parsed is not scanned again, and each type is
+ * only looked up once, however many initializers handle it.
+ */
+class HandlesTypesIndex {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HandlesTypesIndex.class);
+
+	private final Bundle bundle;
+
+	private final Map<Class<?>, Set<Class<?>>> classes = new HashMap<Class<?>, Set<Class<?>>>();
+
+	private AnnotationIndex annotationIndex;
+
+	HandlesTypesIndex(Bundle bundle) {
+		this.bundle = bundle;
+	}
+
+	/**
+	 * @param type
+	 *            annotation, interface or class of a {@code @HandlesTypes}
+	 * @return the classes annotated with, implementing or extending the type
+	 */
+	Set<Class<?>> getClasses(Class<?> type) {
+		Set<Class<?>> matching = classes.get(type);
+		if (matching != null) {
+			return matching;
+		}
+		try {
+			if (annotationIndex == null) {
+				long scanStart = System.currentTimeMillis();
+				annotationIndex = AnnotationIndex.get(bundle);
+				LOG.debug("indexed {} classes of {} in {} ms", annotationIndex.getClassCount(), bundle,
+						System.currentTimeMillis() - scanStart);
+			}
+			matching = Collections.unmodifiableSet(annotationIndex.getHandledClasses(bundle, type));
+		} catch (NoClassDefFoundError e) {
+			// pax-web-api was resolved before ASM was installed
+			LOG.warn("Can't find classes of type {} for ServletContainerInitializer, ASM is not available: {}",
+					type.getName(), e.toString());
+			matching = Collections.emptySet();
+		}
+		classes.put(type, matching);
+		return matching;
+	}
+
+}
@@ -30,12 +30,12 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.EventListener;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.ServletContainerInitializer;
@@ -65,6 +65,8 @@ import org.eclipse.jetty.util.log.Log;
 import org.ops4j.pax.swissbox.core.ContextClassLoaderUtils;
 import org.ops4j.pax.web.service.WebContainerContext;
 import org.ops4j.pax.web.service.jetty.internal.util.DOMJettyWebXmlParser;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
+import org.ops4j.pax.web.service.spi.util.Path;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.http.HttpContext;
@@ -90,13 +92,27 @@ class HttpServiceContext extends ServletContextHandler {
 
 	private final Map<ServletContainerInitializer, Set<Class<?>>> servletContainerInitializers;
 
-	private final URL jettyWebXmlURL;
+	/**
+	 * Compiled jetty-web.xml applied on each start, or null.
+	 */
+	private final DOMJettyWebXmlParser.Configuration jettyWebXml;
 
 	private final List<String> virtualHosts;
 
 	private final AtomicReference<ServiceRegistration<ServletContext>> registration
             = new AtomicReference<ServiceRegistration<ServletContext>>();
 
+	/**
+	 * Requests currently handled by the context, so that it can be drained
+	 * when another context takes over its path.
+	 */
+	private final AtomicInteger activeRequests = new AtomicInteger();
+
+	/**
+	 * Set while a thread waits for the context to become idle.
+	 */
+	private volatile boolean draining;
+
 	HttpServiceContext(
 			final HandlerContainer parent,
 			final Map<String, String> initParams,
@@ -105,7 +121,7 @@ class HttpServiceContext extends ServletContextHandler {
 			final HttpContext httpContext,
 			final AccessControlContext accessControllerContext,
 			final Map<ServletContainerInitializer, Set<Class<?>>> containerInitializers,
-			URL jettyWebXmlUrl, List<String> virtualHosts) {
+			DOMJettyWebXmlParser.Configuration jettyWebXml, List<String> virtualHosts) {
 		super(parent, "/" + contextName, SESSIONS | SECURITY);
 		LOG.info("registering context {}, with context-name: {}", httpContext,
 				contextName);
@@ -117,7 +133,7 @@ class HttpServiceContext extends ServletContextHandler {
 		this.servletContainerInitializers = containerInitializers != null ? containerInitializers
 				: new HashMap<ServletContainerInitializer, Set<Class<?>>>();
 		this.virtualHosts = new ArrayList<String>(virtualHosts);
-		jettyWebXmlURL = jettyWebXmlUrl;
+		this.jettyWebXml = jettyWebXml;
 
 		_scontext = new SContext();
 		setServletHandler(new HttpServiceServletHandler(httpContext));
@@ -209,17 +225,16 @@ class HttpServiceContext extends ServletContextHandler {
 		}
 
 		this.setVirtualHosts(virtualHosts.toArray(EMPTY_STRING_ARRAY));
-		if (jettyWebXmlURL != null) {
+		if (jettyWebXml != null) {
 			
 			try {
 				ContextClassLoaderUtils.doWithClassLoader(getClassLoader(),
 						new Callable<Void>() {
 
 							@Override
-							public Void call() throws IOException {
-								//do parsing and altering of webApp here
-								DOMJettyWebXmlParser jettyWebXmlParser = new DOMJettyWebXmlParser();
-								jettyWebXmlParser.parse(HttpServiceContext.this, jettyWebXmlURL.openStream());
+							public Void call() {
+								//altering of webApp here
+								jettyWebXml.apply(HttpServiceContext.this);
 								
 								return null;
 							}
@@ -271,6 +286,51 @@ class HttpServiceContext extends ServletContextHandler {
 		super.doHandle(target, baseRequest, request, response);
 	}
 
+	@Override
+	public void doScope(String target, Request baseRequest,
+			HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		activeRequests.incrementAndGet();
+		try {
+			super.doScope(target, baseRequest, request, response);
+		} finally {
+			if (activeRequests.decrementAndGet() == 0 && draining) {
+				synchronized (activeRequests) {
+					activeRequests.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until no request is handled by the context. Suspended asynchronous
+	 * requests are not waited for.
+	 * 
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return false if requests were still handled after the timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean awaitIdle(long timeout) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		synchronized (activeRequests) {
+			draining = true;
+			try {
+				long remaining = timeout;
+				while (activeRequests.get() > 0 && remaining > 0) {
+					// bounded, the notification may be missed by a second
+					// thread draining the same context
+					activeRequests.wait(Math.min(remaining, 100L));
+					remaining = deadline - System.currentTimeMillis();
+				}
+				return activeRequests.get() == 0;
+			} finally {
+				draining = false;
+			}
+		}
+	}
+
 	@Override
 	public void setEventListeners(final EventListener[] eventListeners) {
 		if (_sessionHandler != null) {
@@ -413,6 +473,58 @@ class HttpServiceContext extends ServletContextHandler {
 		return super.addBean(o);
 	}
 
+	/**
+	 * Checks whether the path starts with a URL scheme as defined by RFC 3986,
+	 * that is a letter followed by letters, digits, "+", "-" or "." and a
+	 * colon. Plain resource paths never do, so they can be told apart from
+	 * URLs without trying to parse them.
+	 *
+	 * @param path
+	 *            path or URL
+	 * @return true if the path may be a URL
+	 */
+	static boolean hasUrlScheme(final String path) {
+		if (path == null || path.isEmpty() || !isAsciiLetter(path.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == ':') {
+				return true;
+			}
+			if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+'
+					&& c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Runs the action with the permissions of the bundle that registered the
+	 * http context. Without a security manager there are no permissions to
+	 * check, so the action is run directly.
+	 */
+	private <T> T doPrivileged(final PrivilegedExceptionAction<T> action)
+			throws PrivilegedActionException {
+		if (System.getSecurityManager() == null) {
+			try {
+				return action.run();
+				// CHECKSTYLE:OFF
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new PrivilegedActionException(e);
+			}
+			// CHECKSTYLE:ON
+		}
+		return AccessController.doPrivileged(action, accessControllerContext);
+	}
+
 	public class SContext extends ServletContextHandler.Context {
 
 		@Override
@@ -447,15 +559,19 @@ class HttpServiceContext extends ServletContextHandler {
 			URL resource = null;
 
 			// IMPROVEMENT start PAXWEB-314
-			try {
-				resource = new URL(path);
-				LOG.debug("resource: [" + path
-						+ "] is already a URL, returning");
-				return resource;
-			} catch (MalformedURLException e) {
-				// do nothing, simply log
-				LOG.debug("not a URL or invalid URL: [" + path
-						+ "], treating as a file path");
+			// only paths starting with a scheme can be URLs, so plain paths
+			// don't pay for a MalformedURLException
+			if (hasUrlScheme(path)) {
+				try {
+					resource = new URL(path);
+					LOG.debug("resource: [" + path
+							+ "] is already a URL, returning");
+					return resource;
+				} catch (MalformedURLException e) {
+					// do nothing, simply log
+					LOG.debug("not a URL or invalid URL: [" + path
+							+ "], treating as a file path");
+				}
 			}
 			// IMPROVEMENT end PAXWEB-314
 
@@ -469,13 +585,12 @@ class HttpServiceContext extends ServletContextHandler {
 			// FIX end
 
 			try {
-				resource = AccessController.doPrivileged(
-						new PrivilegedExceptionAction<URL>() {
-							@Override
-							public URL run() throws Exception {
-								return httpContext.getResource(p);
-							}
-						}, accessControllerContext);
+				resource = doPrivileged(new PrivilegedExceptionAction<URL>() {
+					@Override
+					public URL run() throws Exception {
+						return httpContext.getResource(p);
+					}
+				});
 				if (LOG.isDebugEnabled()) {
 					LOG.debug("found resource: " + resource);
 				}
@@ -490,7 +605,7 @@ class HttpServiceContext extends ServletContextHandler {
 			final URL url = getResource(path);
 			if (url != null) {
 				try {
-					return AccessController.doPrivileged(
+					return doPrivileged(
 							new PrivilegedExceptionAction<InputStream>() {
 								@Override
 								public InputStream run() throws Exception {
@@ -503,7 +618,7 @@ class HttpServiceContext extends ServletContextHandler {
 									return null;
 								}
 
-							}, accessControllerContext);
+							});
 				} catch (PrivilegedActionException e) {
 					LOG.warn("Unauthorized access: " + e.getMessage());
 				}
@@ -526,29 +641,20 @@ class HttpServiceContext extends ServletContextHandler {
 					LOG.debug("getting resource paths for : [" + path + "]");
 				}
 				try {
-					final Set<String> paths = AccessController.doPrivileged(
+					final Set<String> paths = doPrivileged(
 							new PrivilegedExceptionAction<Set<String>>() {
 								@Override
 								public Set<String> run() throws Exception {
 									return ((WebContainerContext) httpContext)
 											.getResourcePaths(path);
 								}
-							}, accessControllerContext);
+							});
 					if (paths == null) {
 						return null;
 					}
 					// Servlet specs mandates that the paths must start with an
 					// slash "/"
-					final Set<String> slashedPaths = new HashSet<String>();
-					for (String foundPath : paths) {
-						if (foundPath != null) {
-							if (foundPath.trim().startsWith("/")) {
-								slashedPaths.add(foundPath.trim());
-							} else {
-								slashedPaths.add("/" + foundPath.trim());
-							}
-						}
-					}
+					final Set<String> slashedPaths = Path.slashResourcePaths(paths);
 					if (LOG.isDebugEnabled()) {
 						LOG.debug("found resource paths: " + paths);
 					}
@@ -575,7 +681,13 @@ class HttpServiceContext extends ServletContextHandler {
 
 			// Delegate to the parent class (the Jetty
 			// ServletContextHandler.Context)
-			return super.getMimeType(name);
+			mime = super.getMimeType(name);
+			if (mime != null) {
+				return mime;
+			}
+
+			// Fall back to the defaults shared by all web containers
+			return MimeTypeTable.getDefault().getMimeType(name);
 		}
 
 	}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.jetty.internal;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.ops4j.pax.web.service.spi.util.AccessLogRecord;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
+
+/**
+ * Request log handing requests over to the shared {@link AccessLogWriter},
+ * so nothing is formatted or written on the request thread.
+ */
+class JettyAccessLog extends AbstractLifeCycle implements RequestLog {
+
+	private final AccessLogWriter writer;
+
+	JettyAccessLog(AccessLogWriter writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void log(Request request, Response response) {
+		AccessLogRecord record = writer.claim();
+		if (record == null) {
+			return;
+		}
+		try {
+			long timestamp = request.getTimeStamp();
+			record.setTimestamp(timestamp);
+			if (writer.isLogLatency()) {
+				record.setLatency(System.currentTimeMillis() - timestamp);
+			}
+			if (writer.isLogServer()) {
+				record.setServerName(request.getServerName());
+			}
+			record.setRemoteAddress(request.getRemoteAddr());
+			Authentication authentication = request.getAuthentication();
+			if (authentication instanceof Authentication.User) {
+				record.setUser(((Authentication.User) authentication)
+						.getUserIdentity().getUserPrincipal().getName());
+			}
+			record.setMethod(request.getMethod());
+			record.setUri(request.getRequestURI());
+			record.setQuery(request.getQueryString());
+			record.setProtocol(request.getProtocol());
+			record.setStatus(response.getCommittedMetaData().getStatus());
+			record.setBytes(response.getHttpChannel().getBytesWritten());
+			record.setReferer(request.getHeader(HttpHeader.REFERER.asString()));
+			record.setUserAgent(request.getHeader(HttpHeader.USER_AGENT.asString()));
+			if (writer.isLogCookies()) {
+				record.setCookies(request.getHeader(HttpHeader.COOKIE.asString()));
+			}
+		} finally {
+			writer.publish(record);
+		}
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		writer.start();
+		super.doStart();
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+		writer.stop();
+	}
+
+}
@@ -30,6 +30,7 @@ import org.ops4j.pax.web.service.spi.model.FilterModel;
 import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
 import org.osgi.service.http.HttpContext;
 
 /**
@@ -88,7 +89,15 @@ public interface JettyServer {
 			Boolean sessionCookieSecure, String sessionWorkerName,
 			Boolean lazyLoad, String storeDirectory);
 
-	void removeContext(HttpContext httpContext);
+	void removeContext(ContextModel contextModel);
+
+	/**
+	 * Waits until the context of the http context handles no request.
+	 * 
+	 * @return false if requests were still handled after the timeout
+	 */
+	boolean awaitIdle(HttpContext httpContext, long timeout)
+			throws InterruptedException;
 
 	void addServlet(ServletModel model);
 
@@ -132,6 +141,6 @@ public interface JettyServer {
 
 	JettyServerWrapper getServer();
 
-	void configureRequestLog(ConfigureRequestLogParameter configureRequestParameters);
+	void configureRequestLog(AccessLogWriter accessLogWriter);
 
 }
@@ -17,7 +17,6 @@
 package org.ops4j.pax.web.service.jetty.internal;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.URL;
@@ -37,7 +36,6 @@ import org.eclipse.jetty.security.ConstraintSecurityHandler;
 import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
-import org.eclipse.jetty.server.NCSARequestLog;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
@@ -66,6 +64,7 @@ import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServerModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
 import org.ops4j.pax.web.service.spi.util.ResourceDelegatingBundleClassLoader;
 import org.osgi.framework.Bundle;
 import org.osgi.service.http.HttpContext;
@@ -418,10 +417,7 @@ class JettyServerImpl implements JettyServer {
 				}
 			}
 		}
-		if (servletHandler.getServlets() == null
-				|| servletHandler.getServlets().length == 0) {
-			removeContext(model.getContextModel().getHttpContext());
-		}
+		server.removeModel(model);
 		if (!removed) {
 			throw new IllegalStateException(model + " was not found");
 		}
@@ -454,11 +450,19 @@ class JettyServerImpl implements JettyServer {
 		listeners.remove(listener);
 		context.setEventListeners(listeners.toArray(new EventListener[listeners
 				.size()]));
+		server.removeModel(model);
+	}
+
+	@Override
+	public void removeContext(final ContextModel contextModel) {
+		server.removeContext(contextModel);
 	}
 
 	@Override
-	public void removeContext(final HttpContext httpContext) {
-		server.removeContext(httpContext);
+	public boolean awaitIdle(final HttpContext httpContext, final long timeout)
+			throws InterruptedException {
+		final HttpServiceContext context = server.getContext(httpContext);
+		return context == null || context.awaitIdle(timeout);
 	}
 
 	@Override
@@ -621,6 +625,7 @@ class JettyServerImpl implements JettyServer {
 			}
 			//CHECKSTYLE:ON
 		}
+		server.removeModel(model);
 	}
 
 	@Override
@@ -665,6 +670,7 @@ class JettyServerImpl implements JettyServer {
 		if (errorPages != null) {
 			errorPages.remove(model.getError());
 		}
+		server.removeModel(model);
 	}
 	
 	// PAXWEB-123: try to register WelcomeFiles differently
@@ -687,6 +693,7 @@ class JettyServerImpl implements JettyServer {
 		String[] welcomeFiles = context.getWelcomeFiles();
 		List<String> welcomeFileList = new ArrayList<String>(Arrays.asList(welcomeFiles));
 		welcomeFileList.removeAll(Arrays.asList(model.getWelcomeFiles()));
+		server.removeModel(model);
 	}
 	// PAXWEB-123: done
 
@@ -761,48 +768,13 @@ class JettyServerImpl implements JettyServer {
 				constraintMappings.remove(constraintMapping);
 			}
 		}
+		server.removeModel(model);
 	}
 
-	@SuppressWarnings("deprecation")
 	@Override
-	public void configureRequestLog(ConfigureRequestLogParameter configureRequestParameters) {
-
-		String directory = configureRequestParameters.dir;
+	public void configureRequestLog(AccessLogWriter accessLogWriter) {
 		RequestLogHandler requestLogHandler = new RequestLogHandler();
-
-		// TODO: Improve that to set the path of the LOG relative to
-		// $JETTY_HOME
-
-		if (directory == null || directory.isEmpty()) {
-			directory = "./logs/"; 
-		}
-		File file = new File(directory);
-		if (!file.exists()) {
-			file.mkdirs();
-			try {
-				file.createNewFile();
-			} catch (IOException e) {
-				LOG.error("can't create NCSARequestLog", e);
-			}
-		}
-		LOG.info("NCSARequestlogging is using the following directory: {}",
-				file.getAbsolutePath());
-
-		if (!directory.endsWith("/")) {
-			directory += "/";
-		}
-
-		NCSARequestLog requestLog = new NCSARequestLog(directory + configureRequestParameters.format);
-		requestLog.setRetainDays(Integer.parseInt(configureRequestParameters.retainDays));
-		requestLog.setAppend(configureRequestParameters.append);
-		requestLog.setExtended(configureRequestParameters.extend);
-		requestLog.setLogDispatch(configureRequestParameters.dispatch);
-		requestLog.setLogTimeZone(configureRequestParameters.timeZone);
-		requestLog.setLogLatency(configureRequestParameters.logLatency);
-		requestLog.setLogCookies(configureRequestParameters.logCookies);
-		requestLog.setLogServer(configureRequestParameters.logServer);
-		requestLogHandler.setRequestLog(requestLog);
-
+		requestLogHandler.setRequestLog(new JettyAccessLog(accessLogWriter));
 		((HandlerCollection) server.getHandler()).addHandler(requestLogHandler);
 	}
 
@@ -16,31 +16,26 @@
  */
 package org.ops4j.pax.web.service.jetty.internal;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.annotation.Annotation;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.annotation.HandlesTypes;
 
-import org.apache.xbean.finder.BundleAnnotationFinder;
-import org.apache.xbean.finder.BundleAssignableClassFinder;
 import org.eclipse.jetty.security.Authenticator;
 import org.eclipse.jetty.security.SecurityHandler;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
@@ -68,19 +63,21 @@ import org.eclipse.jetty.util.security.Constraint;
 import org.eclipse.jetty.util.thread.ThreadPool;
 import org.ops4j.pax.swissbox.core.BundleUtils;
 import org.ops4j.pax.web.service.WebContainerConstants;
+import org.ops4j.pax.web.service.jetty.internal.util.DOMJettyWebXmlParser;
+import org.ops4j.pax.web.service.jetty.internal.util.JettyWebXmlCache;
 import org.ops4j.pax.web.service.spi.model.ContextModel;
 import org.ops4j.pax.web.service.spi.model.Model;
 import org.ops4j.pax.web.service.spi.model.ServerModel;
-import org.ops4j.pax.web.utils.ClassPathUtil;
+import org.ops4j.pax.web.service.spi.session.MappedSessionStore;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SessionStores;
+import org.ops4j.pax.web.service.spi.session.SharedSessionStore;
+import org.ops4j.pax.web.utils.ServletContainerInitializerScanner;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
-import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
-import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.http.HttpContext;
-import org.osgi.service.packageadmin.PackageAdmin;
-import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,32 +89,156 @@ class JettyServerWrapper extends Server {
 
 	private static final Logger LOG = LoggerFactory.getLogger(JettyServerWrapper.class);
 
+	/**
+	 * A context handler with the services and models using it. Every service
+	 * using the context releases it through removeContext, which also drops
+	 * the models the service left in it, and the context is destroyed once
+	 * neither services nor models use it anymore.
+	 */
 	private static final class ServletContextInfo {
 
-		private final HttpServiceContext handler;
-		private final AtomicInteger refCount = new AtomicInteger(1);
+		/**
+		 * Thread creating the context, null once it is created, written
+		 * while holding this.
+		 */
+		private volatile Thread creator = Thread.currentThread();
+
+		/**
+		 * Handler of the context, written while holding this.
+		 */
+		private volatile HttpServiceContext handler;
+
+		/**
+		 * Context models of the services using the context, guarded by this.
+		 */
+		private final Set<ContextModel> owners = Collections
+				.newSetFromMap(new IdentityHashMap<ContextModel, Boolean>());
+
+		/**
+		 * Models registered in the context, guarded by this.
+		 */
+		private final Set<Model> models = Collections.newSetFromMap(new IdentityHashMap<Model, Boolean>());
+
+		private boolean destroyed;
+
+		/**
+		 * Publishes the handler to the creating thread before the context is
+		 * started, starting it may register more models in it.
+		 */
+		synchronized void created(HttpServiceContext createdHandler) {
+			handler = createdHandler;
+		}
 
-		public ServletContextInfo(HttpServiceContext handler) {
-			super();
-			this.handler = handler;
+		/**
+		 * Publishes the handler to all threads, the context is dropped if no
+		 * handler could be created.
+		 */
+		synchronized void completed() {
+			creator = null;
+			if (handler == null) {
+				destroyed = true;
+			}
+			notifyAll();
 		}
 
-		public int incrementRefCount() {
-			return refCount.incrementAndGet();
+		/**
+		 * Waits until the context is created, unless called by the thread
+		 * creating it.
+		 * 
+		 * @return the handler, null if the context could not be created
+		 */
+		synchronized HttpServiceContext awaitHandler() {
+			boolean interrupted = false;
+			while (creator != null && creator != Thread.currentThread()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return handler;
 		}
 
-		public int decrementRefCount() {
-			return refCount.decrementAndGet();
+		/**
+		 * @return false if the context was destroyed meanwhile
+		 */
+		synchronized boolean register(ContextModel owner, Model model) {
+			if (destroyed) {
+				return false;
+			}
+			owners.add(owner);
+			if (model != null) {
+				models.add(model);
+			}
+			return true;
 		}
 
-		public HttpServiceContext getHandler() {
-			return handler;
+		/**
+		 * @return true if the context has to be destroyed
+		 */
+		synchronized boolean unregister(Model model) {
+			if (destroyed || !models.remove(model)) {
+				return false;
+			}
+			return destroyIfUnused();
+		}
+
+		/**
+		 * @return true if the context has to be destroyed
+		 */
+		synchronized boolean release(ContextModel owner) {
+			if (destroyed || !owners.remove(owner)) {
+				return false;
+			}
+			for (Iterator<Model> it = models.iterator(); it.hasNext();) {
+				if (it.next().getContextModel() == owner) {
+					it.remove();
+				}
+			}
+			return destroyIfUnused();
+		}
+
+		private boolean destroyIfUnused() {
+			destroyed = owners.isEmpty() && models.isEmpty();
+			return destroyed;
+		}
+
+		/**
+		 * @return the handler, null while the context is created
+		 */
+		HttpServiceContext getHandler() {
+			return creator == null ? handler : null;
+		}
+	}
+
+	/**
+	 * Key comparing http contexts by identity.
+	 */
+	private static final class ContextKey {
+
+		private final HttpContext httpContext;
+
+		ContextKey(HttpContext httpContext) {
+			this.httpContext = httpContext;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(httpContext);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ContextKey && ((ContextKey) obj).httpContext == httpContext;
 		}
 	}
 
 	@SuppressWarnings("unused")
 	private final ServerModel serverModel;
-	private final Map<HttpContext, ServletContextInfo> contexts = new IdentityHashMap<HttpContext, ServletContextInfo>();
+	private final ConcurrentMap<ContextKey, ServletContextInfo> contexts = new ConcurrentHashMap<ContextKey, ServletContextInfo>();
 	private Map<String, Object> contextAttributes;
 	private Integer sessionTimeout;
 	private String sessionCookie;
@@ -136,11 +257,12 @@ class JettyServerWrapper extends Server {
 
 	private Boolean sessionCookieSecure;
 
-	private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
-	private final Lock readLock = rwLock.readLock();
-	private final Lock writeLock = rwLock.writeLock();
 	private Bundle jettyBundle;
-	private ServiceTracker<PackageAdmin, PackageAdmin> packageAdminTracker;
+
+	/**
+	 * Compiled jetty-web.xml files, kept while their bundles are unchanged.
+	 */
+	private final JettyWebXmlCache jettyWebXmlCache = new JettyWebXmlCache();
 
 	JettyServerWrapper(ServerModel serverModel, ThreadPool threadPool) {
 		super(threadPool);
@@ -148,20 +270,32 @@ class JettyServerWrapper extends Server {
 		setHandler(new JettyServerHandlerCollection(serverModel));
 
 		jettyBundle = FrameworkUtil.getBundle(getClass());
+	}
 
-		if (jettyBundle != null) {
-			Filter filterPackage = null;
-			try {
-				filterPackage = jettyBundle.getBundleContext()
-						.createFilter("(objectClass=org.osgi.service.packageadmin.PackageAdmin)");
-			} catch (InvalidSyntaxException e) {
-				LOG.error("InvalidSyntaxException while waiting for PackageAdmin Service", e);
-			}
-			packageAdminTracker = new ServiceTracker<PackageAdmin, PackageAdmin>(jettyBundle.getBundleContext(),
-					filterPackage, null);
-			packageAdminTracker.open();
+	@Override
+	protected void doStart() throws Exception {
+		if (jettyBundle != null && jettyBundle.getBundleContext() != null) {
+			jettyBundle.getBundleContext().addBundleListener(jettyWebXmlCache);
 		}
+		super.doStart();
+	}
 
+	@Override
+	protected void doStop() throws Exception {
+		try {
+			super.doStop();
+		} finally {
+			// the server is replaced on every reconfiguration
+			BundleContext bundleContext = jettyBundle == null ? null : jettyBundle.getBundleContext();
+			if (bundleContext != null) {
+				try {
+					bundleContext.removeBundleListener(jettyWebXmlCache);
+				} catch (IllegalStateException e) {
+					LOG.debug("Bundle {} already stopped", jettyBundle, e);
+				}
+			}
+			jettyWebXmlCache.clear();
+		}
 	}
 
 	public void configureContext(final Map<String, Object> attributes, final Integer timeout, final String cookie,
@@ -181,138 +315,149 @@ class JettyServerWrapper extends Server {
 	}
 
 	HttpServiceContext getContext(final HttpContext httpContext) {
-		readLock.lock();
-		try {
-			ServletContextInfo servletContextInfo = contexts.get(httpContext);
-			if (servletContextInfo != null) {
-				return servletContextInfo.getHandler();
-			}
-			return null;
-		} finally {
-			readLock.unlock();
+		ServletContextInfo servletContextInfo = contexts.get(new ContextKey(httpContext));
+		if (servletContextInfo != null) {
+			return servletContextInfo.getHandler();
 		}
+		return null;
 	}
 
+	/**
+	 * Gets the context of a model, creating it if needed, and registers the
+	 * model in it until {@link #removeModel(Model)}.
+	 */
 	HttpServiceContext getOrCreateContext(final Model model) {
-		return getOrCreateContext(model.getContextModel());
+		return getOrCreateContext(model.getContextModel(), model);
 	}
 
 	HttpServiceContext getOrCreateContext(final ContextModel model) {
-		final HttpContext httpContext = model.getHttpContext();
-		ServletContextInfo context = null;
-		try {
-			readLock.lock();
-			if (contexts.containsKey(httpContext)) {
-				context = contexts.get(httpContext);
-				context.incrementRefCount();
-			} else {
-				try {
-					readLock.unlock();
-					writeLock.lock();
-					if (!contexts.containsKey(httpContext)) {
-						LOG.debug("Creating new ServletContextHandler for HTTP context [{}] and model [{}]",
-								httpContext, model);
-
-						context = new ServletContextInfo(this.addContext(model));
-						contexts.put(httpContext, context);
-						context.incrementRefCount();
-					} else {
-						context = contexts.get(httpContext);
-						context.incrementRefCount();
+		return getOrCreateContext(model, null);
+	}
+
+	private HttpServiceContext getOrCreateContext(final ContextModel contextModel, final Model model) {
+		final ContextKey key = new ContextKey(contextModel.getHttpContext());
+		while (true) {
+			ServletContextInfo context = contexts.get(key);
+			if (context == null) {
+				ServletContextInfo created = new ServletContextInfo();
+				context = contexts.putIfAbsent(key, created);
+				if (context == null) {
+					// created outside of the map, other threads wait for it
+					context = created;
+					LOG.debug("Creating new ServletContextHandler for HTTP context [{}] and model [{}]",
+							key.httpContext, contextModel);
+					try {
+						HttpServiceContext handler = addContext(contextModel);
+						created.created(handler);
+						startContext(handler, contextModel);
+					} finally {
+						created.completed();
 					}
-				} finally {
-					readLock.lock();
-					writeLock.unlock();
 				}
 			}
-		} finally {
-			readLock.unlock();
+			HttpServiceContext handler = context.awaitHandler();
+			if (handler != null && context.register(contextModel, model)) {
+				return handler;
+			}
+			// destroyed meanwhile
+			contexts.remove(key, context);
 		}
-		return context.getHandler();
 	}
 
-	void removeContext(final HttpContext httpContext) {
-		ServletContextInfo context;
-		try {
-			readLock.lock();
-			context = contexts.get(httpContext);
-			if (context == null) {
-				return;
-			}
-			int nref = context.decrementRefCount();
-			if (nref <= 0) {
-				try {
-					readLock.unlock();
-					writeLock.lock();
-					LOG.debug("Removing ServletContextHandler for HTTP context [{}].", httpContext);
-					context = contexts.remove(httpContext);
-				} finally {
-					readLock.lock();
-					writeLock.unlock();
-				}
-			} else {
-				LOG.debug("ServletContextHandler for HTTP context [{}] referenced [{}] times.", httpContext, nref);
-				return;
-			}
-		} finally {
-			readLock.unlock();
+	/**
+	 * Removes a model from its context.
+	 */
+	void removeModel(final Model model) {
+		final HttpContext httpContext = model.getContextModel().getHttpContext();
+		final ContextKey key = new ContextKey(httpContext);
+		ServletContextInfo context = contexts.get(key);
+		if (context != null && context.unregister(model)) {
+			LOG.debug("Removing idle ServletContextHandler for HTTP context [{}].", httpContext);
+			destroyContext(key, context);
 		}
-		// Destroy the context outside of the locking region
-		if (context != null) {
-			HttpServiceContext sch = context.getHandler();
-			sch.unregisterService();
-			try {
-				sch.stop();
-			} catch (Throwable t) { // CHECKSTYLE:SKIP
-				// Ignore
-			}
-			sch.getServletHandler().setServer(null);
-			sch.getSecurityHandler().setServer(null);
-			sch.getSessionHandler().setServer(null);
-			sch.getErrorHandler().setServer(null);
-			((HandlerCollection) getHandler()).removeHandler(sch);
-			sch.destroy();
+	}
+
+	/**
+	 * Releases a context for one of the services using it, the context is
+	 * destroyed once all of them released it. Releasing it again for the same
+	 * service changes nothing.
+	 */
+	void removeContext(final ContextModel contextModel) {
+		final HttpContext httpContext = contextModel.getHttpContext();
+		final ContextKey key = new ContextKey(httpContext);
+		ServletContextInfo context = contexts.get(key);
+		if (context == null) {
+			return;
+		}
+		if (!context.release(contextModel)) {
+			LOG.debug("ServletContextHandler for HTTP context [{}] still in use.", httpContext);
+			return;
+		}
+		LOG.debug("Removing ServletContextHandler for HTTP context [{}].", httpContext);
+		destroyContext(key, context);
+	}
+
+	private void destroyContext(final ContextKey key, final ServletContextInfo context) {
+		contexts.remove(key, context);
+		HttpServiceContext sch = context.handler;
+		sch.unregisterService();
+		try {
+			sch.stop();
+		} catch (Throwable t) { // CHECKSTYLE:SKIP
+			// Ignore
 		}
+		sch.getServletHandler().setServer(null);
+		sch.getSecurityHandler().setServer(null);
+		sch.getSessionHandler().setServer(null);
+		sch.getErrorHandler().setServer(null);
+		((HandlerCollection) getHandler()).removeHandler(sch);
+		sch.destroy();
 	}
 
-	@SuppressWarnings("unchecked")
 	private HttpServiceContext addContext(final ContextModel model) {
 		Bundle bundle = model.getBundle();
 		BundleContext bundleContext = BundleUtils.getBundleContext(bundle);
-		// scan for ServletContainerInitializers
-		Set<Bundle> bundlesInClassSpace = ClassPathUtil.getBundlesInClassSpace(bundle, new HashSet<Bundle>());
+		// scan for ServletContainerInitializers, the class spaces and the
+		// initializers each bundle declares are cached by the scanner
+		Set<Bundle> bundlesInClassSpace = new LinkedHashSet<Bundle>(
+				ServletContainerInitializerScanner.getBundlesInClassSpace(bundle));
 
 		if (jettyBundle != null) {
-			ClassPathUtil.getBundlesInClassSpace(jettyBundle, bundlesInClassSpace);
+			bundlesInClassSpace.addAll(ServletContainerInitializerScanner.getBundlesInClassSpace(jettyBundle));
 		}
 
-		for (URL u : ClassPathUtil.findResources(bundlesInClassSpace, "/META-INF/services",
-				"javax.servlet.ServletContainerInitializer", true)) {
+		// add those to the model contained ones
+		Map<ServletContainerInitializer, Set<Class<?>>> containerInitializers = model.getContainerInitializers();
+		Set<String> registeredInitializers = new HashSet<String>();
+		if (containerInitializers != null) {
+			// already registered, e.g. by the war extender
+			for (ServletContainerInitializer initializer : containerInitializers.keySet()) {
+				registeredInitializers.add(initializer.getClass().getName());
+			}
+		}
+		HandlesTypesIndex handlesTypesIndex = null;
+
+		for (Map.Entry<String, Bundle> entry : ServletContainerInitializerScanner
+				.findServletContainerInitializers(bundlesInClassSpace).entrySet()) {
+			String className = entry.getKey();
+			if (className.endsWith("JasperInitializer")) {
+				LOG.info("Skipt {}, because specialized handler will be present", className);
+				continue;
+			}
+			if (registeredInitializers.contains(className)) {
+				LOG.debug("{} is already registered", className);
+				continue;
+			}
+			LOG.info("will add {} to ServletContainerInitializers", className);
 			try {
-				InputStream is = u.openStream();
-				BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-				// only the first line is read, it contains the name of the
-				// class.
-				String className = reader.readLine();
-				LOG.info("will add {} to ServletContainerInitializers", className);
-
-				if (className.endsWith("JasperInitializer")) {
-					LOG.info("Skipt {}, because specialized handler will be present", className);
-					continue;
-				}
-
 				Class<?> initializerClass;
 
 				try {
 					initializerClass = bundle.loadClass(className);
 				} catch (ClassNotFoundException ignore) {
-					initializerClass = jettyBundle.loadClass(className);
+					initializerClass = entry.getValue().loadClass(className);
 				}
 
-				// add those to the model contained ones
-				Map<ServletContainerInitializer, Set<Class<?>>> containerInitializers = model
-						.getContainerInitializers();
-
 				ServletContainerInitializer initializer = (ServletContainerInitializer) initializerClass.newInstance();
 
 				if (containerInitializers == null) {
@@ -324,50 +469,34 @@ class JettyServerWrapper extends Server {
 				// scan for @HandlesTypes
 				HandlesTypes handlesTypes = initializerClass.getAnnotation(HandlesTypes.class);
 				if (handlesTypes != null) {
-					Class<?>[] classes = handlesTypes.value();
-
-					for (Class<?> klass : classes) {
-						boolean isAnnotation = klass.isAnnotation();
-						boolean isInteraface = klass.isInterface();
-
-						if (isAnnotation) {
-							try {
-								BundleAnnotationFinder baf = new BundleAnnotationFinder(
-										packageAdminTracker.getService(), bundle);
-								List<Class<?>> annotatedClasses = baf
-										.findAnnotatedClasses((Class<? extends Annotation>) klass);
-								setOfClasses.addAll(annotatedClasses);
-							} catch (Exception e) {
-								LOG.warn("Failed to find annotated classes for ServletContainerInitializer", e);
-							}
-						} else if (isInteraface) {
-							BundleAssignableClassFinder basf = new BundleAssignableClassFinder(
-									packageAdminTracker.getService(), new Class[] { klass }, bundle);
-							Set<String> interfaces = basf.find();
-							for (String interfaceName : interfaces) {
-								setOfClasses.add(bundle.loadClass(interfaceName));
-							}
-						} else {
-							// class
-							BundleAssignableClassFinder basf = new BundleAssignableClassFinder(
-									packageAdminTracker.getService(), new Class[] { klass }, bundle);
-							Set<String> classNames = basf.find();
-							for (String klassName : classNames) {
-								setOfClasses.add(bundle.loadClass(klassName));
-							}
-						}
+					if (handlesTypesIndex == null) {
+						handlesTypesIndex = new HandlesTypesIndex(bundle);
+					}
+					for (Class<?> klass : handlesTypes.value()) {
+						setOfClasses.addAll(handlesTypesIndex.getClasses(klass));
 					}
 				}
 				containerInitializers.put(initializer, setOfClasses);
 				LOG.info("added ServletContainerInitializer: {}", className);
-			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | IOException e) {
+			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
 				LOG.warn("failed to parse and instantiate of javax.servlet.ServletContainerInitializer in classpath");
 			}
 		}
 
+		DOMJettyWebXmlParser.Configuration jettyWebXml = null;
+		if (model.getJettyWebXmlURL() != null) {
+			//CHECKSTYLE:OFF
+			try {
+				jettyWebXml = jettyWebXmlCache.getConfiguration(bundle, model.getJettyWebXmlURL());
+			} catch (Exception e) {
+				LOG.warn("Exception while reading " + model.getJettyWebXmlURL(), e);
+			}
+			//CHECKSTYLE:ON
+		}
+
 		HttpServiceContext context = new HttpServiceContext((HandlerContainer) getHandler(), model.getContextParams(),
 				getContextAttributes(bundleContext), model.getContextName(), model.getHttpContext(),
-				model.getAccessControllerContext(), model.getContainerInitializers(), model.getJettyWebXmlURL(),
+				model.getAccessControllerContext(), model.getContainerInitializers(), jettyWebXml,
 				model.getVirtualHosts());
 		context.setClassLoader(model.getClassLoader());
 		Integer modelSessionTimeout = model.getSessionTimeout();
@@ -413,8 +542,13 @@ class JettyServerWrapper extends Server {
 		configureJspConfigDescriptor(context, model);
 
 		LOG.debug("Added servlet context: " + context);
+		return context;
+	}
 
+	private void startContext(final HttpServiceContext context, final ContextModel model) {
 		if (isStarted()) {
+			Bundle bundle = model.getBundle();
+			BundleContext bundleContext = BundleUtils.getBundleContext(bundle);
 			try {
 				LOG.debug("(Re)starting servlet contexts...");
 				// start the server handler if not already started
@@ -461,7 +595,6 @@ class JettyServerWrapper extends Server {
 			}
 			// CHECKSTYLE:ON
 		}
-		return context;
 	}
 
 	private void configureJspConfigDescriptor(HttpServiceContext context, ContextModel model) {
@@ -688,7 +821,27 @@ class JettyServerWrapper extends Server {
 						((HashSessionManager) sessionManager).setLazyLoad(lazy);
 					}
 				}
-				if (directory != null) {
+				SessionStore store = null;
+				if (sessionManager instanceof LateInvalidatingHashSessionManager) {
+					store = SessionStores.create(directory, context.getContextPath());
+				}
+				if (store != null) {
+					LOG.debug("session store set to: {}", store);
+					((LateInvalidatingHashSessionManager) sessionManager).setSessionStore(store);
+					File storeDir = null;
+					if (store instanceof MappedSessionStore) {
+						storeDir = ((MappedSessionStore) store).getDirectory();
+					} else if (directory != null && !(store instanceof SharedSessionStore)) {
+						storeDir = new File(directory);
+					}
+					if (storeDir != null) {
+						try {
+							((HashSessionManager) sessionManager).setStoreDirectory(storeDir);
+						} catch (IOException e) {
+							LOG.warn("IOException while trying to set the StoreDirectory on the session Manager", e);
+						}
+					}
+				} else if (directory != null) {
 					LOG.debug("storeDirectoy set to: {}", directory);
 					if (sessionManager instanceof HashSessionManager) {
 						File storeDir = null;
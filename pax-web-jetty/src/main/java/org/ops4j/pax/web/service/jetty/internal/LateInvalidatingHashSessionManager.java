@@ -1,11 +1,13 @@
 package org.ops4j.pax.web.service.jetty.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 
 import javax.servlet.http.HttpSession;
 
@@ -13,12 +15,21 @@ import org.eclipse.jetty.server.session.AbstractSession;
 import org.eclipse.jetty.server.session.HashSessionIdManager;
 import org.eclipse.jetty.server.session.HashSessionManager;
 import org.eclipse.jetty.server.session.HashedSession;
+import org.ops4j.pax.web.service.spi.session.SessionData;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SharedSessionStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Hash session manager extension that scavenges sessions only when all sessions
  * with the same session id are ready for scavenge.
+ * <p>
+ * With a {@link SessionStore} set, sessions are kept in the store instead of
+ * one file per session in the store directory. In lazy mode each session is
+ * then restored on its first access instead of all at once. A
+ * {@link SharedSessionStore} additionally gets every change of a session, and
+ * sessions modified by another node are reloaded on their next access.
  * 
  * @author Marc Klinger - mklinger[at]nightlabs[dot]de
  */
@@ -26,6 +37,243 @@ public class LateInvalidatingHashSessionManager extends HashSessionManager {
 	private static final Logger LOG = LoggerFactory
 			.getLogger(LateInvalidatingHashSessionManager.class);
 
+	private SessionStore sessionStore;
+
+	public SessionStore getSessionStore() {
+		return sessionStore;
+	}
+
+	/**
+	 * @param sessionStore
+	 *            store keeping the sessions across restarts, the store
+	 *            directory must be set too for the sessions to be saved and
+	 *            restored unless the store is shared
+	 */
+	public void setSessionStore(SessionStore sessionStore) {
+		this.sessionStore = sessionStore;
+	}
+
+	@Override
+	public void saveSessions(boolean reactivate) throws Exception {
+		if (sessionStore == null) {
+			super.saveSessions(reactivate);
+			return;
+		}
+		if (sessionStore instanceof SharedSessionStore) {
+			((SharedSessionStore) sessionStore).flush();
+			return;
+		}
+		for (HashedSession session : _sessions.values()) {
+			storeSession(session, reactivate);
+		}
+		sessionStore.close();
+	}
+
+	@Override
+	public void restoreSessions() throws Exception {
+		if (sessionStore == null) {
+			super.restoreSessions();
+			return;
+		}
+		if (isLazyLoad() || sessionStore instanceof SharedSessionStore) {
+			// sessions are restored one by one in restoreSession(String)
+			return;
+		}
+		for (String id : sessionStore.getSessionIds()) {
+			restoreSession(id);
+		}
+		sessionStore.clear();
+	}
+
+	@Override
+	protected synchronized HashedSession restoreSession(String idInCluster) {
+		if (sessionStore == null) {
+			return super.restoreSession(idInCluster);
+		}
+		HashedSession session = _sessions.get(idInCluster);
+		if (session != null) {
+			return session;
+		}
+		try {
+			SessionData data = sessionStore.load(idInCluster, _loader);
+			if (data == null) {
+				return null;
+			}
+			if (data.isExpired(System.currentTimeMillis())) {
+				if (!(sessionStore instanceof SharedSessionStore)) {
+					sessionStore.remove(idInCluster);
+				}
+				return null;
+			}
+			session = (HashedSession) newSession(data.getCreationTime(),
+					data.getLastAccessedTime(), idInCluster);
+			for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+				if (attribute.getValue() != null) {
+					session.getAttributeMap().put(attribute.getKey(), attribute.getValue());
+				}
+			}
+			session.setMaxInactiveInterval(data.getMaxInactiveInterval());
+			addSession(session, false);
+			session.didActivate();
+			if (isLazyLoad() && !(sessionStore instanceof SharedSessionStore)) {
+				sessionStore.remove(idInCluster);
+			}
+			return session;
+			//CHECKSTYLE:OFF
+		} catch (Exception e) {
+			LOG.warn("Problem restoring session " + idInCluster, e);
+			return null;
+		}
+		//CHECKSTYLE:ON
+	}
+
+	@Override
+	public AbstractSession getSession(String idInCluster) {
+		AbstractSession session = super.getSession(idInCluster);
+		SharedSessionStore sharedStore = getSharedSessionStore();
+		if (sharedStore == null) {
+			return session;
+		}
+		if (session == null) {
+			return restoreSession(idInCluster);
+		}
+		if (sharedStore.isModifiedElsewhere(idInCluster)) {
+			return refreshSession((HashedSession) session);
+		}
+		return session;
+	}
+
+	@Override
+	public void complete(HttpSession session) {
+		super.complete(session);
+		SharedSessionStore sharedStore = getSharedSessionStore();
+		if (sharedStore != null && session instanceof AbstractSession) {
+			AbstractSession abstractSession = (AbstractSession) session;
+			if (abstractSession.isValid()) {
+				sharedStore.accessed(abstractSession.getClusterId(),
+						abstractSession.getCreationTime(), abstractSession.getAccessed(),
+						abstractSession.getMaxInactiveInterval());
+			}
+		}
+	}
+
+	@Override
+	public void doSessionAttributeListeners(AbstractSession session, String name,
+			Object old, Object value) {
+		super.doSessionAttributeListeners(session, name, old, value);
+		SharedSessionStore sharedStore = getSharedSessionStore();
+		if (sharedStore != null) {
+			if (value == null) {
+				sharedStore.attributeRemoved(session.getClusterId(), name);
+			} else {
+				sharedStore.attributeChanged(session.getClusterId(), name, value);
+			}
+		}
+	}
+
+	@Override
+	public boolean removeSession(AbstractSession session, boolean invalidate) {
+		boolean removed = super.removeSession(session, invalidate);
+		SharedSessionStore sharedStore = getSharedSessionStore();
+		if (removed && invalidate && sharedStore != null) {
+			try {
+				sharedStore.remove(session.getClusterId());
+			} catch (IOException e) {
+				LOG.warn("Problem removing session " + session.getClusterId(), e);
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	public void renewSessionId(String oldClusterId, String oldNodeId,
+			String newClusterId, String newNodeId) {
+		super.renewSessionId(oldClusterId, oldNodeId, newClusterId, newNodeId);
+		SharedSessionStore sharedStore = getSharedSessionStore();
+		HashedSession session = _sessions.get(newClusterId);
+		if (sharedStore != null && session != null) {
+			try {
+				sharedStore.sessionIdChanged(oldClusterId, new SessionData(newClusterId,
+						session.getCreationTime(), session.getAccessed(),
+						session.getMaxInactiveInterval(), session.getAttributeMap()));
+			} catch (IOException e) {
+				LOG.warn("Problem renewing session " + oldClusterId, e);
+			}
+		}
+	}
+
+	private SharedSessionStore getSharedSessionStore() {
+		return sessionStore instanceof SharedSessionStore ? (SharedSessionStore) sessionStore
+				: null;
+	}
+
+	/**
+	 * Reloads a session another node modified.
+	 * 
+	 * @return the session, or null if another node invalidated it
+	 */
+	private HashedSession refreshSession(HashedSession session) {
+		SessionData data;
+		try {
+			data = sessionStore.load(session.getClusterId(), _loader);
+			//CHECKSTYLE:OFF
+		} catch (Exception e) {
+			LOG.warn("Problem reloading session " + session.getClusterId(), e);
+			return session;
+		}
+		//CHECKSTYLE:ON
+		if (data == null) {
+			if (session.isValid()) {
+				session.invalidate();
+			}
+			return null;
+		}
+		synchronized (session) {
+			Map<String, Object> attributes = session.getAttributeMap();
+			attributes.keySet().retainAll(data.getAttributes().keySet());
+			for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+				if (attribute.getValue() != null) {
+					attributes.put(attribute.getKey(), attribute.getValue());
+				}
+			}
+		}
+		session.setMaxInactiveInterval(data.getMaxInactiveInterval());
+		if (session.getAccessed() < data.getLastAccessedTime()) {
+			setAccessed(session, data.getLastAccessedTime());
+		}
+		return session;
+	}
+
+	private void setAccessed(AbstractSession session, long accessed) {
+		try {
+			Field accessedField = AbstractSession.class.getDeclaredField("_accessed");
+			accessedField.setAccessible(true);
+			accessedField.set(session, accessed);
+			Field lastAccessedField = AbstractSession.class.getDeclaredField("_lastAccessed");
+			lastAccessedField.setAccessible(true);
+			lastAccessedField.set(session, accessed);
+			//CHECKSTYLE:OFF
+		} catch (Exception e) {
+			LOG.warn("Error setting _accessed for session " + session, e);
+		}
+		//CHECKSTYLE:ON
+	}
+
+	private void storeSession(HashedSession session, boolean reactivate) {
+		try {
+			session.willPassivate();
+			sessionStore.save(new SessionData(session.getClusterId(),
+					session.getCreationTime(), session.getAccessed(),
+					session.getMaxInactiveInterval(), session.getAttributeMap()));
+		} catch (IOException e) {
+			LOG.warn("Problem saving session " + session.getClusterId(), e);
+		} finally {
+			if (reactivate) {
+				session.didActivate();
+			}
+		}
+	}
+
 	/**
 	 * This is a hack that sets the accessed and lastAccessed fields in
 	 * HashedSession for all sessions with the same id when not all sessions are
@@ -49,6 +297,13 @@ public class LateInvalidatingHashSessionManager extends HashSessionManager {
 				final long now = System.currentTimeMillis();
 				for (final HashedSession session : _sessions.values()) {
 					final long idleTime = session.getMaxInactiveInterval() * 1000;
+					if (isTimeoutCandidate(session, idleTime, now)
+							&& getSharedSessionStore() != null
+							&& getSharedSessionStore().isModifiedElsewhere(session.getClusterId())
+							&& refreshSession(session) == null) {
+						// another node accessed or invalidated the session
+						continue;
+					}
 					if (isTimeoutCandidate(session, idleTime, now)) {
 						if (_sessionIdManager instanceof HashSessionIdManager) {
 							final Collection<AbstractSession> sessionsWithId = getSessionsWithId(session
@@ -217,10 +472,17 @@ public class LateInvalidatingHashSessionManager extends HashSessionManager {
 				for (HashedSession session : sessions) {
 					if (storeDir != null && storeDir.exists()
 							&& storeDir.canWrite()) {
-						sessionSave(session, false);
+						if (sessionStore != null) {
+							storeSession(session, false);
+						} else {
+							sessionSave(session, false);
+						}
 					}
 					removeSession(session, false);
 				}
+				if (sessionStore != null) {
+					sessionStore.close();
+				}
 			} else {
 				for (HashedSession session : sessions) {
 					session.invalidate();
@@ -36,6 +36,7 @@ import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceFactory;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -268,23 +269,17 @@ class ResourceServlet extends HttpServlet implements ResourceFactory {
 				mimeType = mimeTypes.getMimeByExtension(mapping);
 			}
 
-			if (mimeType == null) {
-				try {
-					mimeType = url.openConnection().getContentType();
-				} catch (IOException ignore) {
-					// we do not care about such an exception as the fact that
-					// we are using also the connection for
-					// finding the mime type is just a "nice to have" not an
-					// requirement
-				}
-			}
-
 			if (mimeType == null) {
 				ServletContext servletContext = getServletConfig()
 						.getServletContext();
 				mimeType = servletContext.getMimeType(mapping);
 			}
 
+			// the defaults shared by all web containers come last
+			if (mimeType == null) {
+				mimeType = MimeTypeTable.getDefault().getMimeType(mapping);
+			}
+
 			if (mimeType != null) {
 				response.setContentType(mimeType);
 			}
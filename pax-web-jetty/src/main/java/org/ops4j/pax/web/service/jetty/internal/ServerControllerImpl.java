@@ -41,6 +41,7 @@ import org.ops4j.pax.web.service.spi.model.LoginConfigModel;
 import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -136,8 +137,24 @@ class ServerControllerImpl implements ServerController {
 	}
 
 	@Override
-	public void removeContext(HttpContext httpContext) {
-		state.removeContext(httpContext);
+	public void removeContext(ContextModel contextModel) {
+		state.removeContext(contextModel);
+	}
+
+	/**
+	 * Requests are routed by the server model, see
+	 * {@link JettyServerHandlerCollection}, so a standby context only receives
+	 * requests once activated.
+	 */
+	@Override
+	public boolean isStandbySupported() {
+		return true;
+	}
+
+	@Override
+	public boolean awaitIdle(HttpContext httpContext, long timeout)
+			throws InterruptedException {
+		return jettyServer == null || jettyServer.awaitIdle(httpContext, timeout);
 	}
 
 	@Override
@@ -250,7 +267,7 @@ class ServerControllerImpl implements ServerController {
 
 		void removeEventListener(EventListenerModel eventListenerModel);
 
-		void removeContext(HttpContext httpContext);
+		void removeContext(ContextModel contextModel);
 
 		void addFilter(FilterModel filterModel);
 
@@ -306,8 +323,8 @@ class ServerControllerImpl implements ServerController {
 		}
 
 		@Override
-		public void removeContext(HttpContext httpContext) {
-			jettyServer.removeContext(httpContext);
+		public void removeContext(ContextModel contextModel) {
+			jettyServer.removeContext(contextModel);
 		}
 
 		@Override
@@ -406,10 +423,7 @@ class ServerControllerImpl implements ServerController {
 
 			// Configure NCSA RequestLogHandler
 			if (configuration.isLogNCSAFormatEnabled()) {
-				jettyServer.configureRequestLog(
-						new ConfigureRequestLogParameter(configuration.getLogNCSAFormat(), configuration.getLogNCSARetainDays(),
-								configuration.isLogNCSAAppend(), configuration.isLogNCSAExtended(), configuration.isLogNCSADispatch(), configuration.getLogNCSATimeZone(),
-								configuration.getLogNCSADirectory(), configuration.isLogNCSALatency(), configuration.isLogNCSACookies(), configuration.isLogNCSAServer()));
+				jettyServer.configureRequestLog(AccessLogWriter.create(configuration));
 			}
 
 			jettyServer.start(); 
@@ -613,7 +627,7 @@ class ServerControllerImpl implements ServerController {
 		}
 
 		@Override
-		public void removeContext(HttpContext httpContext) {
+		public void removeContext(ContextModel contextModel) {
 			// do nothing if server is not started
 		}
 
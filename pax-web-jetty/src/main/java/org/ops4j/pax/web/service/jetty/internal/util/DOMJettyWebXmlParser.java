@@ -49,6 +49,11 @@ import org.w3c.dom.Element;
 /**
  * adapted and optimized JettyXmlConfiguration class for reading jetty-web.xml
  * files
+ * <p>
+ * A jetty-web.xml is compiled once into a {@link Configuration}, which can be
+ * applied to any number of web applications. The classes, setters, getters,
+ * methods and constructors found while applying it are kept for the next
+ * object of the same class, and literal values are converted only once.
  */
 public class DOMJettyWebXmlParser {
 
@@ -68,223 +73,630 @@ public class DOMJettyWebXmlParser {
 			Long.class, Float.class, Double.class, Void.class };
 	private static final Integer ZERO = Integer.valueOf(0);
 
-	Map<String, Object> _idMap = new HashMap<>();
-	Map<String, String> _propertyMap = new HashMap<>();
 	public Object parse(Object webApp, InputStream inputStream) {
+		Configuration configuration;
 		try {
-			final Element rootElement = getRootElement(inputStream);
-
-			configure(webApp, rootElement, ZERO);
-
+			configuration = compile(inputStream);
 		} catch (Exception e) {
 			LOG.warn("Exception while configuring webApp!", e);
+			return null;
 		}
+		configuration.apply(webApp);
 		return null;
 	}
 	//CHECKSTYLE:ON
 
+	/**
+	 * Compiles a jetty-web.xml. Classes are only loaded, and members only
+	 * looked up, when the configuration is applied.
+	 *
+	 * @param inputStream
+	 *            the jetty-web.xml
+	 * @return the compiled configuration
+	 * @throws Exception
+	 *             if the document can't be read
+	 */
+	public static Configuration compile(InputStream inputStream)
+			throws Exception {
+		return new Configuration(configure(getRootElement(inputStream), 0));
+	}
+
+	/**
+	 * A compiled jetty-web.xml, safe to apply concurrently.
+	 */
+	public static final class Configuration {
+
+		private final Block root;
+
+		private Configuration(Block root) {
+			this.root = root;
+		}
+
+		/**
+		 * Applies the configuration to a web application, with the context
+		 * class loader of the web application.
+		 *
+		 * @param webApp
+		 *            object configured by the root element
+		 */
+		public void apply(Object webApp) {
+			//CHECKSTYLE:OFF
+			try {
+				root.configure(webApp, new HashMap<String, Object>());
+			} catch (Exception e) {
+				LOG.warn("Exception while configuring webApp!", e);
+			}
+			//CHECKSTYLE:ON
+		}
+	}
+
 	/* ------------------------------------------------------------ */
 	/**
-	 * Recursive configuration step. This method applies the remaining Set, Put
-	 * and Call elements to the current object.
-	 * 
-	 * @param obj
+	 * Recursive configuration step. Compiles the remaining Set, Put and Call
+	 * elements applied to the current object.
+	 *
 	 * @param cfg
 	 * @param startIdx
 	 *            the child element index to start with
-	 * @exception Exception
 	 */
-	public void configure(Object obj, Element cfg, int startIdx)
-			throws Exception {
-		String id = getAttribute(cfg, "id");
-		if (id != null) {
-			_idMap.put(id, obj);
-		}
-
+	private static Block configure(Element cfg, int startIdx) {
 		Element[] children = getChildren(cfg);
-
+		List<Step> steps = new ArrayList<Step>();
 		for (int i = startIdx; i < children.length; i++) {
 			Element node = children[i];
+			String tag = node.getTagName();
+			if ("Set".equals(tag)) {
+				steps.add(new SetStep(node));
+			} else if ("Put".equals(tag)) {
+				steps.add(new PutStep(node));
+			} else if ("Call".equals(tag)) {
+				steps.add(new CallStep(node));
+			} else if ("Get".equals(tag)) {
+				steps.add(new GetStep(node));
+			} else if ("New".equals(tag)) {
+				steps.add(new NewStep(node));
+			} else if ("Array".equals(tag)) {
+				steps.add(new ArrayStep(node));
+			} else if ("Ref".equals(tag)) {
+				steps.add(new RefStep(node));
+			} else if ("Property".equals(tag)) {
+				steps.add(new PropertyStep(node));
+			} else {
+				steps.add(new FailStep(node, "Unknown tag: " + tag));
+			}
+		}
+		return new Block(getAttribute(cfg, "id"), steps);
+	}
+
+	/* ------------------------------------------------------------ */
+	/*
+	 * Compile the value of an element. If no value type is specified, then
+	 * white space is trimmed out of the value. Literal values are converted to
+	 * the specified type right away.
+	 *
+	 * @param node
+	 */
+	private static Step value(Element node) {
+		// Get the type
+		final String type = getAttribute(node, "type");
+
+		// Try a ref lookup
+		final String ref = getAttribute(node, "ref");
+		if (ref != null) {
+			return new TypedStep(node, type, new Step(node) {
+				@Override
+				Object apply(Object obj, Map<String, Object> ids) {
+					return ids.get(ref);
+				}
+			});
+		}
+
+		// handle trivial case
+		String text = getValue(node);
+		Element[] children = getChildren(node);
+		if (children.length == 0 && (text == null || text.length() == 0)) {
+			return new ConstantStep(node, "String".equals(type) ? "" : null);
+		}
+
+		Step value = null;
+		// Handle default trim type
+		if (type == null || !"String".equals(type)) {
+			text = text == null ? "" : text.trim();
+			if (text.length() > 0) {
+				value = new ConstantStep(node, text);
+			} else if (children.length == 0) {
+				// All white, so return null
+				return new ConstantStep(node, null);
+			} else {
+				// first check if there are maybe is another child left
+				value = itemValue(children[0]);
+			}
+		}
+
+		// Untyped or unknown
+		if (value == null) {
+			return new ConstantStep(node, "String".equals(type) ? "" : null);
+		}
+
+		// Convert literals once, except host names which may change
+		if (value instanceof ConstantStep && !"InetAddress".equals(type)
+				&& !"java.net.InetAddress".equals(type)) {
 			//CHECKSTYLE:OFF
 			try {
-				// TODO: in case switching to jdk 7, this could be a switch!
-				String tag = node.getTagName();
-				if ("Set".equals(tag)) {
-					set(obj, node);
-				} else if ("Put".equals(tag)) {
-					put(obj, node);
-				} else if ("Call".equals(tag)) {
-					call(obj, node);
-				} else if ("Get".equals(tag)) {
-					get(obj, node);
-				} else if ("New".equals(tag)) {
-					newObj(obj, node);
-				} else if ("Array".equals(tag)) {
-					newArray(obj, node);
-				} else if ("Ref".equals(tag)) {
-					refObj(obj, node);
-				} else if ("Property".equals(tag)) {
-					propertyObj(obj, node);
-				} else {
-					throw new IllegalStateException("Unknown tag: " + tag);
-				}
+				return new ConstantStep(node, convert(type,
+						((ConstantStep) value).value));
 			} catch (Exception e) {
-				LOG.warn("Config error at " + node, e.toString());
-				throw e;
+				// fails when applied
 			}
 			//CHECKSTYLE:ON
 		}
+		return new TypedStep(node, type, value);
 	}
 
 	/* ------------------------------------------------------------ */
-	private Class<?> nodeClass(Element node) throws ClassNotFoundException {
-		String className = getAttribute(node, "class");
-		if (className == null) {
-			return null;
+	/*
+	 * Compile the value of a single element.
+	 */
+	private static Step itemValue(Element node) {
+		String tag = node.getTagName();
+		// TODO: in case of jdk7 usage use swtich instead
+		if ("Call".equals(tag)) {
+			return new CallStep(node);
+		}
+		if ("Get".equals(tag)) {
+			return new GetStep(node);
+		}
+		if ("New".equals(tag)) {
+			return new NewStep(node);
+		}
+		if ("Ref".equals(tag)) {
+			return new RefStep(node);
+		}
+		if ("Array".equals(tag)) {
+			return new ArrayStep(node);
+		}
+		if ("Map".equals(tag)) {
+			try {
+				return new MapStep(node);
+			} catch (IllegalStateException e) {
+				return new FailStep(node, e.getMessage());
+			}
+		}
+		if ("Property".equals(tag)) {
+			return new PropertyStep(node);
+		}
+
+		if ("SystemProperty".equals(tag)) {
+			final String name = getAttribute(node, "name");
+			final String defaultValue = getAttribute(node, "default");
+			return new Step(node) {
+				@Override
+				Object apply(Object obj, Map<String, Object> ids) {
+					return System.getProperty(name, defaultValue);
+				}
+			};
 		}
 
-		return Loader.loadClass(DOMJettyWebXmlParser.class, className, true);
+		LOG.warn("Unknown value tag: {}", node);
+		return new ConstantStep(node, null);
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
-	 * Call a set method. This method makes a best effort to find a matching set
-	 * method. The type of the value is used to find a suitable set method by 1.
-	 * Trying for a trivial type match. 2. Looking for a native type match. 3.
-	 * Trying all correctly named methods for an auto conversion. 4. Attempting
-	 * to construct a suitable value from original value. @param obj
-	 * 
-	 * @param node
+	 * Converts a value to the type of an element.
 	 */
-	private void set(Object obj, Element node) throws Exception {
-		String attr = getAttribute(node, "name");
-		String name = "set" + attr.substring(0, 1).toUpperCase()
-				+ attr.substring(1);
-		Object value = value(obj, node);
-		Object[] arg = { value };
+	private static Object convert(String type, Object value)
+			throws InvocationTargetException {
+		if (value == null) {
+			if ("String".equals(type)) {
+				return "";
+			}
+			return null;
+		}
 
-		//CHECKSTYLE:OFF
-		Class<?> oClass = nodeClass(node);
-		if (oClass != null) {
-			obj = null;
-		} else {
-			oClass = obj.getClass();
+		// Try to type the object
+		if (type == null) {
+			if (value instanceof String) {
+				return ((String) value).trim();
+			}
+			return value;
 		}
-		//CHECKSTYLE:ON
 
-		Class<?>[] vClass = { Object.class };
-		if (value != null) {
-			vClass[0] = value.getClass();
+		if ("String".equals(type) || "java.lang.String".equals(type)) {
+			return value.toString();
 		}
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("XML "
-					+ (obj != null ? obj.toString() : oClass.getName()) + "."
-					+ name + "(" + value + ")");
+		Class<?> pClass = TypeUtil.fromName(type);
+		if (pClass != null) {
+			return TypeUtil.valueOf(pClass, value.toString());
 		}
 
-		// Try for trivial match
-		try {
-			Method set = oClass.getMethod(name, vClass);
-			set.invoke(obj, arg);
-			return;
-		} catch (IllegalArgumentException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("IllegalArgument while parsing jetty-web.xml", e);
+		if ("URL".equals(type) || "java.net.URL".equals(type)) {
+			if (value instanceof URL) {
+				return value;
 			}
-		} catch (IllegalAccessException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("IllegalAccessException while parsing jetty-web.xml",
-						e);
+			try {
+				return new URL(value.toString());
+			} catch (MalformedURLException e) {
+				throw new InvocationTargetException(e);
 			}
-		} catch (NoSuchMethodException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("NoSuchMethodException while parsing jetty-web.xml", e);
+		}
+
+		if ("InetAddress".equals(type) || "java.net.InetAddress".equals(type)) {
+			if (value instanceof InetAddress) {
+				return value;
+			}
+			try {
+				return InetAddress.getByName(value.toString());
+			} catch (UnknownHostException e) {
+				throw new InvocationTargetException(e);
 			}
 		}
 
-		// Try for native match
-		try {
-			Field type = vClass[0].getField("TYPE");
-			vClass[0] = (Class<?>) type.get(null);
-			Method set = oClass.getMethod(name, vClass);
-			set.invoke(obj, arg);
-			return;
-		} catch (NoSuchFieldException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("NoSuchFieldException while parsing jetty-web.xml", e);
+		throw new IllegalStateException("Unknown type " + type);
+	}
+
+	/**
+	 * Number of leading Arg children of an element.
+	 */
+	private static int argCount(Element[] children) {
+		int size = 0;
+		while (size < children.length
+				&& "Arg".equals(children[size].getTagName())) {
+			size++;
+		}
+		return size;
+	}
+
+	private static Step[] args(Element[] children, int size) {
+		Step[] args = new Step[size];
+		for (int i = 0; i < size; i++) {
+			args[i] = value(children[i]);
+		}
+		return args;
+	}
+
+	private static Object[] values(Step[] steps, Object obj,
+			Map<String, Object> ids) throws Exception {
+		Object[] values = new Object[steps.length];
+		for (int i = 0; i < steps.length; i++) {
+			values[i] = steps[i].apply(obj, ids);
+		}
+		return values;
+	}
+
+	private static Class<?>[] classes(Object[] values) {
+		Class<?>[] classes = new Class<?>[values.length];
+		for (int i = 0; i < values.length; i++) {
+			classes[i] = values[i] == null ? null : values[i].getClass();
+		}
+		return classes;
+	}
+
+	private static String capitalize(String name) {
+		return name.substring(0, 1).toUpperCase() + name.substring(1);
+	}
+
+	public static Object toArray(Object list, Class<?> clazz) {
+		if (list == null) {
+			return Array.newInstance(clazz, 0);
+		}
+
+		if (list instanceof List) {
+			List<?> l = (List<?>) list;
+			if (clazz.isPrimitive()) {
+				Object a = Array.newInstance(clazz, l.size());
+				for (int i = 0; i < l.size(); i++) {
+					Array.set(a, i, l.get(i));
+				}
+				return a;
 			}
-		} catch (IllegalArgumentException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug(
-						"IllegalArgumentException while parsing jetty-web.xml",
-						e);
+			return l.toArray((Object[]) Array.newInstance(clazz, l.size()));
+
+		}
+
+		Object a = Array.newInstance(clazz, 1);
+		Array.set(a, 0, list);
+		return a;
+	}
+
+	/**
+	 * A compiled element, applied to the object configured by its parent.
+	 */
+	private abstract static class Step {
+
+		/**
+		 * Description of the element for error messages.
+		 */
+		private final String node;
+
+		Step(Element node) {
+			this.node = String.valueOf(node);
+		}
+
+		abstract Object apply(Object obj, Map<String, Object> ids)
+				throws Exception;
+
+		@Override
+		public String toString() {
+			return node;
+		}
+	}
+
+	/**
+	 * The configuring children of an element.
+	 */
+	private static final class Block {
+
+		private final String id;
+
+		private final Step[] steps;
+
+		Block(String id, List<Step> steps) {
+			this.id = id;
+			this.steps = steps.toArray(new Step[steps.size()]);
+		}
+
+		void configure(Object obj, Map<String, Object> ids) throws Exception {
+			if (id != null) {
+				ids.put(id, obj);
 			}
-		} catch (IllegalAccessException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("IllegalAccessException while parsing jetty-web.xml",
-						e);
+			for (Step step : steps) {
+				//CHECKSTYLE:OFF
+				try {
+					step.apply(obj, ids);
+				} catch (Exception e) {
+					LOG.warn("Config error at " + step, e.toString());
+					throw e;
+				}
+				//CHECKSTYLE:ON
 			}
-		} catch (NoSuchMethodException e) {
-			if (LOG.isDebugEnabled()) {
-				LOG.debug("NoSuchMethodException while parsing jetty-web.xml", e);
+		}
+	}
+
+	/**
+	 * Class named by the class attribute of an element, loaded with the
+	 * context class loader once per class loader.
+	 */
+	private static final class NodeClass {
+
+		private final String name;
+
+		/**
+		 * Class last loaded, together with the loader it was loaded for.
+		 */
+		private volatile Loaded loaded;
+
+		NodeClass(String name) {
+			this.name = name;
+		}
+
+		static NodeClass of(Element node) {
+			String className = getAttribute(node, "class");
+			return className == null ? null : new NodeClass(className);
+		}
+
+		Class<?> load() throws ClassNotFoundException {
+			ClassLoader current = Thread.currentThread().getContextClassLoader();
+			Loaded last = loaded;
+			if (last == null || last.loader != current) {
+				last = new Loaded(current, Loader.loadClass(DOMJettyWebXmlParser.class, name, true));
+				loaded = last;
 			}
+			return last.type;
 		}
 
-		// Try a field
-		try {
-			Field field = oClass.getField(attr);
-			if (Modifier.isPublic(field.getModifiers())) {
-				field.set(obj, value);
-				return;
+		private static final class Loaded {
+
+			private final ClassLoader loader;
+
+			private final Class<?> type;
+
+			Loaded(ClassLoader loader, Class<?> type) {
+				this.loader = loader;
+				this.type = type;
+			}
+		}
+	}
+
+	private static final class ConstantStep extends Step {
+
+		private final Object value;
+
+		ConstantStep(Element node, Object value) {
+			super(node);
+			this.value = value;
+		}
+
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) {
+			return value;
+		}
+	}
+
+	/**
+	 * Converts a value only known when applied.
+	 */
+	private static final class TypedStep extends Step {
+
+		private final String type;
+
+		private final Step value;
+
+		TypedStep(Element node, String type, Step value) {
+			super(node);
+			this.type = type;
+			this.value = value;
+		}
+
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			return convert(type, value.apply(obj, ids));
+		}
+	}
+
+	/**
+	 * An element failing when applied, like it did before the preceding
+	 * elements were compiled.
+	 */
+	private static final class FailStep extends Step {
+
+		private final String message;
+
+		FailStep(Element node, String message) {
+			super(node);
+			this.message = message;
+		}
+
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	/* ------------------------------------------------------------ */
+	/*
+	 * Call a set method. This method makes a best effort to find a matching set
+	 * method. The type of the value is used to find a suitable set method by 1.
+	 * Trying for a trivial type match. 2. Looking for a native type match. 3.
+	 * Trying all correctly named methods for an auto conversion. 4. Attempting
+	 * to construct a suitable value from original value. The way found is kept
+	 * for the next object and value of the same classes.
+	 */
+	private static final class SetStep extends Step {
+
+		private final String attr;
+
+		private final String name;
+
+		private final NodeClass nodeClass;
+
+		private final Step value;
+
+		private volatile Setter setter;
+
+		SetStep(Element node) {
+			super(node);
+			attr = getAttribute(node, "name");
+			name = "set" + capitalize(attr);
+			nodeClass = NodeClass.of(node);
+			value = value(node);
+		}
+
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			Object value = this.value.apply(obj, ids);
+
+			//CHECKSTYLE:OFF
+			Class<?> oClass;
+			if (nodeClass != null) {
+				oClass = nodeClass.load();
+				obj = null;
+			} else {
+				oClass = obj.getClass();
 			}
-		} catch (NoSuchFieldException e) {
+			//CHECKSTYLE:ON
+
+			Class<?> vClass = value == null ? Object.class : value.getClass();
+
 			if (LOG.isDebugEnabled()) {
-				LOG.debug("NoSuchFieldException while parsing jetty-web.xml", e);
+				LOG.debug("XML "
+						+ (obj != null ? obj.toString() : oClass.getName())
+						+ "." + name + "(" + value + ")");
+			}
+
+			Setter known = setter;
+			if (known != null && known.oClass == oClass
+					&& known.vClass == vClass) {
+				try {
+					known.set(obj, value);
+					return null;
+				} catch (IllegalArgumentException | IllegalAccessException e) {
+					// look again
+				}
 			}
+			setter = set(oClass, obj, value, vClass);
+			return null;
 		}
 
-		// Search for a match by trying all the set methods
-		Method[] sets = oClass.getMethods();
-		Method set = null;
-		for (int s = 0; sets != null && s < sets.length; s++) {
+		private Setter set(Class<?> oClass, Object obj, Object value,
+				Class<?> vClass) throws Exception {
+			Class<?> argClass = vClass;
 
-			Class<?>[] paramTypes = sets[s].getParameterTypes();
-			if (name.equals(sets[s].getName()) && paramTypes.length == 1) {
+			// Try for trivial match
+			try {
+				Method set = oClass.getMethod(name, argClass);
+				set.invoke(obj, new Object[] { value });
+				return new Setter(oClass, vClass, set, null, null, null);
+			} catch (IllegalArgumentException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("IllegalArgument while parsing jetty-web.xml", e);
+				}
+			} catch (IllegalAccessException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("IllegalAccessException while parsing jetty-web.xml",
+							e);
+				}
+			} catch (NoSuchMethodException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("NoSuchMethodException while parsing jetty-web.xml", e);
+				}
+			}
 
-				// lets try it
-				try {
-					set = sets[s];
-					sets[s].invoke(obj, arg);
-					return;
-				} catch (IllegalArgumentException e) {
-					if (LOG.isInfoEnabled()) {
-						LOG.info(
-								"IllegalArgumentException while parsing jetty-web.xml",
-								e);
-					}
-				} catch (IllegalAccessException e) {
-					if (LOG.isInfoEnabled()) {
-						LOG.info(
-								"IllegalAccessException while parsing jetty-web.xml",
-								e);
-					}
+			// Try for native match
+			try {
+				Field type = argClass.getField("TYPE");
+				argClass = (Class<?>) type.get(null);
+				Method set = oClass.getMethod(name, argClass);
+				set.invoke(obj, new Object[] { value });
+				return new Setter(oClass, vClass, set, null, null, null);
+			} catch (NoSuchFieldException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("NoSuchFieldException while parsing jetty-web.xml", e);
+				}
+			} catch (IllegalArgumentException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug(
+							"IllegalArgumentException while parsing jetty-web.xml",
+							e);
 				}
+			} catch (IllegalAccessException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("IllegalAccessException while parsing jetty-web.xml",
+							e);
+				}
+			} catch (NoSuchMethodException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("NoSuchMethodException while parsing jetty-web.xml", e);
+				}
+			}
+
+			// Try a field
+			try {
+				Field field = oClass.getField(attr);
+				if (Modifier.isPublic(field.getModifiers())) {
+					field.set(obj, value);
+					return new Setter(oClass, vClass, null, field, null, null);
+				}
+			} catch (NoSuchFieldException e) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("NoSuchFieldException while parsing jetty-web.xml", e);
+				}
+			}
 
-				// Can we convert to a collection
-				if (paramTypes[0].isAssignableFrom(Collection.class)
-						&& value.getClass().isArray()) {
+			// Search for a match by trying all the set methods
+			Method[] sets = oClass.getMethods();
+			Method set = null;
+			for (int s = 0; sets != null && s < sets.length; s++) {
+
+				Class<?>[] paramTypes = sets[s].getParameterTypes();
+				if (name.equals(sets[s].getName()) && paramTypes.length == 1) {
+
+					// lets try it
 					try {
-						if (paramTypes[0].isAssignableFrom(Set.class)) {
-							sets[s].invoke(
-									obj,
-									new Object[] { new HashSet<Object>(Arrays
-											.asList((Object[]) value)) });
-						} else {
-							sets[s].invoke(obj, new Object[] { Arrays
-									.asList((Object[]) value) });
-						}
-						return;
+						set = sets[s];
+						sets[s].invoke(obj, new Object[] { value });
+						return new Setter(oClass, vClass, set, null, null, null);
 					} catch (IllegalArgumentException e) {
 						if (LOG.isInfoEnabled()) {
 							LOG.info(
@@ -298,120 +710,235 @@ public class DOMJettyWebXmlParser {
 									e);
 						}
 					}
+
+					// Can we convert to a collection
+					if (paramTypes[0].isAssignableFrom(Collection.class)
+							&& value != null && value.getClass().isArray()) {
+						try {
+							Setter setter = new Setter(oClass, vClass, set, null,
+									null, paramTypes[0].isAssignableFrom(Set.class));
+							setter.set(obj, value);
+							return setter;
+						} catch (IllegalArgumentException e) {
+							if (LOG.isInfoEnabled()) {
+								LOG.info(
+										"IllegalArgumentException while parsing jetty-web.xml",
+										e);
+							}
+						} catch (IllegalAccessException e) {
+							if (LOG.isInfoEnabled()) {
+								LOG.info(
+										"IllegalAccessException while parsing jetty-web.xml",
+										e);
+							}
+						}
+					}
 				}
 			}
-		}
 
-		// Try converting the arg to the last set found.
-		if (set != null) {
-			try {
-				Class<?> sClass = set.getParameterTypes()[0];
-				if (sClass.isPrimitive()) {
-					for (int t = 0; t < __primitives.length; t++) {
-						if (sClass.equals(__primitives[t])) {
-							sClass = __primitiveHolders[t];
-							break;
+			// Try converting the arg to the last set found.
+			if (set != null) {
+				try {
+					Class<?> sClass = set.getParameterTypes()[0];
+					if (sClass.isPrimitive()) {
+						for (int t = 0; t < __primitives.length; t++) {
+							if (sClass.equals(__primitives[t])) {
+								sClass = __primitiveHolders[t];
+								break;
+							}
 						}
 					}
-				}
-				Constructor<?> cons = sClass.getConstructor(vClass);
-				arg[0] = cons.newInstance(arg);
-				set.invoke(obj, arg);
-				return;
-			} catch (NoSuchMethodException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"NoSuchMethodException while parsing jetty-web.xml",
-							e);
-				}
-			} catch (IllegalAccessException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"IllegalAccessException while parsing jetty-web.xml",
-							e);
-				}
-			} catch (InstantiationException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"InstantiationException while parsing jetty-web.xml",
-							e);
+					Constructor<?> cons = sClass.getConstructor(argClass);
+					Setter setter = new Setter(oClass, vClass, set, null, cons,
+							null);
+					setter.set(obj, value);
+					return setter;
+				} catch (NoSuchMethodException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"NoSuchMethodException while parsing jetty-web.xml",
+								e);
+					}
+				} catch (IllegalAccessException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"IllegalAccessException while parsing jetty-web.xml",
+								e);
+					}
+				} catch (InstantiationException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"InstantiationException while parsing jetty-web.xml",
+								e);
+					}
 				}
 			}
+
+			// No Joy
+			throw new NoSuchMethodException(oClass + "." + name + "("
+					+ argClass + ")");
 		}
+	}
 
-		// No Joy
-		throw new NoSuchMethodException(oClass + "." + name + "(" + vClass[0]
-				+ ")");
+	/**
+	 * The way a value of a class was set on an object of a class.
+	 */
+	private static final class Setter {
+
+		private final Class<?> oClass;
+
+		private final Class<?> vClass;
+
+		private final Method method;
+
+		private final Field field;
+
+		/**
+		 * Constructor converting the value, or null.
+		 */
+		private final Constructor<?> converter;
+
+		/**
+		 * Whether to pass an array value as set or list, or null to pass it
+		 * as is.
+		 */
+		private final Boolean asSet;
+
+		Setter(Class<?> oClass, Class<?> vClass, Method method, Field field,
+				Constructor<?> converter, Boolean asSet) {
+			this.oClass = oClass;
+			this.vClass = vClass;
+			this.method = method;
+			this.field = field;
+			this.converter = converter;
+			this.asSet = asSet;
+		}
+
+		void set(Object obj, Object value) throws IllegalAccessException,
+				InvocationTargetException, InstantiationException {
+			if (field != null) {
+				field.set(obj, value);
+			} else if (converter != null) {
+				method.invoke(obj, converter.newInstance(new Object[] { value }));
+			} else if (asSet == null) {
+				method.invoke(obj, new Object[] { value });
+			} else if (asSet) {
+				method.invoke(obj, new HashSet<Object>(Arrays
+						.asList((Object[]) value)));
+			} else {
+				method.invoke(obj, Arrays.asList((Object[]) value));
+			}
+		}
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
 	 * Call a put method.
-	 * 
-	 * @param obj @param node
 	 */
-	private void put(Object obj, Element node) throws Exception {
-		if (!(obj instanceof Map)) {
-			throw new IllegalArgumentException("Object for put is not a Map: "
-					+ obj);
+	private static final class PutStep extends Step {
+
+		private final String name;
+
+		private final Step value;
+
+		PutStep(Element node) {
+			super(node);
+			name = getAttribute(node, "name");
+			value = value(node);
+		}
+
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			if (!(obj instanceof Map)) {
+				throw new IllegalArgumentException("Object for put is not a Map: "
+						+ obj);
+			}
+			@SuppressWarnings("unchecked")
+			Map<Object, Object> map = (Map<Object, Object>) obj;
+
+			Object value = this.value.apply(obj, ids);
+			map.put(name, value);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("XML " + obj + ".put(" + name + "," + value + ")");
+			}
+			return null;
 		}
-		@SuppressWarnings("unchecked")
-		Map<Object, Object> map = (Map<Object, Object>) obj;
+	}
+
+	/* ------------------------------------------------------------ */
+	/*
+	 * Call a get method. Any object returned from the call is passed to the
+	 * configure method to consume the remaining elements.
+	 */
+	private static final class GetStep extends Step {
+
+		private final NodeClass nodeClass;
+
+		private final String name;
+
+		private final String id;
+
+		private final Block block;
+
+		/**
+		 * Getter method or field found for the last class.
+		 */
+		private volatile Object[] getter;
 
-		String name = getAttribute(node, "name");
-		Object value = value(obj, node);
-		map.put(name, value);
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("XML " + obj + ".put(" + name + "," + value + ")");
+		GetStep(Element node) {
+			super(node);
+			nodeClass = NodeClass.of(node);
+			name = getAttribute(node, "name");
+			id = getAttribute(node, "id");
+			block = configure(node, 0);
 		}
-	}
 
-	/* ------------------------------------------------------------ */
-	/*
-	 * Call a get method. Any object returned from the call is passed to the
-	 * configure method to consume the remaining elements. @param obj @param
-	 * node
-	 * 
-	 * @return @exception Exception
-	 */
-	private Object get(Object obj, Element node) throws Exception {
-		Class<?> oClass = nodeClass(node);
-		//CHECKSTYLE:OFF
-		if (oClass != null) {
-			obj = null;
-		} else {
-			oClass = obj.getClass();
-		}
-		//CHECKSTYLE:ON
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			//CHECKSTYLE:OFF
+			Class<?> oClass;
+			if (nodeClass != null) {
+				oClass = nodeClass.load();
+				obj = null;
+			} else {
+				oClass = obj.getClass();
+			}
+			//CHECKSTYLE:ON
 
-		String name = getAttribute(node, "name");
-		String id = getAttribute(node, "id");
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("XML get " + name);
-		}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("XML get " + name);
+			}
 
-		//CHECKSTYLE:OFF
-		try {
-			// try calling a getXxx method.
-			Method method = oClass.getMethod("get"
-					+ name.substring(0, 1).toUpperCase() + name.substring(1),
-					(java.lang.Class[]) null);
-			obj = method.invoke(obj, ((java.lang.Object[]) null)); 
-			configure(obj, node, 0);
-		} catch (NoSuchMethodException nsme) {
-			try {
-				Field field = oClass.getField(name);
-				obj = field.get(obj); 
-				configure(obj, node, 0);
-			} catch (NoSuchFieldException nsfe) {
-				throw nsme;
+			Object[] known = getter;
+			if (known == null || known[0] != oClass) {
+				Object member;
+				try {
+					// try calling a getXxx method.
+					member = oClass.getMethod("get" + capitalize(name),
+							(java.lang.Class[]) null);
+				} catch (NoSuchMethodException nsme) {
+					try {
+						member = oClass.getField(name);
+					} catch (NoSuchFieldException nsfe) {
+						throw nsme;
+					}
+				}
+				known = new Object[] { oClass, member };
+				getter = known;
 			}
+			//CHECKSTYLE:OFF
+			if (known[1] instanceof Method) {
+				obj = ((Method) known[1]).invoke(obj, ((java.lang.Object[]) null));
+			} else {
+				obj = ((Field) known[1]).get(obj);
+			}
+			//CHECKSTYLE:ON
+			block.configure(obj, ids);
+			if (id != null) {
+				ids.put(id, obj);
+			}
+			return obj;
 		}
-		//CHECKSTYLE:ON
-		if (id != null) {
-			_idMap.put(id, obj);
-		}
-		return obj;
 	}
 
 	/* ------------------------------------------------------------ */
@@ -421,496 +948,432 @@ public class DOMJettyWebXmlParser {
 	 * passed to the configure method to consume the remaining elements. Note
 	 * that if this is a static call we consider only methods declared directly
 	 * in the given class. i.e. we ignore any static methods in superclasses.
-	 * 
-	 * @param obj
-	 * 
-	 * @param node @return @exception Exception
 	 */
-	private Object call(Object obj, Element node) throws Exception {
-		String id = getAttribute(node, "id");
-		Class<?> oClass = nodeClass(node);
-		//CHECKSTYLE:OFF
-		if (oClass != null) {
-			obj = null;
-		} else if (obj != null) {
-			oClass = obj.getClass();
-		}
-		if (oClass == null) {
-			throw new IllegalArgumentException(node.toString());
-		}
-		//CHECKSTYLE:ON
-		int size = 0;
+	private static final class CallStep extends Step {
 
-		Element[] children = getChildren(node);
-		int argi = children.length;
-		for (int i = 0; i < children.length; i++) {
+		private final String id;
 
-			Element element = children[i];
+		private final NodeClass nodeClass;
 
-			if (!(element.getTagName().equals("Arg"))) {
-				argi = i;
-				break;
-			}
-			size++;
-		}
+		private final String method;
 
-		//CHECKSTYLE:OFF
-		Object[] arg = new Object[size];
-		for (int i = 0, j = 0; j < size; i++) {
-			Element element = children[i];
-			arg[j++] = value(obj, element);
-		}
-		//CHECKSTYLE:ON
+		private final Step[] args;
+
+		private final Block block;
+
+		/**
+		 * Class, argument classes and method of the last call.
+		 */
+		private volatile Object[] call;
 
-		String method = getAttribute(node, "name");
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("XML call " + method);
+		CallStep(Element node) {
+			super(node);
+			id = getAttribute(node, "id");
+			nodeClass = NodeClass.of(node);
+			method = getAttribute(node, "name");
+			Element[] children = getChildren(node);
+			int size = argCount(children);
+			args = args(children, size);
+			block = configure(node, size);
 		}
 
-		try {
-			Object n = TypeUtil.call(oClass, method, obj, arg);
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			//CHECKSTYLE:OFF
+			Class<?> oClass = null;
+			if (nodeClass != null) {
+				oClass = nodeClass.load();
+				obj = null;
+			} else if (obj != null) {
+				oClass = obj.getClass();
+			}
+			if (oClass == null) {
+				throw new IllegalArgumentException(toString());
+			}
+			//CHECKSTYLE:ON
+
+			Object[] arg = values(args, obj, ids);
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("XML call " + method);
+			}
+
+			Class<?>[] argClasses = classes(arg);
+			Object[] known = call;
+			Object n = null;
+			boolean called = false;
+			if (known != null && known[0] == oClass
+					&& Arrays.equals((Object[]) known[1], argClasses)) {
+				try {
+					n = ((Method) known[2]).invoke(obj, arg);
+					called = true;
+				} catch (IllegalAccessException | IllegalArgumentException e) {
+					// look again
+				}
+			}
+			if (!called) {
+				Method[] methods = oClass.getMethods();
+				for (int c = 0; methods != null && c < methods.length; c++) {
+					if (!methods[c].getName().equals(method)) {
+						continue;
+					}
+					if (methods[c].getParameterTypes().length != arg.length) {
+						continue;
+					}
+					if (Modifier.isStatic(methods[c].getModifiers()) != (obj == null)) {
+						continue;
+					}
+					if ((obj == null) && methods[c].getDeclaringClass() != oClass) {
+						continue;
+					}
+
+					try {
+						n = methods[c].invoke(obj, arg);
+						called = true;
+						call = new Object[] { oClass, argClasses, methods[c] };
+						break;
+					} catch (IllegalAccessException e) {
+						LOG.warn("IGNORE ", e);
+					} catch (IllegalArgumentException e) {
+						LOG.warn("IGNORE ", e);
+					}
+				}
+			}
+			if (!called) {
+				IllegalStateException ise = new IllegalStateException("No Method: "
+						+ this + " on " + oClass);
+				ise.initCause(new NoSuchMethodException(method));
+				throw ise;
+			}
 			if (id != null) {
-				_idMap.put(id, n);
+				ids.put(id, n);
 			}
-			configure(n, node, argi);
+			block.configure(n, ids);
 			return n;
-		} catch (NoSuchMethodException e) {
-			IllegalStateException ise = new IllegalStateException("No Method: "
-					+ node + " on " + oClass);
-			ise.initCause(e);
-			throw ise;
 		}
-
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
 	 * Create a new value object.
-	 * 
-	 * @param obj @param node @return @exception Exception
 	 */
-	private Object newObj(Object obj, Element node) throws Exception {
-		Class<?> oClass = nodeClass(node);
-		String id = getAttribute(node, "id");
-		int size = 0;
-		Element[] children = getChildren(node);
-		int argi = children.length;
-		for (int i = 0; i < children.length; i++) {
-			Element element = children[i];
+	private static final class NewStep extends Step {
 
-			if (!(element.getTagName().equals("Arg"))) {
-				argi = i;
-				break;
-			}
-			size++;
-		}
+		private final NodeClass nodeClass;
 
-		//CHECKSTYLE:OFF
-		Object[] arg = new Object[size];
-		for (int i = 0, j = 0; j < size; i++) {
-			Element o = children[i];
-			arg[j++] = value(obj, o);
-		}
-		//CHECKSTYLE:ON
+		private final String id;
+
+		private final Step[] args;
 
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("XML new " + oClass);
+		private final Block block;
+
+		/**
+		 * Class, argument classes and constructor of the last object.
+		 */
+		private volatile Object[] constructor;
+
+		NewStep(Element node) {
+			super(node);
+			nodeClass = NodeClass.of(node);
+			id = getAttribute(node, "id");
+			Element[] children = getChildren(node);
+			int size = argCount(children);
+			args = args(children, size);
+			block = configure(node, size);
 		}
 
-		// Lets just try all constructors for now
-		Constructor<?>[] constructors = oClass.getConstructors();
-		for (int c = 0; constructors != null && c < constructors.length; c++) {
-			if (constructors[c].getParameterTypes().length != size) {
-				continue;
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			Class<?> oClass = nodeClass == null ? null : nodeClass.load();
+			Object[] arg = values(args, obj, ids);
+
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("XML new " + oClass);
 			}
 
-			Object n = null;
-			boolean called = false;
-			try {
-				n = constructors[c].newInstance(arg);
-				called = true;
-			} catch (IllegalAccessException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"IllegalAccessException while parsing jetty-web.xml",
-							e);
+			Class<?>[] argClasses = classes(arg);
+			Object[] known = constructor;
+			if (known != null && known[0] == oClass
+					&& Arrays.equals((Object[]) known[1], argClasses)) {
+				try {
+					return created(((Constructor<?>) known[2]).newInstance(arg),
+							ids);
+				} catch (IllegalAccessException | InstantiationException
+						| IllegalArgumentException e) {
+					// look again
 				}
-			} catch (InstantiationException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"InstantiationException while parsing jetty-web.xml",
-							e);
+			}
+
+			// Lets just try all constructors for now
+			Constructor<?>[] constructors = oClass.getConstructors();
+			for (int c = 0; constructors != null && c < constructors.length; c++) {
+				if (constructors[c].getParameterTypes().length != arg.length) {
+					continue;
 				}
-			} catch (IllegalArgumentException e) {
-				if (LOG.isInfoEnabled()) {
-					LOG.info(
-							"IllegalArgumentException while parsing jetty-web.xml",
-							e);
+
+				Object n = null;
+				boolean called = false;
+				try {
+					n = constructors[c].newInstance(arg);
+					called = true;
+				} catch (IllegalAccessException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"IllegalAccessException while parsing jetty-web.xml",
+								e);
+					}
+				} catch (InstantiationException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"InstantiationException while parsing jetty-web.xml",
+								e);
+					}
+				} catch (IllegalArgumentException e) {
+					if (LOG.isInfoEnabled()) {
+						LOG.info(
+								"IllegalArgumentException while parsing jetty-web.xml",
+								e);
+					}
 				}
-			}
-			if (called) {
-				if (id != null) {
-					_idMap.put(id, n);
+				if (called) {
+					constructor = new Object[] { oClass, argClasses,
+							constructors[c] };
+					return created(n, ids);
 				}
-				configure(n, node, argi);
-				return n;
 			}
+
+			throw new IllegalStateException("No Constructor: " + this + " on "
+					+ obj);
 		}
 
-		throw new IllegalStateException("No Constructor: " + node + " on "
-				+ obj);
+		private Object created(Object n, Map<String, Object> ids)
+				throws Exception {
+			if (id != null) {
+				ids.put(id, n);
+			}
+			block.configure(n, ids);
+			return n;
+		}
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
 	 * Reference an id value object.
-	 * 
-	 * @param obj @param node @return @exception NoSuchMethodException
-	 * 
-	 * @exception ClassNotFoundException @exception InvocationTargetException
-	 */
-	private Object refObj(Object obj, Element node) throws Exception {
-		String id = getAttribute(node, "id");
-		//CHECKSTYLE:OFF
-		obj = _idMap.get(id);
-		//CHECKSTYLE:ON
-		if (obj == null) {
-			throw new IllegalStateException("No object for id=" + id);
-		}
-		configure(obj, node, 0);
-		return obj;
-	}
-
-	/* ------------------------------------------------------------ */
-	/*
-	 * Create a new array object.
 	 */
-	private Object newArray(Object obj, Element node) throws Exception {
-
-		// Get the type
-		Class<?> aClass = java.lang.Object.class;
-		String type = getAttribute(node, "type");
-		final String id = getAttribute(node, "id");
-		if (type != null) {
-			aClass = TypeUtil.fromName(type);
-			if (aClass == null) {
-				if ("String".equals(type)) {
-					aClass = java.lang.String.class;
-				} else if ("URL".equals(type)) {
-					aClass = java.net.URL.class;
-				} else if ("InetAddress".equals(type)) {
-					aClass = java.net.InetAddress.class;
-				} else {
-					aClass = Loader.loadClass(DOMJettyWebXmlParser.class, type,
-							true);
-				}
-			}
-		}
+	private static final class RefStep extends Step {
 
-		List<Object> al = null;
+		private final String id;
 
-		Element[] children = getChildren(node, "Item");
-		for (Element item : children) {
-			String nid = getAttribute(item, "id");
-			Object v = value(obj, item);
+		private final Block block;
 
-			if (al == null) {
-				al = new ArrayList<Object>();
-			}
-
-			al.add((v == null && aClass.isPrimitive()) ? ZERO : v);
-			if (nid != null) {
-				_idMap.put(nid, v);
-			}
+		RefStep(Element node) {
+			super(node);
+			id = getAttribute(node, "id");
+			block = configure(node, 0);
 		}
 
-		Object array = toArray(al, aClass);
-		if (id != null) {
-			_idMap.put(id, array);
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			//CHECKSTYLE:OFF
+			obj = ids.get(id);
+			//CHECKSTYLE:ON
+			if (obj == null) {
+				throw new IllegalStateException("No object for id=" + id);
+			}
+			block.configure(obj, ids);
+			return obj;
 		}
-		return array;
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
-	 * Create a new map object.
+	 * Create a new array object.
 	 */
-	private Object newMap(Object obj, Element node) throws Exception {
-		String id = getAttribute(node, "id");
+	private static final class ArrayStep extends Step {
 
-		Map<Object, Object> map = new HashMap<Object, Object>();
-		if (id != null) {
-			_idMap.put(id, map);
-		}
+		private final Class<?> type;
 
-		Element[] children = getChildren(node);
-		for (int i = 0; i < children.length; i++) {
+		private final NodeClass typeClass;
 
-			Element element = children[i];
+		private final String id;
 
-			if (!element.getTagName().equals("Entry")) {
-				throw new IllegalStateException("Not an Entry");
-			}
+		private final String[] itemIds;
 
-			Element key = null;
-			Element value = null;
+		private final Step[] items;
 
-			Element[] entries = getChildren(element);
-			for (int j = 0; j < entries.length; j++) {
-				Element item = entries[j];
-				if (!item.getTagName().equals("Item")) {
-					throw new IllegalStateException("Not an Item");
-				}
-				if (key == null) {
-					key = item;
-				} else {
-					value = item;
+		ArrayStep(Element node) {
+			super(node);
+			// Get the type
+			Class<?> aClass = java.lang.Object.class;
+			NodeClass loaded = null;
+			String type = getAttribute(node, "type");
+			if (type != null) {
+				aClass = TypeUtil.fromName(type);
+				if (aClass == null) {
+					if ("String".equals(type)) {
+						aClass = java.lang.String.class;
+					} else if ("URL".equals(type)) {
+						aClass = java.net.URL.class;
+					} else if ("InetAddress".equals(type)) {
+						aClass = java.net.InetAddress.class;
+					} else {
+						loaded = new NodeClass(type);
+					}
 				}
 			}
-
-			if (key == null || value == null) {
-				throw new IllegalStateException("Missing Item in Entry");
+			this.type = aClass;
+			this.typeClass = loaded;
+			id = getAttribute(node, "id");
+
+			Element[] children = getChildren(node, "Item");
+			itemIds = new String[children.length];
+			items = new Step[children.length];
+			for (int i = 0; i < children.length; i++) {
+				itemIds[i] = getAttribute(children[i], "id");
+				items[i] = value(children[i]);
 			}
-			String kid = getAttribute(key, "id");
-			String vid = getAttribute(value, "id");
+		}
 
-			Object k = value(obj, key);
-			Object v = value(obj, value);
-			map.put(k, v);
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			Class<?> aClass = typeClass == null ? type : typeClass.load();
 
-			if (kid != null) {
-				_idMap.put(kid, k);
+			List<Object> al = null;
+			for (int i = 0; i < items.length; i++) {
+				Object v = items[i].apply(obj, ids);
+
+				if (al == null) {
+					al = new ArrayList<Object>();
+				}
+
+				al.add((v == null && aClass.isPrimitive()) ? ZERO : v);
+				if (itemIds[i] != null) {
+					ids.put(itemIds[i], v);
+				}
 			}
-			if (vid != null) {
-				_idMap.put(vid, v);
+
+			Object array = toArray(al, aClass);
+			if (id != null) {
+				ids.put(id, array);
 			}
+			return array;
 		}
-
-		return map;
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
-	 * Create a new value object.
-	 * 
-	 * @param obj @param node @return @exception Exception
+	 * Create a new map object.
 	 */
-	private Object propertyObj(Object obj, Element node) throws Exception {
-		String id = getAttribute(node, "id");
-		String name = getAttribute(node, "name");
-		String defval = getAttribute(node, "default");
-		Object prop = null;
-		if (_propertyMap != null && _propertyMap.containsKey(name)) {
-			prop = _propertyMap.get(name);
-		} else {
-			prop = defval;
-		}
-		if (id != null) {
-			_idMap.put(id, prop);
-		}
-		if (prop != null) {
-			configure(prop, node, 0);
-		}
-		return prop;
-	}
+	private static final class MapStep extends Step {
 
-	/* ------------------------------------------------------------ */
-	/*
-	 * Get the value of an element. If no value type is specified, then white
-	 * space is trimmed out of the value. If it contains multiple value elements
-	 * they are added as strings before being converted to any specified type.
-	 * 
-	 * @param node
-	 */
-	private Object value(Object obj, Element node) throws Exception {
-		Object value = null;
+		private final String id;
 
-		// Get the type
-		String type = getAttribute(node, "type");
+		private final String[] keyIds;
 
-		// Try a ref lookup
-		String ref = getAttribute(node, "ref");
-		if (ref != null) {
-			value = _idMap.get(ref);
-		} else {
-			// handle trivial case
-			if (getChildren(node).length == 0
-					&& (getValue(node) == null || getValue(node).length() == 0)) {
-				if ("String".equals(type)) {
-					return "";
-				}
-				return null;
-			}
-
-			// Trim values
-			int first = 0;
-			int last = /*
-						 * getChildren(node).length - 1; int valLast =
-						 */getValue(node).length() - 1;
-
-			// Handle default trim type
-			if (type == null || !"String".equals(type)) {
-				// Skip leading white
-				Object item = null;
-				while (first <= last) {
-					item = /*
-							 * getChildren(node)[first]; val =
-							 */getValue(node);
-					if (!(item instanceof String)) {
-						break;
-					}
-					item = ((String) item).trim();
-					if (((String) item).length() > 0) {
-						break;
-					}
-					first++;
-				}
+		private final Step[] keys;
 
-				// Skip trailing white
-				while (first < last) {
-					item = getValue(node);
-					if (!(item instanceof String)) {
-						break;
-					}
-					item = ((String) item).trim();
-					if (((String) item).length() > 0) {
-						break;
-					}
-					last--;
+		private final String[] valueIds;
+
+		private final Step[] values;
+
+		MapStep(Element node) {
+			super(node);
+			id = getAttribute(node, "id");
+
+			Element[] children = getChildren(node);
+			keyIds = new String[children.length];
+			keys = new Step[children.length];
+			valueIds = new String[children.length];
+			values = new Step[children.length];
+			for (int i = 0; i < children.length; i++) {
+
+				Element element = children[i];
+
+				if (!element.getTagName().equals("Entry")) {
+					throw new IllegalStateException("Not an Entry");
 				}
 
-				// All white, so return null
-				if (first > last) {
-					// first check if there are maybe is another child left
-					if (getChildren(node).length == 0) {
-						return null;
+				Element key = null;
+				Element value = null;
+
+				Element[] entries = getChildren(element);
+				for (int j = 0; j < entries.length; j++) {
+					Element item = entries[j];
+					if (!item.getTagName().equals("Item")) {
+						throw new IllegalStateException("Not an Item");
+					}
+					if (key == null) {
+						key = item;
 					} else {
-						value = itemValue(obj, getChildren(node)[0]);
+						value = item;
 					}
-				} else {
-					value = item;
 				}
-			}
-		}
 
-		// Untyped or unknown
-		if (value == null) {
-			if ("String".equals(type)) {
-				return "";
+				if (key == null || value == null) {
+					throw new IllegalStateException("Missing Item in Entry");
+				}
+				keyIds[i] = getAttribute(key, "id");
+				valueIds[i] = getAttribute(value, "id");
+				keys[i] = value(key);
+				values[i] = value(value);
 			}
-			return null;
 		}
 
-		// Try to type the object
-		if (type == null) {
-			if (value != null && value instanceof String) {
-				return ((String) value).trim();
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			Map<Object, Object> map = new HashMap<Object, Object>();
+			if (id != null) {
+				ids.put(id, map);
 			}
-			return value;
-		}
-
-		if ("String".equals(type) || "java.lang.String".equals(type)) {
-			return value.toString();
-		}
 
-		Class<?> pClass = TypeUtil.fromName(type);
-		if (pClass != null) {
-			return TypeUtil.valueOf(pClass, value.toString());
-		}
+			for (int i = 0; i < keys.length; i++) {
+				Object k = keys[i].apply(obj, ids);
+				Object v = values[i].apply(obj, ids);
+				map.put(k, v);
 
-		if ("URL".equals(type) || "java.net.URL".equals(type)) {
-			if (value instanceof URL) {
-				return value;
-			}
-			try {
-				return new URL(value.toString());
-			} catch (MalformedURLException e) {
-				throw new InvocationTargetException(e);
+				if (keyIds[i] != null) {
+					ids.put(keyIds[i], k);
+				}
+				if (valueIds[i] != null) {
+					ids.put(valueIds[i], v);
+				}
 			}
-		}
 
-		if ("InetAddress".equals(type) || "java.net.InetAddress".equals(type)) {
-			if (value instanceof InetAddress) {
-				return value;
-			}
-			try {
-				return InetAddress.getByName(value.toString());
-			} catch (UnknownHostException e) {
-				throw new InvocationTargetException(e);
-			}
+			return map;
 		}
-
-		throw new IllegalStateException("Unknown type " + type);
 	}
 
 	/* ------------------------------------------------------------ */
 	/*
-	 * Get the value of a single element. @param obj @param item @return
-	 * 
-	 * @exception Exception
+	 * Create a new value object. No properties are passed to jetty-web.xml
+	 * files, so this is always the default value.
 	 */
-	private Object itemValue(Object obj, Object item) throws Exception {
-		// String value
-		if (item instanceof String) {
-			return item;
-		}
+	private static final class PropertyStep extends Step {
 
-		Element node = (Element) item;
-		String tag = node.getTagName();
-		// TODO: in case of jdk7 usage use swtich instead
-		if ("Call".equals(tag)) {
-			return call(obj, node);
-		}
-		if ("Get".equals(tag)) {
-			return get(obj, node);
-		}
-		if ("New".equals(tag)) {
-			return newObj(obj, node);
-		}
-		if ("Ref".equals(tag)) {
-			return refObj(obj, node);
-		}
-		if ("Array".equals(tag)) {
-			return newArray(obj, node);
-		}
-		if ("Map".equals(tag)) {
-			return newMap(obj, node);
-		}
-		if ("Property".equals(tag)) {
-			return propertyObj(obj, node);
-		}
+		private final String id;
 
-		if ("SystemProperty".equals(tag)) {
-			String name = getAttribute(node, "name");
-			String defaultValue = getAttribute(node, "default");
-			return System.getProperty(name, defaultValue);
-		}
+		private final String defval;
 
-		LOG.warn("Unknown value tag: {}", node);
-		return null;
-	}
+		private final Block block;
 
-	public static Object toArray(Object list, Class<?> clazz) {
-		if (list == null) {
-			return Array.newInstance(clazz, 0);
+		PropertyStep(Element node) {
+			super(node);
+			id = getAttribute(node, "id");
+			defval = getAttribute(node, "default");
+			block = configure(node, 0);
 		}
 
-		if (list instanceof List) {
-			List<?> l = (List<?>) list;
-			if (clazz.isPrimitive()) {
-				Object a = Array.newInstance(clazz, l.size());
-				for (int i = 0; i < l.size(); i++) {
-					Array.set(a, i, l.get(i));
-				}
-				return a;
+		@Override
+		Object apply(Object obj, Map<String, Object> ids) throws Exception {
+			Object prop = defval;
+			if (id != null) {
+				ids.put(id, prop);
 			}
-			return l.toArray((Object[]) Array.newInstance(clazz, l.size()));
-
+			if (prop != null) {
+				block.configure(prop, ids);
+			}
+			return prop;
 		}
-
-		Object a = Array.newInstance(clazz, 1);
-		Array.set(a, 0, list);
-		return a;
 	}
 
 }
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.jetty.internal.util;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Compiled jetty-web.xml files of the bundles, so that contexts started again
+ * reuse the configuration compiled for their previous start. The compiled
+ * files of a bundle are dropped when it is updated, refreshed or
+ * uninstalled.
+ */
+public class JettyWebXmlCache implements SynchronousBundleListener {
+
+	private final ConcurrentMap<Long, BundleConfigurations> configurations = new ConcurrentHashMap<Long, BundleConfigurations>();
+
+	/**
+	 * @param bundle
+	 *            bundle providing the jetty-web.xml, or null to compile it
+	 *            without caching
+	 * @param url
+	 *            the jetty-web.xml
+	 * @return the compiled jetty-web.xml
+	 * @throws Exception
+	 *             if the jetty-web.xml can't be read
+	 */
+	public DOMJettyWebXmlParser.Configuration getConfiguration(Bundle bundle,
+			URL url) throws Exception {
+		if (bundle == null) {
+			return compile(url);
+		}
+		long lastModified = bundle.getLastModified();
+		BundleConfigurations bundleConfigurations = configurations.get(bundle.getBundleId());
+		if (bundleConfigurations == null || bundleConfigurations.lastModified != lastModified) {
+			bundleConfigurations = new BundleConfigurations(lastModified);
+			configurations.put(bundle.getBundleId(), bundleConfigurations);
+		}
+		String key = url.toExternalForm();
+		DOMJettyWebXmlParser.Configuration configuration = bundleConfigurations.configurations.get(key);
+		if (configuration == null) {
+			configuration = compile(url);
+			bundleConfigurations.configurations.put(key, configuration);
+		}
+		return configuration;
+	}
+
+	/**
+	 * Drops all compiled files, bundle events are not tracked anymore.
+	 */
+	public void clear() {
+		configurations.clear();
+	}
+
+	@Override
+	public void bundleChanged(BundleEvent event) {
+		switch (event.getType()) {
+		case BundleEvent.UPDATED:
+		case BundleEvent.UNRESOLVED:
+		case BundleEvent.UNINSTALLED:
+			configurations.remove(event.getBundle().getBundleId());
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static DOMJettyWebXmlParser.Configuration compile(URL url)
+			throws Exception {
+		try (InputStream in = url.openStream()) {
+			return DOMJettyWebXmlParser.compile(in);
+		}
+	}
+
+	/**
+	 * The compiled jetty-web.xml files of a bundle by URL.
+	 */
+	private static final class BundleConfigurations {
+
+		private final long lastModified;
+
+		private final ConcurrentMap<String, DOMJettyWebXmlParser.Configuration> configurations = new ConcurrentHashMap<String, DOMJettyWebXmlParser.Configuration>();
+
+		BundleConfigurations(long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+
+}
@@ -18,9 +18,12 @@ package org.ops4j.pax.web.service.jetty.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.junit.Test;
@@ -61,9 +64,21 @@ public class DOMJettyWebXmlParserTest {
 		assertNotNull(context.getVirtualHosts());
 	}
 
+	String xmlinputCompiled = "<Configure class=\"TEST\">\n"
+			+ "  <Set name=\"port\" type=\"int\">8080</Set>\n"
+			+ "  <Set name=\"file\">\n" + "    <New class=\"java.io.File\">\n"
+			+ "      <Arg>PATH</Arg>\n" + "    </New>\n" + "  </Set>\n"
+			+ "  <Call name=\"addName\"><Arg>first</Arg></Call>\n"
+			+ "  <Call name=\"addName\"><Arg><Get name=\"file\"><Call name=\"getPath\"/></Get></Arg></Call>\n"
+			+ "</Configure>";
+
 	public static class ArgTest {
 		private File file;
 
+		private int port;
+
+		private final List<String> names = new ArrayList<String>();
+
 		public void setFile(final File file) {
 			this.file = file;
 		}
@@ -71,6 +86,22 @@ public class DOMJettyWebXmlParserTest {
 		public File getFile() {
 			return file;
 		}
+
+		public void setPort(final int port) {
+			this.port = port;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		public void addName(final Object name) {
+			names.add(String.valueOf(name));
+		}
+
+		public List<String> getNames() {
+			return names;
+		}
 	}
 
 	/**
@@ -91,4 +122,30 @@ public class DOMJettyWebXmlParserTest {
 		assertNotNull(test.getFile());
 		assertEquals(test.getFile().getPath(), "PATH");
 	}
+
+	/**
+	 * Test method for
+	 * {@link org.ops4j.pax.web.service.jetty.internal.util.DOMJettyWebXmlParser.Configuration#apply(java.lang.Object)}
+	 * .
+	 */
+	@Test
+	public void testCompiledConfigurationAppliedTwice() throws Exception {
+		final DOMJettyWebXmlParser.Configuration configuration = DOMJettyWebXmlParser
+				.compile(new ByteArrayInputStream(xmlinputCompiled.getBytes()));
+
+		final ArgTest first = new ArgTest();
+		configuration.apply(first);
+		final ArgTest second = new ArgTest();
+		configuration.apply(second);
+
+		for (ArgTest test : new ArgTest[] { first, second }) {
+			assertEquals(8080, test.getPort());
+			assertEquals("PATH", test.getFile().getPath());
+			assertEquals(2, test.getNames().size());
+			assertEquals("first", test.getNames().get(0));
+			assertEquals("PATH", test.getNames().get(1));
+		}
+		// new objects are created for each application
+		assertNotSame(first.getFile(), second.getFile());
+	}
 }
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.jetty.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HttpServiceContextTest {
+
+	@Test
+	public void urlsHaveScheme() {
+		assertTrue(HttpServiceContext.hasUrlScheme("file:/tmp/index.html"));
+		assertTrue(HttpServiceContext.hasUrlScheme("bundle://12.0:1/WEB-INF/web.xml"));
+		assertTrue(HttpServiceContext.hasUrlScheme("jar:file:/app.war!/index.jsp"));
+		assertTrue(HttpServiceContext.hasUrlScheme("svn+ssh://host/repo"));
+	}
+
+	@Test
+	public void pathsHaveNoScheme() {
+		assertFalse(HttpServiceContext.hasUrlScheme(null));
+		assertFalse(HttpServiceContext.hasUrlScheme(""));
+		assertFalse(HttpServiceContext.hasUrlScheme("/"));
+		assertFalse(HttpServiceContext.hasUrlScheme("/WEB-INF/web.xml"));
+		assertFalse(HttpServiceContext.hasUrlScheme("index.jsp"));
+		assertFalse(HttpServiceContext.hasUrlScheme("/a:b"));
+		assertFalse(HttpServiceContext.hasUrlScheme("1http://host"));
+		assertFalse(HttpServiceContext.hasUrlScheme("images/logo:v2.png"));
+	}
+
+}
@@ -1,6 +1,8 @@
 package org.ops4j.pax.web.service.jetty.internal;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
@@ -25,6 +27,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.ops4j.pax.web.service.spi.model.ContextModel;
+import org.ops4j.pax.web.service.spi.model.Model;
 import org.ops4j.pax.web.service.spi.model.ServerModel;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -41,6 +44,12 @@ public class JettyServerWrapperTest {
 	@Mock
 	private ContextModel contextModelMock;
 	@Mock
+	private ContextModel otherContextModelMock;
+	@Mock
+	private Model modelMock;
+	@Mock
+	private Model otherModelMock;
+	@Mock
 	private HttpContext httpContextMock;
 	@Mock
 	private Bundle bundleMock;
@@ -53,6 +62,11 @@ public class JettyServerWrapperTest {
 		when(contextModelMock.getContextName()).thenReturn(KNOWN_CONTEXT_NAME);
 		when(contextModelMock.getHttpContext()).thenReturn(httpContextMock);
 		when(contextModelMock.getBundle()).thenReturn(bundleMock);
+		when(otherContextModelMock.getContextName()).thenReturn(KNOWN_CONTEXT_NAME);
+		when(otherContextModelMock.getHttpContext()).thenReturn(httpContextMock);
+		when(otherContextModelMock.getBundle()).thenReturn(bundleMock);
+		when(modelMock.getContextModel()).thenReturn(contextModelMock);
+		when(otherModelMock.getContextModel()).thenReturn(contextModelMock);
 		when(bundleMock.getHeaders()).thenReturn(
 				new Hashtable<String, String>());
 		when(bundleMock.getSymbolicName()).thenReturn(BUNDLE_SYMBOLIC_NAME);
@@ -153,12 +167,90 @@ public class JettyServerWrapperTest {
 			jettyServerWrapperUnderTest.getOrCreateContext(contextModelMock);
 			final HttpServiceContext httpServiceContext = jettyServerWrapperUnderTest
 					.getContext(httpContextMock);
-			jettyServerWrapperUnderTest.removeContext(httpContextMock);
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
 			final HttpServiceContext httpServiceContextAfterRemoved = jettyServerWrapperUnderTest
 					.getContext(httpContextMock);
 
 			assertNotNull(httpServiceContext);
-			assertNotNull(httpServiceContextAfterRemoved);
+			assertNull(httpServiceContextAfterRemoved);
+		} finally {
+			jettyServerWrapperUnderTest.stop();
+		}
+	}
+
+	@Test
+	public void repeatedGetOrCreateContextIsReleasedByOneRemoveContext()
+			throws Exception {
+		final JettyServerWrapper jettyServerWrapperUnderTest = new JettyServerWrapper(
+				serverModelMock, new QueuedThreadPool());
+		try {
+			jettyServerWrapperUnderTest.start();
+			final HttpServiceContext httpServiceContext = jettyServerWrapperUnderTest
+					.getOrCreateContext(contextModelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(modelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(modelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(contextModelMock);
+
+			assertSame(httpServiceContext,
+					jettyServerWrapperUnderTest.getContext(httpContextMock));
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
+			assertNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
+		} finally {
+			jettyServerWrapperUnderTest.stop();
+		}
+	}
+
+	@Test
+	public void sharedContextIsRemovedWhenAllServicesReleasedIt()
+			throws Exception {
+		final JettyServerWrapper jettyServerWrapperUnderTest = new JettyServerWrapper(
+				serverModelMock, new QueuedThreadPool());
+		try {
+			jettyServerWrapperUnderTest.start();
+			jettyServerWrapperUnderTest.getOrCreateContext(contextModelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(otherContextModelMock);
+
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
+			assertNotNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
+			jettyServerWrapperUnderTest.removeContext(otherContextModelMock);
+			assertNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
+		} finally {
+			jettyServerWrapperUnderTest.stop();
+		}
+	}
+
+	@Test
+	public void sharedContextIsKeptWhenOneServiceReleasesItTwice()
+			throws Exception {
+		final JettyServerWrapper jettyServerWrapperUnderTest = new JettyServerWrapper(
+				serverModelMock, new QueuedThreadPool());
+		try {
+			jettyServerWrapperUnderTest.start();
+			jettyServerWrapperUnderTest.getOrCreateContext(contextModelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(otherContextModelMock);
+
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
+			assertNotNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
+		} finally {
+			jettyServerWrapperUnderTest.stop();
+		}
+	}
+
+	@Test
+	public void contextIsKeptWithoutModelsUntilReleased() throws Exception {
+		final JettyServerWrapper jettyServerWrapperUnderTest = new JettyServerWrapper(
+				serverModelMock, new QueuedThreadPool());
+		try {
+			jettyServerWrapperUnderTest.start();
+			jettyServerWrapperUnderTest.getOrCreateContext(modelMock);
+			jettyServerWrapperUnderTest.getOrCreateContext(otherModelMock);
+
+			jettyServerWrapperUnderTest.removeModel(modelMock);
+			jettyServerWrapperUnderTest.removeModel(otherModelMock);
+			assertNotNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
+			jettyServerWrapperUnderTest.removeContext(contextModelMock);
+			assertNull(jettyServerWrapperUnderTest.getContext(httpContextMock));
 		} finally {
 			jettyServerWrapperUnderTest.stop();
 		}
@@ -17,11 +17,13 @@
 package org.apache.jasper.compiler;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.ServletContext;
 
@@ -31,7 +33,13 @@ import org.apache.jasper.compiler.Localizer;
 import org.apache.tomcat.util.descriptor.tld.TaglibXml;
 import org.apache.tomcat.util.descriptor.tld.TldResourcePath;
 import org.apache.tomcat.util.scan.Jar;
+import org.ops4j.pax.web.jsp.JspWebdefaults;
 import org.ops4j.pax.web.jsp.TldParser;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.SynchronousBundleListener;
 import org.xml.sax.SAXException;
 
 /**
@@ -39,6 +47,11 @@ import org.xml.sax.SAXException;
  * same TLD to be parsed for each JSP that references it. It does not protect
  * against multiple threads processing the same, new TLD but it does ensure that
  * each all threads will use the same TLD object after parsing.
+ * <p>
+ * Pax Web: if {@link JspWebdefaults#PROPERTY_JSP_TLD_IMMUTABLE} is set, as
+ * context init parameter or framework property, TLDs are not checked for
+ * modification on each lookup. They are parsed again only after the bundle
+ * providing them has been updated, refreshed or uninstalled.
  */
 public class TldCache {
 
@@ -50,6 +63,13 @@ public class TldCache {
     private final Map<TldResourcePath,TaglibXmlCacheEntry> tldResourcePathTaglibXmlMap =
             new HashMap<>();
     private final TldParser tldParser;
+    private final boolean immutable;
+    private final BundleContext bundleContext;
+    private final SynchronousBundleListener bundleListener;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong staleChecks = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
 
 
     public static TldCache getInstance(ServletContext servletContext) {
@@ -66,13 +86,37 @@ public class TldCache {
             Map<TldResourcePath, TaglibXml> tldResourcePathTaglibXmlMap) {
         this.servletContext = servletContext;
         this.uriTldResourcePathMap.putAll(uriTldResourcePathMap);
+        this.immutable = isImmutable(servletContext);
         for (Entry<TldResourcePath, TaglibXml> entry : tldResourcePathTaglibXmlMap.entrySet()) {
             TldResourcePath tldResourcePath = entry.getKey();
-            long lastModified[] = getLastModified(tldResourcePath);
+            long lastModified[] = immutable ? new long[] {-1, -1}
+                    : getLastModified(tldResourcePath);
             TaglibXmlCacheEntry cacheEntry = new TaglibXmlCacheEntry(
-                    entry.getValue(), lastModified[0], lastModified[1]);
+                    entry.getValue(), lastModified[0], lastModified[1],
+                    getOwnerBundleId(tldResourcePath.getUrl()));
             this.tldResourcePathTaglibXmlMap.put(tldResourcePath, cacheEntry);
         }
+        Bundle bundle = immutable ? FrameworkUtil.getBundle(TldCache.class) : null;
+        this.bundleContext = bundle != null ? bundle.getBundleContext() : null;
+        if (bundleContext != null) {
+            bundleListener = new SynchronousBundleListener() {
+                @Override
+                public void bundleChanged(BundleEvent event) {
+                    switch (event.getType()) {
+                    case BundleEvent.UPDATED:
+                    case BundleEvent.UNRESOLVED:
+                    case BundleEvent.UNINSTALLED:
+                        invalidate(event.getBundle().getBundleId());
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            };
+            bundleContext.addBundleListener(bundleListener);
+        } else {
+            bundleListener = null;
+        }
         boolean validate = Boolean.parseBoolean(
                 servletContext.getInitParameter(Constants.XML_VALIDATION_TLD_INIT_PARAM));
         String blockExternalString = servletContext.getInitParameter(
@@ -93,23 +137,34 @@ public class TldCache {
 
 
     public TaglibXml getTaglibXml(TldResourcePath tldResourcePath) throws JasperException {
+        lookups.incrementAndGet();
         TaglibXmlCacheEntry cacheEntry = tldResourcePathTaglibXmlMap.get(tldResourcePath);
+        if (immutable && !cacheEntry.isStale()) {
+            return cacheEntry.getTaglibXml();
+        }
+        staleChecks.incrementAndGet();
         long lastModified[] = getLastModified(tldResourcePath);
-        if (lastModified[0] != cacheEntry.getWebAppPathLastModified() ||
+        if (cacheEntry.isStale() ||
+                lastModified[0] != cacheEntry.getWebAppPathLastModified() ||
                 lastModified[1] != cacheEntry.getEntryLastModified()) {
             synchronized (cacheEntry) {
-                if (lastModified[0] != cacheEntry.getWebAppPathLastModified() ||
+                if (cacheEntry.isStale() ||
+                        lastModified[0] != cacheEntry.getWebAppPathLastModified() ||
                         lastModified[1] != cacheEntry.getEntryLastModified()) {
+                    // cleared first, so an invalidation during parsing is kept
+                    cacheEntry.setStale(false);
                     // Re-parse TLD
                     TaglibXml updatedTaglibXml;
                     try {
                         updatedTaglibXml = tldParser.parse(tldResourcePath);
                     } catch (IOException | SAXException e) {
+                        cacheEntry.setStale(true);
                         throw new JasperException(e);
                     }
                     cacheEntry.setTaglibXml(updatedTaglibXml);
                     cacheEntry.setWebAppPathLastModified(lastModified[0]);
                     cacheEntry.setEntryLastModified(lastModified[1]);
+                    reloads.incrementAndGet();
                 }
             }
         }
@@ -117,6 +172,116 @@ public class TldCache {
     }
 
 
+    /**
+     * Stops listening for bundle events, to be called when the servlet
+     * context is destroyed.
+     */
+    public void destroy() {
+        if (bundleListener != null) {
+            try {
+                bundleContext.removeBundleListener(bundleListener);
+            } catch (IllegalStateException e) {
+                // bundle already stopped
+            }
+        }
+    }
+
+
+    /**
+     * @return true if TLDs are only checked after bundle updates
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+
+    /**
+     * @return number of TLD lookups
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+
+    /**
+     * @return number of lookups that checked the TLD for modification
+     */
+    public long getStaleChecks() {
+        return staleChecks.get();
+    }
+
+
+    /**
+     * @return number of times a TLD was parsed again
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+
+    /**
+     * @return number of TLDs marked stale by bundle events
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+
+    private void invalidate(long bundleId) {
+        for (TaglibXmlCacheEntry cacheEntry : tldResourcePathTaglibXmlMap.values()) {
+            if (cacheEntry.getOwnerBundleId() == bundleId) {
+                cacheEntry.setStale(true);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+
+    private static boolean isImmutable(ServletContext servletContext) {
+        String immutable = servletContext.getInitParameter(
+                JspWebdefaults.PROPERTY_JSP_TLD_IMMUTABLE);
+        if (immutable == null) {
+            Bundle bundle = FrameworkUtil.getBundle(TldCache.class);
+            BundleContext context = bundle != null ? bundle.getBundleContext() : null;
+            if (context != null) {
+                immutable = context.getProperty(JspWebdefaults.PROPERTY_JSP_TLD_IMMUTABLE);
+            }
+        }
+        return Boolean.parseBoolean(immutable);
+    }
+
+
+    /**
+     * Extracts the id of the bundle a TLD comes from, out of bundle URLs like
+     * bundle://12.0:1/ or jar:bundleentry://12.fwk1/lib/tags.jar!/.
+     *
+     * @return the bundle id, or -1 if the TLD doesn't come from a bundle
+     */
+    static long getOwnerBundleId(URL url) {
+        if (url == null) {
+            return -1;
+        }
+        if ("jar".equals(url.getProtocol())) {
+            String path = url.getPath();
+            int separator = path.indexOf("!/");
+            try {
+                url = new URL(separator >= 0 ? path.substring(0, separator) : path);
+            } catch (MalformedURLException e) {
+                return -1;
+            }
+        }
+        if (!url.getProtocol().startsWith("bundle")) {
+            return -1;
+        }
+        String host = url.getHost();
+        int end = 0;
+        while (end < host.length() && Character.isDigit(host.charAt(end))) {
+            end++;
+        }
+        return end > 0 ? Long.parseLong(host.substring(0, end)) : -1;
+    }
+
+
     private long[] getLastModified(TldResourcePath tldResourcePath) {
         long[] result = new long[2];
         result[0] = -1;
@@ -151,12 +316,15 @@ public class TldCache {
         private volatile TaglibXml taglibXml;
         private volatile long webAppPathLastModified;
         private volatile long entryLastModified;
+        private volatile boolean stale;
+        private final long ownerBundleId;
 
         public TaglibXmlCacheEntry(TaglibXml taglibXml, long webAppPathLastModified,
-                long entryLastModified) {
+                long entryLastModified, long ownerBundleId) {
             this.taglibXml = taglibXml;
             this.webAppPathLastModified = webAppPathLastModified;
             this.entryLastModified = entryLastModified;
+            this.ownerBundleId = ownerBundleId;
         }
 
         public TaglibXml getTaglibXml() {
@@ -182,5 +350,17 @@ public class TldCache {
         public void setEntryLastModified(long entryLastModified) {
             this.entryLastModified = entryLastModified;
         }
+
+        public boolean isStale() {
+            return stale;
+        }
+
+        public void setStale(boolean stale) {
+            this.stale = stale;
+        }
+
+        public long getOwnerBundleId() {
+            return ownerBundleId;
+        }
     }
 }
\ No newline at end of file
@@ -13,7 +13,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -28,7 +29,21 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 
 	private final Properties restrictedFilters = new Properties();
 	private final Properties restrictedListeners = new Properties();
-	private final Map<Class<?>, List<AnnotationCacheEntry>> annotationCache = new WeakHashMap<Class<?>, List<AnnotationCacheEntry>>();
+	/**
+	 * Annotations by class. Looked up for every tag handler and JSP created,
+	 * so it is kept in a {@link ClassValue}: reads don't lock and the entries
+	 * go away with their class.
+	 */
+	private final ClassValue<AnnotationCacheHolder> annotationCache = new ClassValue<AnnotationCacheHolder>() {
+
+		@Override
+		protected AnnotationCacheHolder computeValue(Class<?> type) {
+			return new AnnotationCacheHolder();
+		}
+
+	};
+
+	private final AtomicInteger annotationCacheSize = new AtomicInteger();
 
 	@Override
 	public Object newInstance(String className) throws IllegalAccessException,
@@ -103,10 +118,8 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 
 		// At the end the postconstruct annotated
 		// method is invoked
-		List<AnnotationCacheEntry> annotations = null;
-		synchronized (annotationCache) {
-			annotations = annotationCache.get(clazz);
-		}
+		List<AnnotationCacheEntry> annotations = annotationCache.get(clazz)
+				.get();
 		if (annotations == null) {
 			// instance not created through the instance manager
 			return;
@@ -143,10 +156,8 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 			InvocationTargetException {
 
 		while (clazz != null) {
-			List<AnnotationCacheEntry> annotations = null;
-			synchronized (annotationCache) {
-				annotations = annotationCache.get(clazz);
-			}
+			AnnotationCacheHolder holder = annotationCache.get(clazz);
+			List<AnnotationCacheEntry> annotations = holder.get();
 			if (annotations == null) {
 				annotations = new ArrayList<AnnotationCacheEntry>();
 
@@ -197,8 +208,10 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 					// Use common empty list to save memory
 					annotations = Collections.emptyList();
 				}
-				synchronized (annotationCache) {
-					annotationCache.put(clazz, annotations);
+				// concurrent scans of the same class yield equal results, the
+				// first one wins
+				if (holder.compareAndSet(null, annotations)) {
+					annotationCacheSize.incrementAndGet();
 				}
 			}
 			// CHECKSTYLE:OFF
@@ -208,12 +221,11 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 	}
 
 	/**
-	 * Makes cache size available to unit tests.
+	 * Makes cache size available to unit tests, that is the number of classes
+	 * whose annotations were scanned.
 	 */
 	protected int getAnnotationCacheSize() {
-		synchronized (annotationCache) {
-			return annotationCache.size();
-		}
+		return annotationCacheSize.get();
 	}
 
 	protected Class<?> loadClassMaybePrivileged(final String className,
@@ -318,6 +330,14 @@ public class InstanceManager implements org.apache.tomcat.InstanceManager {
 		}
 	}
 
+	/**
+	 * Annotations of a class, null until the class was scanned.
+	 */
+	@SuppressWarnings("serial")
+	private static final class AnnotationCacheHolder extends
+			AtomicReference<List<AnnotationCacheEntry>> {
+	}
+
 	private static enum AnnotationCacheEntryType {
 		FIELD, SETTER, POST_CONSTRUCT, PRE_DESTROY
 	}
@@ -21,6 +21,8 @@ import java.util.Set;
 
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
 import javax.servlet.ServletException;
 import javax.servlet.jsp.JspFactory;
 
@@ -110,9 +112,27 @@ public class JasperInitializer implements ServletContainerInitializer {
             context.addListener(listener);
         }
 
-        context.setAttribute(TldCache.SERVLET_CONTEXT_ATTRIBUTE_NAME,
-                new TldCache(context, scanner.getUriTldResourcePathMap(),
-                        scanner.getTldResourcePathTaglibXmlMap()));
+        final TldCache tldCache = new TldCache(context, scanner.getUriTldResourcePathMap(),
+                scanner.getTldResourcePathTaglibXmlMap());
+        context.setAttribute(TldCache.SERVLET_CONTEXT_ATTRIBUTE_NAME, tldCache);
+        context.addListener(new ServletContextListener() {
+
+            @Override
+            public void contextInitialized(ServletContextEvent sce) {
+                // nothing to do
+            }
+
+            @Override
+            public void contextDestroyed(ServletContextEvent sce) {
+                if (log.isDebugEnabled()) {
+                    log.debug("TLD cache of {}: {} lookups, {} stale checks, {} reloads, {} invalidations",
+                            sce.getServletContext().getServletContextName(), tldCache.getLookups(),
+                            tldCache.getStaleChecks(), tldCache.getReloads(), tldCache.getInvalidations());
+                }
+                tldCache.destroy();
+            }
+
+        });
         
 		// context.addServlet("jsp", JspServlet.class);
 		// context.getServletRegistration("jsp").addMapping("*.jsp");
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.jsp;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+import org.apache.jasper.EmbeddedServletOptions;
+import org.apache.jasper.Options;
+import org.apache.jasper.compiler.JspRuntimeContext;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles JSPs ahead of the first request. The generated classes end up in
+ * the scratch dir configured for the given servlet config, where the JSP
+ * servlet finds them up to date and only has to load them.
+ * <p>
+ * All JSPs share one Jasper runtime context, so tag libraries and tag files
+ * are resolved once and not per page. Classes are loaded through the Jasper
+ * class loader the JSP servlet published in the servlet context, a private one
+ * is only created, and closed again, if there is none yet.
+ */
+public class JspPrecompiler {
+
+	/**
+	 * Gets notified after each JSP.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param jspUri
+		 *            the JSP just processed
+		 * @param failure
+		 *            why the JSP could not be compiled, null on success
+		 * @param done
+		 *            number of JSPs processed so far
+		 * @param total
+		 *            number of JSPs to process
+		 */
+		void compiled(String jspUri, Throwable failure, int done, int total);
+
+	}
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JspPrecompiler.class);
+
+	private final ServletConfig config;
+
+	private final Bundle bundle;
+
+	/**
+	 * @param config
+	 *            configuration of the JSP servlet of the context, its init
+	 *            parameters define the scratch dir and compiler options
+	 * @param bundle
+	 *            bundle the JSPs belong to
+	 */
+	public JspPrecompiler(ServletConfig config, Bundle bundle) {
+		this.config = config;
+		this.bundle = bundle;
+	}
+
+	/**
+	 * Compiles the given JSPs in parallel and waits for all of them.
+	 *
+	 * @param jspUris
+	 *            context relative paths of the JSPs
+	 * @param executor
+	 *            executor doing the compilation
+	 * @param listener
+	 *            notified of the progress, may be null
+	 * @return number of JSPs that failed to compile
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, compilations not started yet
+	 *             are cancelled
+	 */
+	public int precompile(Collection<String> jspUris, Executor executor,
+			Listener listener) throws InterruptedException {
+		final ServletContext context = config.getServletContext();
+		final Thread thread = Thread.currentThread();
+		final ClassLoader original = thread.getContextClassLoader();
+		final JspRuntimeContext runtimeContext;
+		final Options options;
+		final ClassLoader jasperClassLoader;
+		final JasperClassLoader privateClassLoader;
+		Object published = context
+				.getAttribute(JspServletWrapper.JASPER_CLASS_LOADER);
+		if (published instanceof ClassLoader) {
+			jasperClassLoader = (ClassLoader) published;
+			privateClassLoader = null;
+		} else {
+			privateClassLoader = new JasperClassLoader(bundle,
+					JasperClassLoader.class.getClassLoader());
+			jasperClassLoader = privateClassLoader;
+		}
+		thread.setContextClassLoader(jasperClassLoader);
+		try {
+			if (context.getAttribute(org.apache.tomcat.InstanceManager.class
+					.getName()) == null) {
+				context.setAttribute(
+						org.apache.tomcat.InstanceManager.class.getName(),
+						new InstanceManager());
+			}
+			options = new EmbeddedServletOptions(config, context);
+			runtimeContext = new JspRuntimeContext(context, options);
+		} finally {
+			thread.setContextClassLoader(original);
+		}
+
+		CompletionService<Result> completion = new ExecutorCompletionService<Result>(
+				executor);
+		int total = jspUris.size();
+		int failed = 0;
+		Future<?>[] futures = new Future<?>[total];
+		int i = 0;
+		for (final String jspUri : jspUris) {
+			futures[i++] = completion.submit(new Callable<Result>() {
+
+				@Override
+				public Result call() {
+					try {
+						compile(jspUri, options, runtimeContext,
+								jasperClassLoader);
+						return new Result(jspUri, null);
+						//CHECKSTYLE:OFF
+					} catch (Throwable t) {
+						return new Result(jspUri, t);
+					}
+					//CHECKSTYLE:ON
+				}
+
+			});
+		}
+		try {
+			for (int done = 1; done <= total; done++) {
+				Result result = completion.take().get();
+				if (result.failure != null) {
+					LOG.warn("Can't precompile " + result.jspUri, result.failure);
+					failed++;
+				}
+				if (listener != null) {
+					listener.compiled(result.jspUri, result.failure, done, total);
+				}
+			}
+		} catch (ExecutionException e) {
+			// can't happen, the compilation task catches everything
+			throw new IllegalStateException(e);
+		} finally {
+			for (Future<?> future : futures) {
+				future.cancel(false);
+			}
+			runtimeContext.destroy();
+			if (privateClassLoader != null) {
+				try {
+					privateClassLoader.close();
+				} catch (IOException e) {
+					LOG.debug("Can't close Jasper class loader", e);
+				}
+			}
+		}
+		return failed;
+	}
+
+	private void compile(String jspUri, Options options,
+			JspRuntimeContext runtimeContext, ClassLoader jasperClassLoader)
+			throws Exception {
+		final Thread thread = Thread.currentThread();
+		final ClassLoader original = thread.getContextClassLoader();
+		thread.setContextClassLoader(jasperClassLoader);
+		try {
+			final long start = System.currentTimeMillis();
+			new org.apache.jasper.servlet.JspServletWrapper(config, options,
+					jspUri, runtimeContext).getJspEngineContext().compile();
+			LOG.debug("Compiled {} in {} ms", jspUri,
+					System.currentTimeMillis() - start);
+		} finally {
+			thread.setContextClassLoader(original);
+		}
+	}
+
+	private static final class Result {
+
+		private final String jspUri;
+		private final Throwable failure;
+
+		private Result(String jspUri, Throwable failure) {
+			this.jspUri = jspUri;
+			this.failure = failure;
+		}
+	}
+
+}
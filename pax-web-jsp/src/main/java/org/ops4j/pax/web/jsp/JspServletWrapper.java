@@ -23,6 +23,7 @@ import java.util.concurrent.Callable;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -30,6 +31,7 @@ import javax.servlet.ServletResponse;
 import org.apache.jasper.Constants;
 import org.apache.jasper.servlet.JspServlet;
 import org.ops4j.pax.swissbox.core.ContextClassLoaderUtils;
+import org.ops4j.pax.web.service.spi.util.ContextClassLoaderSwitch;
 import org.osgi.framework.Bundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +54,19 @@ public class JspServletWrapper implements Servlet {
 	 */
 	private static final Logger LOG = LoggerFactory
 			.getLogger(JspServletWrapper.class);
+	/**
+	 * Servlet context attribute Jasper looks the instance manager up with.
+	 */
+	private static final String INSTANCE_MANAGER = org.apache.tomcat.InstanceManager.class
+			.getName();
+	/**
+	 * Servlet context attribute the Jasper class loader of the context is
+	 * published under, so the JSP precompiler loads through the same one. The
+	 * first JSP servlet publishes it, it stays for the lifetime of the context
+	 * as other JSP servlets may share it.
+	 */
+	public static final String JASPER_CLASS_LOADER = JasperClassLoader.class
+			.getName();
 	/**
 	 * Jasper Servlet.
 	 */
@@ -66,7 +81,8 @@ public class JspServletWrapper implements Servlet {
 	/**
 	 * Constructor that provides a custom class loader, in order to be able to
 	 * customize the behavior of Jasper with full control over the class loading
-	 * mechanism. Only advanced users will need this, most others should simply
+	 * mechanism, or to share one class loader between the JSP servlets of a
+	 * context. Only advanced users will need this, most others should simply
 	 * use the other constructors that will provide a default class loader that
 	 * delegates to the bundle.
 	 * 
@@ -102,9 +118,19 @@ public class JspServletWrapper implements Servlet {
 
 						@Override
 						public Void call() throws Exception {
-							config.getServletContext().setAttribute(
-									org.apache.tomcat.InstanceManager.class
-											.getName(), new InstanceManager());
+							// one instance manager for all JSP servlets of
+							// the context
+							ServletContext context = config.getServletContext();
+							synchronized (context) {
+								if (context.getAttribute(INSTANCE_MANAGER) == null) {
+									context.setAttribute(INSTANCE_MANAGER,
+											new InstanceManager());
+								}
+								if (context.getAttribute(JASPER_CLASS_LOADER) == null) {
+									context.setAttribute(JASPER_CLASS_LOADER,
+											jasperClassLoader);
+								}
+							}
 							jasperServlet.init(config);
 							return null;
 						}
@@ -140,7 +166,10 @@ public class JspServletWrapper implements Servlet {
 	@Override
 	public void service(final ServletRequest req, final ServletResponse res)
 			throws ServletException, IOException {
-		if (jspFile != null) {
+		// setting an attribute notifies the request attribute listeners, so
+		// only do it if a previous dispatch did not already
+		if (jspFile != null
+				&& !jspFile.equals(req.getAttribute(Constants.JSP_FILE))) {
 			req.setAttribute(Constants.JSP_FILE, jspFile);
 		}
 		String includeRequestUri = (String) req
@@ -150,29 +179,15 @@ public class JspServletWrapper implements Servlet {
 			req.removeAttribute(RequestDispatcher.INCLUDE_REQUEST_URI);
 		}
 
+		// called for every request, so switch the class loader without
+		// allocating a callable
+		final ClassLoader previous = ContextClassLoaderSwitch
+				.switchTo(jasperClassLoader);
 		try {
-			ContextClassLoaderUtils.doWithClassLoader(jasperClassLoader,
-					new Callable<Void>() {
-
-						@Override
-						public Void call() throws Exception {
-							jasperServlet.service(req, res);
-							return null;
-						}
-
-					});
-		} catch (ServletException e) {
-			// re-thrown
-			throw e;
-		} catch (IOException e) {
-			// re-thrown
-			throw e;
-			//CHECKSTYLE:OFF
-		} catch (Exception ignore) {
-			// ignored as it should never happen
-			LOG.error("Ignored exception", ignore);
+			jasperServlet.service(req, res);
+		} finally {
+			ContextClassLoaderSwitch.restore(previous);
 		}
-		//CHECKSTYLE:ON
 	}
 
 	/**
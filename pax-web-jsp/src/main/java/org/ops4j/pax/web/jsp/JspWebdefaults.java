@@ -54,5 +54,15 @@ public interface JspWebdefaults {
 	String PROPERTY_JSP_TAGPOOL_MAX_SIZE = PID + ".jsp.tagpool.max.size";
 
 	String PROPERTY_JSP_PRECOMPILATION = PID + ".jsp.precompilation";
+
+	/**
+	 * Number of bundle revisions whose compiled JSPs are kept per context
+	 */
+	String PROPERTY_JSP_SCRATCH_REVISIONS = PID + ".jsp.scratch.revisions";
+
+	/**
+	 * Treat TLDs as unchanged until their bundle is updated
+	 */
+	String PROPERTY_JSP_TLD_IMMUTABLE = PID + ".jsp.tld.immutable";
 }
 //CHECKSTYLE:ON
@@ -29,6 +29,7 @@ import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_LOG_VERBOSITY_LE
 import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_MAPPED_FILE;
 import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_PRECOMPILATION;
 import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_SCRATCH_DIR;
+import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_SCRATCH_REVISIONS;
 import static org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_TAGPOOL_MAX_SIZE;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_CONNECTOR_NAME;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_ENABLED;
@@ -39,10 +40,13 @@ import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_SECU
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_USE_NIO;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LISTENING_ADDRESSES;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_APPEND;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_BUFFER;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_DISPATCH;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_EXTENDED;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_FORMAT;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_JSON;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_LOGTIMEZONE;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_OVERFLOW;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_RETAINDAYS;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_SERVER_CONFIGURATION_FILE;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_SERVER_CONFIGURATION_URL;
@@ -473,6 +477,12 @@ public class Activator implements BundleActivator {
 				configuration.isLogNCSADispatch());
 		setProperty(toPropagate, PROPERTY_LOG_NCSA_LOGTIMEZONE,
 				configuration.getLogNCSATimeZone());
+		setProperty(toPropagate, PROPERTY_LOG_NCSA_BUFFER,
+				configuration.getLogNCSABuffer());
+		setProperty(toPropagate, PROPERTY_LOG_NCSA_OVERFLOW,
+				configuration.getLogNCSAOverflow());
+		setProperty(toPropagate, PROPERTY_LOG_NCSA_JSON,
+				configuration.isLogNCSAJson());
 
 		if (SupportUtils.isJSPAvailable()) {
 			setProperty(toPropagate, PROPERTY_JSP_CHECK_INTERVAL,
@@ -499,6 +509,8 @@ public class Activator implements BundleActivator {
 					configuration.getJspTagpoolMaxSize());
 			setProperty(toPropagate, PROPERTY_JSP_PRECOMPILATION,
 					configuration.getJspPrecompilation());
+			setProperty(toPropagate, PROPERTY_JSP_SCRATCH_REVISIONS,
+					configuration.getJspScratchRevisions());
 		}
 
 		return toPropagate;
@@ -28,14 +28,17 @@ import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_USE_
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_HTTP_CHECK_FORWARDED_HEADERS;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LISTENING_ADDRESSES;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_APPEND;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_BUFFER;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_COOKIES;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_DISPATCH;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_ENABLED;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_EXTENDED;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_FORMAT;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_JSON;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_LATENCY;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_LOGDIR;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_LOGTIMEZONE;
+import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_OVERFLOW;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_RETAINDAYS;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_LOG_NCSA_SERVER;
 import static org.ops4j.pax.web.service.WebContainerConstants.PROPERTY_SERVER_CONFIGURATION_FILE;
@@ -527,6 +530,16 @@ public class ConfigurationImpl extends PropertyStore implements Configuration {
 		return getResolvedBooleanProperty(org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_PRECOMPILATION);
 	}
 
+	@Override
+	public Integer getJspScratchRevisions() {
+		// Just in case JSP is not available this parameter is useless
+		if (!SupportUtils.isJSPAvailable()) {
+			return null;
+		}
+
+		return getResolvedIntegerProperty(org.ops4j.pax.web.jsp.JspWebdefaults.PROPERTY_JSP_SCRATCH_REVISIONS);
+	}
+
 	@Override
 	public Boolean isLogNCSAFormatEnabled() {
 		return getResolvedBooleanProperty(PROPERTY_LOG_NCSA_ENABLED);
@@ -673,6 +686,21 @@ public class ConfigurationImpl extends PropertyStore implements Configuration {
 	public Boolean isLogNCSAServer() {
 		return getResolvedBooleanProperty(PROPERTY_LOG_NCSA_SERVER);
 	}
+
+	@Override
+	public Integer getLogNCSABuffer() {
+		return getResolvedIntegerProperty(PROPERTY_LOG_NCSA_BUFFER);
+	}
+
+	@Override
+	public String getLogNCSAOverflow() {
+		return getResolvedStringProperty(PROPERTY_LOG_NCSA_OVERFLOW);
+	}
+
+	@Override
+	public Boolean isLogNCSAJson() {
+		return getResolvedBooleanProperty(PROPERTY_LOG_NCSA_JSON);
+	}
 	
 	@Override
 	public Integer getServerMaxThreads() {
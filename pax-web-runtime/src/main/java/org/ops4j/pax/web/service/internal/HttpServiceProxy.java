@@ -431,6 +431,16 @@ public class HttpServiceProxy implements StoppableHttpService {
 		delegate.end(httpContext);
 	}
 
+	@Override
+	public boolean beginStandby(HttpContext httpContext) {
+		return delegate.beginStandby(httpContext);
+	}
+
+	@Override
+	public boolean activate(HttpContext httpContext, long timeout) {
+		return delegate.activate(httpContext, timeout);
+	}
+
 	@Override
 	public void registerServlet(Servlet servlet, String[] urlPatterns,
 			Dictionary<String, ?> initParams, Integer loadOnStartup,
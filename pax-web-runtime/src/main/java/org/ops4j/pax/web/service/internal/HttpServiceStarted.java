@@ -19,7 +19,9 @@
 package org.ops4j.pax.web.service.internal;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -43,6 +45,7 @@ import javax.servlet.ServletContainerInitializer;
 import javax.servlet.ServletException;
 
 import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.web.jsp.JasperClassLoader;
 import org.ops4j.pax.web.jsp.JspServletWrapper;
 import org.ops4j.pax.web.service.SharedWebContainerContext;
 import org.ops4j.pax.web.service.WebContainer;
@@ -77,6 +80,8 @@ class HttpServiceStarted implements StoppableHttpService {
 
 	private static final String PAX_WEB_JSP_SERVLET = "jsp";
 
+	private static final int DEFAULT_JSP_SCRATCH_REVISIONS = 2;
+
 	private static final Logger LOG = LoggerFactory
 			.getLogger(HttpServiceStarted.class);
 	private static SharedWebContainerContext sharedWebContainerContext;
@@ -89,6 +94,11 @@ class HttpServiceStarted implements StoppableHttpService {
 	private final ServiceModel serviceModel;
 	private final ServerListener serverListener;
 	private final ServletListener eventDispatcher;
+	/**
+	 * Jasper class loader shared by all JSP servlets of the bundle, created
+	 * on first use.
+	 */
+	private URLClassLoader jasperClassLoader;
 
 	static {
 		sharedWebContainerContext = new DefaultSharedWebContainerContext();
@@ -158,9 +168,11 @@ class HttpServiceStarted implements StoppableHttpService {
 			serverModel.removeFilterModel(model);
 		}
 		for (ContextModel contextModel : serviceModel.getContextModels()) {
-			serverController.removeContext(contextModel.getHttpContext());
+			serverModel.removeStandbyContext(contextModel.getHttpContext());
+			serverController.removeContext(contextModel);
 		}
 		serverModel.deassociateHttpContexts(serviceBundle);
+		closeJasperClassLoader();
 	}
 
 	/**
@@ -645,7 +657,8 @@ class HttpServiceStarted implements StoppableHttpService {
 			throw new UnsupportedOperationException(
 					"Jsp support is not enabled. Is org.ops4j.pax.web.jsp bundle installed?");
 		}
-		final Servlet jspServlet = new JspServletWrapper(serviceBundle, jspFile);
+		final Servlet jspServlet = new JspServletWrapper(jspFile,
+				getJasperClassLoader());
 		final ContextModel contextModel = getOrCreateContext(httpContext);
 		//CHECKSTYLE:OFF
 		initParams = createInitParams(contextModel,
@@ -666,6 +679,33 @@ class HttpServiceStarted implements StoppableHttpService {
 
 	}
 
+	/**
+	 * Building a Jasper class loader walks the class space of the bundle, so
+	 * one is shared by the JSP servlets of all <jsp-file> servlets.
+	 */
+	private synchronized URLClassLoader getJasperClassLoader() {
+		if (jasperClassLoader == null) {
+			jasperClassLoader = new JasperClassLoader(serviceBundle,
+					JasperClassLoader.class.getClassLoader());
+		}
+		return jasperClassLoader;
+	}
+
+	/**
+	 * Releases the jars opened by the shared Jasper class loader once all JSP
+	 * servlets of the bundle are gone.
+	 */
+	private synchronized void closeJasperClassLoader() {
+		if (jasperClassLoader != null) {
+			try {
+				jasperClassLoader.close();
+			} catch (IOException e) {
+				LOG.warn("Can't close the Jasper class loader of " + serviceBundle, e);
+			}
+			jasperClassLoader = null;
+		}
+	}
+
 	private String getJspServletName(String jspFile) {
 		return jspFile == null ? PAX_WEB_JSP_SERVLET : null;
 	}
@@ -699,6 +739,12 @@ class HttpServiceStarted implements StoppableHttpService {
 				if (!tempDir.exists()) {
 					tempDir.mkdirs();
 				}
+				// one directory per bundle revision, so compiled JSPs survive
+				// restarts but not updates
+				Integer revisions = configuration.getJspScratchRevisions();
+				tempDir = JspScratchDirs.getRevisionDir(tempDir,
+						contextModel.getBundle(),
+						revisions != null ? revisions : DEFAULT_JSP_SCRATCH_REVISIONS);
 				scratchDir = tempDir.toString();
 			}
 
@@ -1075,6 +1121,36 @@ class HttpServiceStarted implements StoppableHttpService {
 		//CHECKSTYLE:ON
 	}
 
+	@Override
+	public boolean beginStandby(HttpContext httpContext) {
+		if (!serverController.isStandbySupported()) {
+			return false;
+		}
+		// before anything is registered, so nothing is routed to it
+		serverModel.addStandbyContext(getOrCreateContext(httpContext));
+		begin(httpContext);
+		return true;
+	}
+
+	@Override
+	public boolean activate(HttpContext httpContext, long timeout) {
+		final ContextModel contextModel = getOrCreateContext(httpContext);
+		LOG.debug("Activating context [" + contextModel + "]");
+		final long deadline = System.currentTimeMillis() + timeout;
+		boolean idle = true;
+		try {
+			for (HttpContext replaced : serverModel
+					.activateContext(contextModel)) {
+				idle &= serverController.awaitIdle(replaced,
+						Math.max(0L, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return idle;
+	}
+
 	@Override
 	public void setConnectorsAndVirtualHosts(List<String> connectors, List<String> virtualHosts,
 			HttpContext httpContext) {
@@ -438,6 +438,16 @@ class HttpServiceStopped implements StoppableHttpService {
 	public void end(HttpContext httpContext) {
 	}
 
+	@Override
+	public boolean beginStandby(HttpContext httpContext) {
+		return false;
+	}
+
+	@Override
+	public boolean activate(HttpContext httpContext, long timeout) {
+		return false;
+	}
+
 	@Override
 	public SharedWebContainerContext createDefaultSharedHttpContext() {
 		return null;
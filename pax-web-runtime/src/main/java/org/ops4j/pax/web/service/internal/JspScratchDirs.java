@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the JSP scratch directories of a context, one per revision of the
+ * bundle backing the context. A revision is identified by the bundle
+ * symbolic name, version and last modification time, so the classes compiled
+ * for an unchanged bundle are reused across restarts and refreshes while an
+ * updated bundle starts with an empty directory.
+ * <p>
+ * Within a revision directory Jasper checks each generated class against its
+ * JSP and the recorded dependencies (included files, TLDs, tag files), so
+ * only pages whose sources changed are compiled again.
+ * <p>
+ * The revisions known for a context are kept in an index file in the context
+ * directory, together with a counter increased on each use, so the order of
+ * use doesn't depend on the clock. Revisions beyond the configured number are
+ * deleted, least recently used first.
+ */
+final class JspScratchDirs {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JspScratchDirs.class);
+
+	static final String INDEX_FILE = "revisions.properties";
+
+	private JspScratchDirs() {
+		// utility class
+	}
+
+	/**
+	 * Returns the scratch directory for the current revision of the bundle,
+	 * creating it if needed, and evicts stale revisions.
+	 *
+	 * @param contextDir
+	 *            scratch directory of the context
+	 * @param bundle
+	 *            bundle backing the context, may be null
+	 * @param revisions
+	 *            number of revisions to keep, including the current one;
+	 *            values below 1 keep all revisions
+	 * @return directory where the JSPs of the bundle revision are compiled to
+	 */
+	static File getRevisionDir(File contextDir, Bundle bundle, int revisions) {
+		if (bundle == null) {
+			return contextDir;
+		}
+		final String revision = getRevisionName(bundle);
+		final File revisionDir = new File(contextDir, revision);
+		// contexts of different bundles may share a name, and so the index
+		synchronized (JspScratchDirs.class) {
+			final File indexFile = new File(contextDir, INDEX_FILE);
+			final Properties index = load(indexFile);
+			if (revisionDir.isDirectory()) {
+				LOG.debug("Reusing compiled JSPs of {} in {}", bundle, revisionDir);
+			} else if (!revisionDir.mkdirs()) {
+				LOG.warn("Can't create JSP scratch directory {}", revisionDir);
+			}
+			index.setProperty(revision, Long.toString(nextUse(index)));
+			if (revisions > 0) {
+				evict(contextDir, index, revision, revisions);
+			}
+			store(indexFile, index);
+		}
+		return revisionDir;
+	}
+
+	static String getRevisionName(Bundle bundle) {
+		StringBuilder name = new StringBuilder();
+		name.append(bundle.getSymbolicName()).append('_')
+				.append(bundle.getVersion()).append('_')
+				.append(bundle.getLastModified());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '.' && c != '-') {
+				name.setCharAt(i, '_');
+			}
+		}
+		return name.toString();
+	}
+
+	private static void evict(File contextDir, final Properties index,
+			String current, int revisions) {
+		List<String> others = new ArrayList<String>(index.stringPropertyNames());
+		others.remove(current);
+		if (others.size() < revisions) {
+			return;
+		}
+		// most recently used first
+		Collections.sort(others, new Comparator<String>() {
+
+			@Override
+			public int compare(String r1, String r2) {
+				return Long.compare(lastUsed(index, r2), lastUsed(index, r1));
+			}
+
+		});
+		for (String stale : others.subList(revisions - 1, others.size())) {
+			File staleDir = new File(contextDir, stale);
+			LOG.debug("Evicting compiled JSPs in {}", staleDir);
+			if (delete(staleDir)) {
+				index.remove(stale);
+			}
+		}
+	}
+
+	/**
+	 * @return a use count above the one of every revision in the index
+	 */
+	private static long nextUse(Properties index) {
+		long last = 0L;
+		for (String revision : index.stringPropertyNames()) {
+			last = Math.max(last, lastUsed(index, revision));
+		}
+		return last + 1;
+	}
+
+	private static long lastUsed(Properties index, String revision) {
+		try {
+			return Long.parseLong(index.getProperty(revision, "0"));
+		} catch (NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	private static boolean delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		return file.delete() || !file.exists();
+	}
+
+	private static Properties load(File indexFile) {
+		Properties index = new Properties();
+		if (indexFile.isFile()) {
+			try (InputStream in = new FileInputStream(indexFile)) {
+				index.load(in);
+			} catch (IOException e) {
+				LOG.warn("Can't read JSP scratch directory index " + indexFile, e);
+			}
+		}
+		return index;
+	}
+
+	private static void store(File indexFile, Properties index) {
+		try (OutputStream out = new FileOutputStream(indexFile)) {
+			index.store(out, "JSP scratch directories by bundle revision, with last use");
+		} catch (IOException e) {
+			LOG.warn("Can't write JSP scratch directory index " + indexFile, e);
+		}
+	}
+
+}
@@ -17,25 +17,17 @@
 
 package org.ops4j.pax.web.service.internal;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.web.service.spi.ServletEvent;
 import org.ops4j.pax.web.service.spi.ServletListener;
+import org.ops4j.pax.web.service.spi.util.ListenerEventDispatcher;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -61,27 +53,25 @@ public class ServletEventDispatcher implements ServletListener, BundleListener {
 			.getLogger(ServletEventDispatcher.class);
 
 	private final BundleContext bundleContext;
-	private final ScheduledExecutorService executors;
+	private final ListenerEventDispatcher<ServletListener, ServletEvent> dispatcher;
 	private final ServiceTracker<ServletListener, ServletListener> servletListenerTracker;
-	private final Set<ServletListener> listeners = new CopyOnWriteArraySet<ServletListener>();
-	private final Map<Long, Map<String, ServletEvent>> states = new ConcurrentHashMap<Long, Map<String, ServletEvent>>();
+	private final Object lock = new Object();
+	/**
+	 * Last event per registration, kept for replay to late listeners. Holds
+	 * replay copies only and is guarded by {@link #lock}.
+	 */
+	private final Map<Long, Map<String, ServletEvent>> states = new HashMap<Long, Map<String, ServletEvent>>();
 
 	public ServletEventDispatcher(final BundleContext bundleContext) {
 		NullArgumentException.validateNotNull(bundleContext, "Bundle Context");
 		this.bundleContext = bundleContext;
-		this.executors = Executors.newScheduledThreadPool(THREAD_POOL_SIZE,
-				new ThreadFactory() {
-
-					private final AtomicInteger count = new AtomicInteger();
-
+		this.dispatcher = ListenerEventDispatcher.create(bundleContext,
+				"ServletEventDispatcher", THREAD_POOL_SIZE,
+				new ListenerEventDispatcher.Delivery<ServletListener, ServletEvent>() {
 					@Override
-					public Thread newThread(Runnable r) {
-						final Thread t = Executors.defaultThreadFactory()
-								.newThread(r);
-						t.setName("ServletEventDispatcher" + ": "
-								+ count.incrementAndGet());
-						t.setDaemon(true);
-						return t;
+					public void deliver(ServletListener listener,
+							ServletEvent event) {
+						listener.servletEvent(event);
 					}
 				});
 
@@ -97,9 +87,9 @@ public class ServletEventDispatcher implements ServletListener, BundleListener {
 						if (listener != null) {
 							LOG.debug("New ServletListener added: {}", listener
 									.getClass().getName());
-							synchronized (listeners) {
-								sendInitialEvents(listener);
-								listeners.add(listener);
+							synchronized (lock) {
+								dispatcher.addListener(listener,
+										getInitialEvents());
 							}
 						}
 						return listener;
@@ -115,7 +105,7 @@ public class ServletEventDispatcher implements ServletListener, BundleListener {
 					public void removedService(
 							ServiceReference<ServletListener> reference,
 							ServletListener service) {
-						listeners.remove(service);
+						dispatcher.removeListener(service);
 						bundleContext.ungetService(reference);
 						LOG.debug("ServletListener is removed: {}", service
 								.getClass().getName());
@@ -130,7 +120,9 @@ public class ServletEventDispatcher implements ServletListener, BundleListener {
 		if (event.getType() == BundleEvent.STOPPED
 				|| event.getType() == BundleEvent.UNINSTALLED)
 		{
-			states.remove(event.getBundle().getBundleId());
+			synchronized (lock) {
+				states.remove(event.getBundle().getBundleId());
+			}
 		}
 	}
 
@@ -147,77 +139,74 @@ public class ServletEventDispatcher implements ServletListener, BundleListener {
 			LOG.debug("Sending web event " + event + " for bundle "
 					+ event.getBundleName());
 		}
-		synchronized (listeners) {
-			callListeners(event);
-			Map<String, ServletEvent> events = states.get(event.getBundleId());
-			if (events == null) {
-				events = new LinkedHashMap<String, ServletEvent>();
-				states.put(event.getBundleId(), events);
-			}
-			events.put(event.getAlias(), event);
-		}
-	}
-
-	void destroy() {
-		bundleContext.removeBundleListener(this);
-		servletListenerTracker.close();
-		executors.shutdown();
-		// wait for the queued tasks to execute
-		try {
-			executors.awaitTermination(60, TimeUnit.SECONDS);
-		} catch (InterruptedException e) {
-			// ignore
+		final ListenerEventDispatcher<ServletListener, ServletEvent>.Recipients recipients;
+		synchronized (lock) {
+			// a listener added from now on gets the event replayed instead
+			recipients = dispatcher.recipients();
+			updateState(event);
 		}
+		// queueing may block until a listener catches up
+		recipients.dispatch(event);
 	}
 
-	private void sendInitialEvents(ServletListener listener) {
-		for (Map.Entry<Long, Map<String, ServletEvent>> entry : states
-				.entrySet()) {
-			try {
-				if (entry.getValue() != null && !entry.getValue().isEmpty()) {
-					for (ServletEvent event : entry.getValue().values()) {
-						callListener(listener, new ServletEvent(event, true));
-					}
+	/**
+	 * Keeps only the final state per registration. Unregistered servlets
+	 * are forgotten, and events of registrations on their way out or failed
+	 * don't keep the servlet and http context reachable.
+	 */
+	private void updateState(ServletEvent event) {
+		String key = event.getAlias() != null ? event.getAlias() : event.getServletName();
+		Map<String, ServletEvent> events = states.get(event.getBundleId());
+		if (event.getType() == ServletEvent.UNDEPLOYED) {
+			if (events != null) {
+				events.remove(key);
+				if (events.isEmpty()) {
+					states.remove(event.getBundleId());
 				}
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
-				break;
 			}
+			return;
+		}
+		if (events == null) {
+			events = new LinkedHashMap<String, ServletEvent>();
+			states.put(event.getBundleId(), events);
 		}
+		boolean live = event.getType() != ServletEvent.UNDEPLOYING
+				&& event.getType() != ServletEvent.FAILED;
+		events.put(key, new ServletEvent(event, true, live));
 	}
 
-	private void callListeners(ServletEvent servletEvent) {
-		for (ServletListener listener : listeners) {
-			try {
-				callListener(listener, servletEvent);
-			} catch (RejectedExecutionException ree) {
-				LOG.warn("Executor shut down", ree);
-				break;
-			}
-		}
+	/**
+	 * @return number of servlet events waiting to be delivered to listeners
+	 */
+	public int getQueueDepth() {
+		return dispatcher.getQueueDepth();
 	}
 
-	private void callListener(final ServletListener listener,
-			final ServletEvent event) {
-		try {
-			executors.invokeAny(Collections
-					.<Callable<Void>> singleton(new Callable<Void>() {
-						@Override
-						public Void call() throws Exception {
-							listener.servletEvent(event);
-							return null;
-						}
-					}), 60L, TimeUnit.SECONDS);
-		} catch (InterruptedException ie) {
-			LOG.warn("Thread interrupted", ie);
-			Thread.currentThread().interrupt();
-		} catch (TimeoutException te) {
-			LOG.warn("Listener timed out, will be ignored", te);
-			listeners.remove(listener);
-		} catch (ExecutionException ee) {
-			LOG.warn("Listener caused an exception, will be ignored", ee);
-			listeners.remove(listener);
+	/**
+	 * @return number of servlet events dropped because a listener fell behind
+	 */
+	public long getDroppedEvents() {
+		return dispatcher.getDroppedEvents();
+	}
+
+	void destroy() {
+		bundleContext.removeBundleListener(this);
+		servletListenerTracker.close();
+		// wait for the queued events to be delivered
+		dispatcher.destroy(60);
+	}
+
+	/**
+	 * Takes an immutable snapshot of the last known event of every
+	 * registration, to be replayed to a new listener by the dispatcher
+	 * threads. Must be called holding {@link #lock}.
+	 */
+	private List<ServletEvent> getInitialEvents() {
+		List<ServletEvent> initialEvents = new ArrayList<ServletEvent>();
+		for (Map<String, ServletEvent> events : states.values()) {
+			initialEvents.addAll(events.values());
 		}
+		return Collections.unmodifiableList(initialEvents);
 	}
 
 }
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.internal;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+public class JspScratchDirsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void unchangedBundleReusesDirectory() throws Exception {
+		File contextDir = folder.newFolder("context");
+		File first = JspScratchDirs.getRevisionDir(contextDir, bundle(1000L), 2);
+		File second = JspScratchDirs.getRevisionDir(contextDir, bundle(1000L), 2);
+
+		assertEquals(first, second);
+		assertTrue(first.isDirectory());
+		assertTrue(new File(contextDir, JspScratchDirs.INDEX_FILE).isFile());
+	}
+
+	@Test
+	public void staleRevisionsAreEvicted() throws Exception {
+		File contextDir = folder.newFolder("context");
+		File first = JspScratchDirs.getRevisionDir(contextDir, bundle(1000L), 2);
+		assertTrue(new File(first, "compiled.class").createNewFile());
+		File second = JspScratchDirs.getRevisionDir(contextDir, bundle(2000L), 2);
+		File third = JspScratchDirs.getRevisionDir(contextDir, bundle(3000L), 2);
+
+		assertNotEquals(first, second);
+		assertFalse(first.exists());
+		assertTrue(second.isDirectory());
+		assertTrue(third.isDirectory());
+	}
+
+	@Test
+	public void reusedRevisionIsKept() throws Exception {
+		File contextDir = folder.newFolder("context");
+		File first = JspScratchDirs.getRevisionDir(contextDir, bundle(1000L), 2);
+		File second = JspScratchDirs.getRevisionDir(contextDir, bundle(2000L), 2);
+		JspScratchDirs.getRevisionDir(contextDir, bundle(1000L), 2);
+		File third = JspScratchDirs.getRevisionDir(contextDir, bundle(3000L), 2);
+
+		assertTrue(first.isDirectory());
+		assertFalse(second.exists());
+		assertTrue(third.isDirectory());
+	}
+
+	private Bundle bundle(long lastModified) {
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getSymbolicName()).andReturn("org.example.web").anyTimes();
+		expect(bundle.getVersion()).andReturn(new Version("1.0.0")).anyTimes();
+		expect(bundle.getLastModified()).andReturn(lastModified).anyTimes();
+		replay(bundle);
+		return bundle;
+	}
+
+}
@@ -177,6 +177,8 @@ public interface Configuration {
 
 	Boolean getJspPrecompilation();
 
+	Integer getJspScratchRevisions();
+
 	List<String> getVirtualHosts();
 
 	Boolean isLogNCSALatency();
@@ -185,6 +187,12 @@ public interface Configuration {
 
 	Boolean isLogNCSAServer();
 
+	Integer getLogNCSABuffer();
+
+	String getLogNCSAOverflow();
+
+	Boolean isLogNCSAJson();
+
 	List<String> getCiphersuiteIncluded();
 
 	List<String> getCiphersuiteExcluded();
@@ -46,7 +46,37 @@ public interface ServerController {
 
 	void removeListener(ServerListener listener);
 
-	void removeContext(HttpContext httpContext);
+	/**
+	 * Releases the context of a service, the context is destroyed once all
+	 * services using it released it.
+	 * 
+	 * @param contextModel
+	 *            context model of the service releasing the context
+	 */
+	void removeContext(ContextModel contextModel);
+
+	/**
+	 * Whether a context can be started next to the context currently serving
+	 * the same path, requests being routed by the server model once it
+	 * is activated.
+	 * 
+	 * @return true if standby contexts are supported
+	 */
+	boolean isStandbySupported();
+
+	/**
+	 * Waits until the context of the given http context handles no request.
+	 * 
+	 * @param httpContext
+	 *            http context of the context
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return false if requests were still handled after the timeout
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	boolean awaitIdle(HttpContext httpContext, long timeout)
+			throws InterruptedException;
 
 	void addServlet(ServletModel model);
 
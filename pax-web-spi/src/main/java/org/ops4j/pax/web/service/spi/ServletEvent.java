@@ -53,6 +53,21 @@ public class ServletEvent {
 	private final String bundleVersion;
 
 	public ServletEvent(ServletEvent event, boolean replay) {
+		this(event, replay, true);
+	}
+
+	/**
+	 * Copies an event.
+	 * 
+	 * @param event
+	 *            the event to copy
+	 * @param replay
+	 *            whether the copy is a replayed event
+	 * @param retainReferences
+	 *            if false the copy does not reference the servlet and the
+	 *            http context, so it can be kept after they are gone
+	 */
+	public ServletEvent(ServletEvent event, boolean replay, boolean retainReferences) {
 		this.type = event.getType();
 		this.bundle = event.getBundle();
 		this.bundleId = event.getBundleId();
@@ -61,10 +76,10 @@ public class ServletEvent {
 		this.alias = event.getAlias();
 		this.servletName = event.getServletName();
 		this.urlParameter = event.getUrlParameter();
-		this.servlet = event.getServlet();
+		this.servlet = retainReferences ? event.getServlet() : null;
 		this.servletClassName = event.getServletClassName();
 		this.timestamp = event.getTimestamp();
-		this.httpContext = event.getHttpContext();
+		this.httpContext = retainReferences ? event.getHttpContext() : null;
 		this.replay = replay;
 	}
 
@@ -17,6 +17,8 @@
 package org.ops4j.pax.web.service.spi;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -69,6 +71,7 @@ public class WebEvent {
 	private Collection<Long> collisionIds;
 	private HttpService httpService;
 	private HttpContext httpContext;
+	private Map<String, Long> timings = Collections.emptyMap();
 
 	public WebEvent(WebEvent event, boolean replay) {
 		this.type = event.getType();
@@ -86,6 +89,7 @@ public class WebEvent {
 		this.timestamp = event.getTimestamp();
 		this.httpService = event.getHttpService();
 		this.httpContext = event.getHttpContext();
+		this.timings = event.getTimings();
 		this.replay = replay;
 	}
 
@@ -124,6 +128,15 @@ public class WebEvent {
 		this.httpService = httpService;
 	}
 
+	public WebEvent(int type, String contextPath, Bundle bundle,
+			Bundle extenderBundle, HttpService httpService,
+			HttpContext httpContext, Map<String, Long> timings) {
+		this(type, contextPath, bundle, extenderBundle, httpService, httpContext);
+		if (timings != null) {
+			this.timings = Collections.unmodifiableMap(timings);
+		}
+	}
+
 	/**
 	 * @return the type
 	 */
@@ -218,6 +231,14 @@ public class WebEvent {
 		return httpContext;
 	}
 
+	/**
+	 * @return the duration in milliseconds of each deployment phase, never
+	 *         null
+	 */
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -231,7 +252,7 @@ public class WebEvent {
 				+ ", cause=" + cause + ", timestamp=" + timestamp
 				+ ", contextPath=" + contextPath + ", collisionIds="
 				+ collisionIds + ", httpService=" + httpService
-				+ ", httpContext=" + httpContext + "]";
+				+ ", httpContext=" + httpContext + ", timings=" + timings + "]";
 	}
 
 	private static String getEventType(int type) {
@@ -17,8 +17,10 @@
 package org.ops4j.pax.web.service.spi.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -93,6 +95,14 @@ public class ServerModel {
 
 	private final ConcurrentMap<ServletContainerInitializer, ContainerInitializerModel> containerInitializers;
 
+	/**
+	 * Servlets and filters of contexts deployed as standby, by http context.
+	 * They are not matched until the context is activated, while the context
+	 * currently serving the same path keeps receiving the requests. Guarded by
+	 * the servlet lock for servlets and the filter lock for filters.
+	 */
+	private final ConcurrentMap<HttpContext, Mappings> standbyMappings;
+
 	/**
 	 * Constructor.
 	 */
@@ -103,6 +113,7 @@ public class ServerModel {
 		filterUrlPatterns = new ConcurrentHashMap<String, Set<UrlPattern>>();
 		httpContexts = new ConcurrentHashMap<HttpContext, Bundle>();
 		containerInitializers = new ConcurrentHashMap<ServletContainerInitializer, ContainerInitializerModel>();
+		standbyMappings = new ConcurrentHashMap<HttpContext, Mappings>();
 		servletLock = new ReentrantReadWriteLock(true);
 		filterLock = new ReentrantReadWriteLock(true);
 	}
@@ -124,18 +135,22 @@ public class ServerModel {
 			if (model.getServlet() != null && servlets.contains(model.getServlet())) {
 				throw new ServletException("servlet already registered with a different alias");
 			}
+			final Mappings standby = standbyMappings.get(model.getContextModel().getHttpContext());
+			final Map<String, ServletModel> aliases = standby != null ? standby.aliasMapping : aliasMapping;
+			final Map<String, UrlPattern> urlPatterns = standby != null ? standby.servletUrlPatterns
+					: servletUrlPatterns;
 			if (model.getAlias() != null) {
 				final String alias = getFullPath(model.getContextModel(), model.getAlias());
-				if (aliasMapping.containsKey(alias)) {
+				if (aliases.containsKey(alias)) {
 					throw new NamespaceException("alias: '" + alias + "' is already in use in this or another context");
 				}
-				aliasMapping.put(alias, model);
+				aliases.put(alias, model);
 			}
 			if (model.getServlet() != null) {
 				servlets.add(model.getServlet());
 			}
 			for (String urlPattern : model.getUrlPatterns()) {
-				servletUrlPatterns.put(getFullPath(model.getContextModel(), urlPattern),
+				urlPatterns.put(getFullPath(model.getContextModel(), urlPattern),
 						new UrlPattern(getFullPath(model.getContextModel(), urlPattern), model));
 			}
 		} finally {
@@ -152,15 +167,25 @@ public class ServerModel {
 	public void removeServletModel(final ServletModel model) {
 		servletLock.writeLock().lock();
 		try {
+			final Mappings standby = standbyMappings.get(model.getContextModel().getHttpContext());
+			final Map<String, ServletModel> aliases = standby != null ? standby.aliasMapping : aliasMapping;
+			final Map<String, UrlPattern> urlPatterns = standby != null ? standby.servletUrlPatterns
+					: servletUrlPatterns;
+			// the paths may already be served by another revision of the
+			// context, which replaced this one
 			if (model.getAlias() != null) {
-				aliasMapping.remove(getFullPath(model.getContextModel(), model.getAlias()));
+				aliases.remove(getFullPath(model.getContextModel(), model.getAlias()), model);
 			}
 			if (model.getServlet() != null) {
 				servlets.remove(model.getServlet());
 			}
 			if (model.getUrlPatterns() != null) {
 				for (String urlPattern : model.getUrlPatterns()) {
-					servletUrlPatterns.remove(getFullPath(model.getContextModel(), urlPattern));
+					final String fullPath = getFullPath(model.getContextModel(), urlPattern);
+					final UrlPattern registered = urlPatterns.get(fullPath);
+					if (registered != null && registered.getModel() == model) {
+						urlPatterns.remove(fullPath);
+					}
 				}
 			}
 		} finally {
@@ -178,17 +203,20 @@ public class ServerModel {
 		if (model.getUrlPatterns() != null) {
 			try {
 				filterLock.writeLock().lock();
+				final Mappings standby = standbyMappings.get(model.getContextModel().getHttpContext());
+				final Map<String, Set<UrlPattern>> urlPatterns = standby != null ? standby.filterUrlPatterns
+						: filterUrlPatterns;
 				for (String urlPattern : model.getUrlPatterns()) {
 					final UrlPattern newUrlPattern = new UrlPattern(getFullPath(model.getContextModel(), urlPattern),
 							model);
 					String fullPath = getFullPath(model.getContextModel(), urlPattern);
-					Set<UrlPattern> urlSet = filterUrlPatterns.get(fullPath);
+					Set<UrlPattern> urlSet = urlPatterns.get(fullPath);
 					if (urlSet == null) {
 						//initialize first
 						urlSet = new HashSet<>();
 					}
 					urlSet.add(newUrlPattern);
-					filterUrlPatterns.put(fullPath, urlSet);
+					urlPatterns.put(fullPath, urlSet);
 //					final UrlPattern existingPattern = filterUrlPatterns.putIfAbsent(
 //							getFullPath(model.getContextModel(), urlPattern), newUrlPattern);
 //					if (existingPattern != null) {
@@ -214,9 +242,16 @@ public class ServerModel {
 		if (model.getUrlPatterns() != null) {
 			try {
 				filterLock.writeLock().lock();
+				final Mappings standby = standbyMappings.get(model.getContextModel().getHttpContext());
+				final Map<String, Set<UrlPattern>> urlPatterns = standby != null ? standby.filterUrlPatterns
+						: filterUrlPatterns;
 				for (String urlPattern : model.getUrlPatterns()) {
 					String fullPath = getFullPath(model.getContextModel(), urlPattern);
-					Set<UrlPattern> urlSet = filterUrlPatterns.get(fullPath);
+					Set<UrlPattern> urlSet = urlPatterns.get(fullPath);
+					if (urlSet == null) {
+						// already dropped by another revision of the context
+						continue;
+					}
 					UrlPattern toDelete = null;
 					for (UrlPattern pattern : urlSet) {
 						FilterModel filterModel = (FilterModel)pattern.getModel();
@@ -235,6 +270,114 @@ public class ServerModel {
 		}
 	}
 
+	/**
+	 * Registers a context as standby: servlets and filters added to it are
+	 * not matched until {@link #activateContext(ContextModel)} is called, so
+	 * it can be started next to the context currently serving its path.
+	 * 
+	 * @param contextModel
+	 *            context to deploy as standby, before any servlet or filter is
+	 *            added to it
+	 */
+	public void addStandbyContext(final ContextModel contextModel) {
+		standbyMappings.putIfAbsent(contextModel.getHttpContext(), new Mappings());
+	}
+
+	/**
+	 * Routes the requests to a standby context. Servlets and filters of the
+	 * other contexts with the same name, registered by bundles with the same
+	 * symbolic name, are no longer matched; readers see either the previous
+	 * or the new mappings, never a mix of both.
+	 * 
+	 * @param contextModel
+	 *            standby context
+	 * 
+	 * @return http contexts replaced by the activated context, which may still
+	 *         be handling requests
+	 */
+	public Collection<HttpContext> activateContext(final ContextModel contextModel) {
+		final HttpContext httpContext = contextModel.getHttpContext();
+		final String contextName = contextModel.getContextName();
+		final String symbolicName = getSymbolicName(contextModel.getBundle());
+		final Set<HttpContext> replaced = new HashSet<HttpContext>();
+		servletLock.writeLock().lock();
+		try {
+			filterLock.writeLock().lock();
+			try {
+				final Mappings standby = standbyMappings.remove(httpContext);
+				if (standby == null) {
+					return replaced;
+				}
+				for (Iterator<ServletModel> it = aliasMapping.values().iterator(); it.hasNext();) {
+					if (isReplaced(it.next(), httpContext, contextName, symbolicName, replaced)) {
+						it.remove();
+					}
+				}
+				for (Iterator<UrlPattern> it = servletUrlPatterns.values().iterator(); it.hasNext();) {
+					if (isReplaced(it.next().getModel(), httpContext, contextName, symbolicName, replaced)) {
+						it.remove();
+					}
+				}
+				for (Set<UrlPattern> urlSet : filterUrlPatterns.values()) {
+					for (Iterator<UrlPattern> it = urlSet.iterator(); it.hasNext();) {
+						if (isReplaced(it.next().getModel(), httpContext, contextName, symbolicName, replaced)) {
+							it.remove();
+						}
+					}
+				}
+				aliasMapping.putAll(standby.aliasMapping);
+				servletUrlPatterns.putAll(standby.servletUrlPatterns);
+				for (Entry<String, Set<UrlPattern>> entry : standby.filterUrlPatterns.entrySet()) {
+					Set<UrlPattern> urlSet = filterUrlPatterns.get(entry.getKey());
+					if (urlSet == null) {
+						filterUrlPatterns.put(entry.getKey(), entry.getValue());
+					} else {
+						urlSet.addAll(entry.getValue());
+					}
+				}
+			} finally {
+				filterLock.writeLock().unlock();
+			}
+		} finally {
+			servletLock.writeLock().unlock();
+		}
+		LOG.debug("Activated context [{}], replacing {}", contextModel, replaced);
+		return replaced;
+	}
+
+	/**
+	 * Drops a standby context which was not activated.
+	 * 
+	 * @param httpContext
+	 *            http context of the standby context
+	 */
+	public void removeStandbyContext(final HttpContext httpContext) {
+		standbyMappings.remove(httpContext);
+	}
+
+	/**
+	 * @return true if the model belongs to a previous revision of the
+	 *         activated context, e.g. another version of its web application
+	 *         bundle, but not to other bundles sharing the context name
+	 */
+	private static boolean isReplaced(final Model model, final HttpContext httpContext, final String contextName,
+			final String symbolicName, final Set<HttpContext> replaced) {
+		final ContextModel contextModel = model.getContextModel();
+		if (contextModel.getHttpContext() == httpContext || !contextName.equals(contextModel.getContextName())) {
+			return false;
+		}
+		final String replacedName = getSymbolicName(contextModel.getBundle());
+		if (symbolicName == null ? replacedName != null : !symbolicName.equals(replacedName)) {
+			return false;
+		}
+		replaced.add(contextModel.getHttpContext());
+		return true;
+	}
+
+	private static String getSymbolicName(final Bundle bundle) {
+		return bundle == null ? null : bundle.getSymbolicName();
+	}
+
 	public void addContainerInitializerModel(ContainerInitializerModel model) {
 		if (containerInitializers.containsKey(model.getContainerInitializer())) {
 			throw new IllegalArgumentException(
@@ -325,7 +468,13 @@ public class ServerModel {
 		}
 		// then if there is no matched servlet look for filters
 		if (urlPattern == null) {
-			urlPattern = matchFilterPathToContext(filterUrlPatterns, path);
+			// the sets of patterns are modified in place
+			filterLock.readLock().lock();
+			try {
+				urlPattern = matchFilterPathToContext(filterUrlPatterns, path);
+			} finally {
+				filterLock.readLock().unlock();
+			}
 		}
 		ContextModel matched = null;
 		if (urlPattern != null) {
@@ -457,6 +606,17 @@ public class ServerModel {
 		return fullPath;
 	}
 
+	/**
+	 * Aliases, servlet and filter url patterns of a context, by full path.
+	 */
+	private static class Mappings {
+
+		private final Map<String, ServletModel> aliasMapping = new HashMap<String, ServletModel>();
+		private final Map<String, UrlPattern> servletUrlPatterns = new HashMap<String, UrlPattern>();
+		private final Map<String, Set<UrlPattern>> filterUrlPatterns = new HashMap<String, Set<UrlPattern>>();
+
+	}
+
 	/**
 	 * Touple of full url pattern and registered model (servlet/filter) for the
 	 * model.
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link SessionCluster} keeping the sessions in the same process, for tests
+ * and for several servers running in one virtual machine.
+ * <p>
+ * Attribute values are kept serialized, so nodes never share attribute
+ * instances and values which can't be shipped to a real cluster fail here as
+ * well.
+ */
+public class LocalSessionCluster implements SessionCluster {
+
+	private final Map<String, Entry> sessions = new HashMap<String, Entry>();
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	@Override
+	public SessionData load(String id, ClassLoader classLoader) throws IOException,
+			ClassNotFoundException {
+		long creationTime;
+		long lastAccessedTime;
+		int maxInactiveInterval;
+		Map<String, byte[]> values;
+		synchronized (this) {
+			Entry entry = sessions.get(id);
+			if (entry == null) {
+				return null;
+			}
+			creationTime = entry.creationTime;
+			lastAccessedTime = entry.lastAccessedTime;
+			maxInactiveInterval = entry.maxInactiveInterval;
+			values = new HashMap<String, byte[]>(entry.attributes);
+		}
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		for (Map.Entry<String, byte[]> value : values.entrySet()) {
+			attributes.put(value.getKey(), deserialize(value.getValue(), classLoader));
+		}
+		return new SessionData(id, creationTime, lastAccessedTime,
+				maxInactiveInterval, attributes);
+	}
+
+	@Override
+	public void update(SessionChanges changes) throws IOException {
+		Map<String, byte[]> values = new HashMap<String, byte[]>();
+		for (Map.Entry<String, Object> attribute : changes.getChangedAttributes().entrySet()) {
+			values.put(attribute.getKey(), serialize(attribute.getValue()));
+		}
+		synchronized (this) {
+			Entry entry = sessions.get(changes.getId());
+			if (entry == null) {
+				entry = new Entry();
+				long now = System.currentTimeMillis();
+				entry.creationTime = changes.getCreationTime() > 0 ? changes.getCreationTime() : now;
+				entry.lastAccessedTime = now;
+				sessions.put(changes.getId(), entry);
+			}
+			if (changes.isReplace()) {
+				entry.attributes.clear();
+			}
+			entry.attributes.keySet().removeAll(changes.getRemovedAttributes());
+			entry.attributes.putAll(values);
+			if (changes.getLastAccessedTime() > 0) {
+				entry.lastAccessedTime = changes.getLastAccessedTime();
+				entry.maxInactiveInterval = changes.getMaxInactiveInterval();
+			}
+		}
+		fireSessionModified(changes.getId(), changes.getNode());
+	}
+
+	@Override
+	public void remove(String id, String node) {
+		synchronized (this) {
+			if (sessions.remove(id) == null) {
+				return;
+			}
+		}
+		fireSessionModified(id, node);
+	}
+
+	@Override
+	public synchronized Set<String> getSessionIds() {
+		return new HashSet<String>(sessions.keySet());
+	}
+
+	@Override
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private void fireSessionModified(String id, String node) {
+		for (Listener listener : listeners) {
+			listener.sessionModified(id, node);
+		}
+	}
+
+	private static byte[] serialize(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(value);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] value, ClassLoader classLoader)
+			throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new MappedSessionStore.ClassLoaderObjectInputStream(
+				new ByteArrayInputStream(value), classLoader)) {
+			return in.readObject();
+		}
+	}
+
+	private static final class Entry {
+		private long creationTime;
+		private long lastAccessedTime;
+		private int maxInactiveInterval;
+		private final Map<String, byte[]> attributes = new HashMap<String, byte[]>();
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link SessionStoreFactory} replicating the sessions of each context through
+ * a {@link LocalSessionCluster}. Every store it creates acts as a separate
+ * node, so servers running in one process share their sessions.
+ */
+public class LocalSessionStoreFactory implements SessionStoreFactory {
+
+	private final ConcurrentMap<String, LocalSessionCluster> clusters = new ConcurrentHashMap<String, LocalSessionCluster>();
+
+	private final long flushInterval;
+
+	public LocalSessionStoreFactory() {
+		this(ReplicatedSessionStore.DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param flushInterval
+	 *            milliseconds between shipping changes, 0 to ship them at the
+	 *            end of each request
+	 */
+	public LocalSessionStoreFactory(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	@Override
+	public SessionStore createSessionStore(String contextName) {
+		return new ReplicatedSessionStore(getCluster(contextName), flushInterval);
+	}
+
+	/**
+	 * @param contextName
+	 *            name or path of the context
+	 * @return the cluster holding the sessions of the context
+	 */
+	public LocalSessionCluster getCluster(String contextName) {
+		LocalSessionCluster cluster = clusters.get(contextName);
+		if (cluster == null) {
+			LocalSessionCluster newCluster = new LocalSessionCluster();
+			cluster = clusters.putIfAbsent(contextName, newCluster);
+			if (cluster == null) {
+				cluster = newCluster;
+			}
+		}
+		return cluster;
+	}
+
+}
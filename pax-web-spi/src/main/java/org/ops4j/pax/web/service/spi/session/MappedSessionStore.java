@@ -0,0 +1,582 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Default {@link SessionStore}, appending sessions to a log of memory mapped
+ * segment files in one directory.
+ * <p>
+ * Each record holds a session, or the removal of a session, in a compact
+ * binary form: the id, times and attributes of common types are written
+ * directly, only other attribute values go through Java serialization. When
+ * the store is opened the segments are scanned once to index the latest
+ * record of each session, and a session is only decoded when it is loaded.
+ * Records are checksummed, so a log torn by a crash is read up to the last
+ * complete record. Closing the store compacts the log into a single segment
+ * just large enough for the sessions that did not expire yet.
+ * <p>
+ * The store is not meant to be shared between processes.
+ */
+public class MappedSessionStore implements SessionStore {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final Logger LOG = LoggerFactory.getLogger(MappedSessionStore.class);
+
+	private static final String SEGMENT_PREFIX = "sessions-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	/**
+	 * Length, kind and checksum of a record.
+	 */
+	private static final int HEADER_SIZE = 9;
+
+	private static final byte SESSION = 1;
+	private static final byte REMOVAL = 2;
+
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LONG = 3;
+	private static final byte BOOLEAN = 4;
+	private static final byte DOUBLE = 5;
+	private static final byte BYTES = 6;
+	private static final byte OBJECT = 7;
+
+	private final File directory;
+	private final int segmentSize;
+
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private final Map<String, Location> index = new HashMap<String, Location>();
+	private final CRC32 crc = new CRC32();
+	private MappedByteBuffer current;
+	private int nextSegment;
+	private boolean opened;
+	private ByteBuffer record = ByteBuffer.allocate(4096);
+	private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+
+	public MappedSessionStore(File directory) {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the segment files
+	 * @param segmentSize
+	 *            size of a segment file, larger sessions get a segment of
+	 *            their own
+	 */
+	public MappedSessionStore(File directory, int segmentSize) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Creates a store for one context below a common store directory.
+	 *
+	 * @param storeDirectory
+	 *            directory shared by all contexts
+	 * @param contextName
+	 *            name or path of the context
+	 * @return the store of the context
+	 */
+	public static MappedSessionStore forContext(File storeDirectory, String contextName) {
+		StringBuilder name = new StringBuilder(contextName == null ? "" : contextName);
+		while (name.length() > 0 && name.charAt(0) == '/') {
+			name.deleteCharAt(0);
+		}
+		if (name.length() == 0) {
+			name.append("ROOT");
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '.' && c != '-') {
+				name.setCharAt(i, '_');
+			}
+		}
+		return new MappedSessionStore(new File(storeDirectory, name.toString()));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public synchronized void save(SessionData session) throws IOException {
+		open();
+		record.clear();
+		putString(session.getId());
+		ensure(24);
+		record.putLong(session.getCreationTime());
+		record.putLong(session.getLastAccessedTime());
+		record.putInt(session.getMaxInactiveInterval());
+		record.putInt(session.getAttributes().size());
+		for (Map.Entry<String, Object> attribute : session.getAttributes().entrySet()) {
+			putString(attribute.getKey());
+			putValue(attribute.getValue());
+		}
+		record.flip();
+		index.put(session.getId(), append(SESSION, record));
+	}
+
+	@Override
+	public synchronized SessionData load(String id, ClassLoader classLoader)
+			throws IOException, ClassNotFoundException {
+		open();
+		Location location = index.get(id);
+		if (location == null) {
+			return null;
+		}
+		ByteBuffer in = segments.get(location.segment).duplicate();
+		in.limit(location.offset + location.length);
+		in.position(location.offset);
+		String sessionId = getString(in);
+		long creationTime = in.getLong();
+		long lastAccessedTime = in.getLong();
+		int maxInactiveInterval = in.getInt();
+		int count = in.getInt();
+		Map<String, Object> attributes = new HashMap<String, Object>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			String name = getString(in);
+			attributes.put(name, getValue(in, classLoader));
+		}
+		return new SessionData(sessionId, creationTime, lastAccessedTime,
+				maxInactiveInterval, attributes);
+	}
+
+	/**
+	 * Forgets a saved session. Once no session is left the segments are
+	 * deleted.
+	 */
+	@Override
+	public synchronized void remove(String id) throws IOException {
+		open();
+		if (index.remove(id) == null) {
+			return;
+		}
+		if (index.isEmpty()) {
+			clear();
+			return;
+		}
+		record.clear();
+		putString(id);
+		record.flip();
+		append(REMOVAL, record);
+	}
+
+	@Override
+	public synchronized Set<String> getSessionIds() throws IOException {
+		open();
+		return new HashSet<String>(index.keySet());
+	}
+
+	@Override
+	public synchronized void clear() throws IOException {
+		unmapSegments();
+		index.clear();
+		current = null;
+		nextSegment = 0;
+		opened = true;
+		for (File segment : listSegments()) {
+			if (!segment.delete()) {
+				throw new IOException("Can't delete session segment " + segment);
+			}
+		}
+	}
+
+	/**
+	 * Compacts the log, the sessions which did not expire yet are copied to a
+	 * new segment sized to fit them and all other segments are deleted.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!opened) {
+			return;
+		}
+		try {
+			compact();
+		} finally {
+			unmapSegments();
+			index.clear();
+			opened = false;
+		}
+	}
+
+	/**
+	 * Indexes the segments found in the directory, new records always go to
+	 * new segments.
+	 */
+	private void open() throws IOException {
+		if (opened) {
+			return;
+		}
+		opened = true;
+		nextSegment = 0;
+		for (File segment : listSegments()) {
+			String name = segment.getName();
+			try {
+				nextSegment = Math.max(nextSegment, Integer.parseInt(name.substring(
+						SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+			} catch (NumberFormatException nfe) {
+				LOG.debug("Ignoring {}", segment);
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+				segments.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			scan(segments.size() - 1);
+		}
+		LOG.debug("Found {} saved sessions in {}", index.size(), directory);
+	}
+
+	private void scan(int segment) {
+		ByteBuffer buffer = segments.get(segment);
+		int position = 0;
+		while (position + HEADER_SIZE <= buffer.limit()) {
+			int length = buffer.getInt(position);
+			if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+				// end of the records written to the segment
+				break;
+			}
+			byte kind = buffer.get(position + 4);
+			int checksum = buffer.getInt(position + 5);
+			ByteBuffer body = buffer.duplicate();
+			body.limit(position + HEADER_SIZE + length);
+			body.position(position + HEADER_SIZE);
+			crc.reset();
+			crc.update(body.duplicate());
+			if ((int) crc.getValue() != checksum) {
+				LOG.warn("Ignoring the sessions saved after offset {} of segment {} in {}, record is corrupt",
+						position, segment, directory);
+				break;
+			}
+			String id = getString(body);
+			if (kind == SESSION) {
+				index.put(id, new Location(segment, position + HEADER_SIZE, length));
+			} else {
+				index.remove(id);
+			}
+			position += HEADER_SIZE + length;
+		}
+	}
+
+	private void compact() throws IOException {
+		long now = System.currentTimeMillis();
+		List<Location> live = new ArrayList<Location>(index.size());
+		long size = 0;
+		for (Location location : index.values()) {
+			if (!isExpired(location, now)) {
+				live.add(location);
+				size += HEADER_SIZE + location.length;
+			}
+		}
+		if (size > Integer.MAX_VALUE) {
+			// can't be mapped at once, keep the log as it is
+			if (current != null) {
+				current.force();
+			}
+			return;
+		}
+		List<File> obsolete = listSegments();
+		if (!live.isEmpty()) {
+			// keep the order of the log
+			Collections.sort(live, new Comparator<Location>() {
+
+				@Override
+				public int compare(Location l1, Location l2) {
+					return l1.segment != l2.segment ? Integer.compare(l1.segment, l2.segment)
+							: Integer.compare(l1.offset, l2.offset);
+				}
+			});
+			File segment = newSegment();
+			MappedByteBuffer compacted;
+			try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				compacted = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+			try {
+				for (Location location : live) {
+					ByteBuffer in = segments.get(location.segment).duplicate();
+					in.limit(location.offset + location.length);
+					in.position(location.offset - HEADER_SIZE);
+					compacted.put(in);
+				}
+				compacted.force();
+			} finally {
+				unmap(compacted);
+			}
+		}
+		unmapSegments();
+		for (File segment : obsolete) {
+			if (!segment.delete()) {
+				LOG.warn("Can't delete session segment {}", segment);
+			}
+		}
+	}
+
+	private boolean isExpired(Location location, long now) {
+		ByteBuffer in = segments.get(location.segment);
+		// times and interval follow the id
+		int position = location.offset + 4 + in.getInt(location.offset);
+		return SessionData.isExpired(in.getLong(position + 8), in.getInt(position + 16), now);
+	}
+
+	/**
+	 * Unmaps the segments right away instead of once they are garbage
+	 * collected, mapped files can't be deleted on some platforms.
+	 */
+	private void unmapSegments() {
+		for (ByteBuffer segment : segments) {
+			unmap(segment);
+		}
+		segments.clear();
+		current = null;
+	}
+
+	private static void unmap(ByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+				return;
+			}
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			//CHECKSTYLE:OFF
+		} catch (Exception e) {
+			LOG.debug("Can't unmap session segment, it is unmapped once garbage collected", e);
+		}
+		//CHECKSTYLE:ON
+	}
+
+	private Location append(byte kind, ByteBuffer body) throws IOException {
+		int length = body.remaining();
+		if (current == null || current.remaining() < HEADER_SIZE + length) {
+			roll(HEADER_SIZE + length);
+		}
+		crc.reset();
+		crc.update(body.duplicate());
+		int position = current.position();
+		current.putInt(length);
+		current.put(kind);
+		current.putInt((int) crc.getValue());
+		current.put(body);
+		return new Location(segments.size() - 1, position + HEADER_SIZE, length);
+	}
+
+	private void roll(int size) throws IOException {
+		if (current != null) {
+			current.force();
+		}
+		File segment = newSegment();
+		try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			current = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, size));
+		}
+		segments.add(current);
+	}
+
+	private File newSegment() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create session store directory " + directory);
+		}
+		return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX,
+				nextSegment++, SEGMENT_SUFFIX));
+	}
+
+	private List<File> listSegments() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new ArrayList<File>();
+		}
+		// segments are numbered with leading zeros
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	private void ensure(int size) {
+		if (record.remaining() < size) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2,
+					record.position() + size));
+			record.flip();
+			larger.put(record);
+			record = larger;
+		}
+	}
+
+	private void putString(String value) {
+		putBytes(value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void putBytes(byte[] value) {
+		ensure(4 + value.length);
+		record.putInt(value.length);
+		record.put(value);
+	}
+
+	private void putValue(Object value) throws IOException {
+		ensure(9);
+		if (value == null) {
+			record.put(NULL);
+		} else if (value instanceof String) {
+			record.put(STRING);
+			putString((String) value);
+		} else if (value instanceof Integer) {
+			record.put(INTEGER).putInt((Integer) value);
+		} else if (value instanceof Long) {
+			record.put(LONG).putLong((Long) value);
+		} else if (value instanceof Boolean) {
+			record.put(BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+		} else if (value instanceof Double) {
+			record.put(DOUBLE).putDouble((Double) value);
+		} else if (value instanceof byte[]) {
+			record.put(BYTES);
+			putBytes((byte[]) value);
+		} else {
+			record.put(OBJECT);
+			serialized.reset();
+			try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+				out.writeObject(value);
+			}
+			putBytes(serialized.toByteArray());
+		}
+	}
+
+	private static String getString(ByteBuffer in) {
+		return new String(getBytes(in), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] getBytes(ByteBuffer in) {
+		byte[] value = new byte[in.getInt()];
+		in.get(value);
+		return value;
+	}
+
+	private static Object getValue(ByteBuffer in, ClassLoader classLoader)
+			throws IOException, ClassNotFoundException {
+		byte type = in.get();
+		switch (type) {
+		case NULL:
+			return null;
+		case STRING:
+			return getString(in);
+		case INTEGER:
+			return in.getInt();
+		case LONG:
+			return in.getLong();
+		case BOOLEAN:
+			return in.get() != 0;
+		case DOUBLE:
+			return in.getDouble();
+		case BYTES:
+			return getBytes(in);
+		case OBJECT:
+			try (ObjectInputStream objectIn = new ClassLoaderObjectInputStream(
+					new ByteArrayInputStream(getBytes(in)), classLoader)) {
+				return objectIn.readObject();
+			}
+		default:
+			throw new IOException("Unknown session attribute type " + type);
+		}
+	}
+
+	/**
+	 * Position of the body of a session record.
+	 */
+	private static final class Location {
+
+		private final int segment;
+		private final int offset;
+		private final int length;
+
+		private Location(int segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+		private final ClassLoader classLoader;
+
+		ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader)
+				throws IOException {
+			super(in);
+			this.classLoader = classLoader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+				ClassNotFoundException {
+			if (classLoader != null) {
+				try {
+					return Class.forName(desc.getName(), false, classLoader);
+				} catch (ClassNotFoundException e) {
+					// primitives and classes of the framework
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SharedSessionStore} of one node on top of a {@link SessionCluster}.
+ * <p>
+ * Sessions loaded from the cluster are kept in a near cache until another
+ * node modifies them. Changes are collected per session, with only the
+ * attributes which were set or removed, and shipped to the cluster in the
+ * background every flush interval. With a flush interval of zero they are
+ * shipped as soon as a request using the session completed.
+ * <p>
+ * Attribute values are tracked when they are set: a value modified in place
+ * without setting it again is only shipped if the cluster serializes it
+ * after the modification.
+ */
+public class ReplicatedSessionStore implements SharedSessionStore {
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReplicatedSessionStore.class);
+
+	private final SessionCluster cluster;
+
+	private final long flushInterval;
+
+	private final String node = UUID.randomUUID().toString();
+
+	/**
+	 * Sessions loaded or saved on this node, guarded by this.
+	 */
+	private final Map<String, SessionData> nearCache = new HashMap<String, SessionData>();
+
+	/**
+	 * Ids of the sessions loaded or changed on this node until they are removed
+	 * or found missing in the cluster, guarded by this.
+	 */
+	private final Set<String> local = new HashSet<String>();
+
+	/**
+	 * Local sessions modified or removed by other nodes since they were last
+	 * loaded.
+	 */
+	private final Set<String> modified = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * Changes not shipped yet, guarded by this.
+	 */
+	private Map<String, SessionChanges> pending = new HashMap<String, SessionChanges>();
+
+	/**
+	 * Keeps changes of the same session shipped in order.
+	 */
+	private final Object flushLock = new Object();
+
+	private ScheduledExecutorService flusher;
+
+	private boolean listening;
+
+	private final SessionCluster.Listener listener = new SessionCluster.Listener() {
+		@Override
+		public void sessionModified(String id, String origin) {
+			if (!node.equals(origin)) {
+				synchronized (ReplicatedSessionStore.this) {
+					nearCache.remove(id);
+					if (local.contains(id)) {
+						modified.add(id);
+					}
+				}
+			}
+		}
+	};
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				flush();
+				//CHECKSTYLE:OFF
+			} catch (Exception e) {
+				LOG.warn("Problem shipping session changes", e);
+			}
+			//CHECKSTYLE:ON
+		}
+	};
+
+	public ReplicatedSessionStore(SessionCluster cluster) {
+		this(cluster, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param cluster
+	 *            cluster holding the sessions of all nodes
+	 * @param flushInterval
+	 *            milliseconds between shipping changes, 0 to ship them at the
+	 *            end of each request
+	 */
+	public ReplicatedSessionStore(SessionCluster cluster, long flushInterval) {
+		this.cluster = cluster;
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * @return id of this node in the cluster
+	 */
+	public String getNode() {
+		return node;
+	}
+
+	@Override
+	public void save(SessionData session) {
+		synchronized (this) {
+			open();
+			changes(session.getId()).replace(session);
+			nearCache.put(session.getId(), copy(session));
+		}
+	}
+
+	@Override
+	public SessionData load(String id, ClassLoader classLoader) throws IOException,
+			ClassNotFoundException {
+		boolean unshipped;
+		synchronized (this) {
+			open();
+			local.add(id);
+			modified.remove(id);
+			SessionData cached = nearCache.get(id);
+			if (cached != null) {
+				return copy(cached);
+			}
+			unshipped = pending.containsKey(id);
+		}
+		if (unshipped) {
+			flush();
+		}
+		SessionData session = cluster.load(id, classLoader);
+		synchronized (this) {
+			if (session == null) {
+				// removed elsewhere, nothing left to track for it
+				local.remove(id);
+				modified.remove(id);
+			} else if (!modified.contains(id)) {
+				nearCache.put(id, copy(session));
+			}
+		}
+		return session;
+	}
+
+	@Override
+	public void remove(String id) throws IOException {
+		synchronized (flushLock) {
+			synchronized (this) {
+				open();
+				pending.remove(id);
+				nearCache.remove(id);
+				local.remove(id);
+				modified.remove(id);
+			}
+			cluster.remove(id, node);
+		}
+	}
+
+	@Override
+	public Set<String> getSessionIds() throws IOException {
+		synchronized (this) {
+			open();
+		}
+		flush();
+		return cluster.getSessionIds();
+	}
+
+	@Override
+	public void clear() throws IOException {
+		for (String id : getSessionIds()) {
+			remove(id);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			synchronized (this) {
+				if (flusher != null) {
+					flusher.shutdown();
+					flusher = null;
+				}
+				if (listening) {
+					cluster.removeListener(listener);
+					listening = false;
+				}
+				nearCache.clear();
+				local.clear();
+				modified.clear();
+			}
+		}
+	}
+
+	@Override
+	public void attributeChanged(String id, String name, Object value) {
+		if (value == null) {
+			attributeRemoved(id, name);
+			return;
+		}
+		synchronized (this) {
+			open();
+			changes(id).attributeChanged(name, value);
+			SessionData cached = nearCache.get(id);
+			if (cached != null) {
+				cached.getAttributes().put(name, value);
+			}
+		}
+	}
+
+	@Override
+	public void attributeRemoved(String id, String name) {
+		synchronized (this) {
+			open();
+			changes(id).attributeRemoved(name);
+			SessionData cached = nearCache.get(id);
+			if (cached != null) {
+				cached.getAttributes().remove(name);
+			}
+		}
+	}
+
+	@Override
+	public void accessed(String id, long creationTime, long lastAccessedTime,
+			int maxInactiveInterval) {
+		synchronized (this) {
+			open();
+			changes(id).accessed(creationTime, lastAccessedTime, maxInactiveInterval);
+			SessionData cached = nearCache.get(id);
+			if (cached != null) {
+				nearCache.put(id, new SessionData(id, creationTime, lastAccessedTime,
+						maxInactiveInterval, cached.getAttributes()));
+			}
+		}
+		if (flushInterval <= 0) {
+			flushTask.run();
+		}
+	}
+
+	@Override
+	public void sessionIdChanged(String oldId, SessionData session) throws IOException {
+		remove(oldId);
+		save(session);
+	}
+
+	@Override
+	public boolean isModifiedElsewhere(String id) {
+		return modified.contains(id);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		synchronized (flushLock) {
+			Map<String, SessionChanges> changes;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				changes = pending;
+				pending = new HashMap<String, SessionChanges>();
+			}
+			IOException failure = null;
+			for (SessionChanges sessionChanges : changes.values()) {
+				try {
+					cluster.update(sessionChanges);
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Starts listening to the cluster and the background flush, guarded by
+	 * this.
+	 */
+	private void open() {
+		if (!listening) {
+			cluster.addListener(listener);
+			listening = true;
+		}
+		if (flushInterval > 0 && flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "pax-web-session-flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flusher.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private SessionChanges changes(String id) {
+		SessionChanges changes = pending.get(id);
+		if (changes == null) {
+			changes = new SessionChanges(id, node);
+			pending.put(id, changes);
+			local.add(id);
+		}
+		return changes;
+	}
+
+	private static SessionData copy(SessionData session) {
+		return new SessionData(session.getId(), session.getCreationTime(),
+				session.getLastAccessedTime(), session.getMaxInactiveInterval(),
+				new HashMap<String, Object>(session.getAttributes()));
+	}
+
+}
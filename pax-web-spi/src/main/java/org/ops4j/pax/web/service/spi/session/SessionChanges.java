@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes of one session collected by a node between two flushes. Only the
+ * attributes which were set or removed are shipped, not the whole session.
+ */
+public final class SessionChanges {
+
+	private final String id;
+	private final String node;
+	private boolean replace;
+	private long creationTime;
+	private long lastAccessedTime;
+	private int maxInactiveInterval;
+	private final Map<String, Object> changedAttributes = new HashMap<String, Object>();
+	private final Set<String> removedAttributes = new HashSet<String>();
+
+	/**
+	 * @param id
+	 *            session id
+	 * @param node
+	 *            node which made the changes
+	 */
+	public SessionChanges(String id, String node) {
+		this.id = id;
+		this.node = node;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	/**
+	 * @return true if the changed attributes replace all attributes of the
+	 *         session
+	 */
+	public boolean isReplace() {
+		return replace;
+	}
+
+	/**
+	 * @return creation time, 0 if unknown
+	 */
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	/**
+	 * @return last access time, 0 if the session wasn't accessed
+	 */
+	public long getLastAccessedTime() {
+		return lastAccessedTime;
+	}
+
+	/**
+	 * @return maximum inactive interval, only valid if the session was
+	 *         accessed
+	 */
+	public int getMaxInactiveInterval() {
+		return maxInactiveInterval;
+	}
+
+	public Map<String, Object> getChangedAttributes() {
+		return Collections.unmodifiableMap(changedAttributes);
+	}
+
+	public Set<String> getRemovedAttributes() {
+		return Collections.unmodifiableSet(removedAttributes);
+	}
+
+	void replace(SessionData session) {
+		replace = true;
+		changedAttributes.clear();
+		removedAttributes.clear();
+		for (Map.Entry<String, Object> attribute : session.getAttributes().entrySet()) {
+			if (attribute.getValue() != null) {
+				changedAttributes.put(attribute.getKey(), attribute.getValue());
+			}
+		}
+		accessed(session.getCreationTime(), session.getLastAccessedTime(),
+				session.getMaxInactiveInterval());
+	}
+
+	void attributeChanged(String name, Object value) {
+		removedAttributes.remove(name);
+		changedAttributes.put(name, value);
+	}
+
+	void attributeRemoved(String name) {
+		changedAttributes.remove(name);
+		if (!replace) {
+			removedAttributes.add(name);
+		}
+	}
+
+	void accessed(long creationTime, long lastAccessedTime, int maxInactiveInterval) {
+		this.creationTime = creationTime;
+		this.lastAccessedTime = lastAccessedTime;
+		this.maxInactiveInterval = maxInactiveInterval;
+	}
+
+	@Override
+	public String toString() {
+		return "SessionChanges{id=" + id + ",node=" + node + ",changed="
+				+ changedAttributes.keySet() + ",removed=" + removedAttributes + "}";
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Sessions of one context as held by all nodes together, backing a
+ * {@link ReplicatedSessionStore} on each node. Implementations adapt a data
+ * grid, a cache server or a database; {@link LocalSessionCluster} keeps the
+ * sessions in the same process.
+ */
+public interface SessionCluster {
+
+	/**
+	 * Loads a session.
+	 *
+	 * @param id
+	 *            session id
+	 * @param classLoader
+	 *            class loader for the attribute classes, may be null
+	 * @return the session, or null if the cluster doesn't hold a session with
+	 *         the id
+	 */
+	SessionData load(String id, ClassLoader classLoader) throws IOException,
+			ClassNotFoundException;
+
+	/**
+	 * Applies the changes of a session, creating the session if needed.
+	 *
+	 * @param changes
+	 *            changes made by one node
+	 */
+	void update(SessionChanges changes) throws IOException;
+
+	/**
+	 * Removes a session.
+	 *
+	 * @param id
+	 *            session id
+	 * @param node
+	 *            node removing the session
+	 */
+	void remove(String id, String node) throws IOException;
+
+	/**
+	 * @return ids of the sessions held by the cluster
+	 */
+	Set<String> getSessionIds() throws IOException;
+
+	void addListener(Listener listener);
+
+	void removeListener(Listener listener);
+
+	/**
+	 * Notified when a session is updated or removed.
+	 */
+	interface Listener {
+
+		/**
+		 * @param id
+		 *            session id
+		 * @param node
+		 *            node which updated or removed the session
+		 */
+		void sessionModified(String id, String node);
+
+	}
+
+}
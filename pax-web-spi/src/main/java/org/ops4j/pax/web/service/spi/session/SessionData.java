@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * State of a session as kept by a {@link SessionStore}, independent of the
+ * container the session belongs to.
+ */
+public final class SessionData {
+
+	private final String id;
+	private final long creationTime;
+	private final long lastAccessedTime;
+	private final int maxInactiveInterval;
+	private final Map<String, Object> attributes;
+
+	/**
+	 * @param id
+	 *            session id, without any worker name
+	 * @param creationTime
+	 *            creation time in milliseconds since the epoch
+	 * @param lastAccessedTime
+	 *            last access time in milliseconds since the epoch
+	 * @param maxInactiveInterval
+	 *            maximum inactive interval in seconds
+	 * @param attributes
+	 *            session attributes, not copied
+	 */
+	public SessionData(String id, long creationTime, long lastAccessedTime,
+			int maxInactiveInterval, Map<String, Object> attributes) {
+		this.id = id;
+		this.creationTime = creationTime;
+		this.lastAccessedTime = lastAccessedTime;
+		this.maxInactiveInterval = maxInactiveInterval;
+		this.attributes = attributes == null ? Collections.<String, Object> emptyMap()
+				: attributes;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	public long getLastAccessedTime() {
+		return lastAccessedTime;
+	}
+
+	public int getMaxInactiveInterval() {
+		return maxInactiveInterval;
+	}
+
+	public Map<String, Object> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @param now
+	 *            current time in milliseconds since the epoch
+	 * @return true if the session was inactive for longer than its maximum
+	 *         inactive interval
+	 */
+	public boolean isExpired(long now) {
+		return isExpired(lastAccessedTime, maxInactiveInterval, now);
+	}
+
+	static boolean isExpired(long lastAccessedTime, int maxInactiveInterval, long now) {
+		return maxInactiveInterval > 0
+				&& lastAccessedTime + maxInactiveInterval * 1000L < now;
+	}
+
+	@Override
+	public String toString() {
+		return "SessionData{id=" + id + ",attributes=" + attributes.keySet() + "}";
+	}
+
+}
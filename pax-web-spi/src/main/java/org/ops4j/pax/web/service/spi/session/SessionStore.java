@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Keeps the sessions of one context across restarts of the container. The
+ * sessions are saved when the context stops and restored when it starts
+ * again, either all at once or one by one on first access.
+ */
+public interface SessionStore {
+
+	/**
+	 * Saves a session, replacing any session saved with the same id.
+	 *
+	 * @param session
+	 *            session to save
+	 * @throws IOException
+	 *             if the session can't be written, for example because an
+	 *             attribute is not serializable
+	 */
+	void save(SessionData session) throws IOException;
+
+	/**
+	 * Loads a saved session.
+	 *
+	 * @param id
+	 *            session id
+	 * @param classLoader
+	 *            class loader for the attribute classes, may be null
+	 * @return the session, or null if no session is saved with the id
+	 */
+	SessionData load(String id, ClassLoader classLoader) throws IOException,
+			ClassNotFoundException;
+
+	/**
+	 * Forgets a saved session, typically once it was restored.
+	 *
+	 * @param id
+	 *            session id
+	 */
+	void remove(String id) throws IOException;
+
+	/**
+	 * @return ids of the saved sessions
+	 */
+	Set<String> getSessionIds() throws IOException;
+
+	/**
+	 * Forgets all saved sessions.
+	 */
+	void clear() throws IOException;
+
+	/**
+	 * Makes the saved sessions durable and releases resources. The store
+	 * can still be used afterwards.
+	 */
+	void close() throws IOException;
+
+}
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+/**
+ * Creates the {@link SessionStore} of each context. The web containers use a
+ * factory registered as OSGi service instead of the default store in the
+ * session store directory, for example to share sessions between nodes.
+ */
+public interface SessionStoreFactory {
+
+	/**
+	 * @param contextName
+	 *            name or path of the context
+	 * @return the store of the context
+	 */
+	SessionStore createSessionStore(String contextName);
+
+}
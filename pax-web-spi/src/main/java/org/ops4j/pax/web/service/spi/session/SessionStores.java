@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.File;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the {@link SessionStore} of a context for the web containers.
+ */
+public final class SessionStores {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SessionStores.class);
+
+	/**
+	 * Tracks the factories, opened on first use and reopened once the bundle
+	 * was restarted. Guarded by the class.
+	 */
+	private static ServiceTracker<SessionStoreFactory, SessionStoreFactory> factoryTracker;
+
+	private static BundleContext trackerContext;
+
+	private SessionStores() {
+		// utility class
+	}
+
+	/**
+	 * Creates the store of a context: by the {@link SessionStoreFactory}
+	 * service with the highest ranking if one is registered, otherwise a
+	 * {@link MappedSessionStore} in the session store directory.
+	 *
+	 * @param storeDirectory
+	 *            configured session store directory, may be null
+	 * @param contextName
+	 *            name or path of the context
+	 * @return the store, or null if sessions are not kept
+	 */
+	public static SessionStore create(String storeDirectory, String contextName) {
+		SessionStoreFactory factory = findFactory();
+		if (factory != null) {
+			SessionStore store = factory.createSessionStore(contextName);
+			if (store != null) {
+				LOG.debug("Using session store {} for context {}", store, contextName);
+				return store;
+			}
+		}
+		if (storeDirectory == null) {
+			return null;
+		}
+		return MappedSessionStore.forContext(new File(storeDirectory), contextName);
+	}
+
+	private static synchronized SessionStoreFactory findFactory() {
+		Bundle bundle = FrameworkUtil.getBundle(SessionStores.class);
+		BundleContext bundleContext = bundle == null ? null : bundle.getBundleContext();
+		if (bundleContext == null) {
+			return null;
+		}
+		if (factoryTracker == null || trackerContext != bundleContext) {
+			if (factoryTracker != null) {
+				try {
+					factoryTracker.close();
+				} catch (IllegalStateException e) {
+					LOG.debug("Session store factory tracker already closed", e);
+				}
+			}
+			factoryTracker = new ServiceTracker<SessionStoreFactory, SessionStoreFactory>(
+					bundleContext, SessionStoreFactory.class, null);
+			factoryTracker.open();
+			trackerContext = bundleContext;
+		}
+		return factoryTracker.getService();
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import java.io.IOException;
+
+/**
+ * {@link SessionStore} shared by several nodes while they are running, so a
+ * request can be served by any node instead of the one which created the
+ * session.
+ * <p>
+ * The web containers report every change of a session as it happens, and the
+ * store decides when and how to ship it. Sessions are never restored all at
+ * once, but loaded on their first access on a node, and a session a node
+ * already holds is reloaded once another node modified it.
+ */
+public interface SharedSessionStore extends SessionStore {
+
+	/**
+	 * An attribute of a session was set.
+	 *
+	 * @param id
+	 *            session id
+	 * @param name
+	 *            attribute name
+	 * @param value
+	 *            new attribute value
+	 */
+	void attributeChanged(String id, String name, Object value);
+
+	/**
+	 * An attribute of a session was removed.
+	 *
+	 * @param id
+	 *            session id
+	 * @param name
+	 *            attribute name
+	 */
+	void attributeRemoved(String id, String name);
+
+	/**
+	 * A request using a session completed.
+	 *
+	 * @param id
+	 *            session id
+	 * @param creationTime
+	 *            creation time in milliseconds since the epoch
+	 * @param lastAccessedTime
+	 *            last access time in milliseconds since the epoch
+	 * @param maxInactiveInterval
+	 *            maximum inactive interval in seconds
+	 */
+	void accessed(String id, long creationTime, long lastAccessedTime,
+			int maxInactiveInterval);
+
+	/**
+	 * The id of a session was changed, for example on login.
+	 *
+	 * @param oldId
+	 *            previous session id
+	 * @param session
+	 *            the session with its new id
+	 */
+	void sessionIdChanged(String oldId, SessionData session) throws IOException;
+
+	/**
+	 * @param id
+	 *            session id
+	 * @return true if another node modified or removed the session since it
+	 *         was last loaded on this node
+	 */
+	boolean isModifiedElsewhere(String id);
+
+	/**
+	 * Ships all changes reported so far.
+	 */
+	void flush() throws IOException;
+
+}
@@ -0,0 +1,4 @@
+@Version("6.0.0")
+package org.ops4j.pax.web.service.spi.session;
+
+import org.osgi.annotation.versioning.Version;
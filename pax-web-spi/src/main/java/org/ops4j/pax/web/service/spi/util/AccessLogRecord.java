@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+/**
+ * One request of the access log, as handed from a request thread to the
+ * {@link AccessLogWriter}. Records are slots of the ring buffer of the writer
+ * and are reused: they only hold references to values the container computed
+ * anyway, and are formatted by the writer thread.
+ */
+public final class AccessLogRecord {
+
+	/**
+	 * Sequence the record was claimed for, written by the claiming thread.
+	 */
+	long sequence = -1L;
+	/**
+	 * Sequence the record was published for, the record may be read by the
+	 * writer thread once it equals {@link #sequence}.
+	 */
+	volatile long published = -1L;
+
+	private long timestamp;
+	private long latency;
+	private String serverName;
+	private String remoteAddress;
+	private String user;
+	private String method;
+	private String uri;
+	private String query;
+	private String protocol;
+	private int status;
+	private long bytes;
+	private String referer;
+	private String userAgent;
+	private String cookies;
+
+	AccessLogRecord() {
+	}
+
+	void clear() {
+		timestamp = 0L;
+		latency = -1L;
+		serverName = null;
+		remoteAddress = null;
+		user = null;
+		method = null;
+		uri = null;
+		query = null;
+		protocol = null;
+		status = 0;
+		bytes = -1L;
+		referer = null;
+		userAgent = null;
+		cookies = null;
+	}
+
+	/**
+	 * @param timestamp
+	 *            time the request was received, in milliseconds since the
+	 *            epoch
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @param latency
+	 *            time spent handling the request in milliseconds, negative if
+	 *            unknown
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void setServerName(String serverName) {
+		this.serverName = serverName;
+	}
+
+	public void setRemoteAddress(String remoteAddress) {
+		this.remoteAddress = remoteAddress;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public void setMethod(String method) {
+		this.method = method;
+	}
+
+	/**
+	 * @param uri
+	 *            request URI without the query string
+	 */
+	public void setUri(String uri) {
+		this.uri = uri;
+	}
+
+	/**
+	 * @param query
+	 *            query string, null or empty if there is none
+	 */
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	public void setProtocol(String protocol) {
+		this.protocol = protocol;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/**
+	 * @param bytes
+	 *            number of bytes of the response body, negative if unknown
+	 */
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public void setReferer(String referer) {
+		this.referer = referer;
+	}
+
+	public void setUserAgent(String userAgent) {
+		this.userAgent = userAgent;
+	}
+
+	/**
+	 * @param cookies
+	 *            value of the Cookie request header
+	 */
+	public void setCookies(String cookies) {
+		this.cookies = cookies;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getLatency() {
+		return latency;
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public String getReferer() {
+		return referer;
+	}
+
+	public String getUserAgent() {
+		return userAgent;
+	}
+
+	public String getCookies() {
+		return cookies;
+	}
+
+}
@@ -0,0 +1,688 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.ops4j.pax.web.service.WebContainerConstants;
+import org.ops4j.pax.web.service.spi.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log shared by all containers. Request threads claim an
+ * {@link AccessLogRecord} from a lock-free ring buffer, fill it with values
+ * the container already computed and publish it:
+ *
+ * <pre>
+ * AccessLogRecord record = writer.claim();
+ * if (record != null) {
+ *     try {
+ *         record.setMethod(request.getMethod());
+ *         ...
+ *     } finally {
+ *         writer.publish(record);
+ *     }
+ * }
+ * </pre>
+ *
+ * A single background thread formats the published records in batches,
+ * either as NCSA lines or as JSON objects, and writes them through a reused
+ * buffer. If the file name contains {@value #DATE_TOKEN} the file is rolled
+ * over daily and files older than the retained days are deleted. A full ring
+ * buffer is handled according to the configured {@link OverflowPolicy}.
+ */
+public class AccessLogWriter {
+
+	/**
+	 * What to do when the ring buffer is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The request thread waits for the writer to make room.
+		 */
+		BLOCK,
+		/**
+		 * The record is dropped.
+		 */
+		DROP;
+
+		/**
+		 * Parses a policy name, case insensitive.
+		 *
+		 * @param value
+		 *            policy name, may be null
+		 * @param defaultPolicy
+		 *            returned if value is null or unknown
+		 * @return the policy
+		 */
+		public static OverflowPolicy parse(String value, OverflowPolicy defaultPolicy) {
+			if (value != null) {
+				for (OverflowPolicy policy : values()) {
+					if (policy.name().equalsIgnoreCase(value.trim())) {
+						return policy;
+					}
+				}
+				LOG.warn("Unknown access log overflow policy {}, using {}", value, defaultPolicy);
+			}
+			return defaultPolicy;
+		}
+	}
+
+	/**
+	 * Placeholder for the date in rolled over file names.
+	 */
+	public static final String DATE_TOKEN = "yyyy_mm_dd";
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final Logger LOG = LoggerFactory.getLogger(AccessLogWriter.class);
+
+	/**
+	 * Maximum number of records formatted before they are written.
+	 */
+	private static final int BATCH = 512;
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+
+	private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+
+	private static final long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(10L);
+
+	private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+
+	private final File directory;
+	private final String fileName;
+	private final AccessLogRecord[] ring;
+	private final int mask;
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Next sequence to claim.
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+	/**
+	 * Next sequence to format, slots of lower sequences may be claimed again.
+	 */
+	private final AtomicLong consumed = new AtomicLong();
+	private final AtomicLong droppedRecords = new AtomicLong();
+
+	private int retainDays = 31;
+	private boolean append = true;
+	private boolean extended;
+	private boolean json;
+	private boolean logLatency;
+	private boolean logCookies;
+	private boolean logServer;
+	private TimeZone timeZone = TimeZone.getTimeZone("GMT");
+	private String fileDatePattern = "yyyy_MM_dd";
+
+	private volatile boolean running;
+	private Thread thread;
+
+	// state of the writer thread
+	private final StringBuilder text = new StringBuilder(BATCH * 128);
+	private char[] chars = new char[BATCH * 128];
+	private CharBuffer charBuffer = CharBuffer.wrap(chars);
+	private final ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final Date date = new Date();
+	private SimpleDateFormat fileDateFormat;
+	private SimpleDateFormat logDateFormat;
+	private long cachedSecond = Long.MIN_VALUE;
+	private String cachedDate;
+	private FileChannel channel;
+	private File file;
+	private long nextRollover;
+	private boolean failing;
+
+	/**
+	 * @param fileName
+	 *            log file name, may contain {@value #DATE_TOKEN} to roll
+	 *            over daily
+	 * @param capacity
+	 *            number of records buffered, rounded up to a power of two
+	 * @param overflowPolicy
+	 *            what to do when the buffer is full
+	 */
+	public AccessLogWriter(String fileName, int capacity, OverflowPolicy overflowPolicy) {
+		File path = new File(fileName).getAbsoluteFile();
+		this.directory = path.getParentFile();
+		this.fileName = path.getName();
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.ring = new AccessLogRecord[size];
+		for (int i = 0; i < size; i++) {
+			ring[i] = new AccessLogRecord();
+		}
+		this.mask = size - 1;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Creates a writer configured by the
+	 * {@link WebContainerConstants#PROPERTY_LOG_NCSA_ENABLED NCSA log}
+	 * properties.
+	 *
+	 * @param configuration
+	 *            configuration of the container
+	 * @return the writer, not yet started
+	 */
+	public static AccessLogWriter create(Configuration configuration) {
+		return create(configuration, configuration.getLogNCSAFormat());
+	}
+
+	/**
+	 * Creates a writer configured like {@link #create(Configuration)}, but
+	 * writing to files of the given name.
+	 *
+	 * @param configuration
+	 *            configuration of the container
+	 * @param format
+	 *            name of the log files in the configured directory, may
+	 *            contain {@value #DATE_TOKEN}
+	 * @return the writer, not yet started
+	 */
+	public static AccessLogWriter create(Configuration configuration, String format) {
+		String directory = configuration.getLogNCSADirectory();
+		if (directory == null || directory.isEmpty()) {
+			directory = "./logs/";
+		}
+		if (format == null || format.isEmpty()) {
+			format = DATE_TOKEN + ".request.log";
+		}
+		Integer capacity = configuration.getLogNCSABuffer();
+		AccessLogWriter writer = new AccessLogWriter(new File(directory, format).getPath(),
+				capacity != null ? capacity : DEFAULT_CAPACITY,
+				OverflowPolicy.parse(configuration.getLogNCSAOverflow(), OverflowPolicy.BLOCK));
+		String retainDays = configuration.getLogNCSARetainDays();
+		if (retainDays != null) {
+			try {
+				writer.setRetainDays(Integer.parseInt(retainDays.trim()));
+			} catch (NumberFormatException nfe) {
+				LOG.warn("Invalid access log retain days {}, using {}", retainDays, writer.retainDays);
+			}
+		}
+		writer.setAppend(!Boolean.FALSE.equals(configuration.isLogNCSAAppend()));
+		writer.setExtended(Boolean.TRUE.equals(configuration.isLogNCSAExtended()));
+		writer.setJson(Boolean.TRUE.equals(configuration.isLogNCSAJson()));
+		writer.setLogLatency(Boolean.TRUE.equals(configuration.isLogNCSALatency()));
+		writer.setLogCookies(Boolean.TRUE.equals(configuration.isLogNCSACookies()));
+		writer.setLogServer(Boolean.TRUE.equals(configuration.isLogNCSAServer()));
+		writer.setTimeZone(configuration.getLogNCSATimeZone());
+		LOG.info("Access log is written to {}", writer.directory);
+		return writer;
+	}
+
+	public void setRetainDays(int retainDays) {
+		this.retainDays = retainDays;
+	}
+
+	public void setAppend(boolean append) {
+		this.append = append;
+	}
+
+	/**
+	 * @param extended
+	 *            log the referer and user agent as well
+	 */
+	public void setExtended(boolean extended) {
+		this.extended = extended;
+	}
+
+	/**
+	 * @param json
+	 *            write one JSON object per line instead of NCSA lines
+	 */
+	public void setJson(boolean json) {
+		this.json = json;
+	}
+
+	public void setLogLatency(boolean logLatency) {
+		this.logLatency = logLatency;
+	}
+
+	public void setLogCookies(boolean logCookies) {
+		this.logCookies = logCookies;
+	}
+
+	public void setLogServer(boolean logServer) {
+		this.logServer = logServer;
+	}
+
+	/**
+	 * @param fileDatePattern
+	 *            {@link SimpleDateFormat} pattern of the date replacing
+	 *            {@value #DATE_TOKEN} in the file name, as long as the token
+	 */
+	public void setFileDatePattern(String fileDatePattern) {
+		this.fileDatePattern = fileDatePattern;
+	}
+
+	public void setTimeZone(String timeZone) {
+		if (timeZone != null && !timeZone.isEmpty()) {
+			this.timeZone = TimeZone.getTimeZone(timeZone);
+		}
+	}
+
+	public boolean isLogLatency() {
+		return logLatency;
+	}
+
+	public boolean isLogCookies() {
+		return logCookies;
+	}
+
+	public boolean isLogServer() {
+		return logServer;
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	/**
+	 * @return number of records dropped because the buffer was full
+	 */
+	public long getDroppedRecords() {
+		return droppedRecords.get();
+	}
+
+	public synchronized boolean isStarted() {
+		return thread != null;
+	}
+
+	/**
+	 * Starts the writer thread, configuration changes afterwards are not
+	 * guaranteed to be seen.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		fileDateFormat = new SimpleDateFormat(fileDatePattern, Locale.US);
+		fileDateFormat.setTimeZone(timeZone);
+		logDateFormat = new SimpleDateFormat(json ? "yyyy-MM-dd'T'HH:mm:ssXXX"
+				: "dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+		logDateFormat.setTimeZone(timeZone);
+		running = true;
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					drain();
+				} finally {
+					closeChannel();
+				}
+			}
+		}, "pax-web-access-log: " + fileName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the writer thread once the published records are written.
+	 */
+	public synchronized void stop() {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(STOP_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Claims the next record of the buffer. The record must be published
+	 * afterwards, even if filling it fails.
+	 *
+	 * @return the record to fill, or null if the record is dropped
+	 */
+	public AccessLogRecord claim() {
+		long sequence;
+		while (true) {
+			sequence = claimed.get();
+			if (sequence - consumed.get() >= ring.length) {
+				if (overflowPolicy == OverflowPolicy.DROP || !running
+						|| Thread.currentThread().isInterrupted()) {
+					dropped();
+					return null;
+				}
+				LockSupport.parkNanos(FULL_PARK_NANOS);
+			} else if (claimed.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+		}
+		AccessLogRecord record = ring[(int) sequence & mask];
+		record.clear();
+		record.sequence = sequence;
+		return record;
+	}
+
+	/**
+	 * Hands a claimed record over to the writer thread.
+	 *
+	 * @param record
+	 *            record returned by {@link #claim()}
+	 */
+	public void publish(AccessLogRecord record) {
+		record.published = record.sequence;
+	}
+
+	private void dropped() {
+		long count = droppedRecords.incrementAndGet();
+		if (Long.bitCount(count) == 1) {
+			LOG.warn("Access log buffer is full, {} records dropped so far", count);
+		}
+	}
+
+	private void drain() {
+		long next = consumed.get();
+		while (running || ring[(int) next & mask].published == next) {
+			text.setLength(0);
+			int count = 0;
+			while (count < BATCH) {
+				AccessLogRecord record = ring[(int) next & mask];
+				if (record.published != next) {
+					break;
+				}
+				if (json) {
+					formatJson(record);
+				} else {
+					formatNcsa(record);
+				}
+				next++;
+				count++;
+			}
+			if (count == 0) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				continue;
+			}
+			// the batch holds copies of the records, so they can be reused
+			consumed.lazySet(next);
+			write();
+		}
+	}
+
+	private void formatNcsa(AccessLogRecord record) {
+		if (logServer) {
+			appendOrDash(record.getServerName()).append(' ');
+		}
+		appendOrDash(record.getRemoteAddress()).append(" - ");
+		appendOrDash(record.getUser()).append(" [");
+		text.append(getLogDate(record.getTimestamp())).append("] \"");
+		appendRequestLine(record).append("\" ").append(record.getStatus()).append(' ');
+		if (record.getBytes() >= 0) {
+			text.append(record.getBytes());
+		} else {
+			text.append('-');
+		}
+		if (extended) {
+			text.append(" \"");
+			appendOrDash(record.getReferer()).append("\" \"");
+			appendOrDash(record.getUserAgent()).append('"');
+		}
+		if (logCookies) {
+			text.append(" \"");
+			appendOrDash(record.getCookies()).append('"');
+		}
+		if (logLatency && record.getLatency() >= 0) {
+			text.append(' ').append(record.getLatency());
+		}
+		text.append('\n');
+	}
+
+	private void formatJson(AccessLogRecord record) {
+		text.append("{\"time\":\"").append(getLogDate(record.getTimestamp())).append('"');
+		if (logServer) {
+			appendJson("server", record.getServerName());
+		}
+		appendJson("remote", record.getRemoteAddress());
+		appendJson("user", record.getUser());
+		appendJson("method", record.getMethod());
+		text.append(",\"uri\":\"");
+		appendEscaped(record.getUri());
+		if (record.getQuery() != null && !record.getQuery().isEmpty()) {
+			text.append('?');
+			appendEscaped(record.getQuery());
+		}
+		text.append('"');
+		appendJson("protocol", record.getProtocol());
+		text.append(",\"status\":").append(record.getStatus());
+		if (record.getBytes() >= 0) {
+			text.append(",\"bytes\":").append(record.getBytes());
+		}
+		if (extended) {
+			appendJson("referer", record.getReferer());
+			appendJson("userAgent", record.getUserAgent());
+		}
+		if (logCookies) {
+			appendJson("cookies", record.getCookies());
+		}
+		if (logLatency && record.getLatency() >= 0) {
+			text.append(",\"latency\":").append(record.getLatency());
+		}
+		text.append("}\n");
+	}
+
+	private StringBuilder appendRequestLine(AccessLogRecord record) {
+		appendOrDash(record.getMethod()).append(' ');
+		appendOrDash(record.getUri());
+		if (record.getQuery() != null && !record.getQuery().isEmpty()) {
+			text.append('?').append(record.getQuery());
+		}
+		return text.append(' ').append(record.getProtocol() == null ? "-" : record.getProtocol());
+	}
+
+	private StringBuilder appendOrDash(String value) {
+		return text.append(value == null || value.isEmpty() ? "-" : value);
+	}
+
+	private void appendJson(String name, String value) {
+		if (value != null) {
+			text.append(",\"").append(name).append("\":\"");
+			appendEscaped(value);
+			text.append('"');
+		}
+	}
+
+	private void appendEscaped(String value) {
+		if (value == null) {
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				text.append("\\\"");
+				break;
+			case '\\':
+				text.append("\\\\");
+				break;
+			case '\n':
+				text.append("\\n");
+				break;
+			case '\r':
+				text.append("\\r");
+				break;
+			case '\t':
+				text.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					text.append("\\u00").append(Character.forDigit(c >> 4, 16))
+							.append(Character.forDigit(c & 0xF, 16));
+				} else {
+					text.append(c);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Formats the time of a record, the formatted second is cached as
+	 * records mostly arrive in order.
+	 */
+	private String getLogDate(long timestamp) {
+		long second = timestamp / 1000L;
+		if (second != cachedSecond) {
+			date.setTime(timestamp);
+			cachedDate = logDateFormat.format(date);
+			cachedSecond = second;
+		}
+		return cachedDate;
+	}
+
+	private void write() {
+		long now = System.currentTimeMillis();
+		try {
+			if (channel == null || now >= nextRollover) {
+				roll(now);
+			}
+			int length = text.length();
+			if (chars.length < length) {
+				chars = new char[Math.max(length, chars.length * 2)];
+				charBuffer = CharBuffer.wrap(chars);
+			}
+			text.getChars(0, length, chars, 0);
+			charBuffer.clear();
+			charBuffer.limit(length);
+			encoder.reset();
+			while (encoder.encode(charBuffer, bytes, true).isOverflow()) {
+				flushBytes();
+			}
+			CoderResult result;
+			do {
+				result = encoder.flush(bytes);
+				flushBytes();
+			} while (result.isOverflow());
+			failing = false;
+		} catch (IOException e) {
+			bytes.clear();
+			closeChannel();
+			if (!failing) {
+				LOG.warn("Can't write access log " + file, e);
+				failing = true;
+			}
+		}
+	}
+
+	private void flushBytes() throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	private void roll(long now) throws IOException {
+		closeChannel();
+		File previous = file;
+		file = new File(directory, getFileName(now));
+		boolean rolling = fileName.contains(DATE_TOKEN);
+		nextRollover = rolling ? getNextRollover(now) : Long.MAX_VALUE;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create access log directory " + directory);
+		}
+		// a file is only truncated when first opened, not when reopened
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, append || file.equals(previous)
+						? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+		if (rolling && retainDays > 0) {
+			deleteExpired(now);
+		}
+	}
+
+	/**
+	 * @return the name of the file written at the given time
+	 */
+	String getFileName(long time) {
+		int index = fileName.indexOf(DATE_TOKEN);
+		if (index < 0) {
+			return fileName;
+		}
+		date.setTime(time);
+		return fileName.substring(0, index) + fileDateFormat.format(date)
+				+ fileName.substring(index + DATE_TOKEN.length());
+	}
+
+	private long getNextRollover(long now) {
+		Calendar calendar = Calendar.getInstance(timeZone, Locale.US);
+		calendar.setTimeInMillis(now);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTimeInMillis();
+	}
+
+	private void deleteExpired(long now) {
+		int index = fileName.indexOf(DATE_TOKEN);
+		String prefix = fileName.substring(0, index);
+		String suffix = fileName.substring(index + DATE_TOKEN.length());
+		long expiry = now - retainDays * DAY;
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File logFile : files) {
+			String name = logFile.getName();
+			if (name.length() == fileName.length() && name.startsWith(prefix)
+					&& name.endsWith(suffix) && !logFile.equals(file)
+					&& logFile.lastModified() < expiry && !logFile.delete()) {
+				LOG.debug("Can't delete expired access log {}", logFile);
+			}
+		}
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.debug("Can't close access log " + file, e);
+			}
+			channel = null;
+		}
+	}
+
+}
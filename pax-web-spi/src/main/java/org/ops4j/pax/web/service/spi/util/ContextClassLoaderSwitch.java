@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+/**
+ * Switches the context class loader of the current thread without allocating,
+ * for code that runs on every request. Unlike
+ * {@code ContextClassLoaderUtils.doWithClassLoader} no callable has to be
+ * created and no checked exceptions are wrapped, the caller keeps its own
+ * try/finally block:
+ * 
+ * <pre>
+ * ClassLoader previous = ContextClassLoaderSwitch.switchTo(classLoader);
+ * try {
+ * 	servlet.service(request, response);
+ * } finally {
+ * 	ContextClassLoaderSwitch.restore(previous);
+ * }
+ * </pre>
+ */
+public final class ContextClassLoaderSwitch {
+
+	private ContextClassLoaderSwitch() {
+		// utility class
+	}
+
+	/**
+	 * Sets the context class loader of the current thread, unless it is
+	 * already set.
+	 * 
+	 * @param classLoader
+	 *            class loader to use
+	 * @return the previous context class loader, to be passed to
+	 *         {@link #restore(ClassLoader)}
+	 */
+	public static ClassLoader switchTo(final ClassLoader classLoader) {
+		final Thread thread = Thread.currentThread();
+		final ClassLoader previous = thread.getContextClassLoader();
+		if (previous != classLoader) {
+			thread.setContextClassLoader(classLoader);
+		}
+		return previous;
+	}
+
+	/**
+	 * Restores the context class loader of the current thread.
+	 * 
+	 * @param previous
+	 *            class loader returned by {@link #switchTo(ClassLoader)}
+	 */
+	public static void restore(final ClassLoader previous) {
+		final Thread thread = Thread.currentThread();
+		if (thread.getContextClassLoader() != previous) {
+			thread.setContextClassLoader(previous);
+		}
+	}
+
+}
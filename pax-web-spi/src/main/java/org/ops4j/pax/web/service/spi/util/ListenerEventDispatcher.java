@@ -0,0 +1,413 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ops4j.pax.web.service.WebContainerConstants;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers events to listeners through one bounded queue per listener.
+ * Events are delivered to each listener in the order they were dispatched,
+ * while different listeners are served in parallel by a shared pool. A full
+ * queue is handled according to the configured {@link OverflowPolicy}.
+ *
+ * @param <L>
+ *            listener type
+ * @param <E>
+ *            event type
+ */
+public class ListenerEventDispatcher<L, E> {
+
+	/**
+	 * What to do when the queue of a listener is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Block the dispatching thread until there is room, giving up after
+		 * the block timeout.
+		 */
+		BLOCK,
+		/**
+		 * Drop the event being dispatched.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Drop the oldest queued event to make room.
+		 */
+		DROP_OLDEST;
+
+		/**
+		 * Parses a policy name, case insensitive.
+		 *
+		 * @param value
+		 *            policy name, may be null
+		 * @param defaultPolicy
+		 *            returned if value is null or unknown
+		 * @return the policy
+		 */
+		public static OverflowPolicy parse(String value, OverflowPolicy defaultPolicy) {
+			if (value != null) {
+				for (OverflowPolicy policy : values()) {
+					if (policy.name().equalsIgnoreCase(value.trim())) {
+						return policy;
+					}
+				}
+				LOG.warn("Unknown overflow policy {}, using {}", value, defaultPolicy);
+			}
+			return defaultPolicy;
+		}
+	}
+
+	/**
+	 * Callback doing the actual delivery of an event to a listener.
+	 */
+	public interface Delivery<L, E> {
+
+		void deliver(L listener, E event) throws Exception;
+
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(ListenerEventDispatcher.class);
+
+	/**
+	 * Maximum number of events a listener gets in one go before its drain
+	 * task yields the thread to other listeners.
+	 */
+	private static final int DRAIN_BATCH = 64;
+
+	private static final long BLOCK_TIMEOUT_SECONDS = 60L;
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private final String name;
+	private final ExecutorService executor;
+	private final Delivery<L, E> delivery;
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final Map<L, ListenerQueue> queues = new ConcurrentHashMap<L, ListenerQueue>();
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private final AtomicLong deliveredEvents = new AtomicLong();
+
+	public ListenerEventDispatcher(final String name, int threads, int capacity,
+			OverflowPolicy overflowPolicy, Delivery<L, E> delivery) {
+		this.name = name;
+		this.delivery = delivery;
+		this.capacity = Math.max(1, capacity);
+		this.overflowPolicy = overflowPolicy;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setName(name + ": " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Creates a dispatcher configured by the
+	 * {@link WebContainerConstants#PROPERTY_EVENT_QUEUE_CAPACITY} and
+	 * {@link WebContainerConstants#PROPERTY_EVENT_QUEUE_OVERFLOW} framework
+	 * properties.
+	 */
+	public static <L, E> ListenerEventDispatcher<L, E> create(BundleContext bundleContext,
+			String name, int threads, Delivery<L, E> delivery) {
+		int capacity = DEFAULT_CAPACITY;
+		String configuredCapacity = bundleContext
+				.getProperty(WebContainerConstants.PROPERTY_EVENT_QUEUE_CAPACITY);
+		if (configuredCapacity != null) {
+			try {
+				capacity = Integer.parseInt(configuredCapacity.trim());
+			} catch (NumberFormatException nfe) {
+				LOG.warn("Invalid event queue capacity {}, using {}", configuredCapacity, capacity);
+			}
+		}
+		OverflowPolicy policy = OverflowPolicy.parse(
+				bundleContext.getProperty(WebContainerConstants.PROPERTY_EVENT_QUEUE_OVERFLOW),
+				OverflowPolicy.BLOCK);
+		return new ListenerEventDispatcher<L, E>(name, threads, capacity, policy, delivery);
+	}
+
+	/**
+	 * Adds a listener. The initial events are delivered to the listener
+	 * before any event dispatched afterwards, provided the caller does not
+	 * dispatch concurrently. They are iterated lazily on the dispatcher
+	 * threads, do not count against the queue capacity and must therefore
+	 * not be modified afterwards.
+	 *
+	 * @param listener
+	 *            listener to add
+	 * @param initialEvents
+	 *            events to replay to the listener, may be null
+	 */
+	public void addListener(L listener, Collection<? extends E> initialEvents) {
+		ListenerQueue queue = new ListenerQueue(listener,
+				initialEvents != null && !initialEvents.isEmpty() ? initialEvents.iterator() : null);
+		queues.put(listener, queue);
+		queue.schedule();
+	}
+
+	public void removeListener(L listener) {
+		queues.remove(listener);
+	}
+
+	/**
+	 * Queues the event for all current listeners.
+	 *
+	 * @param event
+	 *            event to dispatch
+	 */
+	public void dispatch(E event) {
+		recipients().dispatch(event);
+	}
+
+	/**
+	 * Takes the current listeners. Queueing an event may block, so callers
+	 * that add listeners under a lock can decide who gets an event while
+	 * holding it and queue the event after releasing it.
+	 *
+	 * @return the listeners an event dispatched now goes to
+	 */
+	public Recipients recipients() {
+		return new Recipients(new ArrayList<ListenerQueue>(queues.values()));
+	}
+
+	/**
+	 * @return number of events queued and not yet delivered, over all
+	 *         listeners, not counting pending replays
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (ListenerQueue queue : queues.values()) {
+			depth += queue.events.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @return number of events dropped because a listener queue was full
+	 */
+	public long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	/**
+	 * @return number of events delivered to listeners
+	 */
+	public long getDeliveredEvents() {
+		return deliveredEvents.get();
+	}
+
+	/**
+	 * Stops accepting events and waits for queued events to be delivered. The
+	 * delivered and dropped events are logged, as a warning if events were
+	 * dropped.
+	 *
+	 * @param timeout
+	 *            maximum time to wait, in seconds
+	 */
+	public void destroy(long timeout) {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(timeout, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		queues.clear();
+		if (droppedEvents.get() > 0) {
+			LOG.warn("{} delivered {} events and dropped {}, {} still queued", name,
+					deliveredEvents.get(), droppedEvents.get(), getQueueDepth());
+		} else {
+			LOG.debug("{} delivered {} events", name, deliveredEvents.get());
+		}
+	}
+
+	/**
+	 * Listeners taken by {@link ListenerEventDispatcher#recipients()}.
+	 */
+	public final class Recipients {
+
+		private final List<ListenerQueue> targets;
+
+		private Recipients(List<ListenerQueue> targets) {
+			this.targets = targets;
+		}
+
+		/**
+		 * Queues the event for the listeners which were not removed meanwhile.
+		 *
+		 * @param event
+		 *            event to dispatch
+		 */
+		public void dispatch(E event) {
+			for (ListenerQueue queue : targets) {
+				if (queues.get(queue.listener) == queue) {
+					queue.offer(event);
+				}
+			}
+		}
+	}
+
+	private final class ListenerQueue implements Runnable {
+
+		private final L listener;
+		private final BlockingQueue<E> events;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		/**
+		 * Events dropped since the listener last caught up.
+		 */
+		private final AtomicLong dropped = new AtomicLong();
+		/**
+		 * Initial events still to be replayed, only advanced by the drain
+		 * task.
+		 */
+		private volatile Iterator<? extends E> replay;
+
+		private ListenerQueue(L listener, Iterator<? extends E> replay) {
+			this.listener = listener;
+			this.events = new ArrayBlockingQueue<E>(capacity);
+			this.replay = replay;
+		}
+
+		private void offer(E event) {
+			if (!events.offer(event)) {
+				switch (overflowPolicy) {
+				case DROP_OLDEST:
+					while (!events.offer(event)) {
+						E oldest = events.poll();
+						if (oldest != null) {
+							dropped(oldest);
+						}
+					}
+					break;
+				case DROP_NEWEST:
+					dropped(event);
+					break;
+				case BLOCK:
+				default:
+					try {
+						if (!events.offer(event, BLOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+							dropped(event);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						dropped(event);
+					}
+					break;
+				}
+			}
+			schedule();
+		}
+
+		private void dropped(E event) {
+			long count = droppedEvents.incrementAndGet();
+			if (dropped.getAndIncrement() == 0) {
+				LOG.warn("Queue of listener {} is full with {} events, dropped {}, {} events dropped so far",
+						listener, capacity, event, count);
+			} else {
+				LOG.debug("Queue of listener {} is full, dropped {}", listener, event);
+			}
+		}
+
+		/**
+		 * Logs how many events the listener missed, once its queue is empty.
+		 */
+		private void caughtUp() {
+			long count = dropped.getAndSet(0);
+			if (count > 0) {
+				LOG.warn("Listener {} caught up, {} events were dropped while its queue was full",
+						listener, count);
+			}
+		}
+
+		private void schedule() {
+			if ((replay != null || !events.isEmpty())
+					&& scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException ree) {
+					LOG.warn("Executor shut down", ree);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < DRAIN_BATCH; i++) {
+					E event = null;
+					Iterator<? extends E> pendingReplay = replay;
+					if (pendingReplay != null) {
+						if (pendingReplay.hasNext()) {
+							event = pendingReplay.next();
+						} else {
+							replay = null;
+						}
+					}
+					if (event == null) {
+						event = events.poll();
+					}
+					if (event == null) {
+						caughtUp();
+						break;
+					}
+					try {
+						delivery.deliver(listener, event);
+						deliveredEvents.incrementAndGet();
+						//CHECKSTYLE:OFF
+					} catch (Exception e) {
+						LOG.warn("Listener caused an exception, will be ignored", e);
+						queues.remove(listener);
+						replay = null;
+						events.clear();
+						return;
+					}
+					//CHECKSTYLE:ON
+				}
+			} finally {
+				scheduled.set(false);
+			}
+			// events may have arrived while draining or the batch was cut
+			if (queues.get(listener) == this) {
+				schedule();
+			}
+		}
+	}
+
+}
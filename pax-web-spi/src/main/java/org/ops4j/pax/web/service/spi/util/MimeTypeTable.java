@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable table of MIME types by file extension. Lookups only extract the
+ * extension of the name and consult a precomputed map, without regular
+ * expressions or opening connections.
+ * <p>
+ * The {@link #getDefault() default table} is shared by all web containers, so
+ * resources get the same content type whichever container serves them.
+ * Tables of contexts are built on top of another table once, when the
+ * context is created.
+ */
+public final class MimeTypeTable {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(MimeTypeTable.class);
+
+	private static final String DEFAULT_MAPPINGS = "mime.properties";
+
+	private static final MimeTypeTable DEFAULT = new MimeTypeTable(
+			loadDefaultMappings(), null);
+
+	/**
+	 * MIME types by extension, extensions as configured and in lower case.
+	 */
+	private final Map<String, String> mimeTypes;
+
+	/**
+	 * @param mappings
+	 *            MIME types by extension, without leading dot
+	 * @param parent
+	 *            table whose mappings are inherited unless overridden, may be
+	 *            null
+	 */
+	public MimeTypeTable(Map<String, String> mappings, MimeTypeTable parent) {
+		Map<String, String> types = new HashMap<String, String>();
+		if (parent != null) {
+			types.putAll(parent.mimeTypes);
+		}
+		for (Map.Entry<String, String> mapping : mappings.entrySet()) {
+			String extension = mapping.getKey();
+			if (extension == null || mapping.getValue() == null) {
+				continue;
+			}
+			if (extension.startsWith(".")) {
+				extension = extension.substring(1);
+			}
+			types.put(extension, mapping.getValue());
+			types.put(extension.toLowerCase(Locale.ENGLISH), mapping.getValue());
+		}
+		mimeTypes = Collections.unmodifiableMap(types);
+	}
+
+	/**
+	 * @return the table of well known MIME types shared by all containers
+	 */
+	public static MimeTypeTable getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param name
+	 *            file name or path
+	 * @return the MIME type of the extension of the name, or null if the name
+	 *         has no extension or the extension is unknown
+	 */
+	public String getMimeType(String name) {
+		String extension = getExtension(name);
+		if (extension == null) {
+			return null;
+		}
+		String mimeType = mimeTypes.get(extension);
+		if (mimeType == null) {
+			mimeType = mimeTypes.get(extension.toLowerCase(Locale.ENGLISH));
+		}
+		return mimeType;
+	}
+
+	/**
+	 * @return the mappings of the table, by extension
+	 */
+	public Map<String, String> getMappings() {
+		return mimeTypes;
+	}
+
+	/**
+	 * @param name
+	 *            file name or path
+	 * @return the part of the last path segment after its last dot, or null
+	 *         if there is none
+	 */
+	static String getExtension(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (int i = name.length() - 1; i >= 0; i--) {
+			char c = name.charAt(i);
+			if (c == '.') {
+				return i == name.length() - 1 ? null : name.substring(i + 1);
+			}
+			if (c == '/') {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static Map<String, String> loadDefaultMappings() {
+		Map<String, String> mappings = new HashMap<String, String>();
+		Properties properties = new Properties();
+		try (InputStream in = MimeTypeTable.class
+				.getResourceAsStream(DEFAULT_MAPPINGS)) {
+			if (in != null) {
+				properties.load(in);
+			} else {
+				LOG.warn("Default MIME types {} not found", DEFAULT_MAPPINGS);
+			}
+		} catch (IOException e) {
+			LOG.warn("Can't read default MIME types " + DEFAULT_MAPPINGS, e);
+		}
+		for (String extension : properties.stringPropertyNames()) {
+			mappings.put(extension, properties.getProperty(extension).trim());
+		}
+		return mappings;
+	}
+
+}
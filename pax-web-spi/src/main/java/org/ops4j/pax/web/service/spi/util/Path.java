@@ -17,6 +17,9 @@
  */
 package org.ops4j.pax.web.service.spi.util;
 
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Divers utilities related to request paths.
  * 
@@ -105,4 +108,24 @@ public class Path {
 		}
 		return pattern;
 	}
+
+	/**
+	 * Normalizes resource paths as the servlet specification mandates for
+	 * ServletContext.getResourcePaths: trimmed and starting with a slash.
+	 * 
+	 * @param paths
+	 *            paths to normalize, may be immutable
+	 * 
+	 * @return a new, mutable set of normalized paths, without null ones
+	 */
+	public static Set<String> slashResourcePaths(final Set<String> paths) {
+		final Set<String> slashedPaths = new HashSet<String>();
+		for (String path : paths) {
+			if (path != null) {
+				String trimmed = path.trim();
+				slashedPaths.add(trimmed.startsWith("/") ? trimmed : "/" + trimmed);
+			}
+		}
+		return slashedPaths;
+	}
 }
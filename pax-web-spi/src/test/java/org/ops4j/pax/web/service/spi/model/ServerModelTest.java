@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.model;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.Hashtable;
+
+import javax.servlet.Servlet;
+
+import org.junit.Test;
+import org.ops4j.pax.web.service.WebContainerConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+public class ServerModelTest {
+
+	@Test
+	public void standbyContextIsMatchedOnceActivated() throws Exception {
+		ServerModel serverModel = new ServerModel();
+		ContextModel current = context();
+		serverModel.addServletModel(servlet(current, "/"));
+
+		ContextModel upgrade = context();
+		serverModel.addStandbyContext(upgrade);
+		serverModel.addServletModel(servlet(upgrade, "/"));
+		serverModel.addServletModel(servlet(upgrade, "/new"));
+
+		assertSame(current, serverModel.matchPathToContext("/app/new/page"));
+
+		assertEquals(Collections.singleton(current.getHttpContext()),
+				serverModel.activateContext(upgrade));
+		assertSame(upgrade, serverModel.matchPathToContext("/app/index.html"));
+		assertSame(upgrade, serverModel.matchPathToContext("/app/new/page"));
+	}
+
+	@Test
+	public void removingReplacedServletsKeepsActivatedContext() throws Exception {
+		ServerModel serverModel = new ServerModel();
+		ContextModel current = context();
+		ServletModel currentServlet = servlet(current, "/");
+		serverModel.addServletModel(currentServlet);
+
+		ContextModel upgrade = context();
+		serverModel.addStandbyContext(upgrade);
+		serverModel.addServletModel(servlet(upgrade, "/"));
+		serverModel.activateContext(upgrade);
+		serverModel.removeServletModel(currentServlet);
+
+		assertSame(upgrade, serverModel.matchPathToContext("/app/index.html"));
+	}
+
+	@Test
+	public void removedStandbyContextIsNeverMatched() throws Exception {
+		ServerModel serverModel = new ServerModel();
+		ContextModel upgrade = context();
+		serverModel.addStandbyContext(upgrade);
+		ServletModel servlet = servlet(upgrade, "/");
+		serverModel.addServletModel(servlet);
+		serverModel.removeServletModel(servlet);
+		serverModel.removeStandbyContext(upgrade.getHttpContext());
+
+		assertNull(serverModel.matchPathToContext("/app/index.html"));
+		assertEquals(0, serverModel.activateContext(upgrade).size());
+	}
+
+	@Test
+	public void contextsOfOtherBundlesAreNotReplaced() throws Exception {
+		ServerModel serverModel = new ServerModel();
+		ContextModel other = context(bundle("other"));
+		serverModel.addServletModel(servlet(other, "/other"));
+		ContextModel current = context();
+		serverModel.addServletModel(servlet(current, "/"));
+
+		ContextModel upgrade = context();
+		serverModel.addStandbyContext(upgrade);
+		serverModel.addServletModel(servlet(upgrade, "/"));
+
+		assertEquals(Collections.singleton(current.getHttpContext()),
+				serverModel.activateContext(upgrade));
+		assertSame(upgrade, serverModel.matchPathToContext("/app/index.html"));
+		assertSame(other, serverModel.matchPathToContext("/app/other/page"));
+	}
+
+	private static ContextModel context() {
+		return context(bundle("app"));
+	}
+
+	private static ContextModel context(Bundle bundle) {
+		ContextModel contextModel = new ContextModel(
+				createMock(HttpContext.class), bundle,
+				ServerModelTest.class.getClassLoader());
+		Hashtable<String, String> contextParams = new Hashtable<String, String>();
+		contextParams.put(WebContainerConstants.CONTEXT_NAME, "app");
+		contextModel.setContextParams(contextParams);
+		return contextModel;
+	}
+
+	private static Bundle bundle(String symbolicName) {
+		Bundle bundle = createMock(Bundle.class);
+		expect(bundle.getSymbolicName()).andReturn(symbolicName).anyTimes();
+		replay(bundle);
+		return bundle;
+	}
+
+	private static ServletModel servlet(ContextModel contextModel, String alias) {
+		return new ServletModel(contextModel, createMock(Servlet.class), alias,
+				null, null, null);
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSessionStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void savedSessionsAreRestoredAfterReopening() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory);
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("name", "value");
+		attributes.put("count", 42);
+		attributes.put("id", 4242L);
+		attributes.put("flag", Boolean.TRUE);
+		attributes.put("ratio", 0.5d);
+		attributes.put("bytes", new byte[] { 1, 2, 3 });
+		attributes.put("list", new ArrayList<String>(Arrays.asList("a", "b")));
+		attributes.put("none", null);
+		long now = System.currentTimeMillis();
+		store.save(new SessionData("s1", now - 1000L, now, 1800, attributes));
+		store.close();
+
+		MappedSessionStore reopened = new MappedSessionStore(directory);
+		assertEquals(Collections.singleton("s1"), reopened.getSessionIds());
+		SessionData session = reopened.load("s1", getClass().getClassLoader());
+		assertEquals("s1", session.getId());
+		assertEquals(now - 1000L, session.getCreationTime());
+		assertEquals(now, session.getLastAccessedTime());
+		assertEquals(1800, session.getMaxInactiveInterval());
+		assertEquals("value", session.getAttributes().get("name"));
+		assertEquals(42, session.getAttributes().get("count"));
+		assertEquals(4242L, session.getAttributes().get("id"));
+		assertEquals(Boolean.TRUE, session.getAttributes().get("flag"));
+		assertEquals(0.5d, session.getAttributes().get("ratio"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) session.getAttributes().get("bytes"));
+		assertEquals(Arrays.asList("a", "b"), session.getAttributes().get("list"));
+		assertTrue(session.getAttributes().containsKey("none"));
+	}
+
+	@Test
+	public void latestRecordOfASessionWins() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory, 256);
+		for (int i = 0; i < 100; i++) {
+			store.save(session("s" + (i % 10), i));
+		}
+		store.remove("s0");
+		store.close();
+
+		MappedSessionStore reopened = new MappedSessionStore(directory, 256);
+		assertEquals(9, reopened.getSessionIds().size());
+		assertNull(reopened.load("s0", null));
+		assertEquals(99, reopened.load("s9", null).getAttributes().get("value"));
+	}
+
+	@Test
+	public void closingCompactsTheLog() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory, 256);
+		for (int i = 0; i < 100; i++) {
+			store.save(session("s" + (i % 10), i));
+		}
+		store.remove("s0");
+		assertTrue(directory.list().length > 1);
+		store.close();
+
+		File[] segments = directory.listFiles();
+		assertEquals(1, segments.length);
+		long size = segments[0].length();
+		assertTrue(size < 9 * 256);
+
+		MappedSessionStore reopened = new MappedSessionStore(directory, 256);
+		assertEquals(9, reopened.getSessionIds().size());
+		reopened.close();
+		assertEquals(size, directory.listFiles()[0].length());
+	}
+
+	@Test
+	public void expiredSessionsAreDroppedOnClose() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory);
+		store.save(session("s1", 1));
+		store.save(new SessionData("s2", 1000L, 2000L, 1800,
+				Collections.<String, Object> singletonMap("value", 2)));
+		store.save(new SessionData("s3", 1000L, 2000L, -1,
+				Collections.<String, Object> singletonMap("value", 3)));
+		store.close();
+
+		MappedSessionStore reopened = new MappedSessionStore(directory);
+		assertEquals(new HashSet<String>(Arrays.asList("s1", "s3")), reopened.getSessionIds());
+		reopened.clear();
+		assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void removingTheLastSessionDeletesTheSegments() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory);
+		store.save(session("s1", 1));
+		store.save(session("s2", 2));
+		store.close();
+
+		MappedSessionStore reopened = new MappedSessionStore(directory);
+		reopened.remove("s1");
+		reopened.remove("s2");
+
+		assertEquals(0, directory.list().length);
+		assertTrue(reopened.getSessionIds().isEmpty());
+	}
+
+	@Test
+	public void tornRecordsAreIgnored() throws Exception {
+		File directory = folder.newFolder("sessions");
+		MappedSessionStore store = new MappedSessionStore(directory, 1024);
+		store.save(session("s1", 1));
+		store.save(session("s2", 2));
+		store.close();
+
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// flip a byte in the body of the second record
+			long position = 0;
+			file.seek(position);
+			position += 9 + file.readInt();
+			file.seek(position + 20);
+			int value = file.read();
+			file.seek(position + 20);
+			file.write(value ^ 0xFF);
+		}
+
+		MappedSessionStore reopened = new MappedSessionStore(directory, 1024);
+		assertEquals(new HashSet<String>(Arrays.asList("s1")), reopened.getSessionIds());
+	}
+
+	@Test
+	public void contextsGetTheirOwnDirectory() {
+		File root = folder.getRoot();
+		assertEquals(new File(root, "ROOT"), MappedSessionStore.forContext(root, "/").getDirectory());
+		assertEquals(new File(root, "shop_cart"),
+				MappedSessionStore.forContext(root, "/shop/cart").getDirectory());
+	}
+
+	private static SessionData session(String id, int value) {
+		long now = System.currentTimeMillis();
+		return new SessionData(id, now - 1000L, now, 1800,
+				Collections.<String, Object> singletonMap("value", value));
+	}
+
+}
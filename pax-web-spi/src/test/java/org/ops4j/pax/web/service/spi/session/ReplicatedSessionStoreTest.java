@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicatedSessionStoreTest {
+
+	private RecordingCluster cluster;
+	private ReplicatedSessionStore node1;
+	private ReplicatedSessionStore node2;
+
+	@Before
+	public void setUp() {
+		cluster = new RecordingCluster();
+		node1 = new ReplicatedSessionStore(cluster, 0);
+		node2 = new ReplicatedSessionStore(cluster, 0);
+	}
+
+	@Test
+	public void onlyChangedAttributesAreShipped() throws Exception {
+		node1.attributeChanged("s1", "a", 1);
+		node1.attributeChanged("s1", "b", 2);
+		node1.accessed("s1", 1000L, 2000L, 1800);
+		node1.attributeChanged("s1", "b", 3);
+		node1.attributeRemoved("s1", "c");
+		node1.accessed("s1", 1000L, 3000L, 1800);
+
+		assertEquals(2, cluster.updates.size());
+		SessionChanges last = cluster.updates.get(1);
+		assertEquals(Collections.singleton("b"), last.getChangedAttributes().keySet());
+		assertEquals(Collections.singleton("c"), last.getRemovedAttributes());
+
+		SessionData session = node2.load("s1", null);
+		assertEquals(1, session.getAttributes().get("a"));
+		assertEquals(3, session.getAttributes().get("b"));
+		assertEquals(3000L, session.getLastAccessedTime());
+	}
+
+	@Test
+	public void otherNodesReloadModifiedSessions() throws Exception {
+		node1.attributeChanged("s1", "a", 1);
+		node1.accessed("s1", 1000L, 2000L, 1800);
+		assertEquals(1, node2.load("s1", null).getAttributes().get("a"));
+		assertFalse(node2.isModifiedElsewhere("s1"));
+
+		node1.attributeChanged("s1", "a", 2);
+		node1.accessed("s1", 1000L, 3000L, 1800);
+
+		assertTrue(node2.isModifiedElsewhere("s1"));
+		assertFalse(node1.isModifiedElsewhere("s1"));
+		assertEquals(2, node2.load("s1", null).getAttributes().get("a"));
+		assertFalse(node2.isModifiedElsewhere("s1"));
+
+		node1.remove("s1");
+		assertTrue(node2.isModifiedElsewhere("s1"));
+		assertNull(node2.load("s1", null));
+		assertFalse(node2.isModifiedElsewhere("s1"));
+	}
+
+	@Test
+	public void sessionsUnknownLocallyAreNotTracked() throws Exception {
+		node1.attributeChanged("s1", "a", 1);
+		node1.accessed("s1", 1000L, 2000L, 1800);
+		node1.attributeChanged("s1", "a", 2);
+		node1.accessed("s1", 1000L, 3000L, 1800);
+		node1.remove("s1");
+
+		assertFalse(node2.isModifiedElsewhere("s1"));
+	}
+
+	@Test
+	public void repeatedLoadsAreServedByTheNearCache() throws Exception {
+		node1.attributeChanged("s1", "a", 1);
+		node1.accessed("s1", 1000L, 2000L, 1800);
+
+		node2.load("s1", null);
+		node2.load("s1", null);
+		node2.attributeChanged("s1", "b", 2);
+		SessionData session = node2.load("s1", null);
+
+		assertEquals(1, cluster.loads);
+		assertEquals(2, session.getAttributes().get("b"));
+	}
+
+	@Test
+	public void changesAreShippedInTheBackground() throws Exception {
+		ReplicatedSessionStore store = new ReplicatedSessionStore(cluster, 20);
+		try {
+			store.attributeChanged("s1", "a", 1);
+			store.accessed("s1", 1000L, 2000L, 1800);
+			long deadline = System.currentTimeMillis() + 5000L;
+			while (!cluster.getSessionIds().contains("s1") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10L);
+			}
+			assertEquals(Collections.singleton("s1"), cluster.getSessionIds());
+		} finally {
+			store.close();
+		}
+	}
+
+	@Test
+	public void changingTheIdMovesTheSession() throws Exception {
+		node1.attributeChanged("s1", "a", 1);
+		node1.accessed("s1", 1000L, 2000L, 1800);
+
+		Map<String, Object> attributes = new HashMap<String, Object>();
+		attributes.put("a", 1);
+		node1.sessionIdChanged("s1", new SessionData("s2", 1000L, 2500L, 1800, attributes));
+		node1.flush();
+
+		assertNull(node2.load("s1", null));
+		assertEquals(1, node2.load("s2", null).getAttributes().get("a"));
+	}
+
+	private static class RecordingCluster extends LocalSessionCluster {
+
+		private final List<SessionChanges> updates = new ArrayList<SessionChanges>();
+		private int loads;
+
+		@Override
+		public synchronized SessionData load(String id, ClassLoader classLoader)
+				throws IOException, ClassNotFoundException {
+			loads++;
+			return super.load(id, classLoader);
+		}
+
+		@Override
+		public void update(SessionChanges changes) throws IOException {
+			synchronized (this) {
+				updates.add(changes);
+			}
+			super.update(changes);
+		}
+	}
+
+}
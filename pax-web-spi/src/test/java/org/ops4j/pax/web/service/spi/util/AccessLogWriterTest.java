@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter.OverflowPolicy;
+
+public class AccessLogWriterTest {
+
+	/**
+	 * 2015-09-01T10:20:30Z
+	 */
+	private static final long TIMESTAMP = 1441102830000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesNcsaLines() throws Exception {
+		File logFile = new File(folder.getRoot(), "request.log");
+		AccessLogWriter writer = new AccessLogWriter(logFile.getPath(), 16, OverflowPolicy.BLOCK);
+		writer.setExtended(true);
+		writer.start();
+		log(writer, "/index.html", "a=1");
+		log(writer, "/other", null);
+		writer.stop();
+
+		List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+		assertEquals("127.0.0.1 - admin [01/Sep/2015:10:20:30 +0000] "
+				+ "\"GET /index.html?a=1 HTTP/1.1\" 200 42 \"-\" \"curl/7.43\"", lines.get(0));
+		assertEquals("127.0.0.1 - admin [01/Sep/2015:10:20:30 +0000] "
+				+ "\"GET /other HTTP/1.1\" 200 42 \"-\" \"curl/7.43\"", lines.get(1));
+	}
+
+	@Test
+	public void writesJsonObjects() throws Exception {
+		File logFile = new File(folder.getRoot(), "request.json");
+		AccessLogWriter writer = new AccessLogWriter(logFile.getPath(), 16, OverflowPolicy.BLOCK);
+		writer.setExtended(true);
+		writer.setJson(true);
+		writer.setLogLatency(true);
+		writer.start();
+		log(writer, "/index.html", "a=1");
+		writer.stop();
+
+		List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals(1, lines.size());
+		assertEquals("{\"time\":\"2015-09-01T10:20:30Z\",\"remote\":\"127.0.0.1\",\"user\":\"admin\","
+				+ "\"method\":\"GET\",\"uri\":\"/index.html?a=1\",\"protocol\":\"HTTP/1.1\","
+				+ "\"status\":200,\"bytes\":42,\"userAgent\":\"curl/7.43\",\"latency\":3}",
+				lines.get(0));
+	}
+
+	@Test
+	public void dropsRecordsWhenFull() {
+		AccessLogWriter writer = new AccessLogWriter(
+				new File(folder.getRoot(), "request.log").getPath(), 2, OverflowPolicy.DROP);
+		writer.publish(writer.claim());
+		writer.publish(writer.claim());
+
+		assertNull(writer.claim());
+		assertEquals(1L, writer.getDroppedRecords());
+	}
+
+	@Test
+	public void resumesOnceWriterCatchesUp() throws Exception {
+		File logFile = new File(folder.getRoot(), "request.log");
+		AccessLogWriter writer = new AccessLogWriter(logFile.getPath(), 2, OverflowPolicy.BLOCK);
+		writer.start();
+		for (int i = 0; i < 100; i++) {
+			log(writer, "/page" + i, null);
+		}
+		writer.stop();
+
+		assertEquals(0L, writer.getDroppedRecords());
+		assertEquals(100, Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void rollsOverDaily() throws Exception {
+		AccessLogWriter writer = new AccessLogWriter(
+				new File(folder.getRoot(), "yyyy_mm_dd.request.log").getPath(), 2, OverflowPolicy.DROP);
+		writer.start();
+		writer.stop();
+
+		assertEquals("2015_09_01.request.log", writer.getFileName(TIMESTAMP));
+	}
+
+	@Test
+	public void fileDatePatternIsConfigurable() throws Exception {
+		AccessLogWriter writer = new AccessLogWriter(
+				new File(folder.getRoot(), "access_log.yyyy_mm_dd.log").getPath(), 2, OverflowPolicy.DROP);
+		writer.setFileDatePattern("yyyy-MM-dd");
+		writer.start();
+		writer.stop();
+
+		assertEquals("access_log.2015-09-01.log", writer.getFileName(TIMESTAMP));
+	}
+
+	private static void log(AccessLogWriter writer, String uri, String query) {
+		AccessLogRecord record = writer.claim();
+		assertNotNull(record);
+		try {
+			record.setTimestamp(TIMESTAMP);
+			record.setLatency(3L);
+			record.setRemoteAddress("127.0.0.1");
+			record.setUser("admin");
+			record.setMethod("GET");
+			record.setUri(uri);
+			record.setQuery(query);
+			record.setProtocol("HTTP/1.1");
+			record.setStatus(200);
+			record.setBytes(42L);
+			record.setUserAgent("curl/7.43");
+		} finally {
+			writer.publish(record);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.junit.Test;
+
+public class ContextClassLoaderSwitchTest {
+
+	@Test
+	public void switchesAndRestores() {
+		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		ClassLoader classLoader = new URLClassLoader(new URL[0]);
+
+		ClassLoader previous = ContextClassLoaderSwitch.switchTo(classLoader);
+		try {
+			assertSame(original, previous);
+			assertSame(classLoader, Thread.currentThread().getContextClassLoader());
+
+			// nested switch to the same class loader
+			ClassLoader nested = ContextClassLoaderSwitch.switchTo(classLoader);
+			ContextClassLoaderSwitch.restore(nested);
+			assertSame(classLoader, Thread.currentThread().getContextClassLoader());
+		} finally {
+			ContextClassLoaderSwitch.restore(previous);
+		}
+
+		assertSame(original, Thread.currentThread().getContextClassLoader());
+	}
+
+}
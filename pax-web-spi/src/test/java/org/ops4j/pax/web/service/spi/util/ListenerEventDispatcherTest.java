@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ops4j.pax.web.service.spi.util.ListenerEventDispatcher.Delivery;
+import org.ops4j.pax.web.service.spi.util.ListenerEventDispatcher.OverflowPolicy;
+
+public class ListenerEventDispatcherTest {
+
+	/**
+	 * Initial events are delivered first, followed by dispatched events in
+	 * dispatch order.
+	 */
+	@Test
+	public void deliversInOrder() throws Exception {
+		final List<Integer> received = new CopyOnWriteArrayList<Integer>();
+		final CountDownLatch latch = new CountDownLatch(200);
+		ListenerEventDispatcher<String, Integer> dispatcher = new ListenerEventDispatcher<String, Integer>(
+				"test", 2, 1000, OverflowPolicy.BLOCK, new Delivery<String, Integer>() {
+					@Override
+					public void deliver(String listener, Integer event) {
+						received.add(event);
+						latch.countDown();
+					}
+				});
+		dispatcher.addListener("listener", Arrays.asList(0, 1));
+		for (int i = 2; i < 200; i++) {
+			dispatcher.dispatch(i);
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 200; i++) {
+			assertEquals(Integer.valueOf(i), received.get(i));
+		}
+		dispatcher.destroy(10);
+	}
+
+	/**
+	 * A blocked listener with a full queue causes new events to be dropped
+	 * and counted.
+	 */
+	@Test
+	public void dropsNewestWhenFull() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		ListenerEventDispatcher<String, Integer> dispatcher = new ListenerEventDispatcher<String, Integer>(
+				"test", 1, 2, OverflowPolicy.DROP_NEWEST, new Delivery<String, Integer>() {
+					@Override
+					public void deliver(String listener, Integer event) throws Exception {
+						started.countDown();
+						release.await(10, TimeUnit.SECONDS);
+					}
+				});
+		dispatcher.addListener("listener", null);
+		dispatcher.dispatch(0);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		// the first event is being delivered, two fit in the queue
+		for (int i = 1; i < 6; i++) {
+			dispatcher.dispatch(i);
+		}
+		assertEquals(2, dispatcher.getQueueDepth());
+		assertEquals(3, dispatcher.getDroppedEvents());
+		release.countDown();
+		dispatcher.destroy(10);
+	}
+
+	/**
+	 * Recipients taken before a listener was added or after it was removed
+	 * don't queue events for it.
+	 */
+	@Test
+	public void recipientsAreTakenWhenRequested() throws Exception {
+		final List<String> received = new CopyOnWriteArrayList<String>();
+		final CountDownLatch latch = new CountDownLatch(3);
+		ListenerEventDispatcher<String, Integer> dispatcher = new ListenerEventDispatcher<String, Integer>(
+				"test", 1, 10, OverflowPolicy.BLOCK, new Delivery<String, Integer>() {
+					@Override
+					public void deliver(String listener, Integer event) {
+						received.add(listener + event);
+						latch.countDown();
+					}
+				});
+		dispatcher.addListener("a", null);
+		dispatcher.addListener("b", null);
+		ListenerEventDispatcher<String, Integer>.Recipients recipients = dispatcher.recipients();
+		dispatcher.removeListener("b");
+		dispatcher.addListener("c", null);
+		recipients.dispatch(1);
+		dispatcher.recipients().dispatch(2);
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		dispatcher.destroy(10);
+		assertEquals(Arrays.asList("a1", "a2", "c2"), sorted(received));
+	}
+
+	private static List<String> sorted(List<String> values) {
+		List<String> sorted = new ArrayList<String>(values);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.spi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class MimeTypeTableTest {
+
+	@Test
+	public void defaultsAreLoaded() {
+		MimeTypeTable table = MimeTypeTable.getDefault();
+
+		assertEquals("text/html", table.getMimeType("/index.html"));
+		assertEquals("text/css", table.getMimeType("/css/site.min.css"));
+		assertEquals("image/png", table.getMimeType("LOGO.PNG"));
+		assertNull(table.getMimeType("/unknown.extension"));
+	}
+
+	@Test
+	public void namesWithoutExtension() {
+		MimeTypeTable table = MimeTypeTable.getDefault();
+
+		assertNull(table.getMimeType(null));
+		assertNull(table.getMimeType(""));
+		assertNull(table.getMimeType("/README"));
+		assertNull(table.getMimeType("/v1.2/README"));
+		assertNull(table.getMimeType("/file."));
+	}
+
+	@Test
+	public void mappingsOverrideParent() {
+		MimeTypeTable table = new MimeTypeTable(Collections.singletonMap(
+				"html", "application/xhtml+xml"), MimeTypeTable.getDefault());
+
+		assertEquals("application/xhtml+xml", table.getMimeType("/index.html"));
+		assertEquals("text/css", table.getMimeType("/site.css"));
+		assertEquals("text/html", MimeTypeTable.getDefault().getMimeType("/index.html"));
+	}
+
+	@Test
+	public void extensionsWithLeadingDot() {
+		MimeTypeTable table = new MimeTypeTable(Collections.singletonMap(
+				".foo", "application/x-foo"), null);
+
+		assertEquals("application/x-foo", table.getMimeType("a.foo"));
+		assertEquals("application/x-foo", table.getMimeType("A.FOO"));
+	}
+
+}
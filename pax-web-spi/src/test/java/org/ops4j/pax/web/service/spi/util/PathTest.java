@@ -18,6 +18,11 @@ package org.ops4j.pax.web.service.spi.util;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Test;
 
 public class PathTest {
@@ -126,4 +131,16 @@ public class PathTest {
 		assertEquals("Normalized", "/", Path.normalizeResourcePath("/   "));
 	}
 
+	/**
+	 * Tests that resource paths are trimmed and prefixed with a slash in a
+	 * set the caller may modify.
+	 */
+	@Test
+	public void slashResourcePaths() {
+		Set<String> paths = Path.slashResourcePaths(Collections.unmodifiableSet(
+				new HashSet<String>(Arrays.asList("/a.jsp", " b/ ", null))));
+		assertEquals("Slashed", new HashSet<String>(Arrays.asList("/a.jsp", "/b/")), paths);
+		paths.add("/c.jsp");
+	}
+
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.tomcat.internal;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.ops4j.pax.web.service.spi.util.AccessLogRecord;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
+
+/**
+ * Access log valve handing requests over to the shared
+ * {@link AccessLogWriter}, so nothing is formatted or written on the request
+ * thread.
+ */
+class AsyncAccessLogValve extends ValveBase implements AccessLog {
+
+	private final AccessLogWriter writer;
+
+	private boolean requestAttributesEnabled;
+
+	AsyncAccessLogValve(AccessLogWriter writer) {
+		super(true);
+		this.writer = writer;
+	}
+
+	@Override
+	public void invoke(Request request, Response response) throws IOException,
+			ServletException {
+		getNext().invoke(request, response);
+	}
+
+	@Override
+	public void log(Request request, Response response, long time) {
+		AccessLogRecord record = writer.claim();
+		if (record == null) {
+			return;
+		}
+		try {
+			long timestamp = request.getCoyoteRequest().getStartTime();
+			record.setTimestamp(timestamp > 0 ? timestamp : System.currentTimeMillis() - time);
+			record.setLatency(time);
+			if (writer.isLogServer()) {
+				record.setServerName(request.getServerName());
+			}
+			Object remoteAddress = requestAttributesEnabled
+					? request.getAttribute(REMOTE_ADDR_ATTRIBUTE) : null;
+			record.setRemoteAddress(remoteAddress != null ? remoteAddress.toString()
+					: request.getRemoteAddr());
+			record.setUser(request.getRemoteUser());
+			record.setMethod(request.getMethod());
+			record.setUri(request.getRequestURI());
+			record.setQuery(request.getQueryString());
+			record.setProtocol(request.getProtocol());
+			record.setStatus(response.getStatus());
+			record.setBytes(response.getBytesWritten(false));
+			record.setReferer(request.getHeader("Referer"));
+			record.setUserAgent(request.getHeader("User-Agent"));
+			if (writer.isLogCookies()) {
+				record.setCookies(request.getHeader("Cookie"));
+			}
+		} finally {
+			writer.publish(record);
+		}
+	}
+
+	@Override
+	public void setRequestAttributesEnabled(boolean requestAttributesEnabled) {
+		this.requestAttributesEnabled = requestAttributesEnabled;
+	}
+
+	@Override
+	public boolean getRequestAttributesEnabled() {
+		return requestAttributesEnabled;
+	}
+
+	@Override
+	protected synchronized void startInternal() throws LifecycleException {
+		writer.start();
+		setState(LifecycleState.STARTING);
+	}
+
+	@Override
+	protected synchronized void stopInternal() throws LifecycleException {
+		setState(LifecycleState.STOPPING);
+		writer.stop();
+	}
+
+}
@@ -33,6 +33,9 @@ import org.apache.coyote.http11.Http11Protocol;
 import org.apache.tomcat.util.digester.Digester;
 import org.ops4j.pax.web.service.spi.Configuration;
 import org.ops4j.pax.web.service.spi.model.ContextModel;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SessionStores;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -145,6 +148,10 @@ public class EmbeddedTomcat extends Tomcat {
 
 	private String configurationWorkerName;
 
+	private String configurationSessionStoreDirectory;
+
+	private Boolean configurationSessionLazyLoad;
+
 	private EmbeddedTomcat() {
 	}
 
@@ -268,6 +275,9 @@ public class EmbeddedTomcat extends Tomcat {
 		configurationSessionCookieHttpOnly = configuration
 				.getSessionCookieHttpOnly();
 		configurationWorkerName = configuration.getWorkerName();
+		configurationSessionStoreDirectory = configuration
+				.getSessionStoreDirectory();
+		configurationSessionLazyLoad = configuration.getSessionLazyLoad();
 
 		for (int i = 0; i < addresses.length; i++) {
 			LOG.debug("Loop {} of {}", i, addresses.length);
@@ -298,21 +308,29 @@ public class EmbeddedTomcat extends Tomcat {
 
 		// NCSA Logger --> AccessLogValve
 		if (configuration.isLogNCSAFormatEnabled()) {
-			AccessLog ncsaLogger = new AccessLogValve();
-			boolean modifiedValve = false;
+			AccessLog ncsaLogger = null;
 			for (Valve valve : getHost().getPipeline().getValves()) {
-				if (valve instanceof AccessLogValve) {
-					modifiedValve = true;
+				if (valve instanceof AccessLogValve
+						|| valve instanceof AsyncAccessLogValve) {
 					ncsaLogger = (AccessLog) valve;
 				}
 			}
 
-			((AccessLogValve) ncsaLogger).setPattern("common");
-			((AccessLogValve) ncsaLogger).setDirectory(configuration
-					.getLogNCSADirectory());
-			((AccessLogValve) ncsaLogger).setSuffix(".log"); // ncsaLogge
-			if (!modifiedValve) {
-				getHost().getPipeline().addValve((Valve) ncsaLogger);
+			if (ncsaLogger instanceof AccessLogValve) {
+				// keep the valve configured in tomcat-server.xml
+				((AccessLogValve) ncsaLogger).setPattern("common");
+				((AccessLogValve) ncsaLogger).setDirectory(configuration
+						.getLogNCSADirectory());
+				((AccessLogValve) ncsaLogger).setSuffix(".log"); // ncsaLogge
+			} else if (ncsaLogger == null) {
+				// the files of Tomcat's default AccessLogValve:
+				// access_log.yyyy-MM-dd.log in common format, kept forever
+				AccessLogWriter writer = AccessLogWriter.create(configuration,
+						"access_log." + AccessLogWriter.DATE_TOKEN + ".log");
+				writer.setFileDatePattern("yyyy-MM-dd");
+				writer.setExtended(false);
+				writer.setRetainDays(0);
+				getHost().getPipeline().addValve(new AsyncAccessLogValve(writer));
 			}
 		}
 
@@ -564,6 +582,12 @@ public class EmbeddedTomcat extends Tomcat {
 		// configurationSessionTimeout
 		ctx.setSessionTimeout(configurationSessionTimeout);
 		// configurationWorkerName //TODO: missing
+		SessionStore sessionStore = SessionStores.create(
+				configurationSessionStoreDirectory, contextName);
+		if (sessionStore != null) {
+			ctx.setManager(new SessionStoreManager(sessionStore,
+					Boolean.TRUE.equals(configurationSessionLazyLoad)));
+		}
 
 		// new OSGi methods
 		((HttpServiceContext) ctx).setHttpContext(httpContext);
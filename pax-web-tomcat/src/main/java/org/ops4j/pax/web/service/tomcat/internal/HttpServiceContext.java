@@ -6,22 +6,51 @@ package org.ops4j.pax.web.service.tomcat.internal;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.EventListener;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.naming.NamingException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletContextAttributeListener;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestAttributeListener;
+import javax.servlet.ServletRequestListener;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionListener;
 
+import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.Host;
 import org.apache.catalina.core.ApplicationContext;
+import org.apache.catalina.core.ApplicationFilterConfig;
 import org.apache.catalina.core.StandardContext;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
 import org.ops4j.pax.web.service.WebContainerContext;
+import org.ops4j.pax.web.service.spi.util.ContextClassLoaderSwitch;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
+import org.ops4j.pax.web.service.spi.util.Path;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -139,6 +168,29 @@ public class HttpServiceContext extends StandardContext {
 			return null;
 		}
 
+		@Override
+		public String getMimeType(final String name) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("getting mime type for: [" + name + "]");
+			}
+			// Check the OSGi HttpContext
+			if (httpContext != null) {
+				String mime = httpContext.getMimeType(name);
+				if (mime != null) {
+					return mime;
+				}
+			}
+
+			// Delegate to the mime mappings of the Tomcat context
+			String mime = super.getMimeType(name);
+			if (mime != null) {
+				return mime;
+			}
+
+			// Fall back to the defaults shared by all web containers
+			return MimeTypeTable.getDefault().getMimeType(name);
+		}
+
 		/**
 		 * Delegate to http context in case that the http context is an
 		 * {@link WebContainerContext}. {@inheritDoc}
@@ -166,16 +218,7 @@ public class HttpServiceContext extends StandardContext {
 					}
 					// Servlet specs mandates that the paths must start with an
 					// slash "/"
-					final Set<String> slashedPaths = new HashSet<String>();
-					for (String foundPath : paths) {
-						if (foundPath != null) {
-							if (foundPath.trim().startsWith("/")) {
-								slashedPaths.add(foundPath.trim());
-							} else {
-								slashedPaths.add("/" + foundPath.trim());
-							}
-						}
-					}
+					final Set<String> slashedPaths = Path.slashResourcePaths(paths);
 					if (LOG.isDebugEnabled()) {
 						LOG.debug("found resource paths: " + paths);
 					}
@@ -192,6 +235,21 @@ public class HttpServiceContext extends StandardContext {
 
 	private HttpContext httpContext;
 
+	/**
+	 * ApplicationFilterConfig can only be created and released from within
+	 * Tomcat, that's why reflection is used to start filters on a running
+	 * context.
+	 */
+	private static final Constructor<ApplicationFilterConfig> FILTER_CONFIG_CONSTRUCTOR = filterConfigConstructor();
+
+	private static final Method FILTER_CONFIG_RELEASE = filterConfigRelease();
+
+	/**
+	 * Configs of filters added while the context was running, Tomcat only
+	 * creates configs when the context starts.
+	 */
+	private final Map<String, RunningFilter> runningFilters = new ConcurrentHashMap<String, RunningFilter>();
+
 	/**
 	 * Access controller context of the bundle that registred the http context.
 	 */
@@ -221,4 +279,296 @@ public class HttpServiceContext extends StandardContext {
 		return super.getServletContext();
 	}
 
+	/**
+	 * Adds a filter to the running context. The filter is initialized before
+	 * its mapping is added, and Tomcat builds the filter chain of each request
+	 * from the current mappings, so requests see either the old chain or the
+	 * complete new one. The definition and mapping stay in the context, so
+	 * the filter is started again with the context. A filter replaced under
+	 * the same name is released once its requests left it.
+	 * 
+	 * @param filterDef
+	 *            definition of the filter
+	 * @param filterMap
+	 *            mapping of the filter
+	 * @return false if filters can't be started on this Tomcat version and
+	 *         the context has to be restarted instead
+	 * @throws ServletException
+	 *             if the filter fails to initialize
+	 */
+	boolean addRunningFilter(final FilterDef filterDef, final FilterMap filterMap)
+			throws ServletException {
+		if (FILTER_CONFIG_CONSTRUCTOR == null) {
+			return false;
+		}
+		addFilterDef(filterDef);
+		final ClassLoader previous = ContextClassLoaderSwitch
+				.switchTo(getParentClassLoader());
+		final Filter filter = filterDef.getFilter();
+		try {
+			final RunningFilter runningFilter = filter != null ? new RunningFilter(
+					filter, false) : new RunningFilter((Filter) getInstanceManager()
+					.newInstance(filterDef.getFilterClass()), true);
+			// the config takes the counting filter, the definition keeps the
+			// original one for the next start of the context
+			filterDef.setFilter(runningFilter);
+			try {
+				runningFilter.config = FILTER_CONFIG_CONSTRUCTOR.newInstance(
+						this, filterDef);
+			} finally {
+				filterDef.setFilter(filter);
+			}
+			final RunningFilter replaced = runningFilters.put(
+					filterDef.getFilterName(), runningFilter);
+			if (replaced != null) {
+				replaced.remove();
+			}
+		} catch (InvocationTargetException e) {
+			removeFilterDef(filterDef);
+			if (e.getCause() instanceof ServletException) {
+				throw (ServletException) e.getCause();
+			}
+			throw new ServletException("Can't initialize filter "
+					+ filterDef.getFilterName(), e.getCause());
+		} catch (ReflectiveOperationException | NamingException e) {
+			removeFilterDef(filterDef);
+			throw new ServletException("Can't initialize filter "
+					+ filterDef.getFilterName(), e);
+		} finally {
+			ContextClassLoaderSwitch.restore(previous);
+		}
+		// same position as the mappings added through the ServletContext
+		// when the context is started again
+		addFilterMapBefore(filterMap);
+		return true;
+	}
+
+	/**
+	 * Releases the filter added by
+	 * {@link #addRunningFilter(FilterDef, FilterMap)}, once its definition and
+	 * mappings are removed. Requests which started before may still run
+	 * through the filter, including asynchronous ones, so the last of them
+	 * releases the filter instead of blocking the caller.
+	 * 
+	 * @param filterName
+	 *            name of the filter
+	 */
+	void removeRunningFilter(final String filterName) {
+		RunningFilter runningFilter = runningFilters.remove(filterName);
+		if (runningFilter != null) {
+			runningFilter.remove();
+		}
+	}
+
+	/**
+	 * Adds an event listener to the running context. Servlet context listeners
+	 * are notified of the initialized context right away.
+	 * 
+	 * @param listener
+	 *            listener to add
+	 */
+	synchronized void addRunningEventListener(final EventListener listener) {
+		if (listener instanceof ServletContextAttributeListener
+				|| listener instanceof ServletRequestListener
+				|| listener instanceof ServletRequestAttributeListener
+				|| listener instanceof HttpSessionAttributeListener) {
+			setApplicationEventListeners(append(
+					getApplicationEventListeners(), listener));
+		}
+		if (listener instanceof ServletContextListener
+				|| listener instanceof HttpSessionListener) {
+			if (listener instanceof ServletContextListener) {
+				final ClassLoader previous = ContextClassLoaderSwitch
+						.switchTo(getParentClassLoader());
+				try {
+					((ServletContextListener) listener)
+							.contextInitialized(new ServletContextEvent(
+									getServletContext()));
+				} finally {
+					ContextClassLoaderSwitch.restore(previous);
+				}
+			}
+			setApplicationLifecycleListeners(append(
+					getApplicationLifecycleListeners(), listener));
+		}
+	}
+
+	@Override
+	public FilterConfig findFilterConfig(String name) {
+		RunningFilter runningFilter = runningFilters.get(name);
+		return runningFilter != null ? runningFilter.config : super
+				.findFilterConfig(name);
+	}
+
+	@Override
+	public boolean filterStop() {
+		// the context creates configs for all filter definitions when it
+		// starts again
+		for (String filterName : runningFilters.keySet()) {
+			RunningFilter runningFilter = runningFilters.remove(filterName);
+			if (runningFilter != null) {
+				release(runningFilter.config);
+			}
+		}
+		return super.filterStop();
+	}
+
+	/**
+	 * Filter added to the running context, counts the requests inside the
+	 * filter so it is only released once the last of them left.
+	 */
+	private final class RunningFilter implements Filter {
+
+		private final Filter filter;
+
+		/**
+		 * Whether the filter was instantiated for this context and has to be
+		 * destroyed through its instance manager.
+		 */
+		private final boolean created;
+
+		private volatile ApplicationFilterConfig config;
+
+		private int active;
+
+		private boolean removed;
+
+		private RunningFilter(Filter filter, boolean created) {
+			this.filter = filter;
+			this.created = created;
+		}
+
+		@Override
+		public void init(FilterConfig filterConfig) throws ServletException {
+			filter.init(filterConfig);
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response,
+				FilterChain chain) throws IOException, ServletException {
+			enter();
+			boolean async = false;
+			try {
+				filter.doFilter(request, response, chain);
+				if (request.isAsyncStarted()) {
+					request.getAsyncContext().addListener(new AsyncExit());
+					async = true;
+				}
+			} finally {
+				if (!async) {
+					exit();
+				}
+			}
+		}
+
+		@Override
+		public void destroy() {
+			filter.destroy();
+			if (created && !getIgnoreAnnotations()) {
+				try {
+					getInstanceManager().destroyInstance(filter);
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					LOG.warn("Can't destroy filter " + config.getFilterName(), e);
+				}
+			}
+		}
+
+		private synchronized void enter() {
+			active++;
+		}
+
+		private void exit() {
+			final boolean release;
+			synchronized (this) {
+				release = --active == 0 && removed;
+			}
+			if (release) {
+				release(config);
+			}
+		}
+
+		private void remove() {
+			final boolean release;
+			synchronized (this) {
+				removed = true;
+				release = active == 0;
+			}
+			if (release) {
+				release(config);
+			}
+		}
+
+		/**
+		 * Leaves the filter once the asynchronous request completed.
+		 */
+		private final class AsyncExit implements AsyncListener {
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+				exit();
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+				event.getAsyncContext().addListener(this);
+			}
+		}
+	}
+
+	private static Object[] append(Object[] listeners, EventListener listener) {
+		if (listeners == null) {
+			return new Object[] { listener };
+		}
+		Object[] appended = Arrays.copyOf(listeners, listeners.length + 1);
+		appended[listeners.length] = listener;
+		return appended;
+	}
+
+	private static void release(ApplicationFilterConfig filterConfig) {
+		if (filterConfig == null || FILTER_CONFIG_RELEASE == null) {
+			return;
+		}
+		try {
+			FILTER_CONFIG_RELEASE.invoke(filterConfig);
+		} catch (ReflectiveOperationException e) {
+			LOG.warn("Can't release filter " + filterConfig.getFilterName(), e);
+		}
+	}
+
+	private static Constructor<ApplicationFilterConfig> filterConfigConstructor() {
+		try {
+			Constructor<ApplicationFilterConfig> constructor = ApplicationFilterConfig.class
+					.getDeclaredConstructor(Context.class, FilterDef.class);
+			constructor.setAccessible(true);
+			return constructor;
+			// CHECKSTYLE:OFF
+		} catch (Exception e) {
+			LOG.info("Filters can't be added to running contexts, they will be restarted instead: {}",
+					e.toString());
+			return null;
+		}
+		// CHECKSTYLE:ON
+	}
+
+	private static Method filterConfigRelease() {
+		try {
+			Method release = ApplicationFilterConfig.class
+					.getDeclaredMethod("release");
+			release.setAccessible(true);
+			return release;
+			// CHECKSTYLE:OFF
+		} catch (Exception e) {
+			return null;
+		}
+		// CHECKSTYLE:ON
+	}
+
 }
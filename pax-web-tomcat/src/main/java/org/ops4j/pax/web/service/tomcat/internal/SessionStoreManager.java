@@ -0,0 +1,281 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.web.service.tomcat.internal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.catalina.Loader;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.ops4j.pax.web.service.spi.session.SessionData;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SharedSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manager keeping the sessions in a {@link SessionStore} across restarts,
+ * instead of serializing all of them into one file. In lazy mode each session
+ * is restored on its first access instead of all at once on start.
+ * <p>
+ * A {@link SharedSessionStore} gets every change of a session, its sessions
+ * are always restored on first access and reloaded when another node modified
+ * them.
+ */
+class SessionStoreManager extends StandardManager {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SessionStoreManager.class);
+
+	private final SessionStore store;
+
+	private final boolean lazy;
+
+	private final SharedSessionStore sharedStore;
+
+	SessionStoreManager(SessionStore store, boolean lazy) {
+		this.store = store;
+		this.sharedStore = store instanceof SharedSessionStore ? (SharedSessionStore) store
+				: null;
+		this.lazy = lazy || sharedStore != null;
+	}
+
+	@Override
+	public void load() throws ClassNotFoundException, IOException {
+		if (lazy) {
+			return;
+		}
+		for (String id : store.getSessionIds()) {
+			restore(id);
+		}
+		store.clear();
+	}
+
+	@Override
+	public void unload() throws IOException {
+		for (Session session : findSessions()) {
+			StandardSession standardSession = (StandardSession) session;
+			if (!standardSession.isValid()) {
+				continue;
+			}
+			if (sharedStore != null) {
+				// all changes were reported already
+				standardSession.expire(false);
+				continue;
+			}
+			standardSession.passivate();
+			Map<String, Object> attributes = new HashMap<String, Object>();
+			for (String name : Collections.list(standardSession.getAttributeNames())) {
+				attributes.put(name, standardSession.getAttribute(name));
+			}
+			try {
+				store.save(new SessionData(standardSession.getIdInternal(),
+						standardSession.getCreationTimeInternal(),
+						standardSession.getLastAccessedTimeInternal(),
+						standardSession.getMaxInactiveInterval(), attributes));
+			} catch (IOException e) {
+				LOG.warn("Problem saving session " + standardSession.getIdInternal(), e);
+			}
+			standardSession.expire(false);
+		}
+		store.close();
+	}
+
+	@Override
+	public Session findSession(String id) throws IOException {
+		Session session = super.findSession(id);
+		if (session == null && lazy && id != null) {
+			session = restore(id);
+		}
+		return session;
+	}
+
+	@Override
+	public void remove(Session session, boolean update) {
+		super.remove(session, update);
+		// sessions are only removed from a running manager when they are
+		// invalidated or expire, not when the context stops
+		if (sharedStore != null && getState().isAvailable()) {
+			try {
+				sharedStore.remove(session.getIdInternal());
+			} catch (IOException e) {
+				LOG.warn("Problem removing session " + session.getIdInternal(), e);
+			}
+		}
+	}
+
+	@Override
+	protected StandardSession getNewSession() {
+		return new RestoredSession(this, sharedStore);
+	}
+
+	private synchronized Session restore(String id) throws IOException {
+		Session session = sessions.get(id);
+		if (session != null) {
+			return session;
+		}
+		SessionData data;
+		try {
+			data = store.load(id, getClassLoader());
+		} catch (ClassNotFoundException e) {
+			LOG.warn("Problem restoring session " + id, e);
+			return null;
+		}
+		if (data == null) {
+			return null;
+		}
+		if (data.isExpired(System.currentTimeMillis())) {
+			if (sharedStore == null) {
+				store.remove(id);
+			}
+			return null;
+		}
+		RestoredSession restored = (RestoredSession) createEmptySession();
+		restored.setCreationTime(data.getCreationTime());
+		restored.setNew(false);
+		restored.setValid(true);
+		restored.setId(id, false);
+		restored.restore(data);
+		restored.activate();
+		if (sharedStore == null && lazy) {
+			store.remove(id);
+		}
+		return restored;
+	}
+
+	/**
+	 * Reloads a session another node modified, or expires it if another node
+	 * invalidated it.
+	 */
+	private void refresh(RestoredSession session) {
+		SessionData data;
+		try {
+			data = store.load(session.getIdInternal(), getClassLoader());
+		} catch (IOException | ClassNotFoundException e) {
+			LOG.warn("Problem reloading session " + session.getIdInternal(), e);
+			return;
+		}
+		if (data == null) {
+			session.expire();
+			return;
+		}
+		session.restore(data);
+	}
+
+	private ClassLoader getClassLoader() {
+		Loader loader = getContext() == null ? null : getContext().getLoader();
+		if (loader != null && loader.getClassLoader() != null) {
+			return loader.getClassLoader();
+		}
+		return Thread.currentThread().getContextClassLoader();
+	}
+
+	/**
+	 * Session which can be restored from a store and reports its changes to
+	 * a shared store.
+	 */
+	private static class RestoredSession extends StandardSession {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient SharedSessionStore sharedStore;
+
+		private transient boolean restoring;
+
+		RestoredSession(Manager manager, SharedSessionStore sharedStore) {
+			super(manager);
+			this.sharedStore = sharedStore;
+		}
+
+		void restore(SessionData data) {
+			restoring = true;
+			try {
+				for (String name : keys()) {
+					if (!data.getAttributes().containsKey(name)) {
+						removeAttribute(name, false);
+					}
+				}
+				for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+					if (attribute.getValue() != null) {
+						setAttribute(attribute.getKey(), attribute.getValue(), false);
+					}
+				}
+			} finally {
+				restoring = false;
+			}
+			setMaxInactiveInterval(data.getMaxInactiveInterval());
+			if (data.getLastAccessedTime() > lastAccessedTime) {
+				lastAccessedTime = data.getLastAccessedTime();
+				thisAccessedTime = data.getLastAccessedTime();
+			}
+		}
+
+		@Override
+		public boolean isValid() {
+			if (isValid && sharedStore != null && id != null
+					&& sharedStore.isModifiedElsewhere(id)) {
+				((SessionStoreManager) manager).refresh(this);
+			}
+			return super.isValid();
+		}
+
+		@Override
+		public void setAttribute(String name, Object value, boolean notify) {
+			super.setAttribute(name, value, notify);
+			if (sharedStore != null && !restoring && value != null) {
+				sharedStore.attributeChanged(getIdInternal(), name, value);
+			}
+		}
+
+		@Override
+		public void removeAttribute(String name, boolean notify) {
+			super.removeAttribute(name, notify);
+			if (sharedStore != null && !restoring) {
+				sharedStore.attributeRemoved(getIdInternal(), name);
+			}
+		}
+
+		@Override
+		public void setId(String id, boolean notify) {
+			String oldId = this.id;
+			super.setId(id, notify);
+			if (sharedStore != null && !restoring && oldId != null && !oldId.equals(id)) {
+				try {
+					sharedStore.sessionIdChanged(oldId, new SessionData(id,
+							getCreationTimeInternal(), getLastAccessedTimeInternal(),
+							getMaxInactiveInterval(), new HashMap<String, Object>(attributes)));
+				} catch (IOException e) {
+					LOG.warn("Problem changing the id of session " + oldId, e);
+				}
+			}
+		}
+
+		@Override
+		public void endAccess() {
+			super.endAccess();
+			if (sharedStore != null && isValid) {
+				sharedStore.accessed(getIdInternal(), getCreationTimeInternal(),
+						getLastAccessedTimeInternal(), getMaxInactiveInterval());
+			}
+		}
+	}
+
+}
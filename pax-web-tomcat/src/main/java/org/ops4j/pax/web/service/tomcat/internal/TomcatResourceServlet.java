@@ -16,6 +16,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.connector.ResponseFacade;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -144,27 +145,17 @@ public class TomcatResourceServlet extends HttpServlet {
 		 * ? mimeTypeBuf.toString() : null; }
 		 */
 
-		if (mimeType == null) {
-			try {
-				if (url != null && url.openConnection() != null) {
-					mimeType = url.openConnection().getContentType();
-				}
-			} catch (IOException ignore) {
-				// we do not care about such an exception as the fact that
-				// we are using also the connection for
-				// finding the mime type is just a "nice to have" not an
-				// requirement
-			} catch (NullPointerException npe) {
-				// IGNORE
-			}
-		}
-
 		if (mimeType == null) {
 			ServletContext servletContext = getServletConfig()
 					.getServletContext();
 			mimeType = servletContext.getMimeType(mapping);
 		}
 
+		// the defaults shared by all web containers come last
+		if (mimeType == null) {
+			mimeType = MimeTypeTable.getDefault().getMimeType(mapping);
+		}
+
 		if (mimeType != null) {
 			response.setContentType(mimeType);
 		}
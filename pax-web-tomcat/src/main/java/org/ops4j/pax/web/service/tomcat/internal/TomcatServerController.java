@@ -90,8 +90,23 @@ class TomcatServerController implements ServerController {
 	}
 
 	@Override
-	public void removeContext(HttpContext httpContext) {
-		serverState.removeContext(httpContext);
+	public void removeContext(ContextModel contextModel) {
+		serverState.removeContext(contextModel.getHttpContext());
+	}
+
+	/**
+	 * Contexts are children of the host, named by their path, so two of them
+	 * can't serve the same path.
+	 */
+	@Override
+	public boolean isStandbySupported() {
+		return false;
+	}
+
+	@Override
+	public boolean awaitIdle(HttpContext httpContext, long timeout) {
+		// contexts are never deployed side by side
+		return true;
 	}
 
 	@Override
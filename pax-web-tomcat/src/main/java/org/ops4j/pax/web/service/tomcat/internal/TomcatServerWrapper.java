@@ -83,6 +83,7 @@ import org.ops4j.pax.web.service.spi.model.Model;
 import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.util.ContextClassLoaderSwitch;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -106,31 +107,17 @@ class TomcatServerWrapper implements ServerWrapper {
 
 		@Override
 		public synchronized void load() throws ServletException {
+			final ClassLoader previous = ContextClassLoaderSwitch.switchTo(model
+					.getContextModel().getClassLoader());
 			try {
-				instance = ContextClassLoaderUtils.doWithClassLoader(
-						model.getContextModel().getClassLoader(),
-						new Callable<Servlet>() {
-
-							@Override
-							public Servlet call() {
-								try {
-									return loadServlet();
-								} catch (final ServletException e) {
-									LOG.warn(
-											"Caucht exception while loading Servlet with classloader {}",
-											e);
-									return null;
-								}
-							}
-
-						});
-			} catch (Exception e) {
-				if (e instanceof RuntimeException) {
-					throw (RuntimeException) e;
-				}
-				LOG.error(
-						"Ignored exception during servlet registration",
+				instance = loadServlet();
+			} catch (final ServletException e) {
+				LOG.warn(
+						"Caucht exception while loading Servlet with classloader {}",
 						e);
+				instance = null;
+			} finally {
+				ContextClassLoaderSwitch.restore(previous);
 			}
 
 			if (!instanceInitialized) {
@@ -194,6 +181,11 @@ class TomcatServerWrapper implements ServerWrapper {
 	private static final String WEB_CONTEXT_PATH = "Web-ContextPath";
 	private final EmbeddedTomcat server;
 	private final Map<HttpContext, Context> contextMap = new ConcurrentHashMap<HttpContext, Context>();
+	/**
+	 * Lifecycle listeners adding event listeners again on context start, by
+	 * model, so they can be removed with the event listener.
+	 */
+	private final Map<EventListenerModel, LifecycleListener> lifecycleListeners = new ConcurrentHashMap<EventListenerModel, LifecycleListener>();
 
 	private ServiceRegistration<ServletContext> servletContextService;
 
@@ -441,17 +433,25 @@ class TomcatServerWrapper implements ServerWrapper {
 		final Context context = findOrCreateContext(eventListenerModel);
 		LifecycleState state = ((HttpServiceContext) context).getState();
 		boolean restartContext = false;
-		if ((LifecycleState.STARTING.equals(state) || LifecycleState.STARTED
-				.equals(state))
-				&& !eventListenerModel.getContextModel().isWebBundle()) {
-			try {
-				restartContext = true;
-				((HttpServiceContext) context).stop();
-			} catch (LifecycleException e) {
-				LOG.warn("Can't reset the Lifecycle ... ", e);
+		if (!eventListenerModel.getContextModel().isWebBundle()) {
+			if (LifecycleState.STARTED.equals(state)) {
+				// no need to restart the context
+				((HttpServiceContext) context)
+						.addRunningEventListener(eventListenerModel
+								.getEventListener());
+			} else if (LifecycleState.STARTING.equals(state)) {
+				// too late for the listener, too early for the running context
+				try {
+					restartContext = true;
+					((HttpServiceContext) context).stop();
+				} catch (LifecycleException e) {
+					LOG.warn("Can't reset the Lifecycle ... ", e);
+				}
 			}
 		}
-		context.addLifecycleListener(new LifecycleListener() {
+		// Tomcat drops the listener objects when the context stops, so add
+		// the listener again on each start
+		LifecycleListener lifecycleListener = new LifecycleListener() {
 
 			@Override
 			public void lifecycleEvent(LifecycleEvent event) {
@@ -461,7 +461,13 @@ class TomcatServerWrapper implements ServerWrapper {
 							eventListenerModel.getEventListener());
 				}
 			}
-		});
+		};
+		context.addLifecycleListener(lifecycleListener);
+		LifecycleListener replaced = lifecycleListeners.put(
+				eventListenerModel, lifecycleListener);
+		if (replaced != null) {
+			context.removeLifecycleListener(replaced);
+		}
 
 		if (restartContext) {
 			try {
@@ -481,6 +487,11 @@ class TomcatServerWrapper implements ServerWrapper {
 				eventListenerModel.getEventListener(),
 				"eventListenerModel#weventListener");
 		final Context context = findOrCreateContext(eventListenerModel);
+		LifecycleListener lifecycleListener = lifecycleListeners
+				.remove(eventListenerModel);
+		if (lifecycleListener != null) {
+			context.removeLifecycleListener(lifecycleListener);
+		}
 		// TODO open a bug in tomcat
 		if (!removeApplicationEventListener(context,
 				eventListenerModel.getEventListener())) {
@@ -565,84 +576,166 @@ class TomcatServerWrapper implements ServerWrapper {
 
 		final Context context = findOrCreateContext(filterModel);
 		LifecycleState state = ((HttpServiceContext) context).getState();
-		boolean restartContext = false;
-		if ((LifecycleState.STARTING.equals(state) || LifecycleState.STARTED
-				.equals(state)) && !filterModel.getContextModel().isWebBundle()) {
+		if (LifecycleState.STARTED.equals(state)
+				&& !filterModel.getContextModel().isWebBundle()) {
+			// update the filter chain of the running context instead of
+			// restarting it
 			try {
-				restartContext = true;
-				((HttpServiceContext) context).stop();
-			} catch (LifecycleException e) {
-				LOG.warn("Can't reset the Lifecycle ... ", e);
+				if (((HttpServiceContext) context).addRunningFilter(
+						createFilterDef(filterModel),
+						createFilterMap(filterModel))) {
+					return;
+				}
+			} catch (ServletException e) {
+				throw new AddFilterException("cannot add filter "
+						+ filterModel + ": " + e.getMessage());
 			}
+			restartWithFilter(context, filterModel);
+			return;
+		}
+		if (LifecycleState.STARTING.equals(state)
+				&& !filterModel.getContextModel().isWebBundle()) {
+			restartWithFilter(context, filterModel);
+			return;
 		}
+		// the context keeps the filter once started, so this is needed once
 		context.addLifecycleListener(new LifecycleListener() {
 
 			@Override
 			public void lifecycleEvent(LifecycleEvent event) {
 				if (Lifecycle.BEFORE_START_EVENT.equalsIgnoreCase(event
 						.getType())) {
-					FilterRegistration.Dynamic filterRegistration = null;
-					if (filterModel.getFilter() != null) {
-						filterRegistration = context
-								.getServletContext().addFilter(
-										filterModel.getName(),
-										filterModel.getFilter());
-						
-					} else if (filterModel.getFilterClass() != null) {
-						filterRegistration = context
-								.getServletContext().addFilter(
-										filterModel.getName(),
-										filterModel.getFilterClass());
-					}
-					
-					if (filterRegistration == null) {
-						filterRegistration = (Dynamic) context
-								.getServletContext().getFilterRegistration(
-										filterModel.getName());
-						if (filterRegistration == null) {
-							LOG.error("Can't register Filter due to unknown reason!");
-						}
-					}
-					
-					filterRegistration.setAsyncSupported(filterModel.isAsyncSupported());
-
-					if (filterModel.getServletNames() != null
-							&& filterModel.getServletNames().length > 0) {
-						filterRegistration.addMappingForServletNames(
-								getDispatcherTypes(filterModel), /*
-																 * TODO get
-																 * asynch
-																 * supported?
-																 */false,
-								filterModel.getServletNames());
-					} else if (filterModel.getUrlPatterns() != null
-							&& filterModel.getUrlPatterns().length > 0) {
-						filterRegistration.addMappingForUrlPatterns(
-								getDispatcherTypes(filterModel), /*
-																 * TODO get
-																 * asynch
-																 * supported?
-																 */false,
-								filterModel.getUrlPatterns());
-					} else {
-						throw new AddFilterException(
-								"cannot add filter to the context; at least a not empty list of servlet names or URL patterns in exclusive mode must be provided: "
-										+ filterModel);
-					}
-					filterRegistration.setInitParameters(filterModel
-							.getInitParams());
+					context.removeLifecycleListener(this);
+					registerFilter(context, filterModel);
 				}
 			}
 		});
+	}
 
-		if (restartContext) {
-			try {
-				((HttpServiceContext) context).start();
-			} catch (LifecycleException e) {
-				LOG.warn("Can't reset the Lifecycle ... ", e);
+	/**
+	 * Fallback if filters can't be added to the running context.
+	 */
+	private void restartWithFilter(final Context context,
+			final FilterModel filterModel) {
+		try {
+			((HttpServiceContext) context).stop();
+		} catch (LifecycleException e) {
+			LOG.warn("Can't reset the Lifecycle ... ", e);
+		}
+		context.addLifecycleListener(new LifecycleListener() {
+
+			@Override
+			public void lifecycleEvent(LifecycleEvent event) {
+				if (Lifecycle.BEFORE_START_EVENT.equalsIgnoreCase(event
+						.getType())) {
+					context.removeLifecycleListener(this);
+					registerFilter(context, filterModel);
+				}
 			}
+		});
+		try {
+			((HttpServiceContext) context).start();
+		} catch (LifecycleException e) {
+			LOG.warn("Can't reset the Lifecycle ... ", e);
 		}
+	}
 
+	private void registerFilter(final Context context,
+			final FilterModel filterModel) {
+		FilterRegistration.Dynamic filterRegistration = null;
+		if (filterModel.getFilter() != null) {
+			filterRegistration = context
+					.getServletContext().addFilter(
+							filterModel.getName(),
+							filterModel.getFilter());
+			
+		} else if (filterModel.getFilterClass() != null) {
+			filterRegistration = context
+					.getServletContext().addFilter(
+							filterModel.getName(),
+							filterModel.getFilterClass());
+		}
+		
+		if (filterRegistration == null) {
+			filterRegistration = (Dynamic) context
+					.getServletContext().getFilterRegistration(
+							filterModel.getName());
+			if (filterRegistration == null) {
+				LOG.error("Can't register Filter due to unknown reason!");
+			}
+		}
+		
+		filterRegistration.setAsyncSupported(filterModel.isAsyncSupported());
+
+		if (filterModel.getServletNames() != null
+				&& filterModel.getServletNames().length > 0) {
+			filterRegistration.addMappingForServletNames(
+					getDispatcherTypes(filterModel), /*
+													 * TODO get
+													 * asynch
+													 * supported?
+													 */false,
+					filterModel.getServletNames());
+		} else if (filterModel.getUrlPatterns() != null
+				&& filterModel.getUrlPatterns().length > 0) {
+			filterRegistration.addMappingForUrlPatterns(
+					getDispatcherTypes(filterModel), /*
+													 * TODO get
+													 * asynch
+													 * supported?
+													 */false,
+					filterModel.getUrlPatterns());
+		} else {
+			throw new AddFilterException(
+					"cannot add filter to the context; at least a not empty list of servlet names or URL patterns in exclusive mode must be provided: "
+							+ filterModel);
+		}
+		filterRegistration.setInitParameters(filterModel
+				.getInitParams());
+	}
+
+	private static FilterDef createFilterDef(final FilterModel filterModel) {
+		final FilterDef filterDef = new FilterDef();
+		filterDef.setFilterName(filterModel.getName());
+		if (filterModel.getFilter() != null) {
+			filterDef.setFilter(filterModel.getFilter());
+			filterDef.setFilterClass(filterModel.getFilter().getClass()
+					.getName());
+		} else {
+			filterDef.setFilterClass(filterModel.getFilterClass().getName());
+		}
+		filterDef.setAsyncSupported(Boolean.toString(filterModel
+				.isAsyncSupported()));
+		for (Map.Entry<String, String> initParam : filterModel.getInitParams()
+				.entrySet()) {
+			filterDef.addInitParameter(initParam.getKey(),
+					initParam.getValue());
+		}
+		return filterDef;
+	}
+
+	private FilterMap createFilterMap(final FilterModel filterModel) {
+		final FilterMap filterMap = new FilterMap();
+		filterMap.setFilterName(filterModel.getName());
+		if (filterModel.getServletNames() != null
+				&& filterModel.getServletNames().length > 0) {
+			for (String servletName : filterModel.getServletNames()) {
+				filterMap.addServletName(servletName);
+			}
+		} else if (filterModel.getUrlPatterns() != null
+				&& filterModel.getUrlPatterns().length > 0) {
+			for (String urlPattern : filterModel.getUrlPatterns()) {
+				filterMap.addURLPattern(urlPattern);
+			}
+		} else {
+			throw new AddFilterException(
+					"cannot add filter to the context; at least a not empty list of servlet names or URL patterns in exclusive mode must be provided: "
+							+ filterModel);
+		}
+		for (DispatcherType dispatcherType : getDispatcherTypes(filterModel)) {
+			filterMap.setDispatcher(dispatcherType.name());
+		}
+		return filterMap;
 	}
 
 	private EnumSet<DispatcherType> getDispatcherTypes(
@@ -672,6 +765,9 @@ class TomcatServerWrapper implements ServerWrapper {
 				context.removeFilterMap(filterMap);
 			}
 		}
+		// no new request can reach the filter anymore
+		((HttpServiceContext) context).removeRunningFilter(filterModel
+				.getName());
 	}
 
 	@Override
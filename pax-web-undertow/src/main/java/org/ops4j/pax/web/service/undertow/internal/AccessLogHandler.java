@@ -0,0 +1,84 @@
+package org.ops4j.pax.web.service.undertow.internal;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.security.api.SecurityContext;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.ops4j.pax.web.service.spi.util.AccessLogRecord;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
+
+/**
+ * Handler handing completed exchanges over to the shared
+ * {@link AccessLogWriter}, so nothing is formatted or written on the I/O or
+ * worker threads.
+ */
+class AccessLogHandler implements HttpHandler {
+
+    private final HttpHandler next;
+    private final AccessLogWriter writer;
+
+    private final ExchangeCompletionListener listener = new ExchangeCompletionListener() {
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                log(exchange);
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    };
+
+    AccessLogHandler(HttpHandler next, AccessLogWriter writer) {
+        this.next = next;
+        this.writer = writer;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        exchange.addExchangeCompleteListener(listener);
+        next.handleRequest(exchange);
+    }
+
+    private void log(HttpServerExchange exchange) {
+        AccessLogRecord record = writer.claim();
+        if (record == null) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            long start = exchange.getRequestStartTime();
+            long latency = start > 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) : -1L;
+            record.setTimestamp(latency >= 0 ? now - latency : now);
+            record.setLatency(latency);
+            if (writer.isLogServer()) {
+                record.setServerName(exchange.getHostName());
+            }
+            InetSocketAddress source = exchange.getSourceAddress();
+            if (source != null && source.getAddress() != null) {
+                record.setRemoteAddress(source.getAddress().getHostAddress());
+            }
+            SecurityContext securityContext = exchange.getSecurityContext();
+            if (securityContext != null && securityContext.isAuthenticated()) {
+                record.setUser(securityContext.getAuthenticatedAccount().getPrincipal().getName());
+            }
+            record.setMethod(exchange.getRequestMethod().toString());
+            record.setUri(exchange.getRequestURI());
+            record.setQuery(exchange.getQueryString());
+            record.setProtocol(exchange.getProtocol().toString());
+            record.setStatus(exchange.getResponseCode());
+            record.setBytes(exchange.getResponseBytesSent());
+            record.setReferer(exchange.getRequestHeaders().getFirst(Headers.REFERER));
+            record.setUserAgent(exchange.getRequestHeaders().getFirst(Headers.USER_AGENT));
+            if (writer.isLogCookies()) {
+                record.setCookies(exchange.getRequestHeaders().getFirst(Headers.COOKIE));
+            }
+        } finally {
+            writer.publish(record);
+        }
+    }
+
+}
@@ -33,6 +33,7 @@ import io.undertow.servlet.api.FilterInfo;
 import io.undertow.servlet.api.InstanceFactory;
 import io.undertow.servlet.api.ListenerInfo;
 import io.undertow.servlet.api.LoginConfig;
+import io.undertow.servlet.api.MimeMapping;
 import io.undertow.servlet.api.SecurityConstraint;
 import io.undertow.servlet.api.ServletContainer;
 import io.undertow.servlet.api.ServletContainerInitializerInfo;
@@ -58,6 +59,9 @@ import org.ops4j.pax.web.service.spi.model.ResourceModel;
 import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SharedSessionStore;
+import org.ops4j.pax.web.service.spi.util.MimeTypeTable;
 import org.ops4j.pax.web.service.spi.util.ResourceDelegatingBundleClassLoader;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -82,14 +86,17 @@ public class Context implements LifeCycle, HttpHandler, ResourceManager {
     private final ServletContainer container = ServletContainer.Factory.newInstance();
     private final AtomicBoolean started = new AtomicBoolean();
     private final ClassLoader classLoader;
+    private final SessionStore sessionStore;
     private volatile HttpHandler handler;
     
     private DeploymentManager manager;
 
-    public Context(IdentityManager identityManager, PathHandler path, ContextModel contextModel) {
+    public Context(IdentityManager identityManager, PathHandler path, ContextModel contextModel,
+                   SessionStore sessionStore) {
         this.identityManager = identityManager;
         this.path = path;
         this.contextModel = contextModel;
+        this.sessionStore = sessionStore;
 
         ClassLoader classLoader = contextModel.getClassLoader();
         List<Bundle> bundles = ((ResourceDelegatingBundleClassLoader)classLoader).getBundles();
@@ -198,6 +205,13 @@ public class Context implements LifeCycle, HttpHandler, ResourceManager {
             manager.undeploy();
             manager = null;
             handler = null;
+            if (sessionStore instanceof SharedSessionStore) {
+                try {
+                    sessionStore.close();
+                } catch (IOException e) {
+                    throw new ServletException("Unable to flush the shared sessions", e);
+                }
+            }
         }
     }
 
@@ -207,6 +221,20 @@ public class Context implements LifeCycle, HttpHandler, ResourceManager {
         deployment.setDeploymentName(contextModel.getContextName());
         deployment.setContextPath("");
         deployment.setClassLoader(classLoader);
+        SharedSessionHandler sharedSessionHandler = null;
+        if (sessionStore instanceof SharedSessionStore) {
+            sharedSessionHandler = new SharedSessionHandler((SharedSessionStore) sessionStore, classLoader);
+            deployment.addInnerHandlerChainWrapper(sharedSessionHandler);
+        } else if (sessionStore != null) {
+            deployment.setSessionPersistenceManager(new StoreSessionPersistenceManager(sessionStore));
+        }
+        // same defaults as the other web containers, for the extensions
+        // Undertow doesn't know itself
+        for (Map.Entry<String, String> mimeType : MimeTypeTable.getDefault().getMappings().entrySet()) {
+            if (MimeMappings.DEFAULT.getMimeType(mimeType.getKey()) == null) {
+                deployment.addMimeMapping(new MimeMapping(mimeType.getKey(), mimeType.getValue()));
+            }
+        }
         BundleContext bundleContext = contextModel.getBundle().getBundleContext();
         if (bundleContext != null) {
             deployment.addServletContextAttribute(WebContainerConstants.BUNDLE_CONTEXT_ATTRIBUTE, bundleContext);
@@ -375,6 +403,9 @@ public class Context implements LifeCycle, HttpHandler, ResourceManager {
 
         manager = container.addDeployment(deployment);
         manager.deploy();
+        if (sharedSessionHandler != null) {
+            manager.getDeployment().getSessionManager().registerSessionListener(sharedSessionHandler);
+        }
         handler = manager.start();
     }
 
@@ -25,6 +25,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.security.idm.IdentityManager;
 import io.undertow.server.handlers.PathHandler;
 import org.ops4j.lang.NullArgumentException;
@@ -41,6 +42,9 @@ import org.ops4j.pax.web.service.spi.model.FilterModel;
 import org.ops4j.pax.web.service.spi.model.SecurityConstraintMappingModel;
 import org.ops4j.pax.web.service.spi.model.ServletModel;
 import org.ops4j.pax.web.service.spi.model.WelcomeFileModel;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.ops4j.pax.web.service.spi.session.SessionStores;
+import org.ops4j.pax.web.service.spi.util.AccessLogWriter;
 import org.osgi.service.http.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +67,7 @@ public class ServerControllerImpl implements ServerController {
     private IdentityManager identityManager;
     private final PathHandler path = Handlers.path();
     private Undertow server;
+    private AccessLogWriter accessLogWriter;
 
     private final ConcurrentMap<HttpContext, Context> contextMap = new ConcurrentHashMap<>();
 
@@ -243,7 +248,14 @@ public class ServerControllerImpl implements ServerController {
                 }
             }
         }
-        builder.setHandler(path);
+        if (Boolean.TRUE.equals(configuration.isLogNCSAFormatEnabled())) {
+            accessLogWriter = AccessLogWriter.create(configuration);
+            accessLogWriter.start();
+            builder.setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true);
+            builder.setHandler(new AccessLogHandler(path, accessLogWriter));
+        } else {
+            builder.setHandler(path);
+        }
         server = builder.build();
         server.start();
     }
@@ -295,6 +307,10 @@ public class ServerControllerImpl implements ServerController {
 
     void doStop() {
         server.stop();
+        if (accessLogWriter != null) {
+            accessLogWriter.stop();
+            accessLogWriter = null;
+        }
     }
 
     @Override
@@ -304,8 +320,9 @@ public class ServerControllerImpl implements ServerController {
     }
 
     @Override
-    public synchronized void removeContext(HttpContext httpContext) {
+    public synchronized void removeContext(ContextModel contextModel) {
         assertNotState(State.Unconfigured);
+        final HttpContext httpContext = contextModel.getHttpContext();
         final Context context = contextMap.remove(httpContext);
         if (context == null) {
             throw new IllegalStateException("Cannot remove the context because it does not exist: " + httpContext);
@@ -313,6 +330,20 @@ public class ServerControllerImpl implements ServerController {
         context.destroy();
     }
 
+    /**
+     * Contexts are mapped by their path, so two of them can't serve the same path.
+     */
+    @Override
+    public boolean isStandbySupported() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitIdle(HttpContext httpContext, long timeout) {
+        // contexts are never deployed side by side
+        return true;
+    }
+
     private void assertState(State state) {
         if (this.state != state) {
             throw new IllegalStateException("State is " + this.state + " but should be " + state);
@@ -333,8 +364,14 @@ public class ServerControllerImpl implements ServerController {
 
     private Context findOrCreateContext(final ContextModel contextModel) {
         NullArgumentException.validateNotNull(contextModel, "contextModel");
-        Context newCtx = new Context(identityManager, path, contextModel);
-        Context oldCtx = contextMap.putIfAbsent(contextModel.getHttpContext(), newCtx);
+        Context oldCtx = contextMap.get(contextModel.getHttpContext());
+        if (oldCtx != null) {
+            return oldCtx;
+        }
+        SessionStore sessionStore = SessionStores.create(configuration.getSessionStoreDirectory(),
+                contextModel.getContextName());
+        Context newCtx = new Context(identityManager, path, contextModel, sessionStore);
+        oldCtx = contextMap.putIfAbsent(contextModel.getHttpContext(), newCtx);
         return oldCtx != null ? oldCtx : newCtx;
     }
 
@@ -0,0 +1,189 @@
+package org.ops4j.pax.web.service.undertow.internal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.server.HandlerWrapper;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.session.Session;
+import io.undertow.server.session.SessionConfig;
+import io.undertow.server.session.SessionListener;
+import io.undertow.server.session.SessionManager;
+import io.undertow.servlet.handlers.ServletRequestContext;
+import io.undertow.servlet.spec.HttpSessionImpl;
+import io.undertow.servlet.spec.ServletContextImpl;
+import org.ops4j.pax.web.service.spi.session.SessionData;
+import org.ops4j.pax.web.service.spi.session.SharedSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the sessions of a deployment in a {@link SharedSessionStore}. Sessions
+ * are restored on their first access and reloaded when another node modified
+ * them. The attributes a request set or removed are found by comparing the
+ * session with its state when the request started.
+ */
+class SharedSessionHandler implements HandlerWrapper, SessionListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedSessionHandler.class);
+
+    private final SharedSessionStore store;
+    private final ClassLoader classLoader;
+
+    SharedSessionHandler(SharedSessionStore store, ClassLoader classLoader) {
+        this.store = store;
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public HttpHandler wrap(final HttpHandler handler) {
+        return new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                ServletRequestContext src = exchange.getAttachment(ServletRequestContext.ATTACHMENT_KEY);
+                ServletContextImpl servletContext = src.getCurrentServletContext();
+                SessionManager sessionManager = servletContext.getDeployment().getSessionManager();
+                SessionConfig sessionConfig = servletContext.getSessionConfig();
+
+                Session session = null;
+                String id = sessionConfig.findSessionId(exchange);
+                if (id != null) {
+                    session = sessionManager.getSession(id);
+                    if (session == null) {
+                        session = restore(exchange, servletContext, id);
+                    } else if (store.isModifiedElsewhere(id)) {
+                        session = refresh(exchange, session);
+                    }
+                }
+                Map<String, Object> snapshot = snapshot(session);
+                try {
+                    handler.handleRequest(exchange);
+                } finally {
+                    id = sessionConfig.findSessionId(exchange);
+                    Session current = id == null ? null : sessionManager.getSession(id);
+                    if (current != null) {
+                        completed(current, current == session ? snapshot : new HashMap<String, Object>());
+                    }
+                }
+            }
+        };
+    }
+
+    private Session restore(HttpServerExchange exchange, ServletContextImpl servletContext, String id) {
+        SessionData data = load(id);
+        if (data == null) {
+            return null;
+        }
+        // the session manager reuses the requested id
+        HttpSessionImpl httpSession = servletContext.getSession(exchange, true);
+        Session session = httpSession.getSession();
+        for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+            if (attribute.getValue() != null) {
+                session.setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        session.setMaxInactiveInterval(data.getMaxInactiveInterval());
+        return session;
+    }
+
+    private Session refresh(HttpServerExchange exchange, Session session) {
+        SessionData data = load(session.getId());
+        if (data == null) {
+            session.invalidate(exchange);
+            return null;
+        }
+        for (String name : session.getAttributeNames().toArray(new String[0])) {
+            if (!data.getAttributes().containsKey(name)) {
+                session.removeAttribute(name);
+            }
+        }
+        for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+            if (attribute.getValue() != null) {
+                session.setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        session.setMaxInactiveInterval(data.getMaxInactiveInterval());
+        return session;
+    }
+
+    private SessionData load(String id) {
+        try {
+            return store.load(id, classLoader);
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.warn("Problem restoring session " + id, e);
+            return null;
+        }
+    }
+
+    private void completed(Session session, Map<String, Object> snapshot) {
+        try {
+            for (String name : session.getAttributeNames()) {
+                Object value = session.getAttribute(name);
+                if (snapshot.remove(name) != value) {
+                    store.attributeChanged(session.getId(), name, value);
+                }
+            }
+            for (String name : snapshot.keySet()) {
+                store.attributeRemoved(session.getId(), name);
+            }
+            store.accessed(session.getId(), session.getCreationTime(), session.getLastAccessedTime(),
+                    session.getMaxInactiveInterval());
+        } catch (IllegalStateException e) {
+            // invalidated meanwhile
+        }
+    }
+
+    private static Map<String, Object> snapshot(Session session) {
+        Map<String, Object> snapshot = new HashMap<>();
+        if (session != null) {
+            for (String name : session.getAttributeNames()) {
+                snapshot.put(name, session.getAttribute(name));
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void sessionCreated(Session session, HttpServerExchange exchange) {
+    }
+
+    @Override
+    public void sessionDestroyed(Session session, HttpServerExchange exchange, SessionDestroyedReason reason) {
+        if (reason == SessionDestroyedReason.UNDEPLOY
+                || (reason == SessionDestroyedReason.TIMEOUT && store.isModifiedElsewhere(session.getId()))) {
+            // still in use by other nodes
+            return;
+        }
+        try {
+            store.remove(session.getId());
+        } catch (IOException e) {
+            LOG.warn("Problem removing session " + session.getId(), e);
+        }
+    }
+
+    @Override
+    public void attributeAdded(Session session, String name, Object value) {
+    }
+
+    @Override
+    public void attributeUpdated(Session session, String name, Object newValue, Object oldValue) {
+    }
+
+    @Override
+    public void attributeRemoved(Session session, String name, Object oldValue) {
+    }
+
+    @Override
+    public void sessionIdChanged(Session session, String oldSessionId) {
+        Map<String, Object> attributes = snapshot(session);
+        try {
+            store.sessionIdChanged(oldSessionId, new SessionData(session.getId(), session.getCreationTime(),
+                    session.getLastAccessedTime(), session.getMaxInactiveInterval(), attributes));
+        } catch (IOException e) {
+            LOG.warn("Problem changing the id of session " + oldSessionId, e);
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.ops4j.pax.web.service.undertow.internal;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.undertow.servlet.api.SessionPersistenceManager;
+import org.ops4j.pax.web.service.spi.session.SessionData;
+import org.ops4j.pax.web.service.spi.session.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session persistence keeping the sessions of one deployment in a
+ * {@link SessionStore} across restarts. Undertow only hands over the
+ * expiration of a session, which is kept as the time left since the save.
+ * <p>
+ * Undertow restores all sessions on start, lazy loading is not supported, and
+ * gives restored sessions a new creation time. The creation time recorded in
+ * the store is kept though, so it survives further restarts.
+ */
+class StoreSessionPersistenceManager implements SessionPersistenceManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoreSessionPersistenceManager.class);
+
+    private final SessionStore store;
+
+    /**
+     * Creation times of the sessions restored from the store.
+     */
+    private final Map<String, Long> creationTimes = new ConcurrentHashMap<>();
+
+    StoreSessionPersistenceManager(SessionStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void persistSessions(String deploymentName, Map<String, PersistentSession> sessionData) {
+        long now = System.currentTimeMillis();
+        try {
+            // the sessions invalidated since the start must not come back
+            store.clear();
+            for (Map.Entry<String, PersistentSession> entry : sessionData.entrySet()) {
+                PersistentSession session = entry.getValue();
+                int maxInactiveInterval = (int) Math.max(0L, (session.getExpiration().getTime() - now) / 1000L);
+                try {
+                    Long creationTime = creationTimes.get(entry.getKey());
+                    store.save(new SessionData(entry.getKey(), creationTime == null ? now : creationTime, now,
+                            maxInactiveInterval, session.getSessionData()));
+                } catch (IOException e) {
+                    LOG.warn("Problem saving session " + entry.getKey() + " of " + deploymentName, e);
+                }
+            }
+            store.close();
+        } catch (IOException e) {
+            LOG.warn("Problem saving sessions of " + deploymentName, e);
+        } finally {
+            creationTimes.clear();
+        }
+    }
+
+    @Override
+    public Map<String, PersistentSession> loadSessionAttributes(String deploymentName, ClassLoader classLoader) {
+        Map<String, PersistentSession> sessions = new HashMap<>();
+        try {
+            for (String id : store.getSessionIds()) {
+                try {
+                    SessionData data = store.load(id, classLoader);
+                    if (data == null || data.isExpired(System.currentTimeMillis())) {
+                        continue;
+                    }
+                    Map<String, Object> attributes = new HashMap<>();
+                    for (Map.Entry<String, Object> attribute : data.getAttributes().entrySet()) {
+                        if (attribute.getValue() != null) {
+                            attributes.put(attribute.getKey(), attribute.getValue());
+                        }
+                    }
+                    Date expiration = new Date(data.getLastAccessedTime() + data.getMaxInactiveInterval() * 1000L);
+                    sessions.put(id, new PersistentSession(expiration, attributes));
+                    creationTimes.put(id, data.getCreationTime());
+                } catch (IOException | ClassNotFoundException e) {
+                    LOG.warn("Problem restoring session " + id + " of " + deploymentName, e);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Problem restoring sessions of " + deploymentName, e);
+        }
+        return sessions;
+    }
+
+    @Override
+    public void clear(String deploymentName) {
+        try {
+            store.clear();
+        } catch (IOException e) {
+            LOG.warn("Problem clearing sessions of " + deploymentName, e);
+        }
+    }
+
+}